@@ -0,0 +1,61 @@
+package at.jku.ins.uwb_default_values;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.AdvertiseCallback;
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.os.ParcelUuid;
+
+import at.jku.ins.uwb_default_values.ble.BleAdvertiser;
+
+/**
+ * {@link BleAdvertiser} on the platform advertiser. The outcome of each start is reported to the
+ * given callback.
+ */
+class AndroidBleAdvertiser implements BleAdvertiser {
+
+    private final BluetoothAdapter bluetoothAdapter;
+    private final ParcelUuid serviceUuid;
+    private final AdvertiseCallback advertiseCallback;
+    private BluetoothLeAdvertiser activeAdvertiser;
+
+    AndroidBleAdvertiser(BluetoothAdapter bluetoothAdapter, ParcelUuid serviceUuid, AdvertiseCallback advertiseCallback) {
+        this.bluetoothAdapter = bluetoothAdapter;
+        this.serviceUuid = serviceUuid;
+        this.advertiseCallback = advertiseCallback;
+    }
+
+    @Override
+    public void start(byte[] serviceData) {
+        stop();
+        BluetoothLeAdvertiser advertiser = bluetoothAdapter != null ? bluetoothAdapter.getBluetoothLeAdvertiser() : null;
+        if (advertiser == null) {
+            advertiseCallback.onStartFailure(AdvertiseCallback.ADVERTISE_FAILED_FEATURE_UNSUPPORTED);
+            return;
+        }
+        AdvertiseSettings settings = new AdvertiseSettings.Builder()
+                .setAdvertiseMode(AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY)
+                .setTxPowerLevel(AdvertiseSettings.ADVERTISE_TX_POWER_HIGH)
+                .setConnectable(false)
+                .build();
+
+        // The device name is left out, it would not fit into a legacy advert next to the UWB payload
+        AdvertiseData data = new AdvertiseData.Builder()
+                .setIncludeDeviceName(false)
+                .addServiceUuid(serviceUuid)
+                .addServiceData(serviceUuid, serviceData)
+                .build();
+
+        advertiser.startAdvertising(settings, data, advertiseCallback);
+        activeAdvertiser = advertiser;
+    }
+
+    @Override
+    public void stop() {
+        if (activeAdvertiser != null) {
+            activeAdvertiser.stopAdvertising(advertiseCallback);
+            activeAdvertiser = null;
+        }
+    }
+}
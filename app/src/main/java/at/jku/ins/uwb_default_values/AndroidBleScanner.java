@@ -0,0 +1,55 @@
+package at.jku.ins.uwb_default_values;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanSettings;
+import android.os.ParcelUuid;
+
+import java.util.Collections;
+import java.util.List;
+
+import at.jku.ins.uwb_default_values.ble.BleScanner;
+
+/**
+ * {@link BleScanner} on the platform scanner. Only adverts with the UWB service UUID are reported,
+ * filtered in the Bluetooth controller, and results are batched in hardware where that is supported.
+ */
+class AndroidBleScanner implements BleScanner {
+
+    private final BluetoothAdapter bluetoothAdapter;
+    private final ScanCallback scanCallback;
+    private final List<ScanFilter> scanFilters;
+    private BluetoothLeScanner activeScanner;
+
+    AndroidBleScanner(BluetoothAdapter bluetoothAdapter, ParcelUuid serviceUuid, ScanCallback scanCallback) {
+        this.bluetoothAdapter = bluetoothAdapter;
+        this.scanCallback = scanCallback;
+        scanFilters = Collections.singletonList(new ScanFilter.Builder().setServiceUuid(serviceUuid).build());
+    }
+
+    @Override
+    public void start(boolean lowLatency, long reportDelayMillis) {
+        stop();
+        BluetoothLeScanner scanner = bluetoothAdapter != null ? bluetoothAdapter.getBluetoothLeScanner() : null;
+        if (scanner == null) {
+            return; // No Bluetooth or it is off
+        }
+        ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(lowLatency ? ScanSettings.SCAN_MODE_LOW_LATENCY : ScanSettings.SCAN_MODE_LOW_POWER)
+                .setReportDelay(bluetoothAdapter.isOffloadedScanBatchingSupported() ? reportDelayMillis : 0)
+                .build();
+        scanner.startScan(scanFilters, settings, scanCallback);
+        activeScanner = scanner;
+    }
+
+    @Override
+    public void stop() {
+        if (activeScanner != null) {
+            activeScanner.flushPendingScanResults(scanCallback);
+            activeScanner.stopScan(scanCallback);
+            activeScanner = null;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package at.jku.ins.uwb_default_values;
+
+import androidx.core.uwb.RangingCapabilities;
+import androidx.core.uwb.UwbClientSessionScope;
+import androidx.core.uwb.UwbComplexChannel;
+import androidx.core.uwb.UwbControllerSessionScope;
+
+import at.jku.ins.uwb_default_values.ranging.RangingSession;
+import at.jku.ins.uwb_default_values.ranging.UwbEndpoint;
+import at.jku.ins.uwb_default_values.telemetry.RangingTelemetry;
+
+/**
+ * {@link UwbEndpoint} on a {@link UwbClientSessionScope} of the platform UWB stack.
+ */
+class AndroidUwbEndpoint implements UwbEndpoint {
+
+    // The platform does not report how many controlees a controller serves; FiRa multicast sessions
+    // commonly handle this many
+    private static final int MAX_CONTROLEES = 8;
+
+    private final UwbClientSessionScope sessionScope;
+    private final RangingCapabilities capabilities;
+    private final RangingTelemetry telemetry;
+
+    /** @param telemetry counts the results the sessions ignore */
+    AndroidUwbEndpoint(UwbClientSessionScope sessionScope, RangingTelemetry telemetry) {
+        this.sessionScope = sessionScope;
+        this.telemetry = telemetry;
+        capabilities = sessionScope.getRangingCapabilities();
+    }
+
+    @Override
+    public boolean isController() {
+        return sessionScope instanceof UwbControllerSessionScope;
+    }
+
+    @Override
+    public int localAddress() {
+        return UwbRangingSession.toPeer(sessionScope.getLocalAddress());
+    }
+
+    @Override
+    public int channel() {
+        return isController() ? ((UwbControllerSessionScope) sessionScope).getUwbComplexChannel().getChannel() : 0;
+    }
+
+    @Override
+    public int preambleIndex() {
+        return isController() ? ((UwbControllerSessionScope) sessionScope).getUwbComplexChannel().getPreambleIndex() : 0;
+    }
+
+    @Override
+    public boolean supportsDistance() {
+        return capabilities.isDistanceSupported();
+    }
+
+    @Override
+    public boolean supportsAzimuth() {
+        return capabilities.isAzimuthalAngleSupported();
+    }
+
+    @Override
+    public boolean supportsElevation() {
+        return capabilities.isElevationAngleSupported();
+    }
+
+    @Override
+    public int maxPeers() {
+        return isController() ? MAX_CONTROLEES : 1;
+    }
+
+    @Override
+    public RangingSession openSession(int channel, int preambleIndex, int sessionId, byte[] sessionKey, int updateRate) {
+        return new UwbRangingSession(sessionScope, new UwbComplexChannel(channel, preambleIndex), sessionId, sessionKey,
+                updateRate, telemetry);
+    }
+}
@@ -2,26 +2,17 @@ package at.jku.ins.uwb_default_values;
 
 import android.Manifest;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.le.AdvertiseCallback;
-import android.bluetooth.le.AdvertiseData;
-import android.bluetooth.le.AdvertiseSettings;
-import android.bluetooth.le.BluetoothLeAdvertiser;
-import android.bluetooth.le.BluetoothLeScanner;
-import android.bluetooth.le.ScanCallback;
-import android.bluetooth.le.ScanResult;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.ParcelUuid;
-import android.widget.ArrayAdapter;
+import android.os.IBinder;
 import android.widget.Button;
 import android.widget.EditText;
-import android.widget.ListView;
 import android.widget.Switch;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -30,62 +21,45 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
-import androidx.core.content.ContextCompat;
-import androidx.core.uwb.RangingParameters;
-import androidx.core.uwb.RangingResult;
-import androidx.core.uwb.UwbAddress;
-import androidx.core.uwb.UwbClientSessionScope;
-import androidx.core.uwb.UwbComplexChannel;
-import androidx.core.uwb.UwbControleeSessionScope;
-import androidx.core.uwb.UwbControllerSessionScope;
-import androidx.core.uwb.UwbDevice;
-import androidx.core.uwb.UwbManager;
-import androidx.core.uwb.rxjava3.UwbClientSessionScopeRx;
-import androidx.core.uwb.rxjava3.UwbManagerRx;
-
-import com.google.common.primitives.Shorts;
-
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.UUID;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.recyclerview.widget.SimpleItemAnimator;
+
+import at.jku.ins.uwb_default_values.ble.DiscoveryTable;
+import at.jku.ins.uwb_default_values.dashboard.PeerDashboard;
+import at.jku.ins.uwb_default_values.engine.RangingEngine;
+import at.jku.ins.uwb_default_values.ranging.UwbEndpoint;
 
-import io.reactivex.rxjava3.disposables.Disposable;
+import java.util.ArrayList;
 
+/**
+ * Controls and shows the ranging of {@link RangingService}, which keeps running when this activity is
+ * recreated or in the background.
+ */
 public class MainActivity extends AppCompatActivity {
 
     private static final int REQUEST_PERMISSIONS = 1;
     private static final int REQUEST_ENABLE_BT = 2;
-    private static final long SCAN_PERIOD = 10000;
-    private static final UUID UWB_SERVICE_UUID = UUID.fromString("0000181C-0000-1000-8000-00805f9b34fb");
 
     private Button stopRangingButton;
     private Button communicateButton;
     private Button startScanButton;
-    private Button startAdvertiseButton;
-    private AtomicReference<Disposable> rangingResultObservable;
     private TextView distanceDisplay;
     private TextView elevationDisplay;
     private TextView azimuthDisplay;
-    private UwbManager uwbManager;
-    private AtomicReference<UwbClientSessionScope> currentUwbSessionScope;
+    private RangingDisplay rangingDisplay;
+    private TextView positionDisplay;
     private Switch isControllerSwitch;
-    private ListView deviceListView;
+    private Switch autoRoleSwitch;
+    private RecyclerView peerDashboardView;
 
     private Button toggleAdvertiseButton;
-    private boolean isAdvertising = false;
-    private ArrayAdapter<String> deviceListAdapter;
-    private ArrayList<BluetoothDevice> bluetoothDevices;
-    private boolean isController;
-    private UwbAddress localUwbAddress;
-    private UwbComplexChannel localUwbChannel;
+    private PeerDashboardAdapter peerDashboardAdapter;
+    private PeerDashboardDisplay peerDashboardDisplay;
+    private final PeerDashboard peerDashboard =
+            new PeerDashboard(RangingEngine.MAX_DISCOVERED_DEVICES + RangingEngine.MAX_RANGING_PEERS, PeerDashboard.DEFAULT_STALE_NANOS);
     private BluetoothAdapter bluetoothAdapter;
-    private BluetoothLeScanner bluetoothLeScanner;
-    private BluetoothLeAdvertiser bluetoothLeAdvertiser;
-    private Handler handler;
-    private boolean isScanning = false;
+    private RangingService service;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -96,31 +70,64 @@ public class MainActivity extends AppCompatActivity {
 
         BluetoothManager bluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
         bluetoothAdapter = bluetoothManager.getAdapter();
-        if (bluetoothAdapter != null) {
-            bluetoothLeScanner = bluetoothAdapter.getBluetoothLeScanner();
-            bluetoothLeAdvertiser = bluetoothAdapter.getBluetoothLeAdvertiser();
-        }
-        handler = new Handler();
-
-        uwbManager = UwbManager.createInstance(this);
-        rangingResultObservable = new AtomicReference<>(null);
-        currentUwbSessionScope = new AtomicReference<>(null);
 
         initializeUIComponents();
 
-        bluetoothDevices = new ArrayList<>();
-        deviceListAdapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1);
-        deviceListView.setAdapter(deviceListAdapter);
-
-        toggleAdvertiseButton = findViewById(R.id.start_advertise_button);
-        toggleAdvertiseButton.setOnClickListener(v -> toggleBleAdvertising());
+        peerDashboardAdapter = new PeerDashboardAdapter();
+        peerDashboardView.setLayoutManager(new LinearLayoutManager(this));
+        peerDashboardView.setHasFixedSize(true);
+        // Live values are rebound in place, without a cross-fade per sample
+        ((SimpleItemAnimator) peerDashboardView.getItemAnimator()).setSupportsChangeAnimations(false);
+        peerDashboardView.setAdapter(peerDashboardAdapter);
 
         setupButtonListeners();
+        setControlsEnabled(false);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(new Intent(this, RangingService.class), serviceConnection, Context.BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        detachService();
+        unbindService(serviceConnection);
+    }
 
-        isController = isControllerSwitch.isChecked();
-       // refreshUwbSession();
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            service = ((RangingService.LocalBinder) binder).getService();
+            RangingEngine engine = service.engine();
+            rangingDisplay = new RangingDisplay(engine.samples(), distanceDisplay, azimuthDisplay, elevationDisplay);
+            rangingDisplay.showPositions(engine.solver(), positionDisplay);
+            // The service reports every current device again when the client is added
+            peerDashboard.clear();
+            service.addClient(serviceClient);
+            peerDashboardDisplay = new PeerDashboardDisplay(engine.samples(), peerDashboard, peerDashboardAdapter);
+            peerDashboardDisplay.start();
+            setControlsEnabled(true);
+            showState();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            detachService();
+        }
+    };
 
-        new Thread(this::refreshUwbSession).start();
+    private void detachService() {
+        if (service == null) {
+            return;
+        }
+        service.removeClient(serviceClient);
+        service = null;
+        rangingDisplay.stop();
+        peerDashboardDisplay.stop();
+        setControlsEnabled(false);
     }
 
     private void requestPermissions() {
@@ -134,6 +141,10 @@ public class MainActivity extends AppCompatActivity {
             permissionList.add(Manifest.permission.BLUETOOTH_ADVERTISE);
             permissionList.add(Manifest.permission.BLUETOOTH_CONNECT);
         }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            // For the notification of the ranging service
+            permissionList.add(Manifest.permission.POST_NOTIFICATIONS);
+        }
 
         String[] permissions = permissionList.toArray(new String[0]);
         ActivityCompat.requestPermissions(this, permissions, REQUEST_PERMISSIONS);
@@ -143,80 +154,88 @@ public class MainActivity extends AppCompatActivity {
         stopRangingButton = findViewById(R.id.stop_ranging_button);
         communicateButton = findViewById(R.id.communicate_button);
         startScanButton = findViewById(R.id.start_scan_button);
-        startAdvertiseButton = findViewById(R.id.start_advertise_button);
+        toggleAdvertiseButton = findViewById(R.id.start_advertise_button);
         isControllerSwitch = findViewById(R.id.is_controller);
+        autoRoleSwitch = findViewById(R.id.auto_role);
         distanceDisplay = findViewById(R.id.distance_display);
         elevationDisplay = findViewById(R.id.elevation_display);
         azimuthDisplay = findViewById(R.id.azimuth_display);
-        deviceListView = findViewById(R.id.device_list_view);
+        positionDisplay = findViewById(R.id.position_display);
+        peerDashboardView = findViewById(R.id.peer_dashboard);
 
         stopRangingButton.setEnabled(false);
     }
 
     private void setupButtonListeners() {
-        isControllerSwitch.setOnClickListener(v -> {
-            stopRanging();
-            refreshUwbSession();
-        });
+        isControllerSwitch.setOnClickListener(v -> service.setController(isControllerSwitch.isChecked()));
+
+        autoRoleSwitch.setOnClickListener(v -> service.setAutoRole(autoRoleSwitch.isChecked()));
 
         findViewById(R.id.get_values_button).setOnClickListener(this::displayUwbValues);
 
         communicateButton.setOnClickListener(v -> startUwbRanging());
 
-        stopRangingButton.setOnClickListener(v -> {
-            stopRanging();
-            refreshUwbSession();
-        });
+        stopRangingButton.setOnClickListener(v -> service.stopRanging());
+
+        startScanButton.setOnClickListener(v -> service.toggleScan());
 
-        startScanButton.setOnClickListener(v -> startBleScan());
+        toggleAdvertiseButton.setOnClickListener(v -> service.toggleAdvertising());
+    }
 
-        startAdvertiseButton.setOnClickListener(v -> startBleAdvertising());
+    private void setControlsEnabled(boolean enabled) {
+        isControllerSwitch.setEnabled(enabled);
+        autoRoleSwitch.setEnabled(enabled);
+        findViewById(R.id.get_values_button).setEnabled(enabled);
+        communicateButton.setEnabled(enabled);
+        stopRangingButton.setEnabled(enabled);
+        startScanButton.setEnabled(enabled);
+        toggleAdvertiseButton.setEnabled(enabled);
     }
 
-    private void refreshUwbSession() {
-        isController = isControllerSwitch.isChecked();
-        if (isController) {
-            UwbControllerSessionScope controllerScope = UwbManagerRx.controllerSessionScopeSingle(uwbManager).blockingGet();
-            currentUwbSessionScope.set(controllerScope);
-            localUwbAddress = controllerScope.getLocalAddress();
-            localUwbChannel = controllerScope.getUwbComplexChannel();
+    // Mirrors the service's state, which may have changed while this activity was away
+    private void showState() {
+        RangingEngine engine = service.engine();
+        boolean ranging = engine.manager().isRanging();
+        isControllerSwitch.setChecked(engine.isController());
+        isControllerSwitch.setEnabled(!engine.isAutoRole());
+        autoRoleSwitch.setChecked(engine.isAutoRole());
+        stopRangingButton.setEnabled(ranging);
+        communicateButton.setEnabled(!ranging);
+        startScanButton.setText(engine.isScanning() ? "Stop Scan" : "Start Scan");
+        toggleAdvertiseButton.setText(service.isAdvertising() ? "Stop Advertising" : "Start Advertising");
+        if (ranging) {
+            rangingDisplay.start();
         } else {
-            UwbControleeSessionScope controleeScope = UwbManagerRx.controleeSessionScopeSingle(uwbManager).blockingGet();
-            currentUwbSessionScope.set(controleeScope);
-            localUwbAddress = controleeScope.getLocalAddress();
-            // Note: Controlees don't have channel information initially
+            rangingDisplay.stop();
+            resetDisplays();
         }
-        runOnUiThread(() -> {
-            displayUwbValues(null);
-          //  updateBleAdvertising();
-        });
     }
 
     private void displayUwbValues(android.view.View view) {
-        if (isControllerSwitch.isChecked()) {
-            UwbControllerSessionScope controllerSessionScope = (UwbControllerSessionScope) currentUwbSessionScope.get();
-            String message = "Your Address is: " + Shorts.fromByteArray(controllerSessionScope.getLocalAddress().getAddress()) +
-                    "\nuwbComplexChannel channel is: " + controllerSessionScope.getUwbComplexChannel().getChannel() +
-                    "\nuwbComplexChannel preambleIndex is: " + controllerSessionScope.getUwbComplexChannel().getPreambleIndex();
-            showAlert("CONTROLLER / SERVER", message, view);
+        RangingEngine engine = service.engine();
+        UwbEndpoint endpoint = engine.endpoint();
+        if (endpoint == null) {
+            Toast.makeText(this, "UWB session is still being set up", Toast.LENGTH_SHORT).show();
+        } else if (endpoint.isController()) {
+            String message = "Your Address is: " + endpoint.localAddress() +
+                    "\nuwbComplexChannel channel is: " + endpoint.channel() +
+                    "\nuwbComplexChannel preambleIndex is: " + endpoint.preambleIndex();
+            showAlert("CONTROLLER / SERVER", message + "\n\n" + engine.telemetry().snapshot(), view);
         } else {
-            UwbControleeSessionScope controleeSessionScope = (UwbControleeSessionScope) currentUwbSessionScope.get();
-            String message = "Your Address is: " + Shorts.fromByteArray(controleeSessionScope.getLocalAddress().getAddress()) +
-                    "\nYour Device supports Distance: " + controleeSessionScope.getRangingCapabilities().isDistanceSupported() +
-                    "\nYour Device supports Azimuth: " + controleeSessionScope.getRangingCapabilities().isAzimuthalAngleSupported() +
-                    "\nYour Device supports Elevation: " + controleeSessionScope.getRangingCapabilities().isElevationAngleSupported();
-            showAlert("CONTROLLEE / CLIENT", message, view);
+            String message = "Your Address is: " + endpoint.localAddress() +
+                    "\nYour Device supports Distance: " + endpoint.supportsDistance() +
+                    "\nYour Device supports Azimuth: " + endpoint.supportsAzimuth() +
+                    "\nYour Device supports Elevation: " + endpoint.supportsElevation();
+            showAlert("CONTROLLEE / CLIENT", message + "\n\n" + engine.telemetry().snapshot(), view);
         }
     }
 
     private void showAlert(String title, String message, android.view.View view) {
-        runOnUiThread(() -> {
-            AlertDialog.Builder builder = new AlertDialog.Builder(view != null ? view.getContext() : this);
-            builder.setTitle(title)
-                    .setMessage(message)
-                    .setNeutralButton("OK", (a, b) -> {})
-                    .create().show();
-        });
+        AlertDialog.Builder builder = new AlertDialog.Builder(view != null ? view.getContext() : this);
+        builder.setTitle(title)
+                .setMessage(message)
+                .setNeutralButton("OK", (a, b) -> {})
+                .create().show();
     }
 
     private void startUwbRanging() {
@@ -225,47 +244,19 @@ public class MainActivity extends AppCompatActivity {
 
         try {
             int otherSideLocalAddress = Integer.parseInt(addressInputField.getText().toString());
-            UwbAddress partnerAddress = new UwbAddress(Shorts.toByteArray((short) otherSideLocalAddress));
-            UwbComplexChannel uwbComplexChannel;
+            UwbEndpoint endpoint = service.engine().endpoint();
+            if (endpoint == null) {
+                Toast.makeText(this, "UWB session is still being set up", Toast.LENGTH_SHORT).show();
+                return;
+            }
 
-            if (isControllerSwitch.isChecked()) {
-                uwbComplexChannel = ((UwbControllerSessionScope)currentUwbSessionScope.get()).getUwbComplexChannel();
+            if (endpoint.isController()) {
+                service.startRanging((short) otherSideLocalAddress, endpoint.channel(), endpoint.preambleIndex());
             } else {
                 int channelPreamble = Integer.parseInt(preambleInputField.getText().toString());
-                uwbComplexChannel = new UwbComplexChannel(9, channelPreamble);
+                service.startRanging((short) otherSideLocalAddress, 9, channelPreamble);
             }
 
-            RangingParameters partnerParameters = new RangingParameters(RangingParameters.CONFIG_MULTICAST_DS_TWR, 12345, 0,
-                    new byte[]{0, 0, 0, 0, 0, 0, 0, 0}, null, uwbComplexChannel,
-                    Collections.singletonList(new UwbDevice(partnerAddress)),
-                    RangingParameters.RANGING_UPDATE_RATE_AUTOMATIC);
-
-            stopRanging();
-
-            rangingResultObservable.set(UwbClientSessionScopeRx.rangingResultsObservable(currentUwbSessionScope.get(), partnerParameters)
-                    .subscribe(rangingResult -> {
-                                if (rangingResult instanceof RangingResult.RangingResultPosition) {
-                                    RangingResult.RangingResultPosition rangingResultPosition = (RangingResult.RangingResultPosition) rangingResult;
-                                    updateDisplay(rangingResultPosition);
-                                } else {
-                                    System.out.println("CONNECTION LOST");
-                                }
-                            },
-                            System.out::println,
-                            () -> {
-                                System.out.println("Completed the observing of RangingResults");
-                                runOnUiThread(() -> {
-                                    stopRangingButton.setEnabled(false);
-                                    communicateButton.setEnabled(true);
-                                });
-                            }
-                    ));
-
-            runOnUiThread(() -> {
-                stopRangingButton.setEnabled(true);
-                communicateButton.setEnabled(false);
-            });
-
         } catch (NumberFormatException e) {
             Toast.makeText(this, "Invalid input. Please check address and preamble.", Toast.LENGTH_SHORT).show();
         } catch (Exception e) {
@@ -274,257 +265,39 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private void startUwbCommunication(UwbAddress partnerAddress, UwbComplexChannel channelToUse) {
-        runOnUiThread(() -> {
-            Toast.makeText(this, "Starting UWB communication with device: " + partnerAddress, Toast.LENGTH_SHORT).show();
-        });
-
-        try {
-            RangingParameters partnerParameters = new RangingParameters(
-                    RangingParameters.CONFIG_MULTICAST_DS_TWR,
-                    12345, // session ID
-                    0, // sub-session ID
-                    new byte[]{0, 0, 0, 0, 0, 0, 0, 0}, // session key (optional)
-                    null, // sub-session key (optional)
-                    channelToUse,
-                    Collections.singletonList(new UwbDevice(partnerAddress)),
-                    RangingParameters.RANGING_UPDATE_RATE_AUTOMATIC
-            );
-
-            stopRanging(); // Stop any existing ranging
-
-            rangingResultObservable.set(UwbClientSessionScopeRx.rangingResultsObservable(currentUwbSessionScope.get(), partnerParameters)
-                    .subscribe(
-                            rangingResult -> {
-                                if (rangingResult instanceof RangingResult.RangingResultPosition) {
-                                    RangingResult.RangingResultPosition rangingResultPosition = (RangingResult.RangingResultPosition) rangingResult;
-                                    updateDisplay(rangingResultPosition);
-                                } else {
-                                    System.out.println("CONNECTION LOST");
-                                    runOnUiThread(this::resetDisplays);
-                                }
-                            },
-                            error -> {
-                                System.err.println("Error in ranging: " + error.getMessage());
-                                error.printStackTrace();
-                                runOnUiThread(this::resetDisplays);
-                            },
-                            () -> {
-                                System.out.println("Completed the observing of RangingResults");
-                                runOnUiThread(() -> {
-                                    stopRangingButton.setEnabled(false);
-                                    communicateButton.setEnabled(true);
-                                    resetDisplays();
-                                });
-                            }
-                    ));
-
-            runOnUiThread(() -> {
-                stopRangingButton.setEnabled(true);
-                communicateButton.setEnabled(false);
-            });
-
-        } catch (Exception e) {
-            runOnUiThread(() -> {
-                Toast.makeText(this, "Error starting UWB communication: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-            });
-            e.printStackTrace();
-        }
-    }
-
-    private void stopRanging() {
-        if (rangingResultObservable.get() != null) {
-            rangingResultObservable.get().dispose();
-            rangingResultObservable.set(null);
-        }
-        runOnUiThread(() -> {
-            stopRangingButton.setEnabled(false);
-            communicateButton.setEnabled(true);
-            resetDisplays();
-        });
-    }
-
-    private void stopBleAdvertising() {
-        if (bluetoothLeAdvertiser != null) {
-            bluetoothLeAdvertiser.stopAdvertising(advertiseCallback);
-            runOnUiThread(() -> {
-                isAdvertising = false;
-                toggleAdvertiseButton.setText("Start Advertising");
-                Toast.makeText(MainActivity.this, "Advertising stopped", Toast.LENGTH_SHORT).show();
-            });
-        }
-    }
-
-    private void updateDisplay(RangingResult.RangingResultPosition rangingResultPosition) {
-        runOnUiThread(() -> {
-            if (rangingResultPosition.getPosition().getDistance() != null) {
-                distanceDisplay.setText(String.format("%.2f", rangingResultPosition.getPosition().getDistance().getValue()));
-            }
-            if (rangingResultPosition.getPosition().getAzimuth() != null) {
-                azimuthDisplay.setText(String.format("%.2f", rangingResultPosition.getPosition().getAzimuth().getValue()));
-            }
-            if (rangingResultPosition.getPosition().getElevation() != null) {
-                elevationDisplay.setText(String.format("%.2f", rangingResultPosition.getPosition().getElevation().getValue()));
-            }
-        });
-    }
-
     private void resetDisplays() {
-        distanceDisplay.setText("0.00");
-        azimuthDisplay.setText("0.00");
-        elevationDisplay.setText("0.00");
+        rangingDisplay.reset();
     }
 
-    private void startBleScan() {
-        if (!isScanning) {
-            deviceListAdapter.clear();
-            bluetoothDevices.clear();
-
-            isScanning = true;
-            bluetoothLeScanner.startScan(scanCallback);
-            startScanButton.setText("Stop Scan");
-
-            handler.postDelayed(() -> {
-                isScanning = false;
-                bluetoothLeScanner.stopScan(scanCallback);
-                startScanButton.setText("Start Scan");
-            }, SCAN_PERIOD);
-        } else {
-            isScanning = false;
-            bluetoothLeScanner.stopScan(scanCallback);
-            startScanButton.setText("Start Scan");
-        }
-    }
-
-    private final ScanCallback scanCallback = new ScanCallback() {
+    private final RangingService.Client serviceClient = new RangingService.Client() {
         @Override
-        public void onScanResult(int callbackType, ScanResult result) {
-            BluetoothDevice device = result.getDevice();
-            if (!bluetoothDevices.contains(device)) {
-                bluetoothDevices.add(device);
-                String deviceName = device.getName() != null ? device.getName() : device.getAddress();
-
-                StringBuilder deviceInfo = new StringBuilder(deviceName);
-
-                byte[] uwbServiceData = result.getScanRecord().getServiceData(new ParcelUuid(UWB_SERVICE_UUID));
-                if (uwbServiceData != null && uwbServiceData.length >= 7) {
-                    ByteBuffer buffer = ByteBuffer.wrap(uwbServiceData);
-
-                    short uwbAddress = buffer.getShort(0);
-                    int channel = buffer.get(2) & 0xFF;
-                    int preambleIndex = buffer.get(3) & 0xFF;
-                    short sessionId = buffer.getShort(4);
-                    boolean deviceIsController = buffer.get(6) == 1;
-
-                    deviceInfo.append("\nUWB Address: ").append(uwbAddress)
-                            .append("\nChannel: ").append(channel)
-                            .append("\nPreamble Index: ").append(preambleIndex)
-                            .append("\nSession ID: ").append(sessionId)
-                            .append("\nIs Controller: ").append(deviceIsController);
-
-                    // Check if the discovered device is compatible for UWB communication
-                    if (isController != deviceIsController) {
-                        UwbAddress partnerAddress = new UwbAddress(Shorts.toByteArray(uwbAddress));
-                        UwbComplexChannel channelToUse;
-
-                        if (isController) {
-                            // If we're the controller, use our own channel and preamble index
-                            channelToUse = localUwbChannel;
-                        } else {
-                            // If we're the controlee, use the discovered controller's channel and preamble index
-                            channelToUse = new UwbComplexChannel(channel, preambleIndex);
-                        }
-
-                        startUwbCommunication(partnerAddress, channelToUse);
-                    }
-                } else {
-                    deviceInfo.append("\nNo UWB info available");
-                }
-
-                final String finalDeviceInfo = deviceInfo.toString();
-                runOnUiThread(() -> {
-                    deviceListAdapter.add(finalDeviceInfo);
-                    deviceListAdapter.notifyDataSetChanged();
-                });
-            }
+        public void onStateChanged() {
+            showState();
         }
-    };
 
-    private byte[] getUwbInfoBytes() {
-        ByteBuffer buffer = ByteBuffer.allocate(7); // 2 bytes for address, 1 for channel, 1 for preamble index, 2 for session ID, 1 for isController
-
-        UwbClientSessionScope sessionScope = currentUwbSessionScope.get();
-        if (sessionScope == null) {
-            return buffer.array(); // Return empty array if no session
-        }
-
-        buffer.put(sessionScope.getLocalAddress().getAddress());
-
-        if (sessionScope instanceof UwbControllerSessionScope) {
-            UwbControllerSessionScope controllerScope = (UwbControllerSessionScope) sessionScope;
-            UwbComplexChannel channel = controllerScope.getUwbComplexChannel();
-            buffer.put((byte) channel.getChannel());
-            buffer.put((byte) channel.getPreambleIndex());
-            buffer.putShort((short) 12345); // Session ID, replace with actual session ID if available
-            buffer.put((byte) 1); // isController = true
-        } else if (sessionScope instanceof UwbControleeSessionScope) {
-            UwbControleeSessionScope controleeScope = (UwbControleeSessionScope) sessionScope;
-            buffer.put((byte) 0); // Channel (not known for controlee)
-            buffer.put((byte) 0); // Preamble index (not known for controlee)
-            buffer.putShort((short) 0); // Session ID (not known for controlee)
-            buffer.put((byte) 0); // isController = false
+        @Override
+        public void onNotice(String message) {
+            Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
         }
 
-        return buffer.array();
-    }
-
-    private void toggleBleAdvertising() {
-        if (isAdvertising) {
-            stopBleAdvertising();
-        } else {
-            startBleAdvertising();
+        @Override
+        public void onDiscoveriesPublished() {
+            // Shown with the next refresh of the dashboard
         }
-    }
-    private void startBleAdvertising() {
-        AdvertiseSettings settings = new AdvertiseSettings.Builder()
-                .setAdvertiseMode(AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY)
-                .setTxPowerLevel(AdvertiseSettings.ADVERTISE_TX_POWER_HIGH)
-                .setConnectable(false)
-                .build();
-
-        AdvertiseData data = new AdvertiseData.Builder()
-                .setIncludeDeviceName(true)
-                .addServiceUuid(new ParcelUuid(UWB_SERVICE_UUID))
-                .addServiceData(new ParcelUuid(UWB_SERVICE_UUID), getUwbInfoBytes())
-                .build();
-
-        bluetoothLeAdvertiser.startAdvertising(settings, data, advertiseCallback);
-    }
 
-    private void updateBleAdvertising() {
-        if (bluetoothLeAdvertiser != null) {
-            bluetoothLeAdvertiser.stopAdvertising(advertiseCallback);
-            startBleAdvertising();
+        @Override
+        public void onAdded(DiscoveryTable table, int slot) {
+            peerDashboard.onAdded(table, slot);
         }
-    }
 
-    private final AdvertiseCallback advertiseCallback = new AdvertiseCallback() {
         @Override
-        public void onStartSuccess(AdvertiseSettings settingsInEffect) {
-            runOnUiThread(() -> {
-                isAdvertising = true;
-                toggleAdvertiseButton.setText("Stop Advertising");
-                Toast.makeText(MainActivity.this, "Advertising started with UWB info", Toast.LENGTH_SHORT).show();
-            });
+        public void onChanged(DiscoveryTable table, int slot, int changes) {
+            peerDashboard.onChanged(table, slot, changes);
         }
 
         @Override
-        public void onStartFailure(int errorCode) {
-            runOnUiThread(() -> {
-                isAdvertising = false;
-                toggleAdvertiseButton.setText("Start Advertising");
-                Toast.makeText(MainActivity.this, "Advertising failed to start", Toast.LENGTH_SHORT).show();
-            });
+        public void onRemoved(long mac) {
+            peerDashboard.onRemoved(mac);
         }
     };
 
@@ -561,11 +334,9 @@ public class MainActivity extends AppCompatActivity {
         if (requestCode == REQUEST_ENABLE_BT) {
             if (resultCode == RESULT_OK) {
                 Toast.makeText(this, "Bluetooth enabled", Toast.LENGTH_SHORT).show();
-                bluetoothLeScanner = bluetoothAdapter.getBluetoothLeScanner();
-                bluetoothLeAdvertiser = bluetoothAdapter.getBluetoothLeAdvertiser();
             } else {
                 Toast.makeText(this, "Bluetooth is required for BLE functionality", Toast.LENGTH_SHORT).show();
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,175 @@
+package at.jku.ins.uwb_default_values;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.List;
+
+import at.jku.ins.uwb_default_values.dashboard.DashboardSnapshot;
+import at.jku.ins.uwb_default_values.dashboard.PeerRow;
+
+/**
+ * Shows a {@link DashboardSnapshot}. Each new snapshot is diffed against the shown one, and changed
+ * rows are rebound with their {@code PeerRow.CHANGE_*} bits as payload, so a new sample only rewrites
+ * the live values of its row. Binding does not allocate.
+ */
+class PeerDashboardAdapter extends RecyclerView.Adapter<PeerDashboardAdapter.RowHolder> implements DashboardSnapshot.Updates {
+
+    // Boxed once, payloads are compared and collected by RecyclerView
+    private static final Integer[] PAYLOADS = new Integer[PeerRow.CHANGE_ALL + 1];
+
+    static {
+        for (int changes = 0; changes < PAYLOADS.length; changes++) {
+            PAYLOADS[changes] = changes;
+        }
+    }
+
+    private DashboardSnapshot snapshot = DashboardSnapshot.EMPTY;
+
+    PeerDashboardAdapter() {
+        setHasStableIds(true);
+    }
+
+    void submit(DashboardSnapshot next) {
+        DashboardSnapshot previous = snapshot;
+        snapshot = next;
+        DashboardSnapshot.diff(previous, next, this);
+    }
+
+    @Override
+    public int getItemCount() {
+        return snapshot.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return snapshot.get(position).id;
+    }
+
+    @NonNull
+    @Override
+    public RowHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new RowHolder(LayoutInflater.from(parent.getContext()).inflate(R.layout.item_peer, parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull RowHolder holder, int position) {
+        holder.bind(snapshot.get(position), PeerRow.CHANGE_ALL);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull RowHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        int changes = 0;
+        for (int i = 0; i < payloads.size(); i++) {
+            changes |= (Integer) payloads.get(i);
+        }
+        holder.bind(snapshot.get(position), changes);
+    }
+
+    @Override
+    public void onInserted(int position, int count) {
+        notifyItemRangeInserted(position, count);
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+        notifyItemRangeRemoved(position, count);
+    }
+
+    @Override
+    public void onChanged(int position, int count, int changes) {
+        notifyItemRangeChanged(position, count, PAYLOADS[changes]);
+    }
+
+    static class RowHolder extends RecyclerView.ViewHolder {
+
+        private final TextView title;
+        private final TextView rssi;
+        private final TextView uwbInfo;
+        private final TextView live;
+        private final char[] rssiChars = new char[16];
+        private final char[] liveChars = new char[64];
+
+        RowHolder(View view) {
+            super(view);
+            title = view.findViewById(R.id.peer_title);
+            rssi = view.findViewById(R.id.peer_rssi);
+            uwbInfo = view.findViewById(R.id.peer_uwb);
+            live = view.findViewById(R.id.peer_live);
+        }
+
+        void bind(PeerRow row, int changes) {
+            if ((changes & PeerRow.CHANGE_TITLE) != 0) {
+                title.setText(row.title);
+            }
+            if ((changes & PeerRow.CHANGE_RSSI) != 0) {
+                if (row.rssi == PeerRow.NO_RSSI) {
+                    rssi.setText("");
+                } else {
+                    int length = formatInt(row.rssi, rssiChars, 0);
+                    length = append(" dBm", rssiChars, length);
+                    rssi.setText(rssiChars, 0, length);
+                }
+            }
+            if ((changes & PeerRow.CHANGE_UWB) != 0) {
+                uwbInfo.setText(row.uwbInfo != null ? row.uwbInfo : "No UWB info available");
+            }
+            if ((changes & PeerRow.CHANGE_LIVE) != 0) {
+                bindLive(row);
+            }
+        }
+
+        // "1.23 m  az -4.50  el 2.00", or the last values greyed out once the peer is stale
+        private void bindLive(PeerRow row) {
+            if (Float.isNaN(row.distance)) {
+                live.setVisibility(View.GONE);
+                return;
+            }
+            live.setVisibility(View.VISIBLE);
+            live.setEnabled(row.ranging);
+            int length = RangingDisplay.formatFixed2(row.distance, liveChars);
+            length = append(" m", liveChars, length);
+            if (!Float.isNaN(row.azimuth)) {
+                length = append("  az ", liveChars, length);
+                length += RangingDisplay.formatFixed2(row.azimuth, liveChars, length);
+            }
+            if (!Float.isNaN(row.elevation)) {
+                length = append("  el ", liveChars, length);
+                length += RangingDisplay.formatFixed2(row.elevation, liveChars, length);
+            }
+            live.setText(liveChars, 0, length);
+        }
+
+        private static int append(String text, char[] out, int length) {
+            text.getChars(0, text.length(), out, length);
+            return length + text.length();
+        }
+
+        private static int formatInt(int value, char[] out, int length) {
+            if (value < 0) {
+                out[length++] = '-';
+            }
+            int start = length;
+            int rest = Math.abs(value);
+            do {
+                out[length++] = (char) ('0' + rest % 10);
+                rest /= 10;
+            } while (rest != 0);
+            for (int i = start, j = length - 1; i < j; i++, j--) {
+                char c = out[i];
+                out[i] = out[j];
+                out[j] = c;
+            }
+            return length;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package at.jku.ins.uwb_default_values;
+
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.dashboard.PeerDashboard;
+import at.jku.ins.uwb_default_values.ranging.RangingSampleBuffer;
+
+/**
+ * Drives a {@link PeerDashboardAdapter} from the display frames: drains new samples into the
+ * {@link PeerDashboard} and submits its snapshot at most every {@link #REFRESH_INTERVAL_NANOS}. If a
+ * refresh takes longer than {@link #FRAME_BUDGET_NANOS}, the next one waits proportionally longer, so
+ * the dashboard uses at most that share of every frame however many peers it shows. Must be used from
+ * the UI thread.
+ */
+class PeerDashboardDisplay implements Choreographer.FrameCallback {
+
+    static final long REFRESH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    static final long FRAME_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+    static final long FRAME_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(4);
+
+    private final RangingSampleBuffer samples;
+    private final PeerDashboard dashboard;
+    private final PeerDashboardAdapter adapter;
+    private long drainedSequence;
+    private long nextRefresh;
+    private boolean running;
+
+    PeerDashboardDisplay(RangingSampleBuffer samples, PeerDashboard dashboard, PeerDashboardAdapter adapter) {
+        this.samples = samples;
+        this.dashboard = dashboard;
+        this.adapter = adapter;
+    }
+
+    void start() {
+        if (!running) {
+            running = true;
+            // Start from what the buffer still holds, so peers ranged before show up right away
+            drainedSequence = 0;
+            nextRefresh = 0;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    void stop() {
+        running = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!running) {
+            return;
+        }
+        if (frameTimeNanos >= nextRefresh) {
+            long start = System.nanoTime();
+            drainedSequence = samples.drain(drainedSequence, dashboard);
+            // Sample timestamps are on the elapsed realtime clock
+            adapter.submit(dashboard.snapshot(SystemClock.elapsedRealtimeNanos()));
+            long cost = System.nanoTime() - start;
+            nextRefresh = frameTimeNanos + Math.max(REFRESH_INTERVAL_NANOS, cost * FRAME_INTERVAL_NANOS / FRAME_BUDGET_NANOS);
+        }
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
@@ -0,0 +1,136 @@
+package at.jku.ins.uwb_default_values;
+
+import android.view.Choreographer;
+import android.widget.TextView;
+
+import at.jku.ins.uwb_default_values.ranging.RangingSampleBuffer;
+import at.jku.ins.uwb_default_values.ranging.RangingSnapshot;
+import at.jku.ins.uwb_default_values.ranging.position.MultilaterationSolver;
+import at.jku.ins.uwb_default_values.ranging.position.PositionFix;
+
+/**
+ * Shows the newest sample of a {@link RangingSampleBuffer}, reading it at most once per display frame.
+ * Must be used from the UI thread.
+ */
+class RangingDisplay implements Choreographer.FrameCallback {
+
+    private final RangingSampleBuffer samples;
+    private final TextView distanceDisplay;
+    private final TextView azimuthDisplay;
+    private final TextView elevationDisplay;
+    private final RangingSnapshot snapshot = new RangingSnapshot();
+    private final char[] distanceChars = new char[16];
+    private final char[] azimuthChars = new char[16];
+    private final char[] elevationChars = new char[16];
+    private final PositionFix fix = new PositionFix();
+    private final char[] positionChars = new char[48];
+    private MultilaterationSolver positionSolver;
+    private TextView positionDisplay;
+    private long shownSequence;
+    private long shownFixSequence;
+    private boolean running;
+
+    RangingDisplay(RangingSampleBuffer samples, TextView distanceDisplay, TextView azimuthDisplay, TextView elevationDisplay) {
+        this.samples = samples;
+        this.distanceDisplay = distanceDisplay;
+        this.azimuthDisplay = azimuthDisplay;
+        this.elevationDisplay = elevationDisplay;
+    }
+
+    /** Also shows the fixes of {@code solver}, as "x, y, z". */
+    void showPositions(MultilaterationSolver solver, TextView positionDisplay) {
+        this.positionSolver = solver;
+        this.positionDisplay = positionDisplay;
+    }
+
+    void start() {
+        if (!running) {
+            running = true;
+            shownSequence = samples.sequence();
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    void stop() {
+        running = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    void reset() {
+        distanceDisplay.setText("0.00");
+        azimuthDisplay.setText("0.00");
+        elevationDisplay.setText("0.00");
+        if (positionDisplay != null) {
+            positionDisplay.setText("-");
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!running) {
+            return;
+        }
+        if (samples.sequence() != shownSequence && samples.readLatest(snapshot)) {
+            shownSequence = snapshot.sequence;
+            show(distanceDisplay, distanceChars, snapshot.distance);
+            // World bearings are unwrapped per peer
+            show(azimuthDisplay, azimuthChars, (float) Math.IEEEremainder(snapshot.azimuth, 360));
+            show(elevationDisplay, elevationChars, snapshot.elevation);
+        }
+        if (positionSolver != null && positionSolver.readFix(fix) && fix.sequence != shownFixSequence) {
+            shownFixSequence = fix.sequence;
+            int length = formatFixed2((float) fix.x, positionChars);
+            length = appendSeparator(positionChars, length);
+            length += formatFixed2((float) fix.y, positionChars, length);
+            length = appendSeparator(positionChars, length);
+            length += formatFixed2((float) fix.z, positionChars, length);
+            positionDisplay.setText(positionChars, 0, length);
+        }
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    private static void show(TextView view, char[] chars, float value) {
+        if (!Float.isNaN(value)) {
+            view.setText(chars, 0, formatFixed2(value, chars));
+        }
+    }
+
+    /**
+     * Writes {@code value} rounded to two decimals into {@code out}, like {@code String.format("%.2f")}
+     * but without allocating. Returns the number of chars written.
+     */
+    static int formatFixed2(float value, char[] out) {
+        return formatFixed2(value, out, 0);
+    }
+
+    /** Like {@link #formatFixed2(float, char[])}, writing from {@code offset} on. */
+    static int formatFixed2(float value, char[] out, int offset) {
+        long hundredths = Math.round(Math.abs((double) value) * 100d);
+        int length = offset;
+        if (value < 0 && hundredths != 0) {
+            out[length++] = '-';
+        }
+        long whole = hundredths / 100;
+        int start = length;
+        do {
+            out[length++] = (char) ('0' + whole % 10);
+            whole /= 10;
+        } while (whole != 0 && length < out.length - 3);
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            char c = out[i];
+            out[i] = out[j];
+            out[j] = c;
+        }
+        int fraction = (int) (hundredths % 100);
+        out[length++] = '.';
+        out[length++] = (char) ('0' + fraction / 10);
+        out[length++] = (char) ('0' + fraction % 10);
+        return length - offset;
+    }
+
+    private static int appendSeparator(char[] out, int length) {
+        out[length++] = ',';
+        out[length++] = ' ';
+        return length;
+    }
+}
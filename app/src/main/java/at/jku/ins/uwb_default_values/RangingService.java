@@ -0,0 +1,698 @@
+package at.jku.ins.uwb_default_values;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.le.AdvertiseCallback;
+import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.hardware.SensorManager;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.ParcelUuid;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.uwb.UwbClientSessionScope;
+import androidx.core.uwb.UwbManager;
+import androidx.core.uwb.rxjava3.UwbManagerRx;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.ble.DiscoveryTable;
+import at.jku.ins.uwb_default_values.engine.RangingEngine;
+import at.jku.ins.uwb_default_values.geofence.GeofenceConfig;
+import at.jku.ins.uwb_default_values.geofence.GeofenceEngine;
+import at.jku.ins.uwb_default_values.ranging.RangingBatch;
+import at.jku.ins.uwb_default_values.ranging.UwbEndpoint;
+import at.jku.ins.uwb_default_values.ranging.position.AnchorConfig;
+import at.jku.ins.uwb_default_values.replay.RangingRecorder;
+import at.jku.ins.uwb_default_values.session.SessionScopePool;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+/**
+ * Hosts the {@link RangingEngine} together with the UWB session scopes, scanning and advertising, so that
+ * ranging survives rotation and keeps running in the background. While anything is active the service
+ * runs in the foreground with a notification; once all is stopped it ends when the last client unbinds.
+ * <p>
+ * Clients in this process bind without an action, get the service from {@link LocalBinder} and read
+ * samples straight from {@code engine().samples()}. Other processes bind with {@link #ACTION_BIND_RANGING},
+ * send {@link #MSG_REGISTER} with a {@code replyTo} messenger and then receive one {@link #MSG_SAMPLES}
+ * batch per {@link #SAMPLE_BATCH_INTERVAL_MILLIS} instead of one call per sample.
+ * <p>
+ * All methods must be called on the main thread, which also runs the engine's ticks.
+ */
+public class RangingService extends Service {
+
+    public static final String ACTION_BIND_RANGING = "at.jku.ins.uwb_default_values.action.BIND_RANGING";
+    /** Starts sample batches to {@code Message.replyTo}. */
+    public static final int MSG_REGISTER = 1;
+    public static final int MSG_UNREGISTER = 2;
+    /** A batch of samples; the data holds equally long arrays under the KEY_* names. */
+    public static final int MSG_SAMPLES = 3;
+    public static final String KEY_PEERS = "peers";
+    public static final String KEY_DISTANCES = "distances";
+    public static final String KEY_AZIMUTHS = "azimuths";
+    public static final String KEY_ELEVATIONS = "elevations";
+    public static final String KEY_TIMESTAMPS = "timestamps";
+    public static final long SAMPLE_BATCH_INTERVAL_MILLIS = 100;
+
+    private static final String TAG = "RangingService";
+    private static final String ACTION_STOP = "at.jku.ins.uwb_default_values.action.STOP_RANGING";
+    private static final String ACTION_FOREGROUND = "at.jku.ins.uwb_default_values.action.FOREGROUND";
+    private static final String NOTIFICATION_CHANNEL = "ranging";
+    private static final int NOTIFICATION_ID = 1;
+    private static final long DISCOVERY_PUBLISH_INTERVAL = TimeUnit.NANOSECONDS.toMillis(RangingEngine.DISCOVERY_PUBLISH_INTERVAL_NANOS);
+    private static final UUID UWB_SERVICE_UUID = UUID.fromString("0000181C-0000-1000-8000-00805f9b34fb");
+    private static final ParcelUuid UWB_SERVICE_PARCEL_UUID = new ParcelUuid(UWB_SERVICE_UUID);
+    private static final int SESSION_SCOPE_POOL_SIZE = 1;
+    private static final String ANCHORS_FILE = "anchors.txt";
+    private static final String GEOFENCES_FILE = "geofences.txt";
+    private static final String TELEMETRY_FILE = "telemetry.bin";
+    private static final String RECORDINGS_DIR = "recordings";
+
+    /** Clients in this process, called on the main thread. */
+    public interface Client extends DiscoveryTable.ChangeListener {
+        /** Role, endpoint, ranging, scanning or advertising changed. */
+        void onStateChanged();
+
+        /** A short message for the user. */
+        void onNotice(String message);
+
+        /** Ends a run of discovery changes. */
+        void onDiscoveriesPublished();
+    }
+
+    public class LocalBinder extends Binder {
+        public RangingService getService() {
+            return RangingService.this;
+        }
+    }
+
+    private final IBinder localBinder = new LocalBinder();
+    private final List<Client> clients = new ArrayList<>();
+    private final List<RemoteClient> remoteClients = new ArrayList<>();
+    private final RangingBatch batch = new RangingBatch(RangingEngine.RANGING_BUFFER_CAPACITY);
+    private Handler handler;
+    private Messenger messenger;
+    private RangingEngine engine;
+    private AndroidBleAdvertiser advertiser;
+    private RotationVectorListener rotationVector;
+    private UwbManager uwbManager;
+    private SessionScopePool<UwbEndpoint> sessionScopePool;
+    private Disposable sessionScopeRequest;
+    private boolean advertising;
+    private boolean foreground;
+    private boolean foregroundRequested;
+
+    private static final class RemoteClient {
+        final Messenger messenger;
+        long cursor;
+
+        RemoteClient(Messenger messenger, long cursor) {
+            this.messenger = messenger;
+            this.cursor = cursor;
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        handler = new Handler(Looper.getMainLooper());
+        messenger = new Messenger(new Handler(Looper.getMainLooper(), this::handleRemoteMessage));
+
+        BluetoothManager bluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
+        advertiser = new AndroidBleAdvertiser(bluetoothManager.getAdapter(), UWB_SERVICE_PARCEL_UUID, advertiseCallback);
+        uwbManager = UwbManager.createInstance(this);
+
+        engine = new RangingEngine(new AndroidBleScanner(bluetoothManager.getAdapter(), UWB_SERVICE_PARCEL_UUID, scanCallback),
+                SystemClock::elapsedRealtimeNanos, BuildConfig.DEBUG ? openRecorder() : null, rangingListener);
+        engine.updateRates().setForeground(false);
+        rotationVector = new RotationVectorListener(getSystemService(SensorManager.class), engine);
+        loadAnchors();
+        loadGeofences();
+
+        NotificationManager notificationManager = getSystemService(NotificationManager.class);
+        notificationManager.createNotificationChannel(
+                new NotificationChannel(NOTIFICATION_CHANNEL, "UWB ranging", NotificationManager.IMPORTANCE_LOW));
+
+        sessionScopePool = new SessionScopePool<>(this::createSessionScope, Schedulers.io(), SESSION_SCOPE_POOL_SIZE);
+        sessionScopePool.prewarm();
+        refreshUwbSession(false);
+        handler.post(pairingTick);
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return ACTION_BIND_RANGING.equals(intent.getAction()) ? messenger.getBinder() : localBinder;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_STOP.equals(intent.getAction())) {
+            stopAll();
+        } else if (intent != null && ACTION_FOREGROUND.equals(intent.getAction())) {
+            enterForeground();
+        }
+        // The engine's state cannot be restored after the process died, so do not restart
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        handler.removeCallbacksAndMessages(null);
+        rotationVector.stop();
+        if (sessionScopeRequest != null) {
+            sessionScopeRequest.dispose();
+        }
+        advertiser.stop();
+        try {
+            engine.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write recording", e);
+        }
+    }
+
+    public RangingEngine engine() {
+        return engine;
+    }
+
+    public boolean isAdvertising() {
+        return advertising;
+    }
+
+    /** Registers a client and reports all current discoveries to it. */
+    public void addClient(Client client) {
+        clients.add(client);
+        engine.discoveryTable().publishAll(client);
+        client.onDiscoveriesPublished();
+        updateDemand();
+    }
+
+    public void removeClient(Client client) {
+        clients.remove(client);
+        updateDemand();
+    }
+
+    /** Stops ranging and sets up a session scope for the given role. */
+    public void setController(boolean controller) {
+        engine.stopRanging();
+        refreshUwbSession(controller);
+        notifyStateChanged();
+    }
+
+    public void setAutoRole(boolean autoRole) {
+        engine.setAutoRole(autoRole);
+        if (advertising) {
+            startAdvertising();
+        }
+        notifyStateChanged();
+    }
+
+    /** Ranges with one manually configured peer, see {@link RangingEngine#startRanging}. */
+    public void startRanging(int peer, int channel, int preambleIndex) {
+        engine.startRanging(peer, channel, preambleIndex);
+    }
+
+    /** Stops ranging; the used scope is replaced by a fresh one for the same role. */
+    public void stopRanging() {
+        engine.stopRanging();
+        refreshUwbSession(engine.isController());
+        notifyStateChanged();
+        updateForeground();
+    }
+
+    public void toggleScan() {
+        if (!engine.isScanning()) {
+            scheduleScanTick(engine.startScan());
+            handler.removeCallbacks(publishDiscoveries);
+            handler.post(publishDiscoveries);
+        } else {
+            engine.stopScan();
+            handler.removeCallbacks(scanTick);
+        }
+        notifyStateChanged();
+        updateForeground();
+    }
+
+    public void toggleAdvertising() {
+        if (advertising) {
+            advertiser.stop();
+            advertising = false;
+            notifyNotice("Advertising stopped");
+            notifyStateChanged();
+            updateForeground();
+        } else {
+            startAdvertising();
+        }
+    }
+
+    private void startAdvertising() {
+        advertiser.start(engine.encodeAdvertisement());
+    }
+
+    private void stopAll() {
+        if (engine.isScanning()) {
+            toggleScan();
+        }
+        if (advertising) {
+            toggleAdvertising();
+        }
+        stopRanging();
+    }
+
+    // Anchor positions for multilateration, one "<address> <x> <y> <z>" line per anchor
+    private void loadAnchors() {
+        File anchorsFile = new File(getFilesDir(), ANCHORS_FILE);
+        if (!anchorsFile.exists()) {
+            return;
+        }
+        try (Reader reader = new FileReader(anchorsFile)) {
+            Log.i(TAG, "Loaded " + AnchorConfig.load(reader, engine.solver()) + " anchors");
+        } catch (IOException e) {
+            Log.w(TAG, "Invalid " + ANCHORS_FILE + ": " + e.getMessage());
+        }
+    }
+
+    // Proximity and zone rules, see GeofenceConfig for the format
+    private void loadGeofences() {
+        engine.geofences().setListener(geofenceListener);
+        File geofencesFile = new File(getFilesDir(), GEOFENCES_FILE);
+        if (!geofencesFile.exists()) {
+            return;
+        }
+        try (Reader reader = new FileReader(geofencesFile)) {
+            Log.i(TAG, "Loaded " + GeofenceConfig.load(reader, engine.geofences()) + " geofence rules");
+        } catch (IOException e) {
+            Log.w(TAG, "Invalid " + GEOFENCES_FILE + ": " + e.getMessage());
+        }
+    }
+
+    private final GeofenceEngine.Listener geofenceListener = (rule, subject, event, timestampNanos) -> {
+        String message = "Rule " + rule + (event == GeofenceEngine.ENTER ? ": entered" : event == GeofenceEngine.EXIT ? ": left" : ": dwelling");
+        Log.d(TAG, message);
+        handler.post(() -> notifyNotice(message));
+    };
+
+    private Single<UwbEndpoint> createSessionScope(boolean controller) {
+        return controller
+                ? UwbManagerRx.controllerSessionScopeSingle(uwbManager).<UwbEndpoint>map(this::createEndpoint)
+                : UwbManagerRx.controleeSessionScopeSingle(uwbManager).<UwbEndpoint>map(this::createEndpoint);
+    }
+
+    private UwbEndpoint createEndpoint(UwbClientSessionScope sessionScope) {
+        return new AndroidUwbEndpoint(sessionScope, engine.telemetry());
+    }
+
+    // Takes a prepared scope for the role; clients stay responsive while it is set up
+    private void refreshUwbSession(boolean controller) {
+        engine.setController(controller);
+        if (sessionScopeRequest != null) {
+            sessionScopeRequest.dispose();
+        }
+        long setupStart = SystemClock.elapsedRealtimeNanos();
+        sessionScopeRequest = sessionScopePool.acquire(controller).subscribe(
+                endpoint -> {
+                    engine.telemetry().onSessionSetup(SystemClock.elapsedRealtimeNanos() - setupStart);
+                    handler.post(() -> {
+                        // The role may have changed again while this scope was set up
+                        if (endpoint.isController() == engine.isController()) {
+                            engine.setEndpoint(endpoint);
+                            if (advertising) {
+                                startAdvertising();
+                            }
+                            notifyStateChanged();
+                        }
+                    });
+                },
+                error -> {
+                    Log.e(TAG, "Error setting up UWB session", error);
+                    handler.post(() -> notifyNotice("Could not set up UWB session"));
+                });
+    }
+
+    // Raw samples and scan results of this run, replayable with RangingReplay
+    private RangingRecorder openRecorder() {
+        File directory = new File(getFilesDir(), RECORDINGS_DIR);
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            return new RangingRecorder(new File(directory, "ranging-" + System.currentTimeMillis() + ".bin"));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not start recording", e);
+            return null;
+        }
+    }
+
+    // Binary telemetry dump for offline analysis, overwritten whenever ranging stops
+    private void dumpTelemetry() {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(getFilesDir(), TELEMETRY_FILE))))) {
+            engine.telemetry().dump(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write telemetry", e);
+        }
+    }
+
+    private boolean isActive() {
+        return engine.manager().isRanging() || engine.isScanning() || advertising;
+    }
+
+    // Foreground while active, so that ranging goes on without a bound client. Only onStartCommand enters
+    // the foreground; callbacks just update the notification, as the app may be in the background then
+    private void updateForeground() {
+        boolean active = isActive();
+        if (active && foreground) {
+            getSystemService(NotificationManager.class).notify(NOTIFICATION_ID, buildNotification());
+        } else if (active && !foregroundRequested) {
+            try {
+                startForegroundService(new Intent(this, RangingService.class).setAction(ACTION_FOREGROUND));
+                foregroundRequested = true;
+            } catch (IllegalStateException e) {
+                // Not allowed from the background; ranging goes on while clients are bound
+                Log.i(TAG, "Could not start foreground service: " + e.getMessage());
+            }
+        } else if (!active && foreground) {
+            stopForeground(STOP_FOREGROUND_REMOVE);
+            // Keeps running while clients are bound
+            stopSelf();
+            foreground = false;
+        }
+    }
+
+    // A started foreground service has to call startForeground, even if it became idle meanwhile
+    private void enterForeground() {
+        foregroundRequested = false;
+        if (!foreground) {
+            startForeground(NOTIFICATION_ID, buildNotification(), ServiceInfo.FOREGROUND_SERVICE_TYPE_CONNECTED_DEVICE);
+            foreground = true;
+        }
+        updateForeground();
+    }
+
+    private Notification buildNotification() {
+        StringBuilder text = new StringBuilder();
+        if (engine.manager().isRanging()) {
+            text.append("Ranging with ").append(engine.manager().peerCount()).append(" peers");
+        }
+        if (engine.isScanning()) {
+            text.append(text.length() > 0 ? ", scanning" : "Scanning");
+        }
+        if (advertising) {
+            text.append(text.length() > 0 ? ", advertising" : "Advertising");
+        }
+        PendingIntent open = PendingIntent.getActivity(this, 0, new Intent(this, MainActivity.class),
+                PendingIntent.FLAG_IMMUTABLE);
+        PendingIntent stop = PendingIntent.getService(this, 0, new Intent(this, RangingService.class).setAction(ACTION_STOP),
+                PendingIntent.FLAG_IMMUTABLE);
+        return new NotificationCompat.Builder(this, NOTIFICATION_CHANNEL)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle("UWB ranging")
+                .setContentText(text)
+                .setContentIntent(open)
+                .addAction(0, "Stop", stop)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .build();
+    }
+
+    // The update rate may only drop while nobody looks at the results
+    private void updateDemand() {
+        engine.updateRates().setForeground(!clients.isEmpty() || !remoteClients.isEmpty());
+    }
+
+    private void notifyStateChanged() {
+        for (int i = clients.size() - 1; i >= 0; i--) {
+            clients.get(i).onStateChanged();
+        }
+    }
+
+    private void notifyNotice(String message) {
+        for (int i = clients.size() - 1; i >= 0; i--) {
+            clients.get(i).onNotice(message);
+        }
+    }
+
+    private boolean handleRemoteMessage(Message message) {
+        switch (message.what) {
+            case MSG_REGISTER:
+                if (message.replyTo != null) {
+                    remoteClients.add(new RemoteClient(message.replyTo, engine.samples().sequence()));
+                    if (remoteClients.size() == 1) {
+                        handler.postDelayed(publishSamples, SAMPLE_BATCH_INTERVAL_MILLIS);
+                    }
+                    updateDemand();
+                }
+                return true;
+            case MSG_UNREGISTER:
+                for (int i = remoteClients.size() - 1; i >= 0; i--) {
+                    if (remoteClients.get(i).messenger.equals(message.replyTo)) {
+                        remoteClients.remove(i);
+                    }
+                }
+                updateDemand();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // One message per client and interval carries all samples since the client's previous batch
+    private final Runnable publishSamples = new Runnable() {
+        @Override
+        public void run() {
+            for (int i = remoteClients.size() - 1; i >= 0; i--) {
+                RemoteClient client = remoteClients.get(i);
+                batch.clear();
+                client.cursor = engine.samples().drain(client.cursor, batch);
+                if (batch.count() == 0) {
+                    continue;
+                }
+                try {
+                    client.messenger.send(samplesMessage());
+                } catch (RemoteException e) {
+                    // The client's process is gone
+                    remoteClients.remove(i);
+                }
+            }
+            updateDemand();
+            if (!remoteClients.isEmpty()) {
+                handler.postDelayed(this, SAMPLE_BATCH_INTERVAL_MILLIS);
+            }
+        }
+    };
+
+    private Message samplesMessage() {
+        int count = batch.count();
+        Bundle data = new Bundle();
+        data.putIntArray(KEY_PEERS, Arrays.copyOf(batch.peers, count));
+        data.putFloatArray(KEY_DISTANCES, Arrays.copyOf(batch.distances, count));
+        data.putFloatArray(KEY_AZIMUTHS, Arrays.copyOf(batch.azimuths, count));
+        data.putFloatArray(KEY_ELEVATIONS, Arrays.copyOf(batch.elevations, count));
+        data.putLongArray(KEY_TIMESTAMPS, Arrays.copyOf(batch.timestamps, count));
+        Message message = Message.obtain(null, MSG_SAMPLES);
+        message.setData(data);
+        return message;
+    }
+
+    private final RangingEngine.Listener rangingListener = new RangingEngine.Listener() {
+        @Override
+        public void onPeerConnecting(int peer) {
+            handler.post(() -> notifyNotice("Starting UWB communication with device: " + peer));
+        }
+
+        @Override
+        public void onSessionReassigned(int sessionId) {
+            Log.d(TAG, "Session ID changed to " + sessionId);
+            handler.post(() -> {
+                if (advertising) {
+                    startAdvertising();
+                }
+            });
+        }
+
+        @Override
+        public void onUpdateRateChanged(int updateRate) {
+            Log.d(TAG, "Update rate changed to " + updateRate);
+            handler.post(() -> {
+                if (advertising) {
+                    startAdvertising();
+                }
+            });
+        }
+
+        @Override
+        public void onRoleElected(boolean controller) {
+            handler.post(() -> {
+                notifyNotice(controller ? "Elected controller" : "Elected controlee");
+                refreshUwbSession(controller);
+                notifyStateChanged();
+                updateForeground();
+            });
+        }
+
+        @Override
+        public void onRangingStarted() {
+            handler.post(() -> {
+                if (!rotationVector.start()) {
+                    Log.i(TAG, "No rotation sensor, angles stay relative to the device");
+                }
+                notifyStateChanged();
+                updateForeground();
+            });
+        }
+
+        @Override
+        public void onPeerLost(int peer) {
+            handler.post(() -> {
+                notifyStateChanged();
+                updateForeground();
+            });
+        }
+
+        @Override
+        public void onRangingStopped(Throwable error) {
+            if (error != null) {
+                Log.e(TAG, "Ranging failed", error);
+            } else {
+                Log.d(TAG, "Ranging stopped");
+            }
+            Schedulers.io().scheduleDirect(RangingService.this::dumpTelemetry);
+            handler.post(() -> {
+                rotationVector.stop();
+                // Peers that were ranged are waiting again, scan for them sooner
+                scheduleScanTick(engine.onScanDemandChanged());
+                notifyStateChanged();
+                updateForeground();
+            });
+        }
+    };
+
+    // Pairing decisions are taken here rather than per advert, so repeated adverts cannot thrash the session
+    private final Runnable pairingTick = new Runnable() {
+        @Override
+        public void run() {
+            handler.postDelayed(this, TimeUnit.NANOSECONDS.toMillis(engine.tickPairing()));
+        }
+    };
+
+    private final Runnable scanTick = () -> scheduleScanTick(engine.tickScan());
+
+    private void scheduleScanTick(long delayNanos) {
+        handler.removeCallbacks(scanTick);
+        if (delayNanos >= 0) {
+            handler.postDelayed(scanTick, TimeUnit.NANOSECONDS.toMillis(delayNanos));
+        }
+    }
+
+    private final ScanCallback scanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            BluetoothDevice device = result.getDevice();
+            byte[] uwbServiceData = result.getScanRecord() != null ? result.getScanRecord().getServiceData(UWB_SERVICE_PARCEL_UUID) : null;
+            engine.onScanResult(DiscoveryTable.parseMac(device.getAddress()), device.getName(), result.getRssi(),
+                    result.getTimestampNanos(), uwbServiceData);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            for (ScanResult result : results) {
+                onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, result);
+            }
+        }
+    };
+
+    // Passes the discovery table's batched changes on to the clients, at most every DISCOVERY_PUBLISH_INTERVAL
+    private final Runnable publishDiscoveries = new Runnable() {
+        @Override
+        public void run() {
+            if (engine.publishDiscoveries(discoveryListener)) {
+                for (int i = clients.size() - 1; i >= 0; i--) {
+                    clients.get(i).onDiscoveriesPublished();
+                }
+            }
+            if (engine.isScanning() || engine.discoveryTable().size() > 0) {
+                handler.postDelayed(this, DISCOVERY_PUBLISH_INTERVAL);
+            }
+        }
+    };
+
+    private final DiscoveryTable.ChangeListener discoveryListener = new DiscoveryTable.ChangeListener() {
+        @Override
+        public void onAdded(DiscoveryTable table, int slot) {
+            for (int i = clients.size() - 1; i >= 0; i--) {
+                clients.get(i).onAdded(table, slot);
+            }
+        }
+
+        @Override
+        public void onChanged(DiscoveryTable table, int slot, int changes) {
+            for (int i = clients.size() - 1; i >= 0; i--) {
+                clients.get(i).onChanged(table, slot, changes);
+            }
+        }
+
+        @Override
+        public void onRemoved(long mac) {
+            for (int i = clients.size() - 1; i >= 0; i--) {
+                clients.get(i).onRemoved(mac);
+            }
+        }
+    };
+
+    private final AdvertiseCallback advertiseCallback = new AdvertiseCallback() {
+        @Override
+        public void onStartSuccess(AdvertiseSettings settingsInEffect) {
+            handler.post(() -> {
+                boolean started = !advertising;
+                advertising = true;
+                if (started) {
+                    notifyNotice("Advertising started with UWB info");
+                }
+                notifyStateChanged();
+                updateForeground();
+            });
+        }
+
+        @Override
+        public void onStartFailure(int errorCode) {
+            handler.post(() -> {
+                advertising = false;
+                notifyNotice("Advertising failed to start");
+                notifyStateChanged();
+                updateForeground();
+            });
+        }
+    };
+}
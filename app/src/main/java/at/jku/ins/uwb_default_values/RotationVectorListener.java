@@ -0,0 +1,56 @@
+package at.jku.ins.uwb_default_values;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+
+import at.jku.ins.uwb_default_values.engine.RangingEngine;
+
+/**
+ * Feeds the rotation vector sensor into the engine's orientation fusion and recording while started.
+ * Devices without one use the game rotation vector, whose heading is relative to where it started
+ * instead of north.
+ */
+class RotationVectorListener implements SensorEventListener {
+
+    private final SensorManager sensorManager;
+    private final RangingEngine engine;
+    private boolean started;
+
+    RotationVectorListener(SensorManager sensorManager, RangingEngine engine) {
+        this.sensorManager = sensorManager;
+        this.engine = engine;
+    }
+
+    /** @return false if the device has no rotation sensor */
+    boolean start() {
+        if (started) {
+            return true;
+        }
+        Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+        if (sensor == null) {
+            sensor = sensorManager.getDefaultSensor(Sensor.TYPE_GAME_ROTATION_VECTOR);
+        }
+        started = sensor != null && sensorManager.registerListener(this, sensor, SensorManager.SENSOR_DELAY_GAME);
+        return started;
+    }
+
+    void stop() {
+        if (started) {
+            sensorManager.unregisterListener(this);
+            started = false;
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        float[] values = event.values;
+        // The scalar component is optional in older sensor HALs
+        engine.onRotationVector(values[0], values[1], values[2], values.length > 3 ? values[3] : Float.NaN, event.timestamp);
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+}
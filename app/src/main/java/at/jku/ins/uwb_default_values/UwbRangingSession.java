@@ -0,0 +1,155 @@
+package at.jku.ins.uwb_default_values;
+
+import androidx.core.uwb.RangingMeasurement;
+import androidx.core.uwb.RangingParameters;
+import androidx.core.uwb.RangingPosition;
+import androidx.core.uwb.RangingResult;
+import androidx.core.uwb.UwbAddress;
+import androidx.core.uwb.UwbClientSessionScope;
+import androidx.core.uwb.UwbComplexChannel;
+import androidx.core.uwb.UwbControllerSessionScope;
+import androidx.core.uwb.UwbDevice;
+import androidx.core.uwb.rxjava3.UwbClientSessionScopeRx;
+
+import com.google.common.primitives.Shorts;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import at.jku.ins.uwb_default_values.engine.RangingEngine;
+import at.jku.ins.uwb_default_values.ranging.RangingSession;
+import at.jku.ins.uwb_default_values.rx.RangingOperators;
+import at.jku.ins.uwb_default_values.telemetry.RangingTelemetry;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.disposables.CompositeDisposable;
+
+/**
+ * {@link RangingSession} backed by a {@link UwbClientSessionScope}. A controller scope adds and
+ * removes controlees while ranging; a controlee scope ranges with the peers it was started with.
+ * <p>
+ * Results are handed off to a thread of their own in order, so a slow callback does not block the UWB
+ * stack. Every result is kept up to {@link #RESULT_CAPACITY}: the stages behind the callback, such as the
+ * recorder, telemetry and filters, need each sample, and only the displays coalesce to the newest.
+ */
+class UwbRangingSession implements RangingSession {
+
+    private static final Scheduler RESULT_SCHEDULER = RangingOperators.newComputeScheduler("uwb-ranging-results");
+    /** Results waiting for the callback; four per peer at the full peer count. */
+    private static final int RESULT_CAPACITY = 4 * RangingEngine.MAX_RANGING_PEERS;
+
+    private final UwbClientSessionScope sessionScope;
+    private final UwbComplexChannel complexChannel;
+    private final int sessionId;
+    private final byte[] sessionKey;
+    private final int updateRate;
+    private final RangingTelemetry telemetry;
+    private final CompositeDisposable disposables = new CompositeDisposable();
+    private Callback callback;
+
+    /** @param updateRate one of the {@code RangingSession.UPDATE_RATE_*} values */
+    UwbRangingSession(UwbClientSessionScope sessionScope, UwbComplexChannel complexChannel, int sessionId, byte[] sessionKey,
+                      int updateRate, RangingTelemetry telemetry) {
+        this.sessionScope = sessionScope;
+        this.complexChannel = complexChannel;
+        this.sessionId = sessionId;
+        this.sessionKey = sessionKey;
+        this.updateRate = updateRate;
+        this.telemetry = telemetry;
+    }
+
+    static int toPeer(UwbAddress address) {
+        return Shorts.fromByteArray(address.getAddress());
+    }
+
+    static int peerOf(RangingResult rangingResult) {
+        return toPeer(rangingResult.getDevice().getAddress());
+    }
+
+    static UwbAddress toUwbAddress(int peer) {
+        return new UwbAddress(Shorts.toByteArray((short) peer));
+    }
+
+    static int toRangingUpdateRate(int updateRate) {
+        switch (updateRate) {
+            case UPDATE_RATE_FREQUENT:
+                return RangingParameters.RANGING_UPDATE_RATE_FREQUENT;
+            case UPDATE_RATE_INFREQUENT:
+                return RangingParameters.RANGING_UPDATE_RATE_INFREQUENT;
+            default:
+                return RangingParameters.RANGING_UPDATE_RATE_AUTOMATIC;
+        }
+    }
+
+    @Override
+    public void start(int[] peers, int count, Callback callback) {
+        this.callback = callback;
+        List<UwbDevice> devices = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            devices.add(new UwbDevice(toUwbAddress(peers[i])));
+        }
+        RangingParameters parameters = new RangingParameters(
+                RangingParameters.CONFIG_MULTICAST_DS_TWR,
+                sessionId,
+                0, // sub-session ID
+                sessionKey,
+                null, // sub-session key (optional)
+                complexChannel,
+                devices,
+                toRangingUpdateRate(updateRate)
+        );
+
+        disposables.add(UwbClientSessionScopeRx.rangingResultsObservable(sessionScope, parameters)
+                .compose(RangingOperators.<RangingResult>boundedHandoff(RESULT_CAPACITY, RESULT_SCHEDULER, null))
+                .subscribe(
+                        this::onRangingResult,
+                        callback::onError,
+                        callback::onClosed
+                ));
+    }
+
+    @Override
+    public boolean supportsPeerUpdates() {
+        return sessionScope instanceof UwbControllerSessionScope;
+    }
+
+    @Override
+    public void addPeer(int peer) {
+        disposables.add(UwbClientSessionScopeRx.addControleeCompletable((UwbControllerSessionScope) sessionScope, toUwbAddress(peer))
+                .subscribe(() -> {}, error -> {
+                    System.err.println("Could not add controlee " + peer + ": " + error.getMessage());
+                    callback.onPeerDisconnected(peer);
+                }));
+    }
+
+    @Override
+    public void removePeer(int peer) {
+        disposables.add(UwbClientSessionScopeRx.removeControleeCompletable((UwbControllerSessionScope) sessionScope, toUwbAddress(peer))
+                .subscribe(() -> {}, error -> System.err.println("Could not remove controlee " + peer + ": " + error.getMessage())));
+    }
+
+    @Override
+    public void close() {
+        disposables.dispose();
+    }
+
+    private void onRangingResult(RangingResult rangingResult) {
+        int peer = peerOf(rangingResult);
+        if (rangingResult instanceof RangingResult.RangingResultPosition) {
+            RangingPosition position = ((RangingResult.RangingResultPosition) rangingResult).getPosition();
+            callback.onPosition(peer,
+                    valueOf(position.getDistance()),
+                    valueOf(position.getAzimuth()),
+                    valueOf(position.getElevation()),
+                    position.getElapsedRealtimeNanos());
+        } else if (rangingResult instanceof RangingResult.RangingResultPeerDisconnected) {
+            callback.onPeerDisconnected(peer);
+        } else {
+            // Not a loss of the peer; its link quality is judged from the positions
+            telemetry.onOtherResult(peer);
+        }
+    }
+
+    private static float valueOf(RangingMeasurement measurement) {
+        return measurement != null ? measurement.getValue() : Float.NaN;
+    }
+}
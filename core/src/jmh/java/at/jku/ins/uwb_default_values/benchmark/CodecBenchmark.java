@@ -0,0 +1,69 @@
+package at.jku.ins.uwb_default_values.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.ble.UwbAdvertisement;
+import at.jku.ins.uwb_default_values.ble.UwbAdvertisementCodec;
+import at.jku.ins.uwb_default_values.engine.RangingEngine;
+
+/**
+ * Cost of handling one scan result: decoding the UWB payload alone, and the whole path through
+ * {@link RangingEngine#onScanResult} for a table of known devices.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    private static final int DEVICES = 256;
+
+    private final UwbAdvertisement decoded = new UwbAdvertisement();
+    private byte[] payload;
+    private RangingEngine engine;
+    private long timestamp;
+    private int device;
+
+    @Setup
+    public void setUp() {
+        UwbAdvertisement advertisement = new UwbAdvertisement();
+        advertisement.flags = UwbAdvertisement.FLAG_CONTROLLER | UwbAdvertisement.FLAG_AZIMUTH;
+        advertisement.uwbAddress = 0x1234;
+        advertisement.channel = 9;
+        advertisement.preambleIndex = 10;
+        advertisement.sessionId = 12345;
+        payload = UwbAdvertisementCodec.encode(advertisement);
+
+        // Same role as the adverts, so no ranging is started and only scan handling is measured
+        engine = new RangingEngine(new Fixtures.NoOpScanner(), System::nanoTime, null, new Fixtures.NoOpListener());
+        engine.setController(true);
+        for (int i = 0; i < DEVICES; i++) {
+            engine.onScanResult(i + 1, null, -60, 0, payload);
+        }
+    }
+
+    @Benchmark
+    public boolean decode() {
+        return UwbAdvertisementCodec.decode(payload, decoded);
+    }
+
+    @Benchmark
+    public int scanResult() {
+        device = (device + 1) % DEVICES;
+        engine.onScanResult(device + 1, null, -60 - (device & 7), ++timestamp, payload);
+        return engine.discoveryTable().size();
+    }
+}
@@ -0,0 +1,87 @@
+package at.jku.ins.uwb_default_values.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.ranging.filter.AlphaBetaFilter;
+import at.jku.ins.uwb_default_values.ranging.filter.KalmanFilter;
+import at.jku.ins.uwb_default_values.ranging.filter.MedianFilter;
+import at.jku.ins.uwb_default_values.ranging.quality.LinkQualityEstimator;
+
+/**
+ * Cost of one filter update on a noisy constant-velocity track, cycling through the streams. The link
+ * quality estimator is measured the same way, with a sample count as its downstream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+
+    private static final int STREAMS = 64;
+    private static final int NOISE_LENGTH = 1024;
+
+    private final KalmanFilter kalman = new KalmanFilter(STREAMS, 0.5, 0.01, 4);
+    private final AlphaBetaFilter alphaBeta = new AlphaBetaFilter(STREAMS, 0.4, 0.05);
+    private final MedianFilter median = new MedianFilter(STREAMS, 5);
+    private final float[] noise = new float[NOISE_LENGTH];
+    private long passed;
+    private final LinkQualityEstimator quality = new LinkQualityEstimator(STREAMS,
+            (peer, distance, azimuth, elevation, timestampNanos) -> passed++);
+    private long timestamp;
+    private int step;
+
+    public FilterBenchmark() {
+        Random random = new Random(42);
+        for (int i = 0; i < NOISE_LENGTH; i++) {
+            noise[i] = (float) (random.nextGaussian() * 0.1);
+        }
+    }
+
+    @Benchmark
+    public float kalman() {
+        return kalman.update(nextStream(), nextValue(), timestamp);
+    }
+
+    @Benchmark
+    public float alphaBeta() {
+        return alphaBeta.update(nextStream(), nextValue(), timestamp);
+    }
+
+    @Benchmark
+    public float median() {
+        return median.update(nextStream(), nextValue(), timestamp);
+    }
+
+    @Benchmark
+    public long linkQuality() {
+        int stream = nextStream();
+        quality.onSample(stream, nextValue(), 0, 0, timestamp);
+        return passed;
+    }
+
+    private int nextStream() {
+        step++;
+        int stream = step & (STREAMS - 1);
+        if (stream == 0) {
+            timestamp += 10_000_000L;
+        }
+        return stream;
+    }
+
+    private float nextValue() {
+        return 2f + timestamp * 1e-10f + noise[step & (NOISE_LENGTH - 1)];
+    }
+}
@@ -0,0 +1,143 @@
+package at.jku.ins.uwb_default_values.benchmark;
+
+import at.jku.ins.uwb_default_values.ble.BleScanner;
+import at.jku.ins.uwb_default_values.ble.DiscoveryTable;
+import at.jku.ins.uwb_default_values.engine.RangingEngine;
+import at.jku.ins.uwb_default_values.ranging.RangingSession;
+import at.jku.ins.uwb_default_values.ranging.UwbEndpoint;
+
+/**
+ * Stand-ins for the platform ports, so the benchmarks run the core on a plain JVM.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static final class NoOpScanner implements BleScanner {
+        @Override
+        public void start(boolean lowLatency, long reportDelayMillis) {
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+
+    static final class NoOpListener implements RangingEngine.Listener {
+        @Override
+        public void onPeerConnecting(int peer) {
+        }
+
+        @Override
+        public void onSessionReassigned(int sessionId) {
+        }
+
+        @Override
+        public void onRoleElected(boolean controller) {
+        }
+
+        @Override
+        public void onUpdateRateChanged(int updateRate) {
+        }
+
+        @Override
+        public void onRangingStarted() {
+        }
+
+        @Override
+        public void onPeerLost(int peer) {
+        }
+
+        @Override
+        public void onRangingStopped(Throwable error) {
+        }
+    }
+
+    static final class NoOpChangeListener implements DiscoveryTable.ChangeListener {
+        @Override
+        public void onAdded(DiscoveryTable table, int slot) {
+        }
+
+        @Override
+        public void onChanged(DiscoveryTable table, int slot, int changes) {
+        }
+
+        @Override
+        public void onRemoved(long mac) {
+        }
+    }
+
+    /** Controller endpoint whose sessions hand their callback out, so results can be pushed in directly. */
+    static final class CallbackEndpoint implements UwbEndpoint {
+
+        RangingSession.Callback callback;
+
+        @Override
+        public boolean isController() {
+            return true;
+        }
+
+        @Override
+        public int localAddress() {
+            return 1;
+        }
+
+        @Override
+        public int channel() {
+            return 9;
+        }
+
+        @Override
+        public int preambleIndex() {
+            return 10;
+        }
+
+        @Override
+        public boolean supportsDistance() {
+            return true;
+        }
+
+        @Override
+        public boolean supportsAzimuth() {
+            return true;
+        }
+
+        @Override
+        public boolean supportsElevation() {
+            return true;
+        }
+
+        @Override
+        public int maxPeers() {
+            return RangingEngine.MAX_RANGING_PEERS;
+        }
+
+        @Override
+        public RangingSession openSession(int channel, int preambleIndex, int sessionId, byte[] sessionKey, int updateRate) {
+            return new RangingSession() {
+                @Override
+                public void start(int[] peers, int count, Callback callback) {
+                    CallbackEndpoint.this.callback = callback;
+                }
+
+                @Override
+                public boolean supportsPeerUpdates() {
+                    return true;
+                }
+
+                @Override
+                public void addPeer(int peer) {
+                }
+
+                @Override
+                public void removePeer(int peer) {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+}
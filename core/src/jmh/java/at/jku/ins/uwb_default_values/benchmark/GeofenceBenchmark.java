@@ -0,0 +1,119 @@
+package at.jku.ins.uwb_default_values.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.geofence.GeofenceEngine;
+
+/**
+ * Cost of one sample and one position update against {@code rules} rules spread over 100 peers, half of
+ * them proximity rules and half zone rules over 1000 zones in a 200 m square. Every peer walks randomly,
+ * so rules keep entering and leaving.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeofenceBenchmark {
+
+    private static final int PEERS = 100;
+    private static final int ZONES = 1000;
+    private static final double AREA = 200;
+    private static final int TRACK_LENGTH = 4096;
+    private static final long STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Param({"1000", "10000"})
+    public int rules;
+
+    private GeofenceEngine engine;
+    private final float[] distances = new float[TRACK_LENGTH];
+    private final double[] xs = new double[TRACK_LENGTH];
+    private final double[] ys = new double[TRACK_LENGTH];
+    private long events;
+    private long timestamp;
+    private int step;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        engine = new GeofenceEngine(rules, ZONES, 10, GeofenceEngine.DEFAULT_DEBOUNCE_NANOS);
+        engine.setListener((rule, subject, event, timestampNanos) -> events++);
+        for (int zone = 0; zone < ZONES; zone++) {
+            double x = random.nextDouble() * AREA;
+            double y = random.nextDouble() * AREA;
+            if (random.nextBoolean()) {
+                engine.addCircleZone(x, y, 1 + random.nextDouble() * 9);
+            } else {
+                engine.addRectangleZone(x, y, x + 2 + random.nextDouble() * 18, y + 2 + random.nextDouble() * 18);
+            }
+        }
+        for (int rule = 0; rule < rules; rule++) {
+            int peer = rule % PEERS;
+            if (rule % 2 == 0) {
+                engine.addProximityRule(peer, 0.5f + random.nextFloat() * 20, TimeUnit.SECONDS.toNanos(5));
+            } else {
+                // Retry when the peer already has a rule for the drawn zone
+                while (engine.addZoneRule(peer, random.nextInt(ZONES), TimeUnit.SECONDS.toNanos(5)) == GeofenceEngine.NO_RULE) {
+                }
+            }
+        }
+        if (engine.ruleCount() != rules) {
+            throw new IllegalStateException("Only " + engine.ruleCount() + " rules were added");
+        }
+
+        // Random walks at walking speed, read by all peers at different offsets
+        double distance = 10;
+        double x = AREA / 2;
+        double y = AREA / 2;
+        for (int i = 0; i < TRACK_LENGTH; i++) {
+            distance = Math.abs(distance + random.nextGaussian() * 0.15);
+            x = Math.max(0, Math.min(AREA, x + random.nextGaussian() * 2));
+            y = Math.max(0, Math.min(AREA, y + random.nextGaussian() * 2));
+            distances[i] = (float) distance;
+            xs[i] = x;
+            ys[i] = y;
+        }
+    }
+
+    @Benchmark
+    public long proximitySample() {
+        int peer = nextPeer();
+        engine.onSample(peer, distances[trackIndex(peer)], 0f, 0f, timestamp);
+        return events;
+    }
+
+    @Benchmark
+    public long zonePosition() {
+        int peer = nextPeer();
+        int index = trackIndex(peer);
+        engine.onPosition(peer, xs[index], ys[index], timestamp);
+        return events;
+    }
+
+    private int nextPeer() {
+        step++;
+        int peer = step % PEERS;
+        if (peer == 0) {
+            timestamp += STEP_NANOS;
+        }
+        return peer;
+    }
+
+    private int trackIndex(int peer) {
+        return (step / PEERS + peer * 37) & (TRACK_LENGTH - 1);
+    }
+}
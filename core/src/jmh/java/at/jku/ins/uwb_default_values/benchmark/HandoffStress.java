@@ -0,0 +1,195 @@
+package at.jku.ins.uwb_default_values.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import at.jku.ins.uwb_default_values.rx.HandoffStats;
+import at.jku.ins.uwb_default_values.rx.RangingOperators;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+
+/**
+ * Drives each handoff operator in real time with a producer 10 times faster than its consumer. The
+ * operators must never hold more than their capacity, and the delivery latency must level off instead
+ * of growing for as long as the run lasts, as it does with plain {@code observeOn}. Exits with status 1
+ * if an operator fails.
+ * <p>
+ * The producer emits {@link #RATE} results per second, round robin over {@link #PEERS} peers. The
+ * consumer spends 10 producer intervals per call.
+ * <pre>
+ * ./gradlew :core:stressHandoff [-PstressArgs="&lt;seconds&gt;"]
+ * </pre>
+ */
+public final class HandoffStress {
+
+    private static final int RATE = 10_000;
+    private static final int PEERS = 64;
+    private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1) / RATE;
+    private static final long CALL_COST_NANOS = 10 * INTERVAL_NANOS;
+    private static final int HANDOFF_CAPACITY = 256;
+    /** Allowed growth of the median latency from the second to the last second of the run. */
+    private static final long DRIFT_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /** One result; allocated per emission like the results of the UWB stack. */
+    private static final class Result {
+        final int peer;
+        final long producedNanos;
+
+        Result(int peer, long producedNanos) {
+            this.peer = peer;
+            this.producedNanos = producedNanos;
+        }
+    }
+
+    private final Scheduler scheduler = RangingOperators.newComputeScheduler("stress-consumer");
+    private final HandoffStats stats = new HandoffStats();
+    private final PublishSubject<Result> results = PublishSubject.create();
+    private final AtomicLong produced = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final long[] latencies = new long[1 << 16];
+    private int latencyCount;
+    private volatile boolean running;
+
+    public static void main(String[] args) throws InterruptedException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        boolean passed = new HandoffStress().latestPerPeer(seconds);
+        passed &= new HandoffStress().boundedHandoff(seconds);
+        new HandoffStress().observeOn();
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private boolean latestPerPeer(int seconds) throws InterruptedException {
+        long[] medians = run(seconds, results.compose(RangingOperators.latestPerPeer(result -> result.peer, PEERS, scheduler, stats))
+                .subscribe(this::consume, error -> {}, done::countDown));
+        String failure = checkBounded(PEERS, medians);
+        if (failure == null && stats.coalesced() == 0) {
+            failure = "nothing coalesced";
+        }
+        return report("latestPerPeer", medians, failure);
+    }
+
+    private boolean boundedHandoff(int seconds) throws InterruptedException {
+        long[] medians = run(seconds, results.compose(RangingOperators.<Result>boundedHandoff(HANDOFF_CAPACITY, scheduler, stats))
+                .subscribe(this::consume, error -> {}, done::countDown));
+        String failure = checkBounded(HANDOFF_CAPACITY, medians);
+        if (failure == null && stats.dropped() == 0) {
+            failure = "nothing dropped";
+        }
+        return report("boundedHandoff", medians, failure);
+    }
+
+    /** The baseline the operators are measured against: the queue grows with the run. */
+    private void observeOn() throws InterruptedException {
+        Disposable subscription = results.observeOn(scheduler).subscribe(this::consume);
+        running = true;
+        Thread producer = new Thread(this::produce, "stress-producer");
+        producer.start();
+        Thread.sleep(1000);
+        running = false;
+        producer.join();
+        long pending = produced.get() - consumed.get();
+        subscription.dispose();
+        System.out.printf("observeOn: %d of %d results still queued after 1 s%n", pending, produced.get());
+    }
+
+    // Returns the median latency of every second of the run
+    private long[] run(int seconds, Disposable subscription) throws InterruptedException {
+        long[] medians = new long[seconds];
+        running = true;
+        Thread producer = new Thread(this::produce, "stress-producer");
+        producer.start();
+        for (int second = 0; second < seconds; second++) {
+            Thread.sleep(1000);
+            medians[second] = median(takeLatencies());
+        }
+        running = false;
+        producer.join();
+        results.onComplete();
+        boolean drained = done.await(5, TimeUnit.SECONDS);
+        subscription.dispose();
+        if (!drained) {
+            throw new IllegalStateException("Not drained within 5 s");
+        }
+        return medians;
+    }
+
+    /** @return why the run failed, or null */
+    private String checkBounded(int capacity, long[] medians) {
+        if (stats.maxPending() > capacity) {
+            return "held " + stats.maxPending() + " results, capacity " + capacity;
+        }
+        // Every result was delivered, replaced by a newer one or dropped
+        if (produced.get() != stats.offered() || stats.offered() != stats.delivered() + stats.coalesced() + stats.dropped()) {
+            return "lost track of results, produced " + produced.get();
+        }
+        long settled = medians[Math.min(1, medians.length - 1)];
+        long last = medians[medians.length - 1];
+        if (last > settled + settled / 2 + DRIFT_NANOS) {
+            return "median latency drifted from " + settled + " to " + last + " ns";
+        }
+        return null;
+    }
+
+    private boolean report(String operator, long[] medians, String failure) {
+        System.out.println(operator + ": median latency per second " + Arrays.toString(medians) + " ns, " + stats);
+        System.out.println(operator + ": " + (failure == null ? "passed" : "FAILED, " + failure));
+        return failure == null;
+    }
+
+    /** Emits on schedule, catching up in bursts after the thread was descheduled. */
+    private void produce() {
+        long next = System.nanoTime();
+        int peer = 0;
+        while (running) {
+            long now = System.nanoTime();
+            if (now < next) {
+                LockSupport.parkNanos(next - now);
+                continue;
+            }
+            while (next <= now) {
+                results.onNext(new Result(peer, next));
+                produced.incrementAndGet();
+                peer = (peer + 1) % PEERS;
+                next += INTERVAL_NANOS;
+            }
+        }
+    }
+
+    private void consume(Result result) {
+        spin(CALL_COST_NANOS);
+        record(System.nanoTime() - result.producedNanos);
+        consumed.incrementAndGet();
+    }
+
+    private static void spin(long nanos) {
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            // Busy like a real consumer
+        }
+    }
+
+    private synchronized void record(long latencyNanos) {
+        if (latencyCount < latencies.length) {
+            latencies[latencyCount++] = latencyNanos;
+        }
+    }
+
+    /** @return the latencies since the last call, sorted */
+    private synchronized long[] takeLatencies() {
+        long[] window = Arrays.copyOf(latencies, latencyCount);
+        latencyCount = 0;
+        Arrays.sort(window);
+        return window;
+    }
+
+    private static long median(long[] sorted) {
+        return sorted.length > 0 ? sorted[sorted.length / 2] : 0;
+    }
+}
@@ -0,0 +1,110 @@
+package at.jku.ins.uwb_default_values.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.engine.RangingEngine;
+import at.jku.ins.uwb_default_values.history.TimeSeriesStore;
+import at.jku.ins.uwb_default_values.ranging.RangingSampleListener;
+
+/**
+ * Append and query cost of the ranging history. The store is filled with {@code hours} of 10 Hz samples
+ * of {@code peers} walking peers, with jittered timestamps and every third sample without angles, then
+ * keeps appending, so it is at its memory budget throughout and reuses its oldest blocks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryBenchmark {
+
+    private static final int TRACK_LENGTH = 4096;
+    private static final long STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Param({"4"})
+    public int peers;
+
+    @Param({"3"})
+    public int hours;
+
+    private TimeSeriesStore store;
+    private final float[] distances = new float[TRACK_LENGTH];
+    private final float[] azimuths = new float[TRACK_LENGTH];
+    private final float[] elevations = new float[TRACK_LENGTH];
+    private final int[] jitter = new int[TRACK_LENGTH];
+    private long consumed;
+    private final TimeSeriesStore.Aggregate aggregate = new TimeSeriesStore.Aggregate();
+    private final RangingSampleListener sink = (peer, distance, azimuth, elevation, timestampNanos) -> consumed++;
+    private final TimeSeriesStore.RollupVisitor rollupSink = (startNanos, count, min, max, mean) -> consumed++;
+    private long step;
+    private int peer;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        double distance = 5;
+        for (int i = 0; i < TRACK_LENGTH; i++) {
+            distance = Math.abs(distance + random.nextGaussian() * 0.02);
+            distances[i] = (float) (distance + random.nextGaussian() * 0.05);
+            azimuths[i] = i % 3 == 0 ? Float.NaN : (float) (random.nextGaussian() * 10);
+            elevations[i] = i % 3 == 0 ? Float.NaN : (float) (random.nextGaussian() * 5);
+            jitter[i] = random.nextInt((int) TimeUnit.MILLISECONDS.toNanos(3));
+        }
+        store = new TimeSeriesStore(RangingEngine.MAX_HISTORY_PEERS, RangingEngine.HISTORY_BUDGET_BYTES);
+        long samples = TimeUnit.HOURS.toNanos(hours) / STEP_NANOS * peers;
+        for (long i = 0; i < samples; i++) {
+            append();
+        }
+    }
+
+    @Benchmark
+    public long append() {
+        peer++;
+        if (peer >= peers) {
+            peer = 0;
+            step++;
+        }
+        int index = (int) ((step + peer * 37) & (TRACK_LENGTH - 1));
+        store.onSample(peer, distances[index], azimuths[index], elevations[index], step * STEP_NANOS + jitter[index]);
+        return step;
+    }
+
+    /** Raw samples of the last minute, about 600. */
+    @Benchmark
+    public long queryLastMinute() {
+        long now = step * STEP_NANOS;
+        store.query(0, now - TimeUnit.MINUTES.toNanos(1), now, sink);
+        return consumed;
+    }
+
+    /** Min, max and mean over the last hour, mostly from block headers. */
+    @Benchmark
+    public double aggregateLastHour() {
+        long now = step * STEP_NANOS;
+        store.aggregate(0, TimeSeriesStore.DISTANCE, now - TimeUnit.HOURS.toNanos(1), now, aggregate);
+        return aggregate.mean;
+    }
+
+    /** The 10 s rollups of the last hour, 360 buckets. */
+    @Benchmark
+    public long rollupsLastHour() {
+        long now = step * STEP_NANOS;
+        store.rollups(0, TimeSeriesStore.ROLLUP_10_SECONDS, TimeSeriesStore.DISTANCE, now - TimeUnit.HOURS.toNanos(1), now,
+                rollupSink);
+        return consumed;
+    }
+}
@@ -0,0 +1,196 @@
+package at.jku.ins.uwb_default_values.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.ble.UwbAdvertisement;
+import at.jku.ins.uwb_default_values.ble.UwbAdvertisementCodec;
+import at.jku.ins.uwb_default_values.engine.RangingEngine;
+import at.jku.ins.uwb_default_values.ranging.RangingSession;
+import at.jku.ins.uwb_default_values.ranging.UwbEndpoint;
+
+/**
+ * Runs one controller's {@link RangingEngine} against a crowd of simulated controlees on a simulated
+ * clock and reports the aggregate ranging updates per second and how evenly they are shared.
+ * <p>
+ * Every controlee advertises each 100 ms. The controller serves a limited number of controlees at once;
+ * each of them delivers a result per 100 ms ranging round once its setup delay has passed.
+ * <pre>
+ * ./gradlew :core:simulatePairing [-PsimArgs="&lt;controlees&gt; &lt;max active&gt; &lt;seconds&gt;"]
+ * </pre>
+ */
+public final class PairingSimulation {
+
+    private static final long STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long ADVERT_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long ROUND_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SETUP_NANOS = TimeUnit.MILLISECONDS.toNanos(300);
+
+    private long now = 1;
+    private final int controlees;
+    private final long[] addedAt;
+    private final boolean[] inSession;
+    private final long[] updates;
+    private RangingSession.Callback callback;
+
+    private PairingSimulation(int controlees) {
+        this.controlees = controlees;
+        addedAt = new long[controlees];
+        inSession = new boolean[controlees];
+        updates = new long[controlees];
+    }
+
+    public static void main(String[] args) {
+        int controlees = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int maxActive = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 120;
+        new PairingSimulation(controlees).run(maxActive, TimeUnit.SECONDS.toNanos(seconds));
+    }
+
+    private void run(int maxActive, long durationNanos) {
+        RangingEngine engine = new RangingEngine(new Fixtures.NoOpScanner(), () -> now, null, new Fixtures.NoOpListener());
+        engine.setController(true);
+        engine.setEndpoint(new SimulatedController(maxActive));
+
+        byte[][] payloads = new byte[controlees][];
+        UwbAdvertisement advertisement = new UwbAdvertisement();
+        for (int i = 0; i < controlees; i++) {
+            advertisement.uwbAddress = peer(i);
+            payloads[i] = UwbAdvertisementCodec.encode(advertisement);
+        }
+
+        long nextAdvert = now;
+        long nextTick = now;
+        long nextRound = now;
+        long end = now + durationNanos;
+        for (; now < end; now += STEP_NANOS) {
+            if (now >= nextAdvert) {
+                for (int i = 0; i < controlees; i++) {
+                    engine.onScanResult(i + 1, null, -60, now, payloads[i]);
+                }
+                nextAdvert += ADVERT_INTERVAL_NANOS;
+            }
+            if (now >= nextTick) {
+                nextTick = now + engine.tickPairing();
+            }
+            if (now >= nextRound) {
+                for (int i = 0; i < controlees; i++) {
+                    if (inSession[i] && now - addedAt[i] >= SETUP_NANOS) {
+                        updates[i]++;
+                        callback.onPosition(peer(i), 2f, 0f, 0f, now);
+                    }
+                }
+                nextRound += ROUND_NANOS;
+            }
+        }
+        report(engine, maxActive, durationNanos);
+    }
+
+    private void report(RangingEngine engine, int maxActive, long durationNanos) {
+        long total = 0;
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        double squares = 0;
+        for (long count : updates) {
+            total += count;
+            min = Math.min(min, count);
+            max = Math.max(max, count);
+            squares += (double) count * count;
+        }
+        double seconds = durationNanos / 1e9;
+        double jain = squares > 0 ? (double) total * total / (controlees * squares) : 0;
+        System.out.printf("controlees %d, max active %d, %.0f s simulated%n", controlees, maxActive, seconds);
+        System.out.printf("aggregate %.1f updates/s (capacity %.1f)%n",
+                total / seconds, Math.min(controlees, maxActive) * 1e9 / ROUND_NANOS);
+        System.out.printf("per peer min %.2f, max %.2f updates/s, Jain fairness %.3f, %d rotations%n",
+                min / seconds, max / seconds, jain, engine.pairing().rotations());
+    }
+
+    private static int peer(int index) {
+        return 0x100 + index;
+    }
+
+    private final class SimulatedController implements UwbEndpoint {
+
+        private final int maxPeers;
+
+        SimulatedController(int maxPeers) {
+            this.maxPeers = maxPeers;
+        }
+
+        @Override
+        public boolean isController() {
+            return true;
+        }
+
+        @Override
+        public int localAddress() {
+            return 1;
+        }
+
+        @Override
+        public int channel() {
+            return 9;
+        }
+
+        @Override
+        public int preambleIndex() {
+            return 10;
+        }
+
+        @Override
+        public boolean supportsDistance() {
+            return true;
+        }
+
+        @Override
+        public boolean supportsAzimuth() {
+            return false;
+        }
+
+        @Override
+        public boolean supportsElevation() {
+            return false;
+        }
+
+        @Override
+        public int maxPeers() {
+            return maxPeers;
+        }
+
+        @Override
+        public RangingSession openSession(int channel, int preambleIndex, int sessionId, byte[] sessionKey, int updateRate) {
+            return new RangingSession() {
+                @Override
+                public void start(int[] peers, int count, Callback sessionCallback) {
+                    callback = sessionCallback;
+                    for (int i = 0; i < count; i++) {
+                        addPeer(peers[i]);
+                    }
+                }
+
+                @Override
+                public boolean supportsPeerUpdates() {
+                    return true;
+                }
+
+                @Override
+                public void addPeer(int peer) {
+                    inSession[peer - 0x100] = true;
+                    addedAt[peer - 0x100] = now;
+                }
+
+                @Override
+                public void removePeer(int peer) {
+                    inSession[peer - 0x100] = false;
+                }
+
+                @Override
+                public void close() {
+                    for (int i = 0; i < controlees; i++) {
+                        inSession[i] = false;
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package at.jku.ins.uwb_default_values.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.engine.RangingEngine;
+import at.jku.ins.uwb_default_values.ranging.RangingSession;
+
+/**
+ * Cost of one ranging result from the session callback to the sample buffer, through per-peer state,
+ * telemetry, filtering and multilateration, for a growing number of peers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultHandlingBenchmark {
+
+    @Param({"1", "8", "64"})
+    public int peers;
+
+    @Param({"0", "4"})
+    public int anchors;
+
+    private RangingSession.Callback callback;
+    private long timestamp;
+    private int peer;
+
+    @Setup
+    public void setUp() {
+        Fixtures.CallbackEndpoint endpoint = new Fixtures.CallbackEndpoint();
+        RangingEngine engine = new RangingEngine(new Fixtures.NoOpScanner(), System::nanoTime, null, new Fixtures.NoOpListener());
+        engine.setController(true);
+        engine.setEndpoint(endpoint);
+        for (int i = 0; i < anchors; i++) {
+            engine.solver().setAnchor(i + 100, (i & 1) * 5, (i >> 1) * 5, 0);
+        }
+        engine.startRanging(100, endpoint.channel(), endpoint.preambleIndex());
+        for (int i = 1; i < peers; i++) {
+            engine.manager().addPeer(100 + i);
+        }
+        callback = endpoint.callback;
+    }
+
+    @Benchmark
+    public void onPosition() {
+        peer = peer + 1 < peers ? peer + 1 : 0;
+        timestamp += 10_000_000L;
+        callback.onPosition(100 + peer, 3f + (peer & 3) * 0.1f, 10f, -5f, timestamp);
+    }
+}
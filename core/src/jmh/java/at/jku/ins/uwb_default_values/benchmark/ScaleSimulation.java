@@ -0,0 +1,749 @@
+package at.jku.ins.uwb_default_values.benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.ble.BleScanner;
+import at.jku.ins.uwb_default_values.ble.DiscoveryTable;
+import at.jku.ins.uwb_default_values.engine.RangingEngine;
+import at.jku.ins.uwb_default_values.ranging.RangingSession;
+import at.jku.ins.uwb_default_values.ranging.UwbEndpoint;
+
+/**
+ * Discrete-event simulation of a crowd of devices, each running its own {@link RangingEngine} the way
+ * {@code RangingService} drives it: duty cycled scanning, periodic discovery publishing and pairing
+ * ticks, role election, UWB sessions and the sample pipeline behind them. Nothing runs on a real clock,
+ * so a minute of a thousand devices takes seconds on a plain JVM.
+ * <p>
+ * Devices are scattered over an area sized for about {@link #NEIGHBORS} others within BLE range, boot
+ * at random in the first two seconds and elect their roles automatically. The model:
+ * <ul>
+ *     <li>adverts every 100 ms plus up to 10 ms of random delay, missed by scanners in low power
+ *     mode more often than in low latency mode, with an RSSI from log-distance path loss</li>
+ *     <li>a session scope setup delay after each role change and a session setup delay before the
+ *     first ranging round; controlees added to a running session join a little later</li>
+ *     <li>ranging rounds at the session's update rate, as long as controller and controlee are in
+ *     sessions with the same ID, key, channel and preamble that list each other; losses grow towards
+ *     the edge of UWB range and a peer counts as disconnected after 10 lost rounds in a row</li>
+ *     <li>distance noise of 5 cm, with some links blocked: longer by up to a meter, noisier and 10 dB
+ *     weaker; angles within a 60 degree field of view of each device's fixed heading</li>
+ * </ul>
+ * For each device count it reports the aggregate filtered samples per second, the time from boot to
+ * the first filtered sample, and per kind of event the share of CPU time and the bytes allocated.
+ * <pre>
+ * ./gradlew :core:simulateScale -PscaleArgs="[seconds] [devices...]"
+ * </pre>
+ */
+public final class ScaleSimulation {
+
+    private static final int NEIGHBORS = 24;
+    private static final double BLE_RANGE = 40;
+    private static final double UWB_RANGE = 40;
+    private static final long BOOT_SPREAD_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final long ADVERT_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long ADVERT_JITTER_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final double LOW_LATENCY_LOSS = 0.1;
+    private static final double LOW_POWER_LOSS = 0.7;
+    private static final long PUBLISH_INTERVAL_NANOS = RangingEngine.DISCOVERY_PUBLISH_INTERVAL_NANOS;
+    private static final long MIN_SCOPE_SETUP_NANOS = TimeUnit.MILLISECONDS.toNanos(150);
+    private static final long MIN_SESSION_SETUP_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long MIN_JOIN_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int MAX_CONTROLEES = 8;
+    private static final int DISCONNECT_ROUNDS = 10;
+    private static final double BASE_LOSS = 0.05;
+    private static final double NLOS_SHARE = 0.15;
+    private static final double FIELD_OF_VIEW = 60;
+    private static final int BASE_ADDRESS = 0x1000;
+
+    // Event kinds, also the rows of the profile
+    private static final int BOOT = 0;
+    private static final int ADVERT = 1;
+    private static final int SCAN_TICK = 2;
+    private static final int PUBLISH = 3;
+    private static final int PAIRING_TICK = 4;
+    private static final int SCOPE_READY = 5;
+    private static final int SESSION_READY = 6;
+    private static final int ROUND = 7;
+    private static final String[] KIND_NAMES =
+            {"boot", "advert", "scan tick", "publish", "pairing tick", "scope ready", "session ready", "ranging round"};
+
+    private final Random random = new Random(42);
+    private final EventQueue events = new EventQueue();
+    private final Device[] devices;
+    private final DiscoveryTable.ChangeListener noChanges = new Fixtures.NoOpChangeListener();
+    private long now;
+    private int nextSessionSerial;
+
+    private final long[] eventCounts = new long[KIND_NAMES.length];
+    private final long[] eventNanos = new long[KIND_NAMES.length];
+    private final long[] eventBytes = new long[KIND_NAMES.length];
+    private long results;
+
+    public static void main(String[] args) {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        int[] counts = args.length > 1 ? new int[args.length - 1] : new int[]{2, 10, 100, 1000};
+        for (int i = 1; i < args.length; i++) {
+            counts[i - 1] = Integer.parseInt(args[i]);
+        }
+        for (int count : counts) {
+            new ScaleSimulation(count).run(TimeUnit.SECONDS.toNanos(seconds));
+            System.gc();
+        }
+    }
+
+    private ScaleSimulation(int count) {
+        devices = new Device[count];
+        double side = Math.max(10, Math.sqrt(count * Math.PI * BLE_RANGE * BLE_RANGE / NEIGHBORS));
+        for (int i = 0; i < count; i++) {
+            devices[i] = new Device(i, random.nextDouble() * side, random.nextDouble() * side, random.nextDouble() * 360);
+        }
+        // Positions are fixed, so each device's audience is too
+        int[] buffer = new int[count];
+        for (Device device : devices) {
+            int n = 0;
+            for (Device other : devices) {
+                if (other != device && distance(device, other) <= BLE_RANGE) {
+                    buffer[n++] = other.index;
+                }
+            }
+            device.neighbors = Arrays.copyOf(buffer, n);
+        }
+    }
+
+    private void run(long durationNanos) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+        long cpuStart = threads.getCurrentThreadCpuTime();
+        long wallStart = System.nanoTime();
+
+        for (Device device : devices) {
+            events.add((long) (random.nextDouble() * BOOT_SPREAD_NANOS), BOOT, device.index, 0);
+        }
+        long processed = 0;
+        while (!events.isEmpty() && events.peekTime() <= durationNanos) {
+            now = events.peekTime();
+            int kind = events.peekKind();
+            int device = events.peekDevice();
+            int arg = events.peekArg();
+            events.remove();
+            long allocated = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            handle(kind, devices[device], arg);
+            eventNanos[kind] += System.nanoTime() - start;
+            eventBytes[kind] += threads.getThreadAllocatedBytes(thread) - allocated;
+            eventCounts[kind]++;
+            processed++;
+        }
+
+        long wall = System.nanoTime() - wallStart;
+        long cpu = threads.getCurrentThreadCpuTime() - cpuStart;
+        report(durationNanos, processed, wall, cpu, gcCount() - gcCount, gcMillis() - gcMillis);
+    }
+
+    private void handle(int kind, Device device, int arg) {
+        switch (kind) {
+            case BOOT:
+                device.boot();
+                break;
+            case ADVERT:
+                advertise(device);
+                events.add(now + ADVERT_INTERVAL_NANOS + (long) (random.nextDouble() * ADVERT_JITTER_NANOS), ADVERT, device.index, 0);
+                break;
+            case SCAN_TICK:
+                if (arg == device.scanSerial) {
+                    device.scheduleScanTick(device.engine.tickScan());
+                }
+                break;
+            case PUBLISH:
+                device.engine.publishDiscoveries(noChanges);
+                events.add(now + PUBLISH_INTERVAL_NANOS, PUBLISH, device.index, 0);
+                break;
+            case PAIRING_TICK:
+                events.add(now + device.engine.tickPairing(), PAIRING_TICK, device.index, 0);
+                break;
+            case SCOPE_READY:
+                device.onScopeReady(arg == 1);
+                break;
+            case SESSION_READY:
+                if (device.session != null && device.session.serial == arg) {
+                    device.session.onReady();
+                }
+                break;
+            case ROUND:
+                if (device.session != null && device.session.serial == arg) {
+                    device.session.round();
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown event " + kind);
+        }
+    }
+
+    private void advertise(Device device) {
+        if (device.advert == null) {
+            return;
+        }
+        for (int index : device.neighbors) {
+            Device receiver = devices[index];
+            if (!receiver.scanning) {
+                continue;
+            }
+            if (random.nextDouble() < (receiver.lowLatency ? LOW_LATENCY_LOSS : LOW_POWER_LOSS)) {
+                continue;
+            }
+            double d = distance(device, receiver);
+            double rssi = -45 - 20 * Math.log10(Math.max(0.5, d)) + random.nextGaussian() * 4 - (blocked(device, receiver) ? 10 : 0);
+            receiver.engine.onScanResult(device.mac, null, (int) Math.round(rssi), now, device.advert);
+        }
+    }
+
+    private void report(long durationNanos, long processed, long wall, long cpu, long gcCount, long gcMillis) {
+        int controllers = 0;
+        int ranging = 0;
+        long samples = 0;
+        int fixed = 0;
+        long[] firstFixes = new long[devices.length];
+        for (Device device : devices) {
+            if (device.engine.isController()) {
+                controllers++;
+            }
+            if (device.engine.manager().isRanging()) {
+                ranging++;
+            }
+            samples += device.engine.samples().sequence();
+            if (device.firstFix > 0) {
+                firstFixes[fixed++] = device.firstFix;
+            }
+        }
+        Arrays.sort(firstFixes, 0, fixed);
+        double seconds = durationNanos / 1e9;
+        long allocated = 0;
+        for (long bytes : eventBytes) {
+            allocated += bytes;
+        }
+
+        System.out.printf("%d devices, %.0f s simulated in %.2f s, %d events, %.0f events/s%n", devices.length, seconds,
+                wall / 1e9, processed, processed / (wall / 1e9));
+        System.out.printf("  %d controllers, %d ranging at the end; %d results, %.1f filtered samples/s (%.2f per device), %.0f per wall second%n",
+                controllers, ranging, results, samples / seconds, samples / seconds / devices.length, samples / (wall / 1e9));
+        if (fixed > 0) {
+            System.out.printf("  first fix for %.1f%% of devices after p50 %.2f s, p90 %.2f s, max %.2f s%n", 100.0 * fixed / devices.length,
+                    firstFixes[fixed / 2] / 1e9, firstFixes[(int) (fixed * 0.9)] / 1e9, firstFixes[fixed - 1] / 1e9);
+        } else {
+            System.out.printf("  no device got a fix%n");
+        }
+        System.out.printf("  cpu %.2f s, %.0f ns per filtered sample; allocated %.1f MB, %.0f bytes per event; %d gcs taking %d ms%n",
+                cpu / 1e9, samples > 0 ? (double) cpu / samples : 0, allocated / 1e6, (double) allocated / Math.max(1, processed),
+                gcCount, gcMillis);
+        long measured = 0;
+        for (long nanos : eventNanos) {
+            measured += nanos;
+        }
+        System.out.printf("  %-14s %10s %7s %10s %12s%n", "event", "count", "cpu", "ns/event", "bytes/event");
+        for (int kind = 0; kind < KIND_NAMES.length; kind++) {
+            if (eventCounts[kind] == 0) {
+                continue;
+            }
+            System.out.printf("  %-14s %10d %6.1f%% %10.0f %12.1f%n", KIND_NAMES[kind], eventCounts[kind],
+                    100.0 * eventNanos[kind] / Math.max(1, measured), (double) eventNanos[kind] / eventCounts[kind],
+                    (double) eventBytes[kind] / eventCounts[kind]);
+        }
+    }
+
+    /** One round of a link, from the controller. @return whether it delivered a result */
+    private boolean range(Device controller, Device controlee) {
+        double d = distance(controller, controlee);
+        double edge = d / UWB_RANGE;
+        if (edge > 1 || random.nextDouble() < BASE_LOSS + 0.5 * edge * edge * edge * edge) {
+            return false;
+        }
+        boolean blocked = blocked(controller, controlee);
+        double measured = d + (blocked ? 0.3 + 0.7 * pairNoise(controller, controlee, 1) + Math.abs(random.nextGaussian()) * 0.3
+                : random.nextGaussian() * 0.05);
+        results++;
+        controller.deliver(controlee, (float) measured);
+        controlee.deliver(controller, (float) measured);
+        return true;
+    }
+
+    private static double distance(Device a, Device b) {
+        double dx = a.x - b.x;
+        double dy = a.y - b.y;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private static boolean blocked(Device a, Device b) {
+        return pairNoise(a, b, 0) < NLOS_SHARE;
+    }
+
+    /** A fixed value in [0, 1) per pair of devices and salt, without storing one per pair. */
+    private static double pairNoise(Device a, Device b, int salt) {
+        long h = ((long) Math.min(a.index, b.index) << 32 | Math.max(a.index, b.index)) * 0x9E3779B97F4A7C15L + salt;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (h >>> 11) * 0x1.0p-53;
+    }
+
+    private long uniform(long min) {
+        return min + (long) (random.nextDouble() * 2 * min);
+    }
+
+    private static long roundNanos(int updateRate) {
+        switch (updateRate) {
+            case RangingSession.UPDATE_RATE_FREQUENT:
+                return TimeUnit.MILLISECONDS.toNanos(100);
+            case RangingSession.UPDATE_RATE_INFREQUENT:
+                return TimeUnit.MILLISECONDS.toNanos(600);
+            default:
+                return TimeUnit.MILLISECONDS.toNanos(200);
+        }
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /** A phone with its engine and the platform ports around it. */
+    private final class Device implements BleScanner, RangingEngine.Listener {
+
+        final int index;
+        final int address;
+        final long mac;
+        final double x;
+        final double y;
+        final double heading;
+        final RangingEngine engine;
+        int[] neighbors;
+        byte[] advert;
+        boolean scanning;
+        boolean lowLatency;
+        int scanSerial;
+        long scopeRequested;
+        long bootTime;
+        long firstFix;
+        Session session;
+
+        Device(int index, double x, double y, double heading) {
+            this.index = index;
+            this.x = x;
+            this.y = y;
+            this.heading = heading;
+            address = BASE_ADDRESS + index;
+            mac = index + 1;
+            engine = new RangingEngine(this, () -> now, null, this);
+        }
+
+        void boot() {
+            bootTime = now;
+            engine.setAutoRole(true);
+            requestScope(false);
+            scheduleScanTick(engine.startScan());
+            events.add(now, PAIRING_TICK, index, 0);
+            events.add(now + PUBLISH_INTERVAL_NANOS, PUBLISH, index, 0);
+            events.add(now + (long) (random.nextDouble() * ADVERT_INTERVAL_NANOS), ADVERT, index, 0);
+        }
+
+        // Like RangingService.refreshUwbSession: the role applies at once, the endpoint once its scope is set up
+        void requestScope(boolean controller) {
+            engine.setController(controller);
+            advert = null;
+            scopeRequested = now;
+            events.add(now + uniform(MIN_SCOPE_SETUP_NANOS), SCOPE_READY, index, controller ? 1 : 0);
+        }
+
+        void onScopeReady(boolean controller) {
+            if (controller != engine.isController() || engine.endpoint() != null) {
+                return;
+            }
+            engine.telemetry().onSessionSetup(now - scopeRequested);
+            engine.setEndpoint(new Endpoint(this, controller));
+            advert = engine.encodeAdvertisement();
+        }
+
+        void scheduleScanTick(long delayNanos) {
+            scanSerial++;
+            if (delayNanos >= 0) {
+                events.add(now + delayNanos, SCAN_TICK, index, scanSerial);
+            }
+        }
+
+        void deliver(Device from, float distance) {
+            if (session == null) {
+                return;
+            }
+            double bearing = Math.toDegrees(Math.atan2(from.x - x, from.y - y));
+            float azimuth = (float) Math.IEEEremainder(bearing - heading, 360);
+            boolean visible = Math.abs(azimuth) <= FIELD_OF_VIEW;
+            session.callback.onPosition(from.address, distance,
+                    visible ? (float) (azimuth + random.nextGaussian() * 3) : Float.NaN,
+                    visible ? (float) (random.nextGaussian() * 3) : Float.NaN, now);
+            if (firstFix == 0 && engine.samples().sequence() > 0) {
+                firstFix = Math.max(1, now - bootTime);
+            }
+        }
+
+        @Override
+        public void start(boolean lowLatency, long reportDelayMillis) {
+            scanning = true;
+            this.lowLatency = lowLatency;
+        }
+
+        @Override
+        public void stop() {
+            scanning = false;
+        }
+
+        @Override
+        public void onPeerConnecting(int peer) {
+        }
+
+        @Override
+        public void onSessionReassigned(int sessionId) {
+            advert = engine.encodeAdvertisement();
+        }
+
+        @Override
+        public void onRoleElected(boolean controller) {
+            // The engine already switched its role
+            requestScope(controller);
+        }
+
+        @Override
+        public void onUpdateRateChanged(int updateRate) {
+            advert = engine.encodeAdvertisement();
+        }
+
+        @Override
+        public void onRangingStarted() {
+        }
+
+        @Override
+        public void onPeerLost(int peer) {
+        }
+
+        @Override
+        public void onRangingStopped(Throwable error) {
+            scheduleScanTick(engine.onScanDemandChanged());
+        }
+    }
+
+    private final class Endpoint implements UwbEndpoint {
+
+        private final Device device;
+        private final boolean controller;
+
+        Endpoint(Device device, boolean controller) {
+            this.device = device;
+            this.controller = controller;
+        }
+
+        @Override
+        public boolean isController() {
+            return controller;
+        }
+
+        @Override
+        public int localAddress() {
+            return device.address;
+        }
+
+        @Override
+        public int channel() {
+            return controller ? 9 : 0;
+        }
+
+        @Override
+        public int preambleIndex() {
+            return controller ? 10 : 0;
+        }
+
+        @Override
+        public boolean supportsDistance() {
+            return true;
+        }
+
+        @Override
+        public boolean supportsAzimuth() {
+            return true;
+        }
+
+        @Override
+        public boolean supportsElevation() {
+            return true;
+        }
+
+        @Override
+        public int maxPeers() {
+            return controller ? MAX_CONTROLEES : 1;
+        }
+
+        @Override
+        public RangingSession openSession(int channel, int preambleIndex, int sessionId, byte[] sessionKey, int updateRate) {
+            return new Session(device, controller, channel, preambleIndex, sessionId, sessionKey, updateRate);
+        }
+    }
+
+    /** A UWB session of one device; rounds run from the controller's side. */
+    private final class Session implements RangingSession {
+
+        final Device device;
+        final boolean controller;
+        final int channel;
+        final int preambleIndex;
+        final int sessionId;
+        final byte[] sessionKey;
+        final int updateRate;
+        final int serial = ++nextSessionSerial;
+        Callback callback;
+        boolean ready;
+        int count;
+        int[] peers = new int[4];
+        long[] joinAt = new long[4];
+        int[] missed = new int[4];
+        boolean[] delivered = new boolean[4];
+
+        Session(Device device, boolean controller, int channel, int preambleIndex, int sessionId, byte[] sessionKey, int updateRate) {
+            this.device = device;
+            this.controller = controller;
+            this.channel = channel;
+            this.preambleIndex = preambleIndex;
+            this.sessionId = sessionId;
+            this.sessionKey = sessionKey != null ? sessionKey.clone() : null;
+            this.updateRate = updateRate;
+        }
+
+        @Override
+        public void start(int[] peers, int count, Callback callback) {
+            this.callback = callback;
+            device.session = this;
+            for (int i = 0; i < count; i++) {
+                add(peers[i], 0);
+            }
+            events.add(now + uniform(MIN_SESSION_SETUP_NANOS), SESSION_READY, device.index, serial);
+        }
+
+        void onReady() {
+            ready = true;
+            if (controller) {
+                events.add(now + roundNanos(updateRate), ROUND, device.index, serial);
+            }
+        }
+
+        void round() {
+            for (int i = 0; i < count; i++) {
+                int index = peers[i] - BASE_ADDRESS;
+                if (now < joinAt[i] || index < 0 || index >= devices.length) {
+                    continue;
+                }
+                Device controlee = devices[index];
+                Session other = controlee.session;
+                boolean linked = other != null && other.ready && !other.controller && other.sessionId == sessionId
+                        && other.channel == channel && other.preambleIndex == preambleIndex
+                        && Arrays.equals(other.sessionKey, sessionKey) && other.indexOf(device.address) >= 0;
+                if (linked && range(device, controlee)) {
+                    missed[i] = 0;
+                    delivered[i] = true;
+                    other.onDelivered(device.address);
+                } else {
+                    onMissed(i);
+                    if (other != null && other.ready && !other.controller) {
+                        int slot = other.indexOf(device.address);
+                        if (slot >= 0) {
+                            other.onMissed(slot);
+                        }
+                    }
+                }
+                // A callback may have closed this session
+                if (device.session != this) {
+                    return;
+                }
+            }
+            events.add(now + roundNanos(updateRate), ROUND, device.index, serial);
+        }
+
+        void onDelivered(int peer) {
+            int i = indexOf(peer);
+            if (i >= 0) {
+                missed[i] = 0;
+                delivered[i] = true;
+            }
+        }
+
+        void onMissed(int i) {
+            if (delivered[i] && ++missed[i] == DISCONNECT_ROUNDS) {
+                delivered[i] = false;
+                callback.onPeerDisconnected(peers[i]);
+            }
+        }
+
+        int indexOf(int peer) {
+            for (int i = 0; i < count; i++) {
+                if (peers[i] == peer) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void add(int peer, long join) {
+            if (count == peers.length) {
+                peers = Arrays.copyOf(peers, count * 2);
+                joinAt = Arrays.copyOf(joinAt, count * 2);
+                missed = Arrays.copyOf(missed, count * 2);
+                delivered = Arrays.copyOf(delivered, count * 2);
+            }
+            peers[count] = peer;
+            joinAt[count] = join;
+            missed[count] = 0;
+            delivered[count] = false;
+            count++;
+        }
+
+        @Override
+        public boolean supportsPeerUpdates() {
+            return controller;
+        }
+
+        @Override
+        public void addPeer(int peer) {
+            if (indexOf(peer) < 0) {
+                add(peer, now + uniform(MIN_JOIN_NANOS));
+            }
+        }
+
+        @Override
+        public void removePeer(int peer) {
+            int i = indexOf(peer);
+            if (i >= 0) {
+                count--;
+                peers[i] = peers[count];
+                joinAt[i] = joinAt[count];
+                missed[i] = missed[count];
+                delivered[i] = delivered[count];
+            }
+        }
+
+        @Override
+        public void close() {
+            if (device.session == this) {
+                device.session = null;
+            }
+        }
+    }
+
+    /**
+     * Binary min-heap of events in primitive arrays, ordered by time and then by insertion, so that
+     * runs are repeatable.
+     */
+    private static final class EventQueue {
+
+        private long[] times = new long[1024];
+        private long[] sequences = new long[1024];
+        private int[] kinds = new int[1024];
+        private int[] devices = new int[1024];
+        private int[] args = new int[1024];
+        private int size;
+        private long nextSequence;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        long peekTime() {
+            return times[0];
+        }
+
+        int peekKind() {
+            return kinds[0];
+        }
+
+        int peekDevice() {
+            return devices[0];
+        }
+
+        int peekArg() {
+            return args[0];
+        }
+
+        void add(long time, int kind, int device, int arg) {
+            if (size == times.length) {
+                int capacity = size * 2;
+                times = Arrays.copyOf(times, capacity);
+                sequences = Arrays.copyOf(sequences, capacity);
+                kinds = Arrays.copyOf(kinds, capacity);
+                devices = Arrays.copyOf(devices, capacity);
+                args = Arrays.copyOf(args, capacity);
+            }
+            int i = size++;
+            set(i, time, nextSequence++, kind, device, arg);
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!less(i, parent)) {
+                    break;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        void remove() {
+            size--;
+            set(0, times[size], sequences[size], kinds[size], devices[size], args[size]);
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    return;
+                }
+                if (child + 1 < size && less(child + 1, child)) {
+                    child++;
+                }
+                if (!less(child, i)) {
+                    return;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private boolean less(int a, int b) {
+            return times[a] < times[b] || times[a] == times[b] && sequences[a] < sequences[b];
+        }
+
+        private void set(int i, long time, long sequence, int kind, int device, int arg) {
+            times[i] = time;
+            sequences[i] = sequence;
+            kinds[i] = kind;
+            devices[i] = device;
+            args[i] = arg;
+        }
+
+        private void swap(int a, int b) {
+            long time = times[a];
+            long sequence = sequences[a];
+            int kind = kinds[a];
+            int device = devices[a];
+            int arg = args[a];
+            set(a, times[b], sequences[b], kinds[b], devices[b], args[b]);
+            set(b, time, sequence, kind, device, arg);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package at.jku.ins.uwb_default_values.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.session.SessionIdAllocator;
+
+/**
+ * Cost of checking one advertised session against our own, in a population of controllers that all
+ * advertise to each other. Setup fails if the population does not end up with distinct session IDs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionAllocationBenchmark {
+
+    @Param({"500"})
+    public int devices;
+
+    private SessionIdAllocator[] allocators;
+    private int observer;
+    private int advertiser;
+
+    @Setup
+    public void setUp() {
+        allocators = new SessionIdAllocator[devices];
+        for (int i = 0; i < devices; i++) {
+            // The same seed everywhere, so only the addresses tell the devices apart
+            allocators[i] = new SessionIdAllocator(i + 1, 0, 2 * devices);
+        }
+        for (int i = 0; i < devices; i++) {
+            for (int j = 0; j < devices; j++) {
+                allocators[i].onAdvertisedSession(j + 1, allocators[j].sessionId(), false);
+            }
+        }
+        for (int i = 0; i < devices; i++) {
+            for (int j = i + 1; j < devices; j++) {
+                if (allocators[i].sessionId() == allocators[j].sessionId()) {
+                    throw new IllegalStateException("Devices " + (i + 1) + " and " + (j + 1) + " share a session ID");
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public int onAdvertisedSession() {
+        advertiser = advertiser + 1 < devices ? advertiser + 1 : 0;
+        if (advertiser == 0) {
+            observer = observer + 1 < devices ? observer + 1 : 0;
+        }
+        return allocators[observer].onAdvertisedSession(advertiser + 1, allocators[advertiser].sessionId(), true);
+    }
+}
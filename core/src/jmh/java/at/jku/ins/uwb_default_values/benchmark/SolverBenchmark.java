@@ -0,0 +1,85 @@
+package at.jku.ins.uwb_default_values.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.ranging.position.MultilaterationSolver;
+
+/**
+ * Cost of one fix of the multilateration solver: each call feeds the next anchor's noisy distance
+ * to a target walking slowly through the anchor grid, which triggers a warm started solve.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SolverBenchmark {
+
+    private static final int TRACK_LENGTH = 4096;
+    private static final long SAMPLE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Param({"4", "8", "16"})
+    public int anchors;
+
+    @Param({"false", "true"})
+    public boolean solve3d;
+
+    @Param({"false", "true"})
+    public boolean angles;
+
+    private MultilaterationSolver solver;
+    private float[] distances;
+    private float[] azimuths;
+    private float[] elevations;
+    private int step;
+
+    @Setup
+    public void setUp() {
+        solver = new MultilaterationSolver(anchors, solve3d);
+        solver.setAngleSupport(angles, angles);
+        double[][] positions = new double[anchors][];
+        for (int i = 0; i < anchors; i++) {
+            positions[i] = new double[]{(i % 4) * 5, (i / 4) * 5, (i % 2) * 2.5};
+            solver.setAnchor(i, positions[i][0], positions[i][1], positions[i][2]);
+        }
+
+        Random random = new Random(42);
+        distances = new float[TRACK_LENGTH];
+        azimuths = new float[TRACK_LENGTH];
+        elevations = new float[TRACK_LENGTH];
+        for (int i = 0; i < TRACK_LENGTH; i++) {
+            double t = i * 0.01;
+            double x = 7.5 + 4 * Math.sin(t * 0.3);
+            double y = 2.5 + 2 * Math.cos(t * 0.2);
+            double z = solve3d ? 1.2 : 0;
+            double[] anchor = positions[i % anchors];
+            double dx = anchor[0] - x;
+            double dy = anchor[1] - y;
+            double dz = anchor[2] - z;
+            double horizontal = Math.sqrt(dx * dx + dy * dy);
+            distances[i] = (float) (Math.sqrt(horizontal * horizontal + dz * dz) + random.nextGaussian() * 0.1);
+            azimuths[i] = angles ? (float) Math.toDegrees(Math.atan2(dx, dy)) : Float.NaN;
+            elevations[i] = angles ? (float) Math.toDegrees(Math.atan2(dz, horizontal)) : Float.NaN;
+        }
+    }
+
+    @Benchmark
+    public boolean fix() {
+        int i = step++ & (TRACK_LENGTH - 1);
+        return solver.update(i % anchors, distances[i], azimuths[i], elevations[i], 1, step * SAMPLE_INTERVAL_NANOS);
+    }
+}
@@ -0,0 +1,102 @@
+package at.jku.ins.uwb_default_values.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+import at.jku.ins.uwb_default_values.engine.RangingEngine;
+import at.jku.ins.uwb_default_values.ranging.RangingSession;
+import at.jku.ins.uwb_default_values.ranging.UpdateRateController;
+import at.jku.ins.uwb_default_values.ranging.filter.FilterStage;
+import at.jku.ins.uwb_default_values.replay.RangingReplay;
+import at.jku.ins.uwb_default_values.replay.ReplayListener;
+
+/**
+ * Replays a recording through the engine's filters into an {@link UpdateRateController} and prints each
+ * session rate change and the share of time spent at each rate, to check the policy against real traces.
+ * <pre>
+ * ./gradlew :core:replayUpdateRates -PreplayArgs="&lt;recording&gt; [background] [watch=&lt;peer&gt;]"
+ * </pre>
+ */
+public final class UpdateRateReplay implements ReplayListener {
+
+    private final UpdateRateController controller = new UpdateRateController(RangingEngine.MAX_RANGING_PEERS);
+    private final FilterStage filter = FilterStage.createDefault(RangingEngine.MAX_RANGING_PEERS, controller);
+    private final long[] nanosAtRate = new long[3];
+    private long start = -1;
+    private long rateSince;
+    private long last;
+    private int rate = RangingSession.UPDATE_RATE_AUTOMATIC;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: UpdateRateReplay <recording> [background] [watch=<peer>]");
+            System.exit(2);
+        }
+        UpdateRateReplay replay = new UpdateRateReplay();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("background")) {
+                replay.controller.setForeground(false);
+            } else if (args[i].startsWith("watch=")) {
+                replay.controller.setWatched(Integer.decode(args[i].substring(6)), true);
+            }
+        }
+        long records = new RangingReplay(new File(args[0])).replay(replay, 0);
+        replay.report(records);
+    }
+
+    @Override
+    public void onSample(int peer, float distance, float azimuth, float elevation, long timestampNanos) {
+        if (start < 0) {
+            start = timestampNanos;
+            rateSince = timestampNanos;
+        }
+        last = timestampNanos;
+        filter.onSample(peer, distance, azimuth, elevation, timestampNanos);
+        int newRate = controller.sessionRate();
+        if (newRate != rate) {
+            nanosAtRate[rate + 1] += timestampNanos - rateSince;
+            System.out.printf("%9.3f s  %-10s -> %-10s (peer %d at %.2f m/s)%n", (timestampNanos - start) / 1e9,
+                    name(rate), name(newRate), peer, controller.speed(peer));
+            rate = newRate;
+            rateSince = timestampNanos;
+        }
+    }
+
+    @Override
+    public void onAdvert(long mac, int rssi, long timestampNanos, byte[] serviceData) {
+    }
+
+    @Override
+    public void onPeerLost(int peer, long timestampNanos) {
+        filter.resetPeer(peer);
+        controller.resetPeer(peer);
+    }
+
+    @Override
+    public void onRotationVector(float x, float y, float z, float w, long timestampNanos) {
+    }
+
+    private void report(long records) {
+        if (start < 0) {
+            System.out.println(records + " records, no samples");
+            return;
+        }
+        nanosAtRate[rate + 1] += last - rateSince;
+        double total = Math.max(1, last - start);
+        System.out.printf("%d records, %.1f s, %d rate changes%n", records, (last - start) / 1e9, controller.changes());
+        for (int r = RangingSession.UPDATE_RATE_INFREQUENT; r <= RangingSession.UPDATE_RATE_FREQUENT; r++) {
+            System.out.printf("%-10s %5.1f %%%n", name(r), 100 * nanosAtRate[r + 1] / total);
+        }
+    }
+
+    private static String name(int rate) {
+        switch (rate) {
+            case RangingSession.UPDATE_RATE_INFREQUENT:
+                return "infrequent";
+            case RangingSession.UPDATE_RATE_FREQUENT:
+                return "frequent";
+            default:
+                return "automatic";
+        }
+    }
+}
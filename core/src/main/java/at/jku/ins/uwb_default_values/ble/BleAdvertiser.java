@@ -0,0 +1,13 @@
+package at.jku.ins.uwb_default_values.ble;
+
+/**
+ * Advertiser port. Implementations advertise the UWB service with the given service data, as encoded
+ * by {@link UwbAdvertisementCodec}, until stopped.
+ */
+public interface BleAdvertiser {
+
+    /** Starts advertising, or replaces the service data of a running advert. */
+    void start(byte[] serviceData);
+
+    void stop();
+}
@@ -0,0 +1,18 @@
+package at.jku.ins.uwb_default_values.ble;
+
+/**
+ * Scanner port driven by {@link ScanScheduler}. Implementations only report adverts carrying the UWB
+ * service, filtered in the controller where possible.
+ */
+public interface BleScanner {
+
+    /**
+     * Starts scanning, or changes the settings of a running scan.
+     *
+     * @param lowLatency        scan continuously rather than in the controller's low power duty cycle
+     * @param reportDelayMillis let the controller batch results for this long, 0 to report each advert
+     */
+    void start(boolean lowLatency, long reportDelayMillis);
+
+    void stop();
+}
@@ -0,0 +1,312 @@
+package at.jku.ins.uwb_default_values.ble;
+
+import java.util.Arrays;
+
+import at.jku.ins.uwb_default_values.util.LongIntHashMap;
+
+/**
+ * Devices seen while scanning, keyed by their 48 bit Bluetooth MAC address.
+ * <p>
+ * Recording an advert is a hash lookup plus a few array writes and does not allocate. Changes are
+ * collected per entry and handed out in batches by {@link #publishChanges}, at most once per publish
+ * interval, so the UI does not have to follow every scan callback. Entries not seen for the time to
+ * live are dropped by {@link #expire}.
+ */
+public class DiscoveryTable {
+
+    /** Receives the changes collected since the last publish. */
+    public interface ChangeListener {
+        void onAdded(DiscoveryTable table, int slot);
+
+        void onChanged(DiscoveryTable table, int slot, int changes);
+
+        void onRemoved(long mac);
+    }
+
+    public interface UwbFilter {
+        boolean accept(UwbAdvertisement advertisement);
+    }
+
+    public static final int NO_SLOT = -1;
+
+    /** Result of {@link #onAdvert}: the device was known and its UWB payload did not change. */
+    public static final int SEEN = 0;
+    public static final int ADDED = 1;
+    /** The device was known but advertises a different UWB configuration. */
+    public static final int UWB_CHANGED = 2;
+    /** The table is full and the device was not recorded. */
+    public static final int DROPPED = 3;
+
+    public static final int CHANGE_RSSI = 1;
+    public static final int CHANGE_UWB = 1 << 1;
+    private static final int CHANGE_ADDED = 1 << 2;
+
+    private final LongIntHashMap slotByMac;
+    private final long[] macs;
+    private final String[] names;
+    private final int[] rssis;
+    private final long[] firstSeen;
+    private final long[] lastSeen;
+    private final boolean[] hasUwb;
+    private final UwbAdvertisement[] advertisements;
+    private final int[] freeSlots;
+    private int freeCount;
+
+    private final int[] changes;
+    private final boolean[] queued;
+    private final int[] changedSlots;
+    private int changedCount;
+    private long[] removedMacs = new long[16];
+    private int removedCount;
+
+    private final long timeToLiveNanos;
+    private final long publishIntervalNanos;
+    private long lastPublish = Long.MIN_VALUE;
+
+    public DiscoveryTable(int capacity, long timeToLiveNanos, long publishIntervalNanos) {
+        this.timeToLiveNanos = timeToLiveNanos;
+        this.publishIntervalNanos = publishIntervalNanos;
+        slotByMac = new LongIntHashMap(capacity, NO_SLOT);
+        macs = new long[capacity];
+        names = new String[capacity];
+        rssis = new int[capacity];
+        firstSeen = new long[capacity];
+        lastSeen = new long[capacity];
+        hasUwb = new boolean[capacity];
+        advertisements = new UwbAdvertisement[capacity];
+        for (int slot = 0; slot < capacity; slot++) {
+            advertisements[slot] = new UwbAdvertisement();
+        }
+        freeSlots = new int[capacity];
+        for (int slot = capacity - 1; slot >= 0; slot--) {
+            freeSlots[freeCount++] = slot;
+        }
+        changes = new int[capacity];
+        queued = new boolean[capacity];
+        changedSlots = new int[capacity];
+    }
+
+    /**
+     * Parses a MAC address of the form {@code AA:BB:CC:DD:EE:FF} into the lower 48 bits of a long
+     * without allocating.
+     */
+    public static long parseMac(String address) {
+        long mac = 0;
+        for (int i = 0; i < address.length(); i++) {
+            int digit = Character.digit(address.charAt(i), 16);
+            if (digit >= 0) {
+                mac = (mac << 4) | digit;
+            }
+        }
+        return mac;
+    }
+
+    public static String formatMac(long mac) {
+        StringBuilder builder = new StringBuilder(17);
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            int octet = (int) (mac >>> shift) & 0xFF;
+            builder.append(Character.toUpperCase(Character.forDigit(octet >> 4, 16)))
+                    .append(Character.toUpperCase(Character.forDigit(octet & 0xF, 16)));
+            if (shift > 0) {
+                builder.append(':');
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Records an advert.
+     *
+     * @param advertisement the decoded UWB payload, or null if the advert carried none
+     * @return {@link #SEEN}, {@link #ADDED}, {@link #UWB_CHANGED} or {@link #DROPPED}
+     */
+    public synchronized int onAdvert(long mac, int rssi, long nowNanos, UwbAdvertisement advertisement) {
+        int slot = slotByMac.get(mac);
+        int result = SEEN;
+        if (slot == NO_SLOT) {
+            if (freeCount == 0) {
+                return DROPPED;
+            }
+            slot = freeSlots[--freeCount];
+            slotByMac.put(mac, slot);
+            macs[slot] = mac;
+            names[slot] = null;
+            firstSeen[slot] = nowNanos;
+            hasUwb[slot] = false;
+            advertisements[slot].clear();
+            markChanged(slot, CHANGE_ADDED);
+            result = ADDED;
+        }
+        lastSeen[slot] = nowNanos;
+        if (rssis[slot] != rssi || result == ADDED) {
+            rssis[slot] = rssi;
+            markChanged(slot, CHANGE_RSSI);
+        }
+        if (advertisement != null && (!hasUwb[slot] || !sameConfiguration(advertisements[slot], advertisement))) {
+            hasUwb[slot] = true;
+            advertisements[slot].copyFrom(advertisement);
+            markChanged(slot, CHANGE_UWB);
+            if (result == SEEN) {
+                result = UWB_CHANGED;
+            }
+        }
+        return result;
+    }
+
+    /** Sets a display name, which scanners usually only fetch for new devices. */
+    public synchronized void setName(long mac, String name) {
+        int slot = slotByMac.get(mac);
+        if (slot != NO_SLOT) {
+            names[slot] = name;
+        }
+    }
+
+    /** Drops every entry not seen within the time to live; returns how many were dropped. */
+    public synchronized int expire(long nowNanos) {
+        int expired = 0;
+        for (int slot = 0; slot < macs.length; slot++) {
+            if (isUsed(slot) && nowNanos - lastSeen[slot] > timeToLiveNanos) {
+                remove(slot);
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    public synchronized void clear() {
+        for (int slot = 0; slot < macs.length; slot++) {
+            if (isUsed(slot)) {
+                remove(slot);
+            }
+        }
+    }
+
+    /**
+     * Reports the changes collected since the last publish to {@code listener}, unless the previous
+     * publish was less than the publish interval ago.
+     *
+     * @return whether changes were published
+     */
+    public synchronized boolean publishChanges(long nowNanos, ChangeListener listener) {
+        if (lastPublish != Long.MIN_VALUE && nowNanos - lastPublish < publishIntervalNanos) {
+            return false;
+        }
+        lastPublish = nowNanos;
+        for (int i = 0; i < removedCount; i++) {
+            listener.onRemoved(removedMacs[i]);
+        }
+        removedCount = 0;
+        for (int i = 0; i < changedCount; i++) {
+            int slot = changedSlots[i];
+            int change = changes[slot];
+            changes[slot] = 0;
+            queued[slot] = false;
+            if (change == 0) {
+                continue;
+            }
+            if ((change & CHANGE_ADDED) != 0) {
+                listener.onAdded(this, slot);
+            } else {
+                listener.onChanged(this, slot, change);
+            }
+        }
+        changedCount = 0;
+        return true;
+    }
+
+    /** Reports every current entry as added, for a listener that starts from an empty view. */
+    public synchronized void publishAll(ChangeListener listener) {
+        for (int slot = 0; slot < macs.length; slot++) {
+            if (isUsed(slot)) {
+                listener.onAdded(this, slot);
+            }
+        }
+    }
+
+    /** Counts the entries with a UWB payload that {@code filter} accepts. */
+    public synchronized int countUwb(UwbFilter filter) {
+        int count = 0;
+        for (int slot = 0; slot < macs.length; slot++) {
+            if (hasUwb[slot] && isUsed(slot) && filter.accept(advertisements[slot])) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public synchronized int size() {
+        return slotByMac.size();
+    }
+
+    public synchronized int slotOf(long mac) {
+        return slotByMac.get(mac);
+    }
+
+    // Accessors by slot, valid inside ChangeListener callbacks or while holding the table's lock
+
+    public long mac(int slot) {
+        return macs[slot];
+    }
+
+    public String name(int slot) {
+        return names[slot];
+    }
+
+    public int rssi(int slot) {
+        return rssis[slot];
+    }
+
+    public long firstSeenNanos(int slot) {
+        return firstSeen[slot];
+    }
+
+    public long lastSeenNanos(int slot) {
+        return lastSeen[slot];
+    }
+
+    public boolean hasUwb(int slot) {
+        return hasUwb[slot];
+    }
+
+    /** The slot's UWB payload; owned by the table, copy it to keep it. */
+    public UwbAdvertisement advertisement(int slot) {
+        return advertisements[slot];
+    }
+
+    private boolean isUsed(int slot) {
+        return slotByMac.get(macs[slot]) == slot;
+    }
+
+    private void remove(int slot) {
+        slotByMac.remove(macs[slot]);
+        freeSlots[freeCount++] = slot;
+        if ((changes[slot] & CHANGE_ADDED) == 0) {
+            if (removedCount == removedMacs.length) {
+                removedMacs = Arrays.copyOf(removedMacs, removedCount * 2);
+            }
+            removedMacs[removedCount++] = macs[slot];
+        }
+        // A removed slot stays in changedSlots with no changes left, publishChanges skips it
+        changes[slot] = 0;
+    }
+
+    private void markChanged(int slot, int change) {
+        if (!queued[slot]) {
+            queued[slot] = true;
+            changedSlots[changedCount++] = slot;
+        }
+        changes[slot] |= change;
+    }
+
+    private static boolean sameConfiguration(UwbAdvertisement a, UwbAdvertisement b) {
+        return a.version == b.version
+                && a.flags == b.flags
+                && a.uwbAddress == b.uwbAddress
+                && a.channel == b.channel
+                && a.preambleIndex == b.preambleIndex
+                && a.sessionId == b.sessionId
+                && a.subSessionKeyHint == b.subSessionKeyHint
+                && a.electionKey == b.electionKey
+                && a.updateRate == b.updateRate;
+    }
+}
@@ -0,0 +1,146 @@
+package at.jku.ins.uwb_default_values.ble;
+
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.util.Clock;
+
+/**
+ * Duty cycles a {@link BleScanner} depending on how many known peers still wait to be ranged.
+ * <p>
+ * While peers are unranged the scanner runs in low latency mode for a window that grows with their
+ * number, every {@link #ACTIVE_INTERVAL}. Once every peer is ranged it only scans in short low power
+ * windows whose interval doubles after each window without a new peer, up to {@link #MAX_IDLE_INTERVAL}.
+ * Results are batched by the controller in either mode to save wakeups.
+ * <p>
+ * Call {@link #tick()} when the delay it returned elapsed; the scheduler never blocks or posts itself.
+ */
+public class ScanScheduler {
+
+    /** Supplies the number of known, compatible peers that are not ranged yet. */
+    public interface DemandSource {
+        int unrangedPeers();
+    }
+
+    static final long ACTIVE_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    static final long ACTIVE_REPORT_DELAY_MILLIS = 500;
+    static final long IDLE_WINDOW = TimeUnit.SECONDS.toNanos(2);
+    static final long MIN_IDLE_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+    static final long MAX_IDLE_INTERVAL = TimeUnit.SECONDS.toNanos(60);
+    static final long IDLE_REPORT_DELAY_MILLIS = 2000;
+    private static final double BASE_DUTY = 0.25;
+    private static final double DUTY_PER_PEER = 0.15;
+
+    private final BleScanner scanner;
+    private final Clock clock;
+    private final DemandSource demand;
+
+    private boolean running;
+    private boolean scanning;
+    private boolean lowLatency;
+    private long phaseEnd;
+    private long idleInterval = MIN_IDLE_INTERVAL;
+    private boolean discoveredInWindow;
+    private long windowCount;
+
+    public ScanScheduler(BleScanner scanner, Clock clock, DemandSource demand) {
+        this.scanner = scanner;
+        this.clock = clock;
+        this.demand = demand;
+    }
+
+    /** Starts with a scan window right away; returns the delay in nanoseconds until the next tick. */
+    public long start() {
+        running = true;
+        idleInterval = MIN_IDLE_INTERVAL;
+        phaseEnd = clock.nanoTime();
+        return tick();
+    }
+
+    public void stop() {
+        running = false;
+        if (scanning) {
+            scanning = false;
+            scanner.stop();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public boolean isScanning() {
+        return scanning;
+    }
+
+    public long windowCount() {
+        return windowCount;
+    }
+
+    /** A new peer turned up, so the idle back off starts over. */
+    public void onPeerDiscovered() {
+        discoveredInWindow = true;
+        idleInterval = MIN_IDLE_INTERVAL;
+    }
+
+    /**
+     * The set of unranged peers may have grown; ends a sleep early if there is demand now.
+     *
+     * @return the delay in nanoseconds until the next tick
+     */
+    public long onDemandChanged() {
+        if (running && !scanning && demand.unrangedPeers() > 0) {
+            phaseEnd = Math.min(phaseEnd, clock.nanoTime());
+        }
+        return tick();
+    }
+
+    /** Advances the duty cycle; returns the delay in nanoseconds until the next tick, or -1 if stopped. */
+    public long tick() {
+        if (!running) {
+            return -1;
+        }
+        long now = clock.nanoTime();
+        if (now < phaseEnd) {
+            return phaseEnd - now;
+        }
+
+        int unranged = demand.unrangedPeers();
+        if (scanning) {
+            long interval;
+            long window;
+            if (unranged > 0) {
+                interval = ACTIVE_INTERVAL;
+                window = activeWindow(unranged);
+            } else {
+                if (!discoveredInWindow) {
+                    idleInterval = Math.min(idleInterval * 2, MAX_IDLE_INTERVAL);
+                }
+                interval = idleInterval;
+                window = IDLE_WINDOW;
+            }
+            discoveredInWindow = false;
+            if (interval <= window && lowLatency) {
+                // Full duty cycle, keep the scan running through the next window
+                windowCount++;
+                phaseEnd = now + window;
+                return window;
+            }
+            scanning = false;
+            scanner.stop();
+            phaseEnd = now + Math.max(0, interval - window);
+            return phaseEnd - now;
+        }
+
+        scanning = true;
+        windowCount++;
+        lowLatency = unranged > 0;
+        scanner.start(lowLatency, lowLatency ? ACTIVE_REPORT_DELAY_MILLIS : IDLE_REPORT_DELAY_MILLIS);
+        phaseEnd = now + (lowLatency ? activeWindow(unranged) : IDLE_WINDOW);
+        return phaseEnd - now;
+    }
+
+    static long activeWindow(int unranged) {
+        double duty = Math.min(1.0, BASE_DUTY + DUTY_PER_PEER * unranged);
+        return (long) (ACTIVE_INTERVAL * duty);
+    }
+}
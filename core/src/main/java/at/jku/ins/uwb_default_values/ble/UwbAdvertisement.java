@@ -0,0 +1,67 @@
+package at.jku.ins.uwb_default_values.ble;
+
+/**
+ * Decoded out-of-band UWB configuration a device advertises over BLE.
+ * Mutable so that a scanner can decode every advert into the same instance.
+ */
+public final class UwbAdvertisement {
+
+    public static final int FLAG_CONTROLLER = 1;
+    public static final int FLAG_AZIMUTH = 1 << 1;
+    public static final int FLAG_ELEVATION = 1 << 2;
+    /** A controller that accepts further controlees into its running session. */
+    public static final int FLAG_MULTI_PEER = 1 << 3;
+    /** The device elects its role from the adverts around it, see {@code PairingScheduler}. */
+    public static final int FLAG_AUTO_ROLE = 1 << 4;
+
+    public int version;
+    public int flags;
+    /** Short UWB address, as a signed 16 bit value. */
+    public int uwbAddress;
+    public int channel;
+    public int preambleIndex;
+    public int sessionId;
+    /** Advertised by controllers as input to the session key derivation, see {@code SessionIdAllocator}. */
+    public int subSessionKeyHint;
+    /** Stable per device, unlike the UWB address; the lowest key among automatic devices becomes controller. */
+    public int electionKey;
+    /** Update rate of a controller's session: -1 infrequent, 0 automatic, 1 frequent, see {@code RangingSession}. */
+    public int updateRate;
+
+    public boolean isController() {
+        return (flags & FLAG_CONTROLLER) != 0;
+    }
+
+    public void clear() {
+        version = 0;
+        flags = 0;
+        uwbAddress = 0;
+        channel = 0;
+        preambleIndex = 0;
+        sessionId = 0;
+        subSessionKeyHint = 0;
+        electionKey = 0;
+        updateRate = 0;
+    }
+
+    public void copyFrom(UwbAdvertisement other) {
+        version = other.version;
+        flags = other.flags;
+        uwbAddress = other.uwbAddress;
+        channel = other.channel;
+        preambleIndex = other.preambleIndex;
+        sessionId = other.sessionId;
+        subSessionKeyHint = other.subSessionKeyHint;
+        electionKey = other.electionKey;
+        updateRate = other.updateRate;
+    }
+
+    @Override
+    public String toString() {
+        return "UWB Address: " + uwbAddress +
+                "\nChannel: " + channel +
+                "\nPreamble Index: " + preambleIndex +
+                "\nSession ID: " + sessionId +
+                "\nIs Controller: " + isController();
+    }
+}
@@ -0,0 +1,106 @@
+package at.jku.ins.uwb_default_values.ble;
+
+/**
+ * Encodes and decodes the UWB service data carried in BLE adverts. All values are big endian.
+ * <pre>
+ * version 2, 15 bytes:
+ *   0      version
+ *   1      flags, see UwbAdvertisement.FLAG_*; bits 5..6 hold the update rate as a signed 2 bit value
+ *   2..3   short UWB address
+ *   4      channel
+ *   5      preamble index
+ *   6..9   session ID
+ *   10..11 sub-session key hint
+ *   12     reserved, written as 0
+ *   13..14 election key
+ *
+ * version 1, 13 bytes: the same without the election key
+ *
+ * legacy (version 0), 7 bytes without version byte:
+ *   0..1   short UWB address
+ *   2      channel
+ *   3      preamble index
+ *   4..5   session ID
+ *   6      1 if controller
+ * </pre>
+ * Decoding reads straight from the service data array and does not allocate.
+ */
+public final class UwbAdvertisementCodec {
+
+    public static final int VERSION = 2;
+    public static final int LENGTH = 15;
+    static final int V1_LENGTH = 13;
+    static final int LEGACY_LENGTH = 7;
+    private static final int UPDATE_RATE_BITS = 3 << 5;
+
+    private UwbAdvertisementCodec() {
+    }
+
+    /**
+     * Decodes {@code data} into {@code out}. Payloads of a newer version are accepted as long as they
+     * start with the version 2 fields; {@code data} may be longer than the payload's version needs.
+     *
+     * @return false if {@code data} is not a UWB advertisement; {@code out} is left undefined then
+     */
+    public static boolean decode(byte[] data, UwbAdvertisement out) {
+        if (data == null) {
+            return false;
+        }
+        if (data.length == LEGACY_LENGTH) {
+            out.version = 0;
+            out.uwbAddress = readShort(data, 0);
+            out.channel = data[2] & 0xFF;
+            out.preambleIndex = data[3] & 0xFF;
+            out.sessionId = readShort(data, 4);
+            out.flags = data[6] == 1 ? UwbAdvertisement.FLAG_CONTROLLER : 0;
+            out.subSessionKeyHint = 0;
+            out.electionKey = 0;
+            out.updateRate = 0;
+            return true;
+        }
+        int version = data.length > 0 ? data[0] & 0xFF : 0;
+        if (version < 1 || data.length < (version == 1 ? V1_LENGTH : LENGTH)) {
+            return false;
+        }
+        out.version = version;
+        out.flags = data[1] & 0xFF & ~UPDATE_RATE_BITS;
+        out.updateRate = (data[1] << 25) >> 30;
+        out.uwbAddress = readShort(data, 2);
+        out.channel = data[4] & 0xFF;
+        out.preambleIndex = data[5] & 0xFF;
+        out.sessionId = (data[6] << 24) | ((data[7] & 0xFF) << 16) | ((data[8] & 0xFF) << 8) | (data[9] & 0xFF);
+        out.subSessionKeyHint = readShort(data, 10) & 0xFFFF;
+        out.electionKey = version >= 2 ? readShort(data, 13) & 0xFFFF : 0;
+        return true;
+    }
+
+    /** Writes {@code advertisement} as version {@link #VERSION} into {@code out}; returns the length. */
+    public static int encode(UwbAdvertisement advertisement, byte[] out) {
+        out[0] = (byte) VERSION;
+        out[1] = (byte) ((advertisement.flags & ~UPDATE_RATE_BITS) | ((advertisement.updateRate & 3) << 5));
+        out[2] = (byte) (advertisement.uwbAddress >> 8);
+        out[3] = (byte) advertisement.uwbAddress;
+        out[4] = (byte) advertisement.channel;
+        out[5] = (byte) advertisement.preambleIndex;
+        out[6] = (byte) (advertisement.sessionId >> 24);
+        out[7] = (byte) (advertisement.sessionId >> 16);
+        out[8] = (byte) (advertisement.sessionId >> 8);
+        out[9] = (byte) advertisement.sessionId;
+        out[10] = (byte) (advertisement.subSessionKeyHint >> 8);
+        out[11] = (byte) advertisement.subSessionKeyHint;
+        out[12] = 0;
+        out[13] = (byte) (advertisement.electionKey >> 8);
+        out[14] = (byte) advertisement.electionKey;
+        return LENGTH;
+    }
+
+    public static byte[] encode(UwbAdvertisement advertisement) {
+        byte[] out = new byte[LENGTH];
+        encode(advertisement, out);
+        return out;
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return (short) ((data[offset] << 8) | (data[offset + 1] & 0xFF));
+    }
+}
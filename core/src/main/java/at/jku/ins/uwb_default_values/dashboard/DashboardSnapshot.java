@@ -0,0 +1,107 @@
+package at.jku.ins.uwb_default_values.dashboard;
+
+/**
+ * Immutable list of {@link PeerRow}s in {@link PeerRow#ORDER}, as published by {@link PeerDashboard}.
+ * <p>
+ * Because both snapshots of a {@link #diff} are sorted by the same key, the diff is a single merge
+ * pass, linear in the number of rows, rather than a general edit distance search. Rows shared by both
+ * snapshots are skipped by identity.
+ */
+public final class DashboardSnapshot {
+
+    public static final DashboardSnapshot EMPTY = new DashboardSnapshot(new PeerRow[0]);
+
+    /** Receives a diff as positional updates, in the form of {@code ListUpdateCallback}. */
+    public interface Updates {
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+
+        /** @param changes the {@code PeerRow.CHANGE_*} bits shared by the rows */
+        void onChanged(int position, int count, int changes);
+    }
+
+    private static final int NONE = 0;
+    private static final int INSERT = 1;
+    private static final int REMOVE = 2;
+    private static final int CHANGE = 3;
+
+    private final PeerRow[] rows;
+
+    DashboardSnapshot(PeerRow[] rows) {
+        this.rows = rows;
+    }
+
+    public int size() {
+        return rows.length;
+    }
+
+    public PeerRow get(int position) {
+        return rows[position];
+    }
+
+    /**
+     * Reports the updates that turn {@code from} into {@code to}. Positions refer to the list with all
+     * earlier updates applied; runs of the same update are reported once.
+     */
+    public static void diff(DashboardSnapshot from, DashboardSnapshot to, Updates updates) {
+        if (from == to) {
+            return;
+        }
+        PeerRow[] before = from.rows;
+        PeerRow[] after = to.rows;
+        int i = 0;
+        int j = 0;
+        int position = 0;
+        int run = NONE;
+        int runStart = 0;
+        int runCount = 0;
+        int runChanges = 0;
+        while (i < before.length || j < after.length) {
+            int order = i == before.length ? 1 : j == after.length ? -1 : PeerRow.ORDER.compare(before[i], after[j]);
+            int kind;
+            int changes = 0;
+            if (order < 0) {
+                kind = REMOVE;
+                i++;
+            } else if (order > 0) {
+                kind = INSERT;
+                j++;
+            } else {
+                changes = after[j].changesFrom(before[i]);
+                kind = changes != 0 ? CHANGE : NONE;
+                i++;
+                j++;
+            }
+            if (kind != run || kind == CHANGE && changes != runChanges) {
+                dispatch(run, runStart, runCount, runChanges, updates);
+                run = kind;
+                runStart = position;
+                runCount = 0;
+                runChanges = changes;
+            }
+            runCount++;
+            // A removed row leaves the next one at the same position
+            if (kind != REMOVE) {
+                position++;
+            }
+        }
+        dispatch(run, runStart, runCount, runChanges, updates);
+    }
+
+    private static void dispatch(int run, int start, int count, int changes, Updates updates) {
+        switch (run) {
+            case INSERT:
+                updates.onInserted(start, count);
+                break;
+            case REMOVE:
+                updates.onRemoved(start, count);
+                break;
+            case CHANGE:
+                updates.onChanged(start, count, changes);
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package at.jku.ins.uwb_default_values.dashboard;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.ble.DiscoveryTable;
+import at.jku.ins.uwb_default_values.ble.UwbAdvertisement;
+import at.jku.ins.uwb_default_values.ranging.RangingSampleListener;
+import at.jku.ins.uwb_default_values.util.LongIntHashMap;
+
+/**
+ * Model of the peer dashboard: one row per discovered device, joined by UWB address with the samples
+ * of the peer it advertises, plus rows for ranged peers that were not discovered over BLE.
+ * <p>
+ * Changes only mark the affected entries. {@link #snapshot} turns the marked entries into new
+ * {@link PeerRow}s and shares every other row with the previous snapshot, so a view can diff the two
+ * cheaply; it returns the previous snapshot itself if nothing changed at display resolution. A peer
+ * counts as ranging while its last sample is at most the stale time old. Peers only known from
+ * ranging are dropped once they are stale.
+ * <p>
+ * Row ids are the device's MAC address, or {@link #UWB_ONLY_ID} plus the UWB address. Not thread
+ * safe; feed it the discovery changes and the drained ranging samples on one thread.
+ */
+public final class PeerDashboard implements DiscoveryTable.ChangeListener, RangingSampleListener {
+
+    public static final long DEFAULT_STALE_NANOS = TimeUnit.SECONDS.toNanos(2);
+    /** Above any 48 bit MAC address. */
+    public static final long UWB_ONLY_ID = 1L << 48;
+
+    private static final int NO_SLOT = -1;
+    private static final long NO_MAC = -1;
+
+    private final long staleNanos;
+    private final LongIntHashMap slotByMac;
+    private final LongIntHashMap slotByPeer;
+    private final boolean[] used;
+    private final int[] freeSlots;
+    private int freeCount;
+
+    private final long[] macs;
+    private final String[] names;
+    private final String[] titles;
+    private final int[] rssis;
+    private final String[] uwbInfos;
+    private final boolean[] hasPeer;
+    private final int[] peers;
+    private final boolean[] sampled;
+    private final float[] distances;
+    private final float[] azimuths;
+    private final float[] elevations;
+    private final long[] sampleTimes;
+
+    private final PeerRow[] rows;
+    private final boolean[] dirty;
+    private boolean structureChanged;
+    private DashboardSnapshot snapshot = DashboardSnapshot.EMPTY;
+    private long dropped;
+
+    public PeerDashboard(int capacity, long staleNanos) {
+        this.staleNanos = staleNanos;
+        slotByMac = new LongIntHashMap(capacity, NO_SLOT);
+        slotByPeer = new LongIntHashMap(capacity, NO_SLOT);
+        used = new boolean[capacity];
+        freeSlots = new int[capacity];
+        for (int slot = capacity - 1; slot >= 0; slot--) {
+            freeSlots[freeCount++] = slot;
+        }
+        macs = new long[capacity];
+        names = new String[capacity];
+        titles = new String[capacity];
+        rssis = new int[capacity];
+        uwbInfos = new String[capacity];
+        hasPeer = new boolean[capacity];
+        peers = new int[capacity];
+        sampled = new boolean[capacity];
+        distances = new float[capacity];
+        azimuths = new float[capacity];
+        elevations = new float[capacity];
+        sampleTimes = new long[capacity];
+        rows = new PeerRow[capacity];
+        dirty = new boolean[capacity];
+    }
+
+    @Override
+    public void onAdded(DiscoveryTable table, int slot) {
+        onDevice(table, slot, PeerRow.CHANGE_ALL);
+    }
+
+    @Override
+    public void onChanged(DiscoveryTable table, int slot, int changes) {
+        onDevice(table, slot, (changes & DiscoveryTable.CHANGE_UWB) != 0 ? PeerRow.CHANGE_UWB : 0);
+    }
+
+    @Override
+    public void onRemoved(long mac) {
+        int slot = slotByMac.remove(mac);
+        if (slot == NO_SLOT) {
+            return;
+        }
+        if (hasPeer[slot] && sampled[slot]) {
+            // Still ranged, keep it as a peer only known from ranging
+            macs[slot] = NO_MAC;
+            toUwbOnly(slot, peers[slot]);
+        } else {
+            free(slot);
+        }
+    }
+
+    @Override
+    public void onSample(int peer, float distance, float azimuth, float elevation, long timestampNanos) {
+        int slot = slotByPeer.get(peer);
+        if (slot == NO_SLOT) {
+            slot = allocate();
+            if (slot == NO_SLOT) {
+                dropped++;
+                return;
+            }
+            toUwbOnly(slot, peer);
+            hasPeer[slot] = true;
+            peers[slot] = peer;
+            slotByPeer.put(peer, slot);
+        }
+        sampled[slot] = true;
+        distances[slot] = distance;
+        azimuths[slot] = azimuth;
+        elevations[slot] = elevation;
+        sampleTimes[slot] = timestampNanos;
+        dirty[slot] = true;
+    }
+
+    /**
+     * @param nowNanos on the clock of the sample timestamps
+     * @return the previous snapshot if no row changed, a new one otherwise
+     */
+    public DashboardSnapshot snapshot(long nowNanos) {
+        boolean changed = structureChanged;
+        int count = 0;
+        for (int slot = 0; slot < used.length; slot++) {
+            if (!used[slot]) {
+                continue;
+            }
+            boolean ranging = sampled[slot] && nowNanos - sampleTimes[slot] <= staleNanos;
+            if (!ranging && macs[slot] == NO_MAC) {
+                free(slot);
+                changed = true;
+                continue;
+            }
+            count++;
+            PeerRow row = rows[slot];
+            if (!dirty[slot] && row != null && row.ranging == ranging) {
+                continue;
+            }
+            dirty[slot] = false;
+            long id = macs[slot] != NO_MAC ? macs[slot] : UWB_ONLY_ID | (peers[slot] & 0xFFFF);
+            boolean live = sampled[slot];
+            float distance = live ? distances[slot] : Float.NaN;
+            // World bearings are unwrapped per peer
+            float azimuth = live ? (float) Math.IEEEremainder(azimuths[slot], 360) : Float.NaN;
+            float elevation = live ? elevations[slot] : Float.NaN;
+            if (row == null || row.id != id
+                    || row.changesTo(titles[slot], rssis[slot], uwbInfos[slot], ranging, distance, azimuth, elevation) != 0) {
+                rows[slot] = new PeerRow(id, titles[slot], rssis[slot], uwbInfos[slot], ranging, distance, azimuth, elevation);
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return snapshot;
+        }
+        PeerRow[] sorted = new PeerRow[count];
+        int index = 0;
+        for (int slot = 0; slot < used.length; slot++) {
+            if (used[slot]) {
+                sorted[index++] = rows[slot];
+            }
+        }
+        Arrays.sort(sorted, PeerRow.ORDER);
+        structureChanged = false;
+        snapshot = new DashboardSnapshot(sorted);
+        return snapshot;
+    }
+
+    public int size() {
+        return used.length - freeCount;
+    }
+
+    /** Devices and peers that found no free slot and are not shown. */
+    public long dropped() {
+        return dropped;
+    }
+
+    public void clear() {
+        for (int slot = 0; slot < used.length; slot++) {
+            if (used[slot]) {
+                free(slot);
+            }
+        }
+    }
+
+    private void onDevice(DiscoveryTable table, int tableSlot, int changes) {
+        long mac = table.mac(tableSlot);
+        int slot = slotByMac.get(mac);
+        if (slot == NO_SLOT) {
+            slot = allocate();
+            if (slot == NO_SLOT) {
+                dropped++;
+                return;
+            }
+            macs[slot] = mac;
+            slotByMac.put(mac, slot);
+            titles[slot] = null;
+            changes = PeerRow.CHANGE_ALL;
+        }
+        String name = table.name(tableSlot);
+        if (titles[slot] == null || name != names[slot]) {
+            names[slot] = name;
+            titles[slot] = name != null ? name : DiscoveryTable.formatMac(mac);
+        }
+        rssis[slot] = table.rssi(tableSlot);
+        if (!table.hasUwb(tableSlot)) {
+            uwbInfos[slot] = null;
+            unlinkPeer(slot);
+        } else if ((changes & PeerRow.CHANGE_UWB) != 0 || uwbInfos[slot] == null) {
+            UwbAdvertisement advertisement = table.advertisement(tableSlot);
+            uwbInfos[slot] = describe(advertisement);
+            linkPeer(slot, advertisement.uwbAddress);
+        }
+        dirty[slot] = true;
+    }
+
+    /** Joins a device with the samples of the peer it advertises. */
+    private void linkPeer(int slot, int peer) {
+        if (hasPeer[slot] && peers[slot] == peer) {
+            return;
+        }
+        unlinkPeer(slot);
+        int other = slotByPeer.get(peer);
+        if (other != NO_SLOT) {
+            if (macs[other] == NO_MAC) {
+                // Ranged before it was discovered: take over its samples
+                sampled[slot] = sampled[other];
+                distances[slot] = distances[other];
+                azimuths[slot] = azimuths[other];
+                elevations[slot] = elevations[other];
+                sampleTimes[slot] = sampleTimes[other];
+                free(other);
+            } else {
+                unlinkPeer(other);
+                dirty[other] = true;
+            }
+        }
+        hasPeer[slot] = true;
+        peers[slot] = peer;
+        slotByPeer.put(peer, slot);
+    }
+
+    private void unlinkPeer(int slot) {
+        if (hasPeer[slot]) {
+            slotByPeer.remove(peers[slot]);
+            hasPeer[slot] = false;
+            sampled[slot] = false;
+        }
+    }
+
+    private void toUwbOnly(int slot, int peer) {
+        names[slot] = null;
+        titles[slot] = "UWB " + peer;
+        rssis[slot] = PeerRow.NO_RSSI;
+        uwbInfos[slot] = null;
+        dirty[slot] = true;
+    }
+
+    private int allocate() {
+        if (freeCount == 0) {
+            return NO_SLOT;
+        }
+        int slot = freeSlots[--freeCount];
+        used[slot] = true;
+        macs[slot] = NO_MAC;
+        hasPeer[slot] = false;
+        sampled[slot] = false;
+        rows[slot] = null;
+        dirty[slot] = true;
+        structureChanged = true;
+        return slot;
+    }
+
+    private void free(int slot) {
+        if (macs[slot] != NO_MAC) {
+            slotByMac.remove(macs[slot]);
+        }
+        unlinkPeer(slot);
+        used[slot] = false;
+        rows[slot] = null;
+        names[slot] = null;
+        titles[slot] = null;
+        uwbInfos[slot] = null;
+        freeSlots[freeCount++] = slot;
+        structureChanged = true;
+    }
+
+    private static String describe(UwbAdvertisement advertisement) {
+        StringBuilder builder = new StringBuilder(64)
+                .append("UWB ").append(advertisement.uwbAddress)
+                .append(", channel ").append(advertisement.channel)
+                .append(", preamble ").append(advertisement.preambleIndex);
+        if (advertisement.isController()) {
+            builder.append(", controller");
+        }
+        return builder.toString();
+    }
+}
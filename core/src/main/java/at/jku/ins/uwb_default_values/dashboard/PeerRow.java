@@ -0,0 +1,99 @@
+package at.jku.ins.uwb_default_values.dashboard;
+
+import java.util.Comparator;
+
+/**
+ * Immutable row of a {@link DashboardSnapshot}: a discovered device, a ranged peer, or both. Rows that
+ * did not change are shared between snapshots, so a diff can skip them by identity.
+ */
+public final class PeerRow {
+
+    public static final int NO_RSSI = Integer.MIN_VALUE;
+
+    // Changes between two rows of the same id, also the payloads of a diff
+    public static final int CHANGE_TITLE = 1;
+    public static final int CHANGE_RSSI = 1 << 1;
+    public static final int CHANGE_UWB = 1 << 2;
+    /** Ranging started or stopped, or a live value changed at display resolution. */
+    public static final int CHANGE_LIVE = 1 << 3;
+    public static final int CHANGE_ALL = CHANGE_TITLE | CHANGE_RSSI | CHANGE_UWB | CHANGE_LIVE;
+
+    /** Peers being ranged first, then by id, so rows only move when ranging starts or stops. */
+    public static final Comparator<PeerRow> ORDER = (a, b) -> {
+        if (a.ranging != b.ranging) {
+            return a.ranging ? -1 : 1;
+        }
+        return Long.compare(a.id, b.id);
+    };
+
+    /** Stable per device, see {@link PeerDashboard}. */
+    public final long id;
+    public final String title;
+    /** Of the last advert in dBm, or {@link #NO_RSSI} for a peer only known from ranging. */
+    public final int rssi;
+    /** The advertised UWB configuration, or null. */
+    public final String uwbInfo;
+    /** Whether a sample arrived recently; the live values are those of the last sample otherwise. */
+    public final boolean ranging;
+    public final float distance;
+    /** In [-180, 180], NaN if not measured. */
+    public final float azimuth;
+    public final float elevation;
+
+    PeerRow(long id, String title, int rssi, String uwbInfo, boolean ranging, float distance, float azimuth,
+            float elevation) {
+        this.id = id;
+        this.title = title;
+        this.rssi = rssi;
+        this.uwbInfo = uwbInfo;
+        this.ranging = ranging;
+        this.distance = distance;
+        this.azimuth = azimuth;
+        this.elevation = elevation;
+    }
+
+    /** @return the {@code CHANGE_*} bits that tell this row from {@code previous}, a row of the same id */
+    public int changesFrom(PeerRow previous) {
+        if (previous == this) {
+            return 0;
+        }
+        return previous.changesTo(title, rssi, uwbInfo, ranging, distance, azimuth, elevation);
+    }
+
+    /** Compares with the values of a possible next row, before allocating it. */
+    int changesTo(String title, int rssi, String uwbInfo, boolean ranging, float distance, float azimuth,
+                  float elevation) {
+        int changes = 0;
+        if (!equal(this.title, title)) {
+            changes |= CHANGE_TITLE;
+        }
+        if (this.rssi != rssi) {
+            changes |= CHANGE_RSSI;
+        }
+        if (!equal(this.uwbInfo, uwbInfo)) {
+            changes |= CHANGE_UWB;
+        }
+        if (this.ranging != ranging || !sameHundredths(this.distance, distance)
+                || !sameHundredths(this.azimuth, azimuth) || !sameHundredths(this.elevation, elevation)) {
+            changes |= CHANGE_LIVE;
+        }
+        return changes;
+    }
+
+    // Values are shown with two decimals, smaller changes need no rebinding
+    private static boolean sameHundredths(float a, float b) {
+        if (Float.isNaN(a) || Float.isNaN(b)) {
+            return Float.isNaN(a) && Float.isNaN(b);
+        }
+        return Math.round(a * 100d) == Math.round(b * 100d);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @Override
+    public String toString() {
+        return title + (ranging ? " " + distance + " m" : "");
+    }
+}
@@ -0,0 +1,395 @@
+package at.jku.ins.uwb_default_values.engine;
+
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.ble.UwbAdvertisement;
+import at.jku.ins.uwb_default_values.ranging.PeerSlots;
+
+/**
+ * Decides whom to range with and when, and in automatic mode which role this device takes.
+ * <p>
+ * Adverts only queue peers; {@link #tick} admits them. A controller ranges with up to
+ * {@link #setMaxActive maxActive} controlees and, while others wait, rotates the longest served one
+ * out after {@link #ROTATION_QUANTUM_NANOS}. A controlee ranges with one controller, preferring the one
+ * the election prefers, and keeps waiting for it while it is rotated out. Peers that fail to deliver
+ * results are retried with exponential back off; repeated adverts of a queued or ranged peer change
+ * nothing, so they cannot restart the session.
+ * <p>
+ * Election: manual controllers win, then automatic controllers, then automatic controlees; within a
+ * group the lowest election key and then the lowest address. Every device ranks the adverts it sees
+ * the same way, so devices in range of each other agree. A role change needs the same result for
+ * {@link #ELECTION_HOLD_NANOS} and at least {@link #MIN_ROLE_DWELL_NANOS} in the current role.
+ * <p>
+ * Not thread safe; adverts and ticks are expected on one thread.
+ */
+public class PairingScheduler {
+
+    public static final long TICK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    public static final long CONNECT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    public static final long STALL_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    public static final long MIN_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+    public static final long MAX_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(60);
+    public static final long CANDIDATE_TTL_NANOS = TimeUnit.SECONDS.toNanos(30);
+    public static final long ROTATION_QUANTUM_NANOS = TimeUnit.SECONDS.toNanos(5);
+    public static final long ELECTION_TTL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    public static final long ELECTION_HOLD_NANOS = TimeUnit.SECONDS.toNanos(3);
+    public static final long MIN_ROLE_DWELL_NANOS = TimeUnit.SECONDS.toNanos(15);
+
+    /** Carries out the scheduler's decisions. */
+    public interface Connector {
+        /** Starts ranging with the peer as advertised; returns false if that is not possible now. */
+        boolean connect(int peer, UwbAdvertisement advertisement);
+
+        void disconnect(int peer);
+
+        /** Whether the peer is still part of the ranging session. */
+        boolean isRanging(int peer);
+
+        /** Timestamp of the peer's latest result, on the scheduler's clock, 0 if there is none. */
+        long lastResultNanos(int peer);
+
+        /** The election chose the other role. */
+        void switchRole(boolean controller);
+    }
+
+    private static final int WAITING = 0;
+    private static final int ACTIVE = 1;
+    private static final int BACKOFF = 2;
+
+    private final Connector connector;
+    private final int electionKey;
+    private final PeerSlots slots;
+    private final UwbAdvertisement[] advertisements;
+    private final int[] states;
+    private final int[] failures;
+    private final long[] lastAdverts;
+    private final long[] since;
+    private final long[] notBefore;
+    private boolean controller;
+    private boolean autoRole;
+    private int localAddress;
+    private int maxActive;
+    private int activeCount;
+    private long roleSince = Long.MIN_VALUE / 2;
+    private boolean electionPending;
+    private long electionSince;
+    private long rotations;
+
+    /**
+     * @param maxCandidates number of peers tracked at once, further ones are ignored
+     * @param electionKey   this device's election key, the same one it advertises
+     */
+    public PairingScheduler(Connector connector, int maxCandidates, int electionKey) {
+        this.connector = connector;
+        this.electionKey = electionKey & 0xFFFF;
+        slots = new PeerSlots(maxCandidates);
+        advertisements = new UwbAdvertisement[maxCandidates];
+        for (int i = 0; i < maxCandidates; i++) {
+            advertisements[i] = new UwbAdvertisement();
+        }
+        states = new int[maxCandidates];
+        failures = new int[maxCandidates];
+        lastAdverts = new long[maxCandidates];
+        since = new long[maxCandidates];
+        notBefore = new long[maxCandidates];
+        maxActive = 1;
+    }
+
+    public int electionKey() {
+        return electionKey;
+    }
+
+    /** Sets the role; peers ranged in the old role go back to the queue. */
+    public void setController(boolean controller, long nowNanos) {
+        if (this.controller != controller) {
+            roleSince = nowNanos;
+        }
+        this.controller = controller;
+        electionPending = false;
+        for (int slot = 0; slot < slots.capacity(); slot++) {
+            if (slots.isUsed(slot) && states[slot] == ACTIVE) {
+                states[slot] = WAITING;
+                since[slot] = nowNanos;
+            }
+        }
+        activeCount = 0;
+    }
+
+    public boolean isController() {
+        return controller;
+    }
+
+    public void setAutoRole(boolean autoRole) {
+        this.autoRole = autoRole;
+        electionPending = false;
+    }
+
+    public boolean isAutoRole() {
+        return autoRole;
+    }
+
+    /** The local UWB address, which breaks election ties. */
+    public void setLocalAddress(int localAddress) {
+        this.localAddress = localAddress;
+    }
+
+    /** Number of peers a controller ranges with at once, at most what the hardware supports. */
+    public void setMaxActive(int maxActive) {
+        this.maxActive = Math.max(1, maxActive);
+    }
+
+    public int activeCount() {
+        return activeCount;
+    }
+
+    /** Number of compatible peers queued or backing off. */
+    public int waitingCount() {
+        int count = 0;
+        for (int slot = 0; slot < slots.capacity(); slot++) {
+            if (slots.isUsed(slot) && states[slot] != ACTIVE && compatible(slot)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** Number of controlees rotated out to make room for waiting ones. */
+    public long rotations() {
+        return rotations;
+    }
+
+    /** Notes an advert of a UWB device of either role. */
+    public void onAdvert(int peer, UwbAdvertisement advertisement, long nowNanos) {
+        int slot = slots.slotOf(peer);
+        if (slot == PeerSlots.NO_SLOT) {
+            slot = slots.acquire(peer);
+            if (slot == PeerSlots.NO_SLOT) {
+                return;
+            }
+            states[slot] = WAITING;
+            failures[slot] = 0;
+            since[slot] = nowNanos;
+            notBefore[slot] = 0;
+            advertisements[slot].copyFrom(advertisement);
+        } else if (states[slot] == ACTIVE && !controller && (advertisement.sessionId != advertisements[slot].sessionId
+                || advertisement.updateRate != advertisements[slot].updateRate)) {
+            // Our controller moved to another session or update rate, follow it
+            advertisements[slot].copyFrom(advertisement);
+            if (!connector.connect(peer, advertisements[slot])) {
+                backOff(slot, nowNanos);
+            }
+        } else {
+            advertisements[slot].copyFrom(advertisement);
+        }
+        lastAdverts[slot] = nowNanos;
+    }
+
+    /**
+     * Runs the election, checks ranged peers and admits waiting ones.
+     *
+     * @return nanoseconds until the next tick
+     */
+    public long tick(long nowNanos) {
+        if (autoRole && elect(nowNanos)) {
+            return TICK_INTERVAL_NANOS;
+        }
+        int active = 0;
+        for (int slot = 0; slot < slots.capacity(); slot++) {
+            if (!slots.isUsed(slot)) {
+                continue;
+            }
+            if (states[slot] == ACTIVE) {
+                if (checkActive(slot, nowNanos)) {
+                    active++;
+                }
+            } else if (nowNanos - lastAdverts[slot] > CANDIDATE_TTL_NANOS) {
+                slots.release(slots.peerAt(slot));
+            } else if (states[slot] == BACKOFF && nowNanos >= notBefore[slot]) {
+                states[slot] = WAITING;
+            }
+        }
+        activeCount = active;
+        if (controller) {
+            admitControlees(nowNanos);
+        } else if (activeCount == 0) {
+            admitController(nowNanos);
+        }
+        return TICK_INTERVAL_NANOS;
+    }
+
+    // Returns whether the peer stays active
+    private boolean checkActive(int slot, long nowNanos) {
+        int peer = slots.peerAt(slot);
+        if (!compatible(slot)) {
+            connector.disconnect(peer);
+            states[slot] = WAITING;
+            return false;
+        }
+        if (!connector.isRanging(peer)) {
+            backOff(slot, nowNanos);
+            return false;
+        }
+        long lastResult = connector.lastResultNanos(peer);
+        boolean delivered = lastResult != 0 && lastResult >= since[slot];
+        if (delivered) {
+            failures[slot] = 0;
+        }
+        long silence = nowNanos - (delivered ? lastResult : since[slot]);
+        if (controller && silence > (delivered ? STALL_TIMEOUT_NANOS : CONNECT_TIMEOUT_NANOS)) {
+            connector.disconnect(peer);
+            backOff(slot, nowNanos);
+            return false;
+        }
+        if (!controller && silence > STALL_TIMEOUT_NANOS && nowNanos - lastAdverts[slot] > STALL_TIMEOUT_NANOS) {
+            // The controller is gone rather than serving other controlees
+            connector.disconnect(peer);
+            backOff(slot, nowNanos);
+            return false;
+        }
+        return true;
+    }
+
+    private void admitControlees(long nowNanos) {
+        while (true) {
+            int next = oldestWaiting();
+            if (next == PeerSlots.NO_SLOT) {
+                return;
+            }
+            int evicted = PeerSlots.NO_SLOT;
+            if (activeCount >= maxActive) {
+                // A peer rotated out in this tick does not push out another one right away
+                if (since[next] >= nowNanos) {
+                    return;
+                }
+                evicted = longestServed(nowNanos);
+                if (evicted == PeerSlots.NO_SLOT) {
+                    return;
+                }
+                // The session is full, so the slot has to be freed before the next peer can be added
+                connector.disconnect(slots.peerAt(evicted));
+                activeCount--;
+            }
+            if (!activate(next, nowNanos)) {
+                if (evicted != PeerSlots.NO_SLOT) {
+                    restore(evicted, nowNanos);
+                }
+                return;
+            }
+            if (evicted != PeerSlots.NO_SLOT) {
+                states[evicted] = WAITING;
+                since[evicted] = nowNanos;
+                rotations++;
+            }
+        }
+    }
+
+    // Takes a peer rotated out for nothing back into the session, keeping its turn
+    private void restore(int slot, long nowNanos) {
+        if (connector.connect(slots.peerAt(slot), advertisements[slot])) {
+            activeCount++;
+        } else {
+            states[slot] = WAITING;
+            since[slot] = nowNanos;
+        }
+    }
+
+    private void admitController(long nowNanos) {
+        int best = PeerSlots.NO_SLOT;
+        long bestRank = Long.MAX_VALUE;
+        for (int slot = 0; slot < slots.capacity(); slot++) {
+            if (slots.isUsed(slot) && states[slot] == WAITING && compatible(slot)) {
+                UwbAdvertisement advertisement = advertisements[slot];
+                long rank = rank(advertisement.flags, advertisement.electionKey, advertisement.uwbAddress);
+                if (rank < bestRank) {
+                    bestRank = rank;
+                    best = slot;
+                }
+            }
+        }
+        if (best != PeerSlots.NO_SLOT) {
+            activate(best, nowNanos);
+        }
+    }
+
+    private boolean activate(int slot, long nowNanos) {
+        if (!connector.connect(slots.peerAt(slot), advertisements[slot])) {
+            backOff(slot, nowNanos);
+            return false;
+        }
+        states[slot] = ACTIVE;
+        since[slot] = nowNanos;
+        activeCount++;
+        return true;
+    }
+
+    private void backOff(int slot, long nowNanos) {
+        int failed = Math.min(failures[slot]++, 16);
+        states[slot] = BACKOFF;
+        since[slot] = nowNanos;
+        notBefore[slot] = nowNanos + Math.min(MAX_BACKOFF_NANOS, MIN_BACKOFF_NANOS << failed);
+    }
+
+    private int oldestWaiting() {
+        int oldest = PeerSlots.NO_SLOT;
+        for (int slot = 0; slot < slots.capacity(); slot++) {
+            if (slots.isUsed(slot) && states[slot] == WAITING && compatible(slot)
+                    && (oldest == PeerSlots.NO_SLOT || since[slot] < since[oldest])) {
+                oldest = slot;
+            }
+        }
+        return oldest;
+    }
+
+    private int longestServed(long nowNanos) {
+        int longest = PeerSlots.NO_SLOT;
+        for (int slot = 0; slot < slots.capacity(); slot++) {
+            if (slots.isUsed(slot) && states[slot] == ACTIVE && nowNanos - since[slot] >= ROTATION_QUANTUM_NANOS
+                    && (longest == PeerSlots.NO_SLOT || since[slot] < since[longest])) {
+                longest = slot;
+            }
+        }
+        return longest;
+    }
+
+    private boolean compatible(int slot) {
+        return advertisements[slot].isController() != controller;
+    }
+
+    // Returns whether the role is being switched
+    private boolean elect(long nowNanos) {
+        int ownFlags = UwbAdvertisement.FLAG_AUTO_ROLE | (controller ? UwbAdvertisement.FLAG_CONTROLLER : 0);
+        long bestRank = rank(ownFlags, electionKey, localAddress);
+        boolean elected = true;
+        for (int slot = 0; slot < slots.capacity(); slot++) {
+            if (!slots.isUsed(slot) || nowNanos - lastAdverts[slot] > ELECTION_TTL_NANOS) {
+                continue;
+            }
+            UwbAdvertisement advertisement = advertisements[slot];
+            boolean candidate = advertisement.isController() || (advertisement.flags & UwbAdvertisement.FLAG_AUTO_ROLE) != 0;
+            if (candidate && rank(advertisement.flags, advertisement.electionKey, advertisement.uwbAddress) < bestRank) {
+                elected = false;
+                break;
+            }
+        }
+        if (elected == controller) {
+            electionPending = false;
+            return false;
+        }
+        if (!electionPending) {
+            electionPending = true;
+            electionSince = nowNanos;
+        }
+        if (nowNanos - electionSince < ELECTION_HOLD_NANOS || nowNanos - roleSince < MIN_ROLE_DWELL_NANOS) {
+            return false;
+        }
+        connector.switchRole(elected);
+        return true;
+    }
+
+    // Lower ranks win the election
+    static long rank(int flags, int electionKey, int address) {
+        long group = (flags & UwbAdvertisement.FLAG_AUTO_ROLE) == 0 ? 0
+                : (flags & UwbAdvertisement.FLAG_CONTROLLER) != 0 ? 1 : 2;
+        return group << 32 | (long) (electionKey & 0xFFFF) << 16 | (address & 0xFFFF);
+    }
+}
@@ -0,0 +1,544 @@
+package at.jku.ins.uwb_default_values.engine;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.ble.BleScanner;
+import at.jku.ins.uwb_default_values.ble.DiscoveryTable;
+import at.jku.ins.uwb_default_values.ble.ScanScheduler;
+import at.jku.ins.uwb_default_values.ble.UwbAdvertisement;
+import at.jku.ins.uwb_default_values.ble.UwbAdvertisementCodec;
+import at.jku.ins.uwb_default_values.geofence.GeofenceEngine;
+import at.jku.ins.uwb_default_values.history.TimeSeriesStore;
+import at.jku.ins.uwb_default_values.ranging.MultiPeerSessionManager;
+import at.jku.ins.uwb_default_values.ranging.RangingSampleBuffer;
+import at.jku.ins.uwb_default_values.ranging.RangingSampleListener;
+import at.jku.ins.uwb_default_values.ranging.RangingSession;
+import at.jku.ins.uwb_default_values.ranging.RangingSessionManager;
+import at.jku.ins.uwb_default_values.ranging.SampleFanOut;
+import at.jku.ins.uwb_default_values.ranging.UpdateRateController;
+import at.jku.ins.uwb_default_values.ranging.UwbEndpoint;
+import at.jku.ins.uwb_default_values.ranging.filter.FilterStage;
+import at.jku.ins.uwb_default_values.ranging.orientation.AoaFusion;
+import at.jku.ins.uwb_default_values.ranging.position.MultilaterationSolver;
+import at.jku.ins.uwb_default_values.ranging.position.PositionFix;
+import at.jku.ins.uwb_default_values.ranging.quality.LinkQualityEstimator;
+import at.jku.ins.uwb_default_values.replay.RangingRecorder;
+import at.jku.ins.uwb_default_values.replay.ReplayListener;
+import at.jku.ins.uwb_default_values.session.SessionIdAllocator;
+import at.jku.ins.uwb_default_values.telemetry.RangingTelemetry;
+import at.jku.ins.uwb_default_values.util.Clock;
+
+/**
+ * The ranging core without any platform code: turns scan results into ranging sessions and ranging
+ * results into filtered samples and positions. The platform provides the {@link BleScanner} and a
+ * {@link UwbEndpoint} per role, and drives the scan schedule with the returned delays.
+ * <p>
+ * Scan results, ticks, endpoint changes and UI calls are expected on one thread; ranging callbacks may
+ * arrive on any thread.
+ */
+public class RangingEngine {
+
+    public static final int MAX_RANGING_PEERS = 64;
+    public static final int MAX_ANCHORS = 16;
+    public static final int MAX_DISCOVERED_DEVICES = 1024;
+    public static final int RANGING_BUFFER_CAPACITY = 1024;
+    public static final int MAX_GEOFENCE_RULES = 4096;
+    public static final int MAX_GEOFENCE_ZONES = 1024;
+    public static final double GEOFENCE_CELL_SIZE = 2;
+    public static final int MAX_HISTORY_PEERS = 16;
+    public static final long HISTORY_BUDGET_BYTES = 4 << 20;
+    public static final long DISCOVERY_TTL_NANOS = TimeUnit.SECONDS.toNanos(30);
+    public static final long DISCOVERY_PUBLISH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    /** Session ID of manually configured ranging and of controllers with legacy adverts, which use a zero key. */
+    public static final int MANUAL_SESSION_ID = 12345;
+
+    /** Ranging state changes, called on the thread of the ranging callbacks unless noted. */
+    public interface Listener extends RangingSessionManager.Listener {
+        /** A compatible peer was discovered and is being added; called on the scan thread. */
+        void onPeerConnecting(int peer);
+
+        /** The local controller moved to another session ID, so its advert needs to be refreshed. */
+        void onSessionReassigned(int sessionId);
+
+        /** The election chose the other role; the engine waits for an endpoint of that role. */
+        void onRoleElected(boolean controller);
+
+        /** The local controller restarted its session at another update rate, so its advert needs to be refreshed. */
+        void onUpdateRateChanged(int updateRate);
+    }
+
+    private final Clock clock;
+    private final RangingRecorder recorder;
+    private final Listener listener;
+    private final RangingSampleBuffer samples = new RangingSampleBuffer(RANGING_BUFFER_CAPACITY);
+    private final MultilaterationSolver solver = new MultilaterationSolver(MAX_ANCHORS, false);
+    private final FilterStage filter;
+    private final AoaFusion orientation;
+    private final LinkQualityEstimator quality;
+    private final UpdateRateController updateRates = new UpdateRateController(MAX_RANGING_PEERS);
+    private final GeofenceEngine geofences = new GeofenceEngine(MAX_GEOFENCE_RULES, MAX_GEOFENCE_ZONES, GEOFENCE_CELL_SIZE,
+            GeofenceEngine.DEFAULT_DEBOUNCE_NANOS);
+    private final PositionFix geofenceFix = new PositionFix();
+    private final TimeSeriesStore history = new TimeSeriesStore(MAX_HISTORY_PEERS, HISTORY_BUDGET_BYTES);
+    private final RangingTelemetry telemetry;
+    private final RangingSampleListener sessionSamples;
+    private final MultiPeerSessionManager manager;
+    private final DiscoveryTable discoveryTable =
+            new DiscoveryTable(MAX_DISCOVERED_DEVICES, DISCOVERY_TTL_NANOS, DISCOVERY_PUBLISH_INTERVAL_NANOS);
+    private final ScanScheduler scanScheduler;
+    private final UwbAdvertisement scannedAdvertisement = new UwbAdvertisement();
+    private final PairingScheduler pairing;
+    private volatile boolean controller;
+    private volatile UwbEndpoint endpoint;
+    private volatile int rangingChannel;
+    private volatile int rangingPreambleIndex;
+    private volatile SessionIdAllocator allocator;
+    private volatile boolean allocatedSession;
+    private volatile int rangingSessionId;
+    private volatile byte[] rangingSessionKey;
+    private volatile int rangingUpdateRate = RangingSession.UPDATE_RATE_AUTOMATIC;
+
+    /**
+     * @param recorder records raw samples and scan results if not null; closed by {@link #close()}
+     */
+    public RangingEngine(BleScanner scanner, Clock clock, RangingRecorder recorder, Listener listener) {
+        this.clock = clock;
+        this.recorder = recorder;
+        this.listener = listener;
+        filter = FilterStage.createDefault(MAX_RANGING_PEERS, new SampleFanOut(samples, solverFeed, updateRates, geofences, history, fixFeed));
+        orientation = new AoaFusion(MAX_RANGING_PEERS, filter);
+        quality = new LinkQualityEstimator(MAX_RANGING_PEERS, orientation);
+        telemetry = new RangingTelemetry(MAX_RANGING_PEERS, clock);
+        sessionSamples = new SampleFanOut(telemetry, quality);
+        manager = new MultiPeerSessionManager(this::openSession, MAX_RANGING_PEERS,
+                recorder != null ? new SampleFanOut(recorder, sessionSamples) : sessionSamples, managerListener);
+        scanScheduler = new ScanScheduler(scanner, clock, this::countUnrangedPeers);
+        pairing = new PairingScheduler(connector, MAX_DISCOVERED_DEVICES, new Random().nextInt(0x10000));
+    }
+
+    public RangingSampleBuffer samples() {
+        return samples;
+    }
+
+    public MultilaterationSolver solver() {
+        return solver;
+    }
+
+    public RangingTelemetry telemetry() {
+        return telemetry;
+    }
+
+    public DiscoveryTable discoveryTable() {
+        return discoveryTable;
+    }
+
+    public RangingSessionManager manager() {
+        return manager;
+    }
+
+    /** Set the consumer's demand here; a controller adapts the update rate of its session to it. */
+    public UpdateRateController updateRates() {
+        return updateRates;
+    }
+
+    /** Proximity rules see the filtered samples, zone rules this device's fixes as {@link GeofenceEngine#SELF}. */
+    public GeofenceEngine geofences() {
+        return geofences;
+    }
+
+    /**
+     * While the rotation vector sensor feeds {@link #onRotationVector}, the filters and everything after
+     * them see world bearings and elevations instead of device angles; the recorder and telemetry keep the
+     * raw ones.
+     */
+    public AoaFusion orientation() {
+        return orientation;
+    }
+
+    /**
+     * Handles one rotation vector sensor reading, the first four values of the event.
+     *
+     * @param w the scalar component, or NaN if the sensor does not report it
+     */
+    public void onRotationVector(float x, float y, float z, float w, long timestampNanos) {
+        if (recorder != null) {
+            recorder.recordRotationVector(x, y, z, w, timestampNanos);
+        }
+        orientation.onRotationVector(x, y, z, w, timestampNanos);
+    }
+
+    /**
+     * Rejects distance jumps before the filters and weights each peer's samples for the solver by its
+     * noise, losses and whether its line of sight seems blocked.
+     */
+    public LinkQualityEstimator quality() {
+        return quality;
+    }
+
+    /** Smooths distances and angles per peer before the samples reach the buffer and the solver. */
+    public FilterStage filter() {
+        return filter;
+    }
+
+    /** Filtered samples of the last hours, kept across sessions and lost peers. */
+    public TimeSeriesStore history() {
+        return history;
+    }
+
+    /** Switches roles; the endpoint for the new role is set once it is ready. */
+    public void setController(boolean controller) {
+        this.controller = controller;
+        endpoint = null;
+        allocator = null;
+        pairing.setController(controller, clock.nanoTime());
+    }
+
+    /** Lets the pairing scheduler elect the role, see {@link PairingScheduler}. */
+    public void setAutoRole(boolean autoRole) {
+        pairing.setAutoRole(autoRole);
+    }
+
+    public boolean isAutoRole() {
+        return pairing.isAutoRole();
+    }
+
+    public PairingScheduler pairing() {
+        return pairing;
+    }
+
+    public boolean isController() {
+        return controller;
+    }
+
+    public void setEndpoint(UwbEndpoint endpoint) {
+        allocator = endpoint != null && endpoint.isController()
+                ? new SessionIdAllocator(endpoint.localAddress(), clock.nanoTime(), MAX_DISCOVERED_DEVICES)
+                : null;
+        this.endpoint = endpoint;
+        if (endpoint != null) {
+            solver.setAngleSupport(endpoint.supportsAzimuth(), endpoint.supportsElevation());
+            pairing.setLocalAddress(endpoint.localAddress());
+            pairing.setMaxActive(Math.min(endpoint.maxPeers(), MAX_RANGING_PEERS));
+        }
+    }
+
+    /** @return the endpoint for the current role, or null while it is set up */
+    public UwbEndpoint endpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Handles one scan result; compatible peers are queued for {@link #tickPairing()}.
+     *
+     * @param serviceData the UWB service data of the advert, or null
+     */
+    public void onScanResult(long mac, String name, int rssi, long timestampNanos, byte[] serviceData) {
+        boolean hasUwb = UwbAdvertisementCodec.decode(serviceData, scannedAdvertisement);
+        if (recorder != null) {
+            recorder.recordAdvert(mac, rssi, timestampNanos, serviceData);
+        }
+        int status = discoveryTable.onAdvert(mac, rssi, timestampNanos, hasUwb ? scannedAdvertisement : null);
+        if (status == DiscoveryTable.ADDED) {
+            discoveryTable.setName(mac, name);
+            scanScheduler.onPeerDiscovered();
+        }
+        if (!hasUwb) {
+            return;
+        }
+        quality.onRssi(scannedAdvertisement.uwbAddress, rssi, timestampNanos);
+        pairing.onAdvert(scannedAdvertisement.uwbAddress, scannedAdvertisement, timestampNanos);
+        if (status != DiscoveryTable.ADDED && status != DiscoveryTable.UWB_CHANGED) {
+            return;
+        }
+        SessionIdAllocator allocator = this.allocator;
+        if (allocator != null && scannedAdvertisement.isController()) {
+            int resolution = allocator.onAdvertisedSession(scannedAdvertisement.uwbAddress, scannedAdvertisement.sessionId,
+                    manager.connectedCount() > 0);
+            if (resolution == SessionIdAllocator.REASSIGNED) {
+                listener.onSessionReassigned(allocator.sessionId());
+                if (allocatedSession) {
+                    manager.restartSession();
+                }
+            }
+        }
+
+        if (controller != scannedAdvertisement.isController()) {
+            telemetry.onPeerDiscovered(scannedAdvertisement.uwbAddress, timestampNanos);
+        }
+    }
+
+    /** Ranges with one peer only, replacing the current session, in the {@link #MANUAL_SESSION_ID} session. */
+    public void startRanging(int peer, int channel, int preambleIndex) {
+        manager.stop();
+        connect(peer, channel, preambleIndex, MANUAL_SESSION_ID, new byte[SessionIdAllocator.KEY_LENGTH],
+                RangingSession.UPDATE_RATE_AUTOMATIC);
+    }
+
+    public void stopRanging() {
+        manager.stop();
+    }
+
+    /**
+     * Admits queued peers, drops failed ones and restarts a controller's session if its update rate
+     * should change. @return nanoseconds until the next call
+     */
+    public long tickPairing() {
+        long delay = pairing.tick(clock.nanoTime());
+        adaptUpdateRate();
+        return delay;
+    }
+
+    // Only sessions of the allocator adapt, as their controlees learn the rate from the advert
+    private void adaptUpdateRate() {
+        if (!controller || !allocatedSession || !manager.isRanging()) {
+            return;
+        }
+        int updateRate = updateRates.sessionRate();
+        if (updateRate != rangingUpdateRate) {
+            rangingUpdateRate = updateRate;
+            manager.restartSession();
+            listener.onUpdateRateChanged(updateRate);
+        }
+    }
+
+    // A null session key makes a controller range in the session of its allocator
+    private boolean connect(int peer, int channel, int preambleIndex, int sessionId, byte[] sessionKey, int updateRate) {
+        if (!manager.isRanging()) {
+            rangingChannel = channel;
+            rangingPreambleIndex = preambleIndex;
+            rangingSessionId = sessionId;
+            rangingSessionKey = sessionKey;
+            rangingUpdateRate = updateRate;
+            allocatedSession = sessionKey == null;
+        }
+        return manager.addPeer(peer);
+    }
+
+    // Frees the per-peer state of the stages after a peer left the session, however it left
+    private void releasePeer(int peer) {
+        quality.resetPeer(peer);
+        orientation.resetPeer(peer);
+        filter.resetPeer(peer);
+        updateRates.resetPeer(peer);
+    }
+
+    private RangingSession openSession() {
+        SessionIdAllocator allocator = this.allocator;
+        if (!allocatedSession || allocator == null) {
+            return endpoint.openSession(rangingChannel, rangingPreambleIndex, rangingSessionId, rangingSessionKey,
+                    rangingUpdateRate);
+        }
+        if (allocator.onSessionStart()) {
+            listener.onSessionReassigned(allocator.sessionId());
+        }
+        byte[] sessionKey = new byte[SessionIdAllocator.KEY_LENGTH];
+        allocator.sessionKey(sessionKey);
+        rangingSessionId = allocator.sessionId();
+        return endpoint.openSession(rangingChannel, rangingPreambleIndex, rangingSessionId, sessionKey, rangingUpdateRate);
+    }
+
+    /** @return the service data to advertise for the current endpoint, empty while it is set up */
+    public byte[] encodeAdvertisement() {
+        UwbAdvertisement advertisement = new UwbAdvertisement();
+        UwbEndpoint endpoint = this.endpoint;
+        if (endpoint == null) {
+            return UwbAdvertisementCodec.encode(advertisement);
+        }
+        advertisement.uwbAddress = endpoint.localAddress();
+        if (endpoint.supportsAzimuth()) {
+            advertisement.flags |= UwbAdvertisement.FLAG_AZIMUTH;
+        }
+        if (endpoint.supportsElevation()) {
+            advertisement.flags |= UwbAdvertisement.FLAG_ELEVATION;
+        }
+        SessionIdAllocator allocator = this.allocator;
+        advertisement.electionKey = pairing.electionKey();
+        if (pairing.isAutoRole()) {
+            advertisement.flags |= UwbAdvertisement.FLAG_AUTO_ROLE;
+        }
+        if (endpoint.isController() && allocator != null) {
+            advertisement.flags |= UwbAdvertisement.FLAG_CONTROLLER | UwbAdvertisement.FLAG_MULTI_PEER;
+            advertisement.channel = endpoint.channel();
+            advertisement.preambleIndex = endpoint.preambleIndex();
+            advertisement.sessionId = allocator.sessionId();
+            advertisement.subSessionKeyHint = allocator.keyHint();
+            advertisement.updateRate = rangingUpdateRate;
+        }
+        // Controlees learn channel and session from the controller, so those fields stay 0
+        return UwbAdvertisementCodec.encode(advertisement);
+    }
+
+    /** Compatible peers we know of but do not range with yet, these keep the scanner busy. */
+    public int countUnrangedPeers() {
+        boolean controller = this.controller;
+        return discoveryTable.countUwb(advertisement ->
+                advertisement.isController() != controller && !manager.containsPeer(advertisement.uwbAddress));
+    }
+
+    public boolean isScanning() {
+        return scanScheduler.isRunning();
+    }
+
+    /** Forgets earlier discoveries and starts scanning. @return nanoseconds until {@link #tickScan()} */
+    public long startScan() {
+        discoveryTable.clear();
+        return scanScheduler.start();
+    }
+
+    public void stopScan() {
+        scanScheduler.stop();
+    }
+
+    /** @return nanoseconds until the next call, or -1 once scanning stopped */
+    public long tickScan() {
+        return scanScheduler.tick();
+    }
+
+    /** @return nanoseconds until the next {@link #tickScan()}, or -1 if not scanning */
+    public long onScanDemandChanged() {
+        return scanScheduler.onDemandChanged();
+    }
+
+    /**
+     * Expires stale devices and reports the changes since the last call.
+     *
+     * @return whether any change was reported
+     */
+    public boolean publishDiscoveries(DiscoveryTable.ChangeListener changes) {
+        long now = clock.nanoTime();
+        discoveryTable.expire(now);
+        return discoveryTable.publishChanges(now, changes);
+    }
+
+    /** Stops ranging and scanning and finishes the recording. */
+    public void close() throws IOException {
+        manager.stop();
+        scanScheduler.stop();
+        if (recorder != null) {
+            recorder.close();
+        }
+    }
+
+    /**
+     * Feeds a recording into the engine as the scanner and the session would: adverts go through
+     * {@link #onScanResult}, rotation vector readings through {@link #onRotationVector}, samples and losses
+     * through telemetry, quality, orientation, filters and everything after them. Meant for an engine
+     * without endpoint or recorder.
+     */
+    ReplayListener replayInput() {
+        return replayInput;
+    }
+
+    private final ReplayListener replayInput = new ReplayListener() {
+        @Override
+        public void onSample(int peer, float distance, float azimuth, float elevation, long timestampNanos) {
+            sessionSamples.onSample(peer, distance, azimuth, elevation, timestampNanos);
+        }
+
+        @Override
+        public void onAdvert(long mac, int rssi, long timestampNanos, byte[] serviceData) {
+            onScanResult(mac, null, rssi, timestampNanos, serviceData);
+        }
+
+        @Override
+        public void onPeerLost(int peer, long timestampNanos) {
+            managerListener.onPeerLost(peer);
+        }
+
+        @Override
+        public void onRotationVector(float x, float y, float z, float w, long timestampNanos) {
+            RangingEngine.this.onRotationVector(x, y, z, w, timestampNanos);
+        }
+    };
+
+    private final RangingSampleListener solverFeed = (peer, distance, azimuth, elevation, timestampNanos) ->
+            solver.update(peer, distance, azimuth, elevation, RangingEngine.this.quality.weight(peer), timestampNanos);
+
+    // Runs after the solver on the ranging thread and passes each new fix on to the zone rules
+    private final RangingSampleListener fixFeed = (peer, distance, azimuth, elevation, timestampNanos) -> {
+        long sequence = geofenceFix.sequence;
+        if (solver.readFix(geofenceFix) && geofenceFix.sequence != sequence) {
+            geofences.onPosition(GeofenceEngine.SELF, geofenceFix.x, geofenceFix.y, geofenceFix.timestampNanos);
+        }
+    };
+
+    private final PairingScheduler.Connector connector = new PairingScheduler.Connector() {
+        @Override
+        public boolean connect(int peer, UwbAdvertisement advertisement) {
+            UwbEndpoint endpoint = RangingEngine.this.endpoint;
+            if (endpoint == null) {
+                return false;
+            }
+            listener.onPeerConnecting(peer);
+            if (controller) {
+                // A controller uses its own channel, preamble index and session
+                return RangingEngine.this.connect(peer, endpoint.channel(), endpoint.preambleIndex(), 0, null,
+                        updateRates.sessionRate());
+            }
+            // A controlee ranges with a single controller, in the session and at the rate that controller advertises
+            byte[] sessionKey = new byte[SessionIdAllocator.KEY_LENGTH];
+            if (advertisement.version > 0) {
+                SessionIdAllocator.deriveKey(advertisement.sessionId, peer, advertisement.subSessionKeyHint, sessionKey);
+            }
+            manager.stop();
+            return RangingEngine.this.connect(peer, advertisement.channel, advertisement.preambleIndex,
+                    advertisement.sessionId, sessionKey, advertisement.updateRate);
+        }
+
+        @Override
+        public void disconnect(int peer) {
+            if (manager.removePeer(peer)) {
+                releasePeer(peer);
+                telemetry.releasePeer(peer);
+            }
+        }
+
+        @Override
+        public boolean isRanging(int peer) {
+            return manager.containsPeer(peer);
+        }
+
+        @Override
+        public long lastResultNanos(int peer) {
+            return manager.lastTimestampNanos(peer);
+        }
+
+        @Override
+        public void switchRole(boolean controller) {
+            manager.stop();
+            setController(controller);
+            listener.onRoleElected(controller);
+        }
+    };
+
+    private final RangingSessionManager.Listener managerListener = new RangingSessionManager.Listener() {
+        @Override
+        public void onRangingStarted() {
+            listener.onRangingStarted();
+        }
+
+        @Override
+        public void onPeerLost(int peer) {
+            telemetry.onPeerLost(peer);
+            if (recorder != null) {
+                recorder.recordPeerLost(peer, clock.nanoTime());
+            }
+            releasePeer(peer);
+            geofences.onPeerLost(peer, clock.nanoTime());
+            listener.onPeerLost(peer);
+        }
+
+        @Override
+        public void onRangingStopped(Throwable error) {
+            // Every peer left with the session; their state would otherwise hold the stages' slots
+            quality.clear();
+            orientation.clear();
+            filter.clear();
+            updateRates.clear();
+            telemetry.releasePeers();
+            listener.onRangingStopped(error);
+        }
+    };
+}
@@ -0,0 +1,78 @@
+package at.jku.ins.uwb_default_values.geofence;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads rules into a {@link GeofenceEngine}, one per line, with an optional dwell time in seconds at the end:
+ * <pre>
+ * near   &lt;peer&gt; &lt;radius&gt; [dwell]
+ * circle &lt;x&gt; &lt;y&gt; &lt;radius&gt; [dwell]
+ * rect   &lt;min x&gt; &lt;min y&gt; &lt;max x&gt; &lt;max y&gt; [dwell]
+ * </pre>
+ * {@code near} holds while the peer is ranged within the radius; zones hold while this device's own fix
+ * lies inside them. Rules get their IDs in the order of the lines. Blank lines and lines starting with
+ * {@code #} are skipped.
+ */
+public final class GeofenceConfig {
+
+    private GeofenceConfig() {
+    }
+
+    /** @return the number of rules added */
+    public static int load(Reader reader, GeofenceEngine engine) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        int count = 0;
+        int lineNumber = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            try {
+                int rule;
+                switch (fields[0]) {
+                    case "near":
+                        expectFields(fields, 3, lineNumber, "near <peer> <radius> [dwell]");
+                        rule = engine.addProximityRule(Integer.parseInt(fields[1]), Float.parseFloat(fields[2]),
+                                dwellNanos(fields, 3));
+                        break;
+                    case "circle":
+                        expectFields(fields, 4, lineNumber, "circle <x> <y> <radius> [dwell]");
+                        rule = engine.addZoneRule(GeofenceEngine.SELF, engine.addCircleZone(Double.parseDouble(fields[1]),
+                                Double.parseDouble(fields[2]), Double.parseDouble(fields[3])), dwellNanos(fields, 4));
+                        break;
+                    case "rect":
+                        expectFields(fields, 5, lineNumber, "rect <min x> <min y> <max x> <max y> [dwell]");
+                        rule = engine.addZoneRule(GeofenceEngine.SELF, engine.addRectangleZone(Double.parseDouble(fields[1]),
+                                Double.parseDouble(fields[2]), Double.parseDouble(fields[3]), Double.parseDouble(fields[4])),
+                                dwellNanos(fields, 5));
+                        break;
+                    default:
+                        throw new IOException("Line " + lineNumber + ": unknown rule " + fields[0]);
+                }
+                if (rule != GeofenceEngine.NO_RULE) {
+                    count++;
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        return count;
+    }
+
+    private static void expectFields(String[] fields, int required, int lineNumber, String usage) throws IOException {
+        if (fields.length != required && fields.length != required + 1) {
+            throw new IOException("Line " + lineNumber + ": expected " + usage);
+        }
+    }
+
+    private static long dwellNanos(String[] fields, int index) {
+        return fields.length > index ? (long) (Double.parseDouble(fields[index]) * TimeUnit.SECONDS.toNanos(1)) : 0;
+    }
+}
@@ -0,0 +1,399 @@
+package at.jku.ins.uwb_default_values.geofence;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.ranging.RangingSampleListener;
+import at.jku.ins.uwb_default_values.util.LongIntHashMap;
+
+/**
+ * Evaluates proximity and zone rules against the ranging stream and reports when a subject enters,
+ * leaves or dwells in them.
+ * <ul>
+ *     <li>A proximity rule holds while a peer's ranged distance is within a radius, e.g. "tag 1234 within
+ *     1.5 m". It is fed by {@link #onSample}.</li>
+ *     <li>A zone rule holds while a subject's position lies in a circle or rectangle in the anchors' frame.
+ *     It is fed by {@link #onPosition}; {@link #SELF} stands for this device's own fix.</li>
+ * </ul>
+ * Each update only checks the rules of the updated subject: the proximity rules of a peer are chained
+ * per peer, and zones are found through a uniform grid, plus the subject's rules that currently hold.
+ * A change must last for the debounce time before it is reported, rules leave only once the subject is
+ * {@link #HYSTERESIS} beyond them, and a rule with a dwell time reports {@link #DWELL} once per stay.
+ * <p>
+ * Updates do not allocate. The listener is called on the updating thread, with this engine's lock held.
+ */
+public final class GeofenceEngine implements RangingSampleListener {
+
+    /** Subject of this device's own position fixes. */
+    public static final int SELF = Integer.MIN_VALUE;
+    public static final int NO_RULE = -1;
+
+    public static final int ENTER = 1;
+    public static final int EXIT = 2;
+    public static final int DWELL = 3;
+
+    public static final long DEFAULT_DEBOUNCE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /** Margin in meters a subject has to move past a rule's boundary to leave it. */
+    public static final double HYSTERESIS = 0.2;
+
+    public interface Listener {
+        /** @param event {@link #ENTER}, {@link #EXIT} or {@link #DWELL} */
+        void onGeofenceEvent(int rule, int subject, int event, long timestampNanos);
+    }
+
+    private static final int OUTSIDE = 0;
+    private static final int ENTERING = 1;
+    private static final int INSIDE = 2;
+    private static final int EXITING = 3;
+
+    private static final int CIRCLE = 0;
+    private static final int RECTANGLE = 1;
+
+    private final double cellSize;
+    private final long debounceNanos;
+    private Listener listener;
+
+    // Rules
+    private final int[] ruleSubject;
+    private final int[] ruleZone;
+    private final float[] ruleRadius;
+    private final long[] ruleDwell;
+    private final int[] ruleState;
+    private final long[] ruleSince;
+    private final long[] ruleEntered;
+    private final boolean[] ruleDwelled;
+    private final int[] nextProximityRule;
+    private final int[] nextActiveRule;
+    private final int[] previousActiveRule;
+    private final long[] evaluated;
+    private int ruleCount;
+    private long updates;
+    private final LongIntHashMap proximityRulesByPeer;
+    private final LongIntHashMap zoneRuleBySubjectAndZone;
+    private final LongIntHashMap activeZoneRulesBySubject;
+
+    // Zones and their grid
+    private final int[] zoneShape;
+    private final double[] zoneMinX;
+    private final double[] zoneMinY;
+    private final double[] zoneMaxX;
+    private final double[] zoneMaxY;
+    private int zoneCount;
+    private final LongIntHashMap firstEntryByCell;
+    private int[] entryZone = new int[64];
+    private int[] nextEntry = new int[64];
+    private int entryCount;
+
+    /**
+     * @param cellSize edge length of the grid cells in meters, about the size of a typical zone
+     */
+    public GeofenceEngine(int maxRules, int maxZones, double cellSize, long debounceNanos) {
+        this.cellSize = cellSize;
+        this.debounceNanos = debounceNanos;
+        ruleSubject = new int[maxRules];
+        ruleZone = new int[maxRules];
+        ruleRadius = new float[maxRules];
+        ruleDwell = new long[maxRules];
+        ruleState = new int[maxRules];
+        ruleSince = new long[maxRules];
+        ruleEntered = new long[maxRules];
+        ruleDwelled = new boolean[maxRules];
+        nextProximityRule = new int[maxRules];
+        nextActiveRule = new int[maxRules];
+        previousActiveRule = new int[maxRules];
+        evaluated = new long[maxRules];
+        proximityRulesByPeer = new LongIntHashMap(64, NO_RULE);
+        zoneRuleBySubjectAndZone = new LongIntHashMap(maxRules, NO_RULE);
+        activeZoneRulesBySubject = new LongIntHashMap(64, NO_RULE);
+        zoneShape = new int[maxZones];
+        zoneMinX = new double[maxZones];
+        zoneMinY = new double[maxZones];
+        zoneMaxX = new double[maxZones];
+        zoneMaxY = new double[maxZones];
+        firstEntryByCell = new LongIntHashMap(maxZones, -1);
+    }
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized int ruleCount() {
+        return ruleCount;
+    }
+
+    public synchronized int zoneCount() {
+        return zoneCount;
+    }
+
+    /** Whether the rule currently holds, including a pending exit. */
+    public synchronized boolean isInside(int rule) {
+        return ruleState[rule] == INSIDE || ruleState[rule] == EXITING;
+    }
+
+    /**
+     * Adds a rule that holds while {@code peer} is ranged within {@code radius} meters.
+     *
+     * @param dwellNanos stay after which {@link #DWELL} is reported, 0 for none
+     * @return the rule's ID, or {@link #NO_RULE} if there is no room
+     */
+    public synchronized int addProximityRule(int peer, float radius, long dwellNanos) {
+        int rule = addRule(peer, dwellNanos);
+        if (rule != NO_RULE) {
+            ruleRadius[rule] = radius;
+            nextProximityRule[rule] = proximityRulesByPeer.put(peer, rule);
+        }
+        return rule;
+    }
+
+    /** @return the zone's ID, or -1 if there is no room */
+    public synchronized int addCircleZone(double x, double y, double radius) {
+        return addZone(CIRCLE, x - radius, y - radius, x + radius, y + radius);
+    }
+
+    /** @return the zone's ID, or -1 if there is no room */
+    public synchronized int addRectangleZone(double minX, double minY, double maxX, double maxY) {
+        return addZone(RECTANGLE, Math.min(minX, maxX), Math.min(minY, maxY), Math.max(minX, maxX), Math.max(minY, maxY));
+    }
+
+    /**
+     * Adds a rule that holds while {@code subject} is positioned in {@code zone}.
+     *
+     * @param dwellNanos stay after which {@link #DWELL} is reported, 0 for none
+     * @return the rule's ID, or {@link #NO_RULE} if there is no room or the subject already has a rule for the zone
+     */
+    public synchronized int addZoneRule(int subject, int zone, long dwellNanos) {
+        if (zone < 0 || zone >= zoneCount || zoneRuleBySubjectAndZone.containsKey(subjectZoneKey(subject, zone))) {
+            return NO_RULE;
+        }
+        int rule = addRule(subject, dwellNanos);
+        if (rule != NO_RULE) {
+            ruleZone[rule] = zone;
+            zoneRuleBySubjectAndZone.put(subjectZoneKey(subject, zone), rule);
+        }
+        return rule;
+    }
+
+    /** Drops all rules and zones. */
+    public synchronized void clear() {
+        ruleCount = 0;
+        zoneCount = 0;
+        entryCount = 0;
+        proximityRulesByPeer.clear();
+        zoneRuleBySubjectAndZone.clear();
+        activeZoneRulesBySubject.clear();
+        firstEntryByCell.clear();
+    }
+
+    /** Checks the proximity rules of {@code peer}. */
+    @Override
+    public synchronized void onSample(int peer, float distance, float azimuth, float elevation, long timestampNanos) {
+        if (Float.isNaN(distance)) {
+            return;
+        }
+        for (int rule = proximityRulesByPeer.get(peer); rule != NO_RULE; rule = nextProximityRule[rule]) {
+            double radius = isInside(rule) ? ruleRadius[rule] + HYSTERESIS : ruleRadius[rule];
+            evaluate(rule, distance <= radius, timestampNanos);
+        }
+    }
+
+    /** Checks the zone rules of {@code subject} at the given position in the anchors' frame. */
+    public synchronized void onPosition(int subject, double x, double y, long timestampNanos) {
+        long update = ++updates;
+        long cell = cellKey(cell(x), cell(y));
+        for (int entry = firstEntryByCell.get(cell); entry != -1; entry = nextEntry[entry]) {
+            int rule = zoneRuleBySubjectAndZone.get(subjectZoneKey(subject, entryZone[entry]));
+            if (rule != NO_RULE) {
+                evaluated[rule] = update;
+                evaluateZone(rule, x, y, timestampNanos);
+            }
+        }
+        // Rules that hold or are about to, but whose zone is not near the position any more
+        int rule = activeZoneRulesBySubject.get(subject);
+        while (rule != NO_RULE) {
+            int next = nextActiveRule[rule];
+            if (evaluated[rule] != update) {
+                evaluateZone(rule, x, y, timestampNanos);
+            }
+            rule = next;
+        }
+    }
+
+    /** Reports the exit of every proximity rule of a peer that is no longer ranged. */
+    public synchronized void onPeerLost(int peer, long timestampNanos) {
+        for (int rule = proximityRulesByPeer.get(peer); rule != NO_RULE; rule = nextProximityRule[rule]) {
+            if (isInside(rule)) {
+                exit(rule, timestampNanos);
+            }
+            ruleState[rule] = OUTSIDE;
+        }
+    }
+
+    private int addRule(int subject, long dwellNanos) {
+        if (ruleCount == ruleSubject.length) {
+            return NO_RULE;
+        }
+        int rule = ruleCount++;
+        ruleSubject[rule] = subject;
+        ruleDwell[rule] = dwellNanos;
+        ruleState[rule] = OUTSIDE;
+        ruleDwelled[rule] = false;
+        evaluated[rule] = 0;
+        return rule;
+    }
+
+    private int addZone(int shape, double minX, double minY, double maxX, double maxY) {
+        if (zoneCount == zoneShape.length) {
+            return -1;
+        }
+        int zone = zoneCount++;
+        zoneShape[zone] = shape;
+        zoneMinX[zone] = minX;
+        zoneMinY[zone] = minY;
+        zoneMaxX[zone] = maxX;
+        zoneMaxY[zone] = maxY;
+        // Registered in every cell its bounds touch, including the hysteresis margin
+        for (long cellX = cell(minX - HYSTERESIS); cellX <= cell(maxX + HYSTERESIS); cellX++) {
+            for (long cellY = cell(minY - HYSTERESIS); cellY <= cell(maxY + HYSTERESIS); cellY++) {
+                addEntry(cellKey(cellX, cellY), zone);
+            }
+        }
+        return zone;
+    }
+
+    private void addEntry(long cell, int zone) {
+        if (entryCount == entryZone.length) {
+            entryZone = Arrays.copyOf(entryZone, entryCount * 2);
+            nextEntry = Arrays.copyOf(nextEntry, entryCount * 2);
+        }
+        entryZone[entryCount] = zone;
+        nextEntry[entryCount] = firstEntryByCell.put(cell, entryCount);
+        entryCount++;
+    }
+
+    private void evaluateZone(int rule, double x, double y, long timestampNanos) {
+        int zone = ruleZone[rule];
+        double margin = isInside(rule) ? HYSTERESIS : 0;
+        boolean inside;
+        if (zoneShape[zone] == CIRCLE) {
+            double radius = (zoneMaxX[zone] - zoneMinX[zone]) / 2 + margin;
+            double dx = x - (zoneMinX[zone] + zoneMaxX[zone]) / 2;
+            double dy = y - (zoneMinY[zone] + zoneMaxY[zone]) / 2;
+            inside = dx * dx + dy * dy <= radius * radius;
+        } else {
+            inside = x >= zoneMinX[zone] - margin && x <= zoneMaxX[zone] + margin
+                    && y >= zoneMinY[zone] - margin && y <= zoneMaxY[zone] + margin;
+        }
+        int before = ruleState[rule];
+        evaluate(rule, inside, timestampNanos);
+        int after = ruleState[rule];
+        if (before == OUTSIDE && after != OUTSIDE) {
+            linkActive(rule);
+        } else if (before != OUTSIDE && after == OUTSIDE) {
+            unlinkActive(rule);
+        }
+    }
+
+    private void evaluate(int rule, boolean inside, long timestampNanos) {
+        switch (ruleState[rule]) {
+            case OUTSIDE:
+                if (inside) {
+                    ruleState[rule] = ENTERING;
+                    ruleSince[rule] = timestampNanos;
+                    if (debounceNanos <= 0) {
+                        enter(rule, timestampNanos);
+                    }
+                }
+                break;
+            case ENTERING:
+                if (!inside) {
+                    ruleState[rule] = OUTSIDE;
+                } else if (timestampNanos - ruleSince[rule] >= debounceNanos) {
+                    enter(rule, timestampNanos);
+                }
+                break;
+            case INSIDE:
+                if (!inside) {
+                    ruleState[rule] = EXITING;
+                    ruleSince[rule] = timestampNanos;
+                    if (debounceNanos <= 0) {
+                        exit(rule, timestampNanos);
+                    }
+                } else {
+                    checkDwell(rule, timestampNanos);
+                }
+                break;
+            case EXITING:
+                if (inside) {
+                    ruleState[rule] = INSIDE;
+                    checkDwell(rule, timestampNanos);
+                } else if (timestampNanos - ruleSince[rule] >= debounceNanos) {
+                    exit(rule, timestampNanos);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void enter(int rule, long timestampNanos) {
+        ruleState[rule] = INSIDE;
+        ruleEntered[rule] = timestampNanos;
+        ruleDwelled[rule] = false;
+        report(rule, ENTER, timestampNanos);
+    }
+
+    private void exit(int rule, long timestampNanos) {
+        ruleState[rule] = OUTSIDE;
+        report(rule, EXIT, timestampNanos);
+    }
+
+    private void checkDwell(int rule, long timestampNanos) {
+        if (ruleDwell[rule] > 0 && !ruleDwelled[rule] && timestampNanos - ruleEntered[rule] >= ruleDwell[rule]) {
+            ruleDwelled[rule] = true;
+            report(rule, DWELL, timestampNanos);
+        }
+    }
+
+    private void report(int rule, int event, long timestampNanos) {
+        if (listener != null) {
+            listener.onGeofenceEvent(rule, ruleSubject[rule], event, timestampNanos);
+        }
+    }
+
+    private void linkActive(int rule) {
+        int subject = ruleSubject[rule];
+        int head = activeZoneRulesBySubject.put(subject, rule);
+        nextActiveRule[rule] = head;
+        previousActiveRule[rule] = NO_RULE;
+        if (head != NO_RULE) {
+            previousActiveRule[head] = rule;
+        }
+    }
+
+    private void unlinkActive(int rule) {
+        int previous = previousActiveRule[rule];
+        int next = nextActiveRule[rule];
+        if (previous != NO_RULE) {
+            nextActiveRule[previous] = next;
+        } else if (next != NO_RULE) {
+            activeZoneRulesBySubject.put(ruleSubject[rule], next);
+        } else {
+            activeZoneRulesBySubject.remove(ruleSubject[rule]);
+        }
+        if (next != NO_RULE) {
+            previousActiveRule[next] = previous;
+        }
+    }
+
+    private long cell(double coordinate) {
+        return (long) Math.floor(coordinate / cellSize);
+    }
+
+    private static long cellKey(long cellX, long cellY) {
+        return (cellX << 32) ^ (cellY & 0xFFFFFFFFL);
+    }
+
+    private static long subjectZoneKey(int subject, int zone) {
+        return ((long) subject << 32) | (zone & 0xFFFFFFFFL);
+    }
+}
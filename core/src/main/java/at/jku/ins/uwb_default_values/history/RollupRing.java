@@ -0,0 +1,88 @@
+package at.jku.ins.uwb_default_values.history;
+
+import java.util.Arrays;
+
+/**
+ * Fixed ring of time buckets with count, min, max and sum per column. A bucket is overwritten once its
+ * slot comes around again, so the ring always holds the most recent {@code buckets * resolution}. Sums are
+ * doubles: a minute at 1 kHz adds up far beyond the precision of a float.
+ */
+final class RollupRing {
+
+    private static final int COLUMNS = SeriesBlock.COLUMNS;
+
+    final long resolutionNanos;
+    private final long[] bucketNumbers;
+    private final int[] counts;
+    private final float[] min;
+    private final float[] max;
+    private final double[] sum;
+    private long newestBucket = Long.MIN_VALUE;
+
+    RollupRing(long resolutionNanos, int buckets) {
+        this.resolutionNanos = resolutionNanos;
+        bucketNumbers = new long[buckets];
+        counts = new int[buckets * COLUMNS];
+        min = new float[buckets * COLUMNS];
+        max = new float[buckets * COLUMNS];
+        sum = new double[buckets * COLUMNS];
+        clear();
+    }
+
+    static int sizeBytes(int buckets) {
+        return buckets * (8 + COLUMNS * 20);
+    }
+
+    void clear() {
+        Arrays.fill(bucketNumbers, Long.MIN_VALUE);
+        newestBucket = Long.MIN_VALUE;
+    }
+
+    void add(long timestampNanos, float distance, float azimuth, float elevation) {
+        long bucket = Math.floorDiv(timestampNanos, resolutionNanos);
+        int index = (int) Math.floorMod(bucket, (long) bucketNumbers.length);
+        int base = index * COLUMNS;
+        if (bucketNumbers[index] != bucket) {
+            bucketNumbers[index] = bucket;
+            for (int column = 0; column < COLUMNS; column++) {
+                counts[base + column] = 0;
+                min[base + column] = Float.POSITIVE_INFINITY;
+                max[base + column] = Float.NEGATIVE_INFINITY;
+                sum[base + column] = 0;
+            }
+        }
+        newestBucket = Math.max(newestBucket, bucket);
+        addValue(base, distance);
+        addValue(base + 1, azimuth);
+        addValue(base + 2, elevation);
+    }
+
+    private void addValue(int cell, float value) {
+        if (Float.isNaN(value)) {
+            return;
+        }
+        counts[cell]++;
+        min[cell] = Math.min(min[cell], value);
+        max[cell] = Math.max(max[cell], value);
+        sum[cell] += value;
+    }
+
+    /** Visits the buckets of {@code column} that start in {@code [from, to]} and still hold values, oldest first. */
+    int visit(int column, long fromNanos, long toNanos, TimeSeriesStore.RollupVisitor visitor) {
+        if (newestBucket == Long.MIN_VALUE) {
+            return 0;
+        }
+        long first = Math.max(Math.floorDiv(fromNanos, resolutionNanos), newestBucket - bucketNumbers.length + 1);
+        long last = Math.min(Math.floorDiv(toNanos, resolutionNanos), newestBucket);
+        int visited = 0;
+        for (long bucket = first; bucket <= last; bucket++) {
+            int index = (int) Math.floorMod(bucket, (long) bucketNumbers.length);
+            int cell = index * COLUMNS + column;
+            if (bucketNumbers[index] == bucket && counts[cell] > 0) {
+                visitor.onBucket(bucket * resolutionNanos, counts[cell], min[cell], max[cell], (float) (sum[cell] / counts[cell]));
+                visited++;
+            }
+        }
+        return visited;
+    }
+}
@@ -0,0 +1,251 @@
+package at.jku.ins.uwb_default_values.history;
+
+/**
+ * Fixed-size block of compressed samples of one peer, in the style of Facebook's Gorilla: timestamps as
+ * delta of deltas in microseconds, each float column XORed with its previous value. Floats keep
+ * {@link #MANTISSA_BITS} bits of mantissa, which leaves trailing zeros for the XOR to drop. The header
+ * keeps the time span and per-column count, min, max and sum, so range queries can skip or summarize a
+ * block without decoding it.
+ */
+final class SeriesBlock {
+
+    static final int COLUMNS = 3;
+    /** Estimated size of the header and object overhead. */
+    static final int HEADER_BYTES = 128;
+    /** About 1e-4 relative precision, 1 mm at 10 m. */
+    static final int MANTISSA_BITS = 13;
+    /** Worst case of one sample: a 64 bit timestamp delta and three full floats. */
+    private static final int MAX_SAMPLE_BITS = 4 + 64 + COLUMNS * (2 + 5 + 5 + 32);
+    private static final int DROPPED_MANTISSA_BITS = 23 - MANTISSA_BITS;
+
+    private final long[] words;
+    private int bitCount;
+
+    int count;
+    long firstTimestampNanos;
+    long lastTimestampNanos;
+    final int[] columnCount = new int[COLUMNS];
+    final float[] min = new float[COLUMNS];
+    final float[] max = new float[COLUMNS];
+    final double[] sum = new double[COLUMNS];
+
+    // Encoder state
+    private long previousMicros;
+    private long previousDelta;
+    private final int[] previousBits = new int[COLUMNS];
+    private final int[] previousLeading = new int[COLUMNS];
+    private final int[] previousTrailing = new int[COLUMNS];
+
+    SeriesBlock(int words) {
+        this.words = new long[words];
+    }
+
+    int sizeBytes() {
+        return words.length * 8 + HEADER_BYTES;
+    }
+
+    void clear() {
+        bitCount = 0;
+        count = 0;
+        for (int column = 0; column < COLUMNS; column++) {
+            columnCount[column] = 0;
+            min[column] = Float.POSITIVE_INFINITY;
+            max[column] = Float.NEGATIVE_INFINITY;
+            sum[column] = 0;
+            previousBits[column] = 0;
+            previousLeading[column] = -1;
+            previousTrailing[column] = 0;
+        }
+        previousMicros = 0;
+        previousDelta = 0;
+    }
+
+    boolean hasRoom() {
+        return bitCount + MAX_SAMPLE_BITS <= words.length * 64;
+    }
+
+    /** Appends a sample; the caller checks {@link #hasRoom()} first and keeps timestamps ascending. */
+    void append(long timestampNanos, float distance, float azimuth, float elevation) {
+        long micros = timestampNanos / 1000;
+        if (count == 0) {
+            firstTimestampNanos = timestampNanos;
+            writeBits(micros, 64);
+        } else {
+            long delta = micros - previousMicros;
+            long deltaOfDelta = delta - previousDelta;
+            long zigzag = (deltaOfDelta << 1) ^ (deltaOfDelta >> 63);
+            if (zigzag == 0) {
+                writeBits(0, 1);
+            } else if (zigzag < 1 << 10) {
+                writeBits(0b10, 2);
+                writeBits(zigzag, 10);
+            } else if (zigzag < 1 << 16) {
+                writeBits(0b110, 3);
+                writeBits(zigzag, 16);
+            } else if (zigzag < 1 << 24) {
+                writeBits(0b1110, 4);
+                writeBits(zigzag, 24);
+            } else {
+                writeBits(0b1111, 4);
+                writeBits(zigzag, 64);
+            }
+            previousDelta = delta;
+        }
+        previousMicros = micros;
+        lastTimestampNanos = timestampNanos;
+        appendValue(0, distance);
+        appendValue(1, azimuth);
+        appendValue(2, elevation);
+        count++;
+    }
+
+    private void appendValue(int column, float value) {
+        int bits = quantize(value);
+        if (!Float.isNaN(value)) {
+            float stored = Float.intBitsToFloat(bits);
+            columnCount[column]++;
+            min[column] = Math.min(min[column], stored);
+            max[column] = Math.max(max[column], stored);
+            sum[column] += stored;
+        }
+        int xor = bits ^ previousBits[column];
+        previousBits[column] = bits;
+        if (xor == 0) {
+            writeBits(0, 1);
+            return;
+        }
+        int leading = Math.min(Integer.numberOfLeadingZeros(xor), 31);
+        int trailing = Integer.numberOfTrailingZeros(xor);
+        if (previousLeading[column] >= 0 && leading >= previousLeading[column] && trailing >= previousTrailing[column]) {
+            // Fits the previous window of meaningful bits
+            writeBits(0b10, 2);
+            writeBits(xor >>> previousTrailing[column], 32 - previousLeading[column] - previousTrailing[column]);
+        } else {
+            int meaningful = 32 - leading - trailing;
+            writeBits(0b11, 2);
+            writeBits(leading, 5);
+            writeBits(meaningful - 1, 5);
+            writeBits(xor >>> trailing, meaningful);
+            previousLeading[column] = leading;
+            previousTrailing[column] = trailing;
+        }
+    }
+
+    /** Rounds the mantissa to {@link #MANTISSA_BITS} bits; NaN and infinities stay as they are. */
+    static int quantize(float value) {
+        int bits = Float.floatToIntBits(value);
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            return bits;
+        }
+        return (bits + (1 << (DROPPED_MANTISSA_BITS - 1))) & -(1 << DROPPED_MANTISSA_BITS);
+    }
+
+    private void writeBits(long value, int bits) {
+        int index = bitCount >>> 6;
+        int offset = bitCount & 63;
+        long masked = bits == 64 ? value : value & ((1L << bits) - 1);
+        int room = 64 - offset;
+        if (bits <= room) {
+            words[index] |= masked << (room - bits);
+        } else {
+            words[index] |= masked >>> (bits - room);
+            words[index + 1] |= masked << (64 - (bits - room));
+        }
+        bitCount += bits;
+    }
+
+    /** Clears the bit storage for reuse; {@link #clear()} resets the rest. */
+    void recycle() {
+        int used = (bitCount + 63) >>> 6;
+        for (int i = 0; i < used; i++) {
+            words[i] = 0;
+        }
+        clear();
+    }
+
+    /** Decodes a block from its start. Reusable across blocks. */
+    static final class Cursor {
+
+        long timestampNanos;
+        final float[] values = new float[COLUMNS];
+
+        private SeriesBlock block;
+        private int position;
+        private int remaining;
+        private long micros;
+        private long delta;
+        private final int[] bits = new int[COLUMNS];
+        private final int[] leading = new int[COLUMNS];
+        private final int[] trailing = new int[COLUMNS];
+
+        void reset(SeriesBlock block) {
+            this.block = block;
+            position = 0;
+            remaining = block.count;
+            micros = 0;
+            delta = 0;
+            for (int column = 0; column < COLUMNS; column++) {
+                bits[column] = 0;
+                leading[column] = 0;
+                trailing[column] = 0;
+            }
+        }
+
+        /** @return false once all samples of the block were read */
+        boolean next() {
+            if (remaining == 0) {
+                return false;
+            }
+            if (remaining == block.count) {
+                micros = readBits(64);
+                // The first timestamp is kept exactly, later ones at microsecond resolution
+                timestampNanos = block.firstTimestampNanos;
+            } else {
+                long zigzag;
+                if (readBits(1) == 0) {
+                    zigzag = 0;
+                } else if (readBits(1) == 0) {
+                    zigzag = readBits(10);
+                } else if (readBits(1) == 0) {
+                    zigzag = readBits(16);
+                } else if (readBits(1) == 0) {
+                    zigzag = readBits(24);
+                } else {
+                    zigzag = readBits(64);
+                }
+                delta += (zigzag >>> 1) ^ -(zigzag & 1);
+                micros += delta;
+                timestampNanos = remaining == 1 ? block.lastTimestampNanos : micros * 1000;
+            }
+            for (int column = 0; column < COLUMNS; column++) {
+                if (readBits(1) != 0) {
+                    if (readBits(1) != 0) {
+                        leading[column] = (int) readBits(5);
+                        int meaningful = (int) readBits(5) + 1;
+                        trailing[column] = 32 - leading[column] - meaningful;
+                    }
+                    int meaningful = 32 - leading[column] - trailing[column];
+                    bits[column] ^= (int) readBits(meaningful) << trailing[column];
+                }
+                values[column] = Float.intBitsToFloat(bits[column]);
+            }
+            remaining--;
+            return true;
+        }
+
+        private long readBits(int count) {
+            long[] words = block.words;
+            int index = position >>> 6;
+            int offset = position & 63;
+            int room = 64 - offset;
+            long value;
+            if (count <= room) {
+                value = words[index] >>> (room - count);
+            } else {
+                value = (words[index] << (count - room)) | (words[index + 1] >>> (64 - (count - room)));
+            }
+            position += count;
+            return count == 64 ? value : value & ((1L << count) - 1);
+        }
+    }
+}
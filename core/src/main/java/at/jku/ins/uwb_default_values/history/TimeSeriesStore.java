@@ -0,0 +1,395 @@
+package at.jku.ins.uwb_default_values.history;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.ranging.PeerSlots;
+import at.jku.ins.uwb_default_values.ranging.RangingSampleListener;
+
+/**
+ * Ranging history per peer in a fixed memory budget.
+ * <ul>
+ *     <li>Raw samples are compressed into {@link #BLOCK_BYTES} blocks: timestamps as delta of deltas,
+ *     distance, azimuth and elevation XORed with their previous value. Noisy traces take 6 to 9 bytes per
+ *     sample. Once the budget is used up, the oldest block of any peer is reused.</li>
+ *     <li>Every sample also updates min, max and mean per {@link #ROLLUP_10_SECONDS 10 s} for an hour and
+ *     per {@link #ROLLUP_MINUTE minute} for a day, which outlive the raw blocks.</li>
+ * </ul>
+ * Range queries only decode the blocks overlapping the range, and {@link #aggregate} only those cut by
+ * its ends; blocks inside the range are summarized from their headers. Samples older than the peer's
+ * last one are dropped. When all peer slots are taken, the least recently updated peer is forgotten.
+ * <p>
+ * Appends do not allocate once the budget is reached. All methods are thread safe.
+ */
+public final class TimeSeriesStore implements RangingSampleListener {
+
+    public static final int DISTANCE = 0;
+    public static final int AZIMUTH = 1;
+    public static final int ELEVATION = 2;
+
+    public static final int ROLLUP_10_SECONDS = 0;
+    public static final int ROLLUP_MINUTE = 1;
+
+    public static final int BLOCK_BYTES = 1024;
+
+    private static final long[] ROLLUP_RESOLUTIONS = {TimeUnit.SECONDS.toNanos(10), TimeUnit.MINUTES.toNanos(1)};
+    private static final int[] ROLLUP_BUCKETS = {360, 1440};
+
+    /** Receives the rollup buckets of a query. */
+    public interface RollupVisitor {
+        void onBucket(long startNanos, int count, float min, float max, float mean);
+    }
+
+    /** Result of {@link #aggregate}. */
+    public static final class Aggregate {
+        public int count;
+        public float min;
+        public float max;
+        public double mean;
+    }
+
+    /** Blocks and rollups of one peer; the blocks form a ring, oldest at {@code head}. */
+    private static final class Series {
+        SeriesBlock[] blocks = new SeriesBlock[8];
+        int head;
+        int size;
+        long lastTimestampNanos = Long.MIN_VALUE;
+        final RollupRing[] rollups = new RollupRing[ROLLUP_RESOLUTIONS.length];
+
+        Series() {
+            for (int i = 0; i < rollups.length; i++) {
+                rollups[i] = new RollupRing(ROLLUP_RESOLUTIONS[i], ROLLUP_BUCKETS[i]);
+            }
+        }
+
+        SeriesBlock block(int i) {
+            return blocks[(head + i) & (blocks.length - 1)];
+        }
+
+        SeriesBlock newest() {
+            return size == 0 ? null : block(size - 1);
+        }
+
+        void push(SeriesBlock block) {
+            if (size == blocks.length) {
+                SeriesBlock[] grown = new SeriesBlock[blocks.length * 2];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = block(i);
+                }
+                blocks = grown;
+                head = 0;
+            }
+            blocks[(head + size++) & (blocks.length - 1)] = block;
+        }
+
+        SeriesBlock poll() {
+            SeriesBlock block = blocks[head];
+            blocks[head] = null;
+            head = (head + 1) & (blocks.length - 1);
+            size--;
+            return block;
+        }
+
+        /** @return index of the first block whose last sample is at or after {@code timestampNanos} */
+        int firstBlockEndingAfter(long timestampNanos) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (block(middle).lastTimestampNanos < timestampNanos) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    private final PeerSlots slots;
+    private final Series[] series;
+    private final long budgetBytes;
+    private final ArrayDeque<SeriesBlock> freeBlocks = new ArrayDeque<>();
+    private final SeriesBlock.Cursor cursor = new SeriesBlock.Cursor();
+    private long allocatedBytes;
+    private long samples;
+    private long dropped;
+
+    /**
+     * @param budgetBytes memory for blocks and rollups; the rollups of a peer take {@link #rollupBytesPerPeer()}
+     */
+    public TimeSeriesStore(int maxPeers, long budgetBytes) {
+        slots = new PeerSlots(maxPeers);
+        series = new Series[maxPeers];
+        this.budgetBytes = budgetBytes;
+    }
+
+    public static int rollupBytesPerPeer() {
+        int bytes = 0;
+        for (int buckets : ROLLUP_BUCKETS) {
+            bytes += RollupRing.sizeBytes(buckets);
+        }
+        return bytes;
+    }
+
+    public static long rollupResolutionNanos(int rollup) {
+        return ROLLUP_RESOLUTIONS[rollup];
+    }
+
+    @Override
+    public synchronized void onSample(int peer, float distance, float azimuth, float elevation, long timestampNanos) {
+        Series s = seriesOf(peer);
+        if (timestampNanos < s.lastTimestampNanos) {
+            dropped++;
+            return;
+        }
+        s.lastTimestampNanos = timestampNanos;
+        SeriesBlock block = s.newest();
+        if (block == null || !block.hasRoom()) {
+            block = takeBlock();
+            s.push(block);
+        }
+        block.append(timestampNanos, distance, azimuth, elevation);
+        for (RollupRing rollup : s.rollups) {
+            rollup.add(timestampNanos, distance, azimuth, elevation);
+        }
+        samples++;
+    }
+
+    /**
+     * Replays the raw samples of a peer in {@code [from, to]} in time order. Timestamps are kept at
+     * microsecond resolution, {@code from} included, and values at about 1e-4 relative precision.
+     *
+     * @return the number of samples passed to {@code out}
+     */
+    public synchronized int query(int peer, long fromNanos, long toNanos, RangingSampleListener out) {
+        Series s = existingSeries(peer);
+        if (s == null) {
+            return 0;
+        }
+        long from = floorMicros(fromNanos);
+        int count = 0;
+        for (int i = s.firstBlockEndingAfter(from); i < s.size; i++) {
+            SeriesBlock block = s.block(i);
+            if (block.firstTimestampNanos > toNanos) {
+                break;
+            }
+            cursor.reset(block);
+            while (cursor.next() && cursor.timestampNanos <= toNanos) {
+                if (cursor.timestampNanos >= from) {
+                    out.onSample(peer, cursor.values[DISTANCE], cursor.values[AZIMUTH], cursor.values[ELEVATION],
+                            cursor.timestampNanos);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Count, min, max and mean of a column over the raw samples of a peer in {@code [from, to]}, ignoring
+     * missing (NaN) values.
+     *
+     * @return false if there is no value in the range
+     */
+    public synchronized boolean aggregate(int peer, int column, long fromNanos, long toNanos, Aggregate out) {
+        out.count = 0;
+        out.min = Float.POSITIVE_INFINITY;
+        out.max = Float.NEGATIVE_INFINITY;
+        double sum = 0;
+        Series s = existingSeries(peer);
+        long from = floorMicros(fromNanos);
+        if (s != null) {
+            for (int i = s.firstBlockEndingAfter(from); i < s.size; i++) {
+                SeriesBlock block = s.block(i);
+                if (block.firstTimestampNanos > toNanos) {
+                    break;
+                }
+                if (block.firstTimestampNanos >= from && block.lastTimestampNanos <= toNanos) {
+                    if (block.columnCount[column] > 0) {
+                        out.count += block.columnCount[column];
+                        out.min = Math.min(out.min, block.min[column]);
+                        out.max = Math.max(out.max, block.max[column]);
+                        sum += block.sum[column];
+                    }
+                    continue;
+                }
+                cursor.reset(block);
+                while (cursor.next() && cursor.timestampNanos <= toNanos) {
+                    float value = cursor.values[column];
+                    if (cursor.timestampNanos >= from && !Float.isNaN(value)) {
+                        out.count++;
+                        out.min = Math.min(out.min, value);
+                        out.max = Math.max(out.max, value);
+                        sum += value;
+                    }
+                }
+            }
+        }
+        out.mean = out.count > 0 ? sum / out.count : Double.NaN;
+        return out.count > 0;
+    }
+
+    /**
+     * Visits the {@link #ROLLUP_10_SECONDS} or {@link #ROLLUP_MINUTE} buckets of a column that start in
+     * {@code [from, to]}, oldest first.
+     *
+     * @return the number of buckets visited
+     */
+    public synchronized int rollups(int peer, int rollup, int column, long fromNanos, long toNanos, RollupVisitor visitor) {
+        Series s = existingSeries(peer);
+        return s == null ? 0 : s.rollups[rollup].visit(column, fromNanos, toNanos, visitor);
+    }
+
+    /** @return the timestamp of the oldest raw sample of the peer, or {@link Long#MIN_VALUE} */
+    public synchronized long oldestTimestamp(int peer) {
+        Series s = existingSeries(peer);
+        return s == null || s.size == 0 ? Long.MIN_VALUE : s.block(0).firstTimestampNanos;
+    }
+
+    /** @return the timestamp of the newest sample of the peer, or {@link Long#MIN_VALUE} */
+    public synchronized long newestTimestamp(int peer) {
+        Series s = existingSeries(peer);
+        return s == null ? Long.MIN_VALUE : s.lastTimestampNanos;
+    }
+
+    /** Raw samples currently held. */
+    public synchronized long size() {
+        long size = 0;
+        for (Series s : series) {
+            if (s != null) {
+                for (int i = 0; i < s.size; i++) {
+                    size += s.block(i).count;
+                }
+            }
+        }
+        return size;
+    }
+
+    /** Samples appended since creation, including those whose blocks were reused since. */
+    public synchronized long appended() {
+        return samples;
+    }
+
+    /** Samples dropped for arriving out of order. */
+    public synchronized long dropped() {
+        return dropped;
+    }
+
+    /** Bytes held by blocks and rollups. */
+    public synchronized long memoryUsed() {
+        return allocatedBytes;
+    }
+
+    public synchronized void removePeer(int peer) {
+        int slot = slots.release(peer);
+        if (slot != PeerSlots.NO_SLOT) {
+            releaseBlocks(series[slot]);
+        }
+    }
+
+    public synchronized void clear() {
+        for (Series s : series) {
+            if (s != null) {
+                releaseBlocks(s);
+            }
+        }
+        slots.clear();
+    }
+
+    /** Decoded timestamps are truncated to microseconds, so range starts are too. */
+    private static long floorMicros(long timestampNanos) {
+        return Math.floorDiv(timestampNanos, 1000) * 1000;
+    }
+
+    private Series existingSeries(int peer) {
+        int slot = slots.slotOf(peer);
+        return slot == PeerSlots.NO_SLOT ? null : series[slot];
+    }
+
+    private Series seriesOf(int peer) {
+        int slot = slots.slotOf(peer);
+        if (slot != PeerSlots.NO_SLOT) {
+            return series[slot];
+        }
+        slot = slots.acquire(peer);
+        if (slot == PeerSlots.NO_SLOT) {
+            // Forget the peer that was updated least recently
+            int stalest = 0;
+            for (int i = 1; i < series.length; i++) {
+                if (series[i].lastTimestampNanos < series[stalest].lastTimestampNanos) {
+                    stalest = i;
+                }
+            }
+            removePeer(slots.peerAt(stalest));
+            slot = slots.acquire(peer);
+        }
+        Series s = series[slot];
+        if (s == null) {
+            s = new Series();
+            series[slot] = s;
+            allocatedBytes += rollupBytesPerPeer();
+            trimToBudget();
+        }
+        return s;
+    }
+
+    /** Gives up free blocks, then the oldest blocks of other peers, until the rollups of a new peer fit. */
+    private void trimToBudget() {
+        while (allocatedBytes > budgetBytes) {
+            SeriesBlock block = freeBlocks.poll();
+            if (block == null) {
+                block = reclaimOldestBlock();
+            }
+            if (block == null) {
+                return;
+            }
+            allocatedBytes -= block.sizeBytes();
+        }
+    }
+
+    private void releaseBlocks(Series s) {
+        while (s.size > 0) {
+            SeriesBlock block = s.poll();
+            block.recycle();
+            freeBlocks.push(block);
+        }
+        for (RollupRing rollup : s.rollups) {
+            rollup.clear();
+        }
+        s.lastTimestampNanos = Long.MIN_VALUE;
+    }
+
+    private SeriesBlock takeBlock() {
+        SeriesBlock block = freeBlocks.poll();
+        if (block != null) {
+            return block;
+        }
+        if (allocatedBytes + BLOCK_BYTES + SeriesBlock.HEADER_BYTES > budgetBytes) {
+            block = reclaimOldestBlock();
+            if (block != null) {
+                return block;
+            }
+        }
+        block = new SeriesBlock(BLOCK_BYTES / 8);
+        block.clear();
+        allocatedBytes += block.sizeBytes();
+        return block;
+    }
+
+    /** @return the block with the oldest samples of all peers, cleared, or null if every peer has just one */
+    private SeriesBlock reclaimOldestBlock() {
+        Series oldest = null;
+        for (Series s : series) {
+            if (s != null && s.size > 1 && (oldest == null || s.block(0).firstTimestampNanos < oldest.block(0).firstTimestampNanos)) {
+                oldest = s;
+            }
+        }
+        if (oldest == null) {
+            return null;
+        }
+        SeriesBlock block = oldest.poll();
+        block.recycle();
+        return block;
+    }
+}
@@ -0,0 +1,256 @@
+package at.jku.ins.uwb_default_values.ranging;
+
+/**
+ * Ranges with any number of peers (up to {@code maxPeers}) through one {@link RangingSession}.
+ * <p>
+ * The session is opened for the first peer. Later peers are added to the running session when it
+ * {@link RangingSession#supportsPeerUpdates() supports it}; otherwise the session is restarted with the
+ * new peer set. Samples are demultiplexed by peer address into per-peer state and forwarded to the
+ * sample listener on the session's callback thread.
+ * <p>
+ * Removing a peer, stopping and the end of a session wait for a sample that is being forwarded, so once
+ * they return no further sample of a released peer reaches the listener. State the listener releases
+ * for the peer afterwards is not recreated by a late sample.
+ */
+public class MultiPeerSessionManager implements RangingSessionManager {
+
+    /** Opens a new, not yet started session with the current configuration. */
+    public interface SessionFactory {
+        RangingSession open();
+    }
+
+    private final SessionFactory sessionFactory;
+    private final RangingSampleListener samples;
+    private final Listener listener;
+    private final PeerSlots slots;
+    private final long[] sampleCounts;
+    private final long[] lastTimestamps;
+    private final boolean[] connected;
+    private final int[] peerBuffer;
+    // Held while a sample is forwarded and while peers are released; taken before this object's lock
+    private final Object deliveryLock = new Object();
+    private RangingSession session;
+
+    public MultiPeerSessionManager(SessionFactory sessionFactory, int maxPeers, RangingSampleListener samples, Listener listener) {
+        this.sessionFactory = sessionFactory;
+        this.samples = samples;
+        this.listener = listener;
+        slots = new PeerSlots(maxPeers);
+        sampleCounts = new long[maxPeers];
+        lastTimestamps = new long[maxPeers];
+        connected = new boolean[maxPeers];
+        peerBuffer = new int[maxPeers];
+    }
+
+    @Override
+    public boolean addPeer(int peer) {
+        boolean started = false;
+        synchronized (this) {
+            if (slots.slotOf(peer) != PeerSlots.NO_SLOT) {
+                return false;
+            }
+            int slot = slots.acquire(peer);
+            if (slot == PeerSlots.NO_SLOT) {
+                return false;
+            }
+            sampleCounts[slot] = 0;
+            lastTimestamps[slot] = 0;
+            connected[slot] = false;
+            if (session != null && session.supportsPeerUpdates()) {
+                session.addPeer(peer);
+            } else {
+                started = session == null;
+                restart();
+            }
+        }
+        if (started) {
+            listener.onRangingStarted();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean removePeer(int peer) {
+        boolean started = false;
+        boolean stopped = false;
+        synchronized (deliveryLock) {
+            synchronized (this) {
+                if (slots.release(peer) == PeerSlots.NO_SLOT) {
+                    return false;
+                }
+                if (slots.size() == 0) {
+                    stopped = session != null;
+                    closeSession();
+                } else if (session == null) {
+                    // An earlier open failed and left the peers without a session, try again with the rest
+                    restart();
+                    started = true;
+                } else if (session.supportsPeerUpdates()) {
+                    session.removePeer(peer);
+                } else {
+                    restart();
+                }
+            }
+        }
+        if (started) {
+            listener.onRangingStarted();
+        }
+        if (stopped) {
+            listener.onRangingStopped(null);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean containsPeer(int peer) {
+        return slots.slotOf(peer) != PeerSlots.NO_SLOT;
+    }
+
+    @Override
+    public synchronized int peerCount() {
+        return slots.size();
+    }
+
+    @Override
+    public synchronized boolean isRanging() {
+        return session != null;
+    }
+
+    @Override
+    public void stop() {
+        synchronized (deliveryLock) {
+            synchronized (this) {
+                if (session == null) {
+                    return;
+                }
+                closeSession();
+                slots.clear();
+            }
+        }
+        listener.onRangingStopped(null);
+    }
+
+    public synchronized long sampleCount(int peer) {
+        int slot = slots.slotOf(peer);
+        return slot != PeerSlots.NO_SLOT ? sampleCounts[slot] : 0;
+    }
+
+    public synchronized long lastTimestampNanos(int peer) {
+        int slot = slots.slotOf(peer);
+        return slot != PeerSlots.NO_SLOT ? lastTimestamps[slot] : 0;
+    }
+
+    /** Whether the peer delivered a position since it was added or last reported lost. */
+    public synchronized boolean isConnected(int peer) {
+        int slot = slots.slotOf(peer);
+        return slot != PeerSlots.NO_SLOT && connected[slot];
+    }
+
+    /** Number of peers that delivered a position since they were added or last reported lost. */
+    public synchronized int connectedCount() {
+        int count = 0;
+        for (int slot = 0; slot < slots.capacity(); slot++) {
+            if (slots.isUsed(slot) && connected[slot]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reopens the session with the current peers, so that a changed session configuration takes effect.
+     *
+     * @return false if there is no session to restart
+     */
+    public synchronized boolean restartSession() {
+        if (session == null) {
+            return false;
+        }
+        for (int slot = 0; slot < slots.capacity(); slot++) {
+            connected[slot] = false;
+        }
+        restart();
+        return true;
+    }
+
+    private void restart() {
+        closeSession();
+        int count = 0;
+        for (int slot = 0; slot < slots.capacity(); slot++) {
+            if (slots.isUsed(slot)) {
+                peerBuffer[count++] = slots.peerAt(slot);
+            }
+        }
+        session = sessionFactory.open();
+        session.start(peerBuffer, count, new SessionCallback(session));
+    }
+
+    private void closeSession() {
+        if (session != null) {
+            RangingSession closing = session;
+            session = null;
+            closing.close();
+        }
+    }
+
+    // Drops the callbacks of sessions that were replaced in the meantime
+    private final class SessionCallback implements RangingSession.Callback {
+
+        private final RangingSession owner;
+
+        SessionCallback(RangingSession owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public void onPosition(int peer, float distance, float azimuth, float elevation, long timestampNanos) {
+            synchronized (deliveryLock) {
+                synchronized (MultiPeerSessionManager.this) {
+                    int slot = slots.slotOf(peer);
+                    if (owner != session || slot == PeerSlots.NO_SLOT) {
+                        return;
+                    }
+                    sampleCounts[slot]++;
+                    lastTimestamps[slot] = timestampNanos;
+                    connected[slot] = true;
+                }
+                samples.onSample(peer, distance, azimuth, elevation, timestampNanos);
+            }
+        }
+
+        @Override
+        public void onPeerDisconnected(int peer) {
+            synchronized (MultiPeerSessionManager.this) {
+                int slot = slots.slotOf(peer);
+                if (owner != session || slot == PeerSlots.NO_SLOT) {
+                    return;
+                }
+                connected[slot] = false;
+            }
+            listener.onPeerLost(peer);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            ended(error);
+        }
+
+        @Override
+        public void onClosed() {
+            ended(null);
+        }
+
+        private void ended(Throwable error) {
+            synchronized (deliveryLock) {
+                synchronized (MultiPeerSessionManager.this) {
+                    if (owner != session) {
+                        return;
+                    }
+                    session = null;
+                    slots.clear();
+                }
+            }
+            listener.onRangingStopped(error);
+        }
+    }
+}
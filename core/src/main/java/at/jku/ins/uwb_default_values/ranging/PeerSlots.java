@@ -0,0 +1,75 @@
+package at.jku.ins.uwb_default_values.ranging;
+
+import at.jku.ins.uwb_default_values.util.LongIntHashMap;
+
+/**
+ * Assigns each peer address a dense slot in {@code [0, capacity)} so per-peer state can live
+ * in plain arrays indexed by slot. Released slots are reused. Not thread safe.
+ */
+public final class PeerSlots {
+
+    public static final int NO_SLOT = -1;
+
+    private final LongIntHashMap slotByPeer;
+    private final int[] peerBySlot;
+    private final int[] freeSlots;
+    private int freeCount;
+
+    public PeerSlots(int capacity) {
+        slotByPeer = new LongIntHashMap(capacity, NO_SLOT);
+        peerBySlot = new int[capacity];
+        freeSlots = new int[capacity];
+        for (int slot = capacity - 1; slot >= 0; slot--) {
+            freeSlots[freeCount++] = slot;
+        }
+    }
+
+    public int capacity() {
+        return peerBySlot.length;
+    }
+
+    public int size() {
+        return slotByPeer.size();
+    }
+
+    public int slotOf(int peer) {
+        return slotByPeer.get(peer);
+    }
+
+    public int peerAt(int slot) {
+        return peerBySlot[slot];
+    }
+
+    public boolean isUsed(int slot) {
+        return slotByPeer.get(peerBySlot[slot]) == slot;
+    }
+
+    /** @return the peer's slot, a newly assigned one, or {@link #NO_SLOT} if all slots are taken */
+    public int acquire(int peer) {
+        int slot = slotByPeer.get(peer);
+        if (slot != NO_SLOT || freeCount == 0) {
+            return slot;
+        }
+        slot = freeSlots[--freeCount];
+        slotByPeer.put(peer, slot);
+        peerBySlot[slot] = peer;
+        return slot;
+    }
+
+    /** @return the slot the peer held, or {@link #NO_SLOT} */
+    public int release(int peer) {
+        int slot = slotByPeer.remove(peer);
+        if (slot != NO_SLOT) {
+            freeSlots[freeCount++] = slot;
+        }
+        return slot;
+    }
+
+    public void clear() {
+        slotByPeer.clear();
+        freeCount = 0;
+        for (int slot = peerBySlot.length - 1; slot >= 0; slot--) {
+            freeSlots[freeCount++] = slot;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package at.jku.ins.uwb_default_values.ranging;
+
+/**
+ * Fixed capacity batch of samples in primitive columns, filled as a {@link RangingSampleListener},
+ * e.g. by {@link RangingSampleBuffer#drain}. The columns are valid up to {@link #count()}; samples
+ * beyond the capacity are only counted. Not thread safe.
+ */
+public final class RangingBatch implements RangingSampleListener {
+
+    public final int[] peers;
+    public final float[] distances;
+    public final float[] azimuths;
+    public final float[] elevations;
+    public final long[] timestamps;
+    private int count;
+    private long dropped;
+
+    public RangingBatch(int capacity) {
+        peers = new int[capacity];
+        distances = new float[capacity];
+        azimuths = new float[capacity];
+        elevations = new float[capacity];
+        timestamps = new long[capacity];
+    }
+
+    @Override
+    public void onSample(int peer, float distance, float azimuth, float elevation, long timestampNanos) {
+        if (count == peers.length) {
+            dropped++;
+            return;
+        }
+        peers[count] = peer;
+        distances[count] = distance;
+        azimuths[count] = azimuth;
+        elevations[count] = elevation;
+        timestamps[count] = timestampNanos;
+        count++;
+    }
+
+    public int capacity() {
+        return peers.length;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /** Samples that did not fit since the last {@link #clear()}. */
+    public long dropped() {
+        return dropped;
+    }
+
+    public void clear() {
+        count = 0;
+        dropped = 0;
+    }
+}
@@ -0,0 +1,105 @@
+package at.jku.ins.uwb_default_values.ranging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Preallocated ring buffer of ranging samples stored in primitive columns.
+ * <p>
+ * There must be a single writer (the ranging callback). Any number of readers may poll
+ * {@link #readLatest} or {@link #drain}; a reader that falls more than {@code capacity}
+ * samples behind skips the overwritten samples.
+ */
+public final class RangingSampleBuffer implements RangingSampleListener {
+
+    private final int mask;
+    private final int[] peers;
+    private final float[] distances;
+    private final float[] azimuths;
+    private final float[] elevations;
+    private final long[] timestamps;
+    private final AtomicLong published = new AtomicLong();
+    // Only its write lock and optimistic reads are used, as a seqlock with the fences the JMM needs
+    private final StampedLock lock = new StampedLock();
+
+    public RangingSampleBuffer(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        mask = capacity - 1;
+        peers = new int[capacity];
+        distances = new float[capacity];
+        azimuths = new float[capacity];
+        elevations = new float[capacity];
+        timestamps = new long[capacity];
+    }
+
+    @Override
+    public void onSample(int peer, float distance, float azimuth, float elevation, long timestampNanos) {
+        // Uncontended with a single writer: readers never take the lock
+        long stamp = lock.writeLock();
+        try {
+            long sequence = published.get();
+            int index = (int) sequence & mask;
+            peers[index] = peer;
+            distances[index] = distance;
+            azimuths[index] = azimuth;
+            elevations[index] = elevation;
+            timestamps[index] = timestampNanos;
+            published.lazySet(sequence + 1);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /** Number of samples written so far; also the sequence of the next sample. */
+    public long sequence() {
+        return published.get();
+    }
+
+    /**
+     * Copies the most recent sample into {@code out}.
+     * <p>
+     * Re-reading {@code published} after the plain slot reads would not be enough: the JMM lets those
+     * reads move past it, and the writer's slot stores become visible before its publish. The optimistic
+     * read covers both: acquiring the write lock is a CAS that orders the stamp change before the slot
+     * stores, and {@link StampedLock#validate} fences the slot reads before checking the stamp, so a read
+     * that saw any part of a write in progress fails validation.
+     *
+     * @return false if nothing was written yet or a sample was written while reading; poll again
+     */
+    public boolean readLatest(RangingSnapshot out) {
+        long stamp = lock.tryOptimisticRead();
+        long sequence = published.get();
+        if (sequence == 0) {
+            return false;
+        }
+        int index = (int) (sequence - 1) & mask;
+        out.peer = peers[index];
+        out.distance = distances[index];
+        out.azimuth = azimuths[index];
+        out.elevation = elevations[index];
+        out.timestampNanos = timestamps[index];
+        out.sequence = sequence;
+        return lock.validate(stamp);
+    }
+
+    /**
+     * Replays the samples from {@code fromSequence} up to the newest one into {@code listener}.
+     *
+     * @return the sequence to pass in on the next call
+     */
+    public long drain(long fromSequence, RangingSampleListener listener) {
+        long end = published.get();
+        long start = Math.max(fromSequence, end - capacity());
+        for (long sequence = start; sequence < end; sequence++) {
+            int index = (int) sequence & mask;
+            listener.onSample(peers[index], distances[index], azimuths[index], elevations[index], timestamps[index]);
+        }
+        return end;
+    }
+}
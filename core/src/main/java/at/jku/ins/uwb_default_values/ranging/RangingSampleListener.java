@@ -0,0 +1,10 @@
+package at.jku.ins.uwb_default_values.ranging;
+
+/**
+ * Receives ranging samples as primitives so that no object has to be allocated per sample.
+ * Angles are in degrees, the distance in meters. Values the device did not report are {@link Float#NaN}.
+ */
+public interface RangingSampleListener {
+
+    void onSample(int peer, float distance, float azimuth, float elevation, long timestampNanos);
+}
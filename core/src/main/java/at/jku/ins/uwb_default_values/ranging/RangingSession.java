@@ -0,0 +1,40 @@
+package at.jku.ins.uwb_default_values.ranging;
+
+/**
+ * One UWB ranging session as seen by {@link MultiPeerSessionManager}. The Android implementation wraps a
+ * {@code UwbClientSessionScope}; tests and simulations can provide their own.
+ * <p>
+ * Peers are identified by their 16 bit short UWB address widened to an {@code int}.
+ */
+public interface RangingSession {
+
+    /** Update rates, ordered so that a higher value means more frequent ranging rounds. */
+    int UPDATE_RATE_INFREQUENT = -1;
+    int UPDATE_RATE_AUTOMATIC = 0;
+    int UPDATE_RATE_FREQUENT = 1;
+
+    interface Callback {
+        void onPosition(int peer, float distance, float azimuth, float elevation, long timestampNanos);
+
+        /** The peer stopped answering; the session itself keeps running. */
+        void onPeerDisconnected(int peer);
+
+        /** The session failed and is closed; {@link #onClosed()} does not follow. */
+        void onError(Throwable error);
+
+        /** The stack ended the session. Not called for {@link #close()}. */
+        void onClosed();
+    }
+
+    /** Starts ranging with the first {@code count} entries of {@code peers}. */
+    void start(int[] peers, int count, Callback callback);
+
+    /** Whether peers can be added and removed while ranging, which only a controller can do. */
+    boolean supportsPeerUpdates();
+
+    void addPeer(int peer);
+
+    void removePeer(int peer);
+
+    void close();
+}
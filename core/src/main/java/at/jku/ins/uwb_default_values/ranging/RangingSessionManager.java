@@ -0,0 +1,30 @@
+package at.jku.ins.uwb_default_values.ranging;
+
+/**
+ * Keeps a single ranging session running with a changing set of peers.
+ */
+public interface RangingSessionManager {
+
+    interface Listener {
+        void onRangingStarted();
+
+        void onPeerLost(int peer);
+
+        void onRangingStopped(Throwable error);
+    }
+
+    /** @return false if the peer was already ranged or no slot is left */
+    boolean addPeer(int peer);
+
+    /** @return false if the peer was not ranged */
+    boolean removePeer(int peer);
+
+    boolean containsPeer(int peer);
+
+    int peerCount();
+
+    boolean isRanging();
+
+    /** Ends the session and forgets all peers. */
+    void stop();
+}
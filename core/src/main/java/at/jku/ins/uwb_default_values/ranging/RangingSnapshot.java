@@ -0,0 +1,14 @@
+package at.jku.ins.uwb_default_values.ranging;
+
+/**
+ * Mutable holder the consumer allocates once and lets {@link RangingSampleBuffer#readLatest} fill.
+ */
+public final class RangingSnapshot {
+
+    public long sequence;
+    public int peer;
+    public float distance = Float.NaN;
+    public float azimuth = Float.NaN;
+    public float elevation = Float.NaN;
+    public long timestampNanos;
+}
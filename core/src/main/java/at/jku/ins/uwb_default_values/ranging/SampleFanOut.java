@@ -0,0 +1,20 @@
+package at.jku.ins.uwb_default_values.ranging;
+
+/**
+ * Passes each sample on to several listeners, in order.
+ */
+public final class SampleFanOut implements RangingSampleListener {
+
+    private final RangingSampleListener[] listeners;
+
+    public SampleFanOut(RangingSampleListener... listeners) {
+        this.listeners = listeners.clone();
+    }
+
+    @Override
+    public void onSample(int peer, float distance, float azimuth, float elevation, long timestampNanos) {
+        for (RangingSampleListener listener : listeners) {
+            listener.onSample(peer, distance, azimuth, elevation, timestampNanos);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package at.jku.ins.uwb_default_values.ranging;
+
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.util.LongIntHashMap;
+
+/**
+ * Picks the update rate of the ranging session from how fast the peers move and what the consumer
+ * needs. Placed after the filters, it estimates each peer's speed from the filtered distance and
+ * azimuth and gives the peer a rate:
+ * <ul>
+ *     <li>watched peers and, while in the foreground, fast peers range frequently</li>
+ *     <li>fast peers in the background range at the automatic rate</li>
+ *     <li>static peers, and all other peers in the background, range infrequently</li>
+ *     <li>everything else ranges at the automatic rate</li>
+ * </ul>
+ * The session runs at the highest rate of its peers. The speed thresholds have hysteresis, a peer's rate
+ * only drops after it wanted the lower rate for {@link #LOWER_DWELL_NANOS} and the session rate changes
+ * at most once per {@link #SESSION_DWELL_NANOS}, since every change restarts the session.
+ * <p>
+ * Decisions depend on the sample timestamps only, so replaying a recorded trace through a
+ * {@code FilterStage} into this controller reproduces them. Demand changes take effect with the next sample.
+ */
+public final class UpdateRateController implements RangingSampleListener {
+
+    /** Above this speed, in m/s, a peer counts as fast; it stays fast until it drops below the exit speed. */
+    public static final float FAST_ENTER_SPEED = 0.8f;
+    public static final float FAST_EXIT_SPEED = 0.5f;
+    /** Below this speed, in m/s, a peer counts as static; it stays static until it exceeds the exit speed. */
+    public static final float STATIC_ENTER_SPEED = 0.1f;
+    public static final float STATIC_EXIT_SPEED = 0.3f;
+    public static final long LOWER_DWELL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    public static final long SESSION_DWELL_NANOS = TimeUnit.SECONDS.toNanos(3);
+    /** Time constant of the velocity smoothing. */
+    public static final long SMOOTHING_NANOS = TimeUnit.SECONDS.toNanos(2);
+    /** Samples further apart restart the velocity estimate. */
+    public static final long MAX_GAP_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private static final int STILL = -1;
+    private static final int MOVING = 0;
+    private static final int FAST = 1;
+
+    private final PeerSlots slots;
+    private final float[] lastDistance;
+    private final float[] lastAzimuth;
+    private final long[] lastTimestamp;
+    private final float[] radialVelocity;
+    private final float[] angularVelocity;
+    private final float[] speed;
+    private final int[] motion;
+    private final int[] peerRate;
+    private final long[] lowerSince;
+    private final LongIntHashMap watchedPeers;
+    private boolean foreground = true;
+    private int sessionRate = RangingSession.UPDATE_RATE_AUTOMATIC;
+    private long sessionSince = Long.MIN_VALUE / 2;
+    private long changes;
+
+    public UpdateRateController(int maxPeers) {
+        slots = new PeerSlots(maxPeers);
+        lastDistance = new float[maxPeers];
+        lastAzimuth = new float[maxPeers];
+        lastTimestamp = new long[maxPeers];
+        radialVelocity = new float[maxPeers];
+        angularVelocity = new float[maxPeers];
+        speed = new float[maxPeers];
+        motion = new int[maxPeers];
+        peerRate = new int[maxPeers];
+        lowerSince = new long[maxPeers];
+        watchedPeers = new LongIntHashMap(maxPeers, 0);
+    }
+
+    /** Whether the consumer currently shows ranging results; in the background all rates drop. */
+    public synchronized void setForeground(boolean foreground) {
+        this.foreground = foreground;
+    }
+
+    /** Marks a peer the consumer follows closely; watched peers range frequently. */
+    public synchronized void setWatched(int peer, boolean watched) {
+        if (watched) {
+            watchedPeers.put(peer, 1);
+        } else {
+            watchedPeers.remove(peer);
+        }
+    }
+
+    /** @return the rate the session should run at, one of the {@code RangingSession.UPDATE_RATE_*} values */
+    public synchronized int sessionRate() {
+        return sessionRate;
+    }
+
+    /** @return the peer's current rate, or the automatic rate for unknown peers */
+    public synchronized int peerRate(int peer) {
+        int slot = slots.slotOf(peer);
+        return slot != PeerSlots.NO_SLOT ? peerRate[slot] : RangingSession.UPDATE_RATE_AUTOMATIC;
+    }
+
+    /** @return the smoothed speed of the peer in m/s, or NaN for unknown peers */
+    public synchronized float speed(int peer) {
+        int slot = slots.slotOf(peer);
+        return slot != PeerSlots.NO_SLOT ? speed[slot] : Float.NaN;
+    }
+
+    /** Number of session rate changes so far. */
+    public synchronized long changes() {
+        return changes;
+    }
+
+    @Override
+    public synchronized void onSample(int peer, float distance, float azimuth, float elevation, long timestampNanos) {
+        if (Float.isNaN(distance)) {
+            return;
+        }
+        int slot = slots.slotOf(peer);
+        if (slot == PeerSlots.NO_SLOT) {
+            slot = slots.acquire(peer);
+            if (slot == PeerSlots.NO_SLOT) {
+                return;
+            }
+            startEstimate(slot, distance, azimuth, timestampNanos);
+            peerRate[slot] = RangingSession.UPDATE_RATE_AUTOMATIC;
+            lowerSince[slot] = timestampNanos;
+        } else {
+            long elapsed = timestampNanos - lastTimestamp[slot];
+            if (elapsed <= 0) {
+                return;
+            }
+            if (elapsed > MAX_GAP_NANOS) {
+                startEstimate(slot, distance, azimuth, timestampNanos);
+            } else {
+                updateEstimate(slot, distance, azimuth, timestampNanos, elapsed);
+            }
+        }
+        updatePeerRate(slot, peer, timestampNanos);
+        updateSessionRate(timestampNanos);
+    }
+
+    /** Forgets a peer that left the session. */
+    public synchronized void resetPeer(int peer) {
+        slots.release(peer);
+    }
+
+    /** Forgets all peers and returns to the automatic rate, for a new session. */
+    public synchronized void clear() {
+        slots.clear();
+        sessionRate = RangingSession.UPDATE_RATE_AUTOMATIC;
+        sessionSince = Long.MIN_VALUE / 2;
+    }
+
+    private void startEstimate(int slot, float distance, float azimuth, long timestampNanos) {
+        lastDistance[slot] = distance;
+        lastAzimuth[slot] = azimuth;
+        lastTimestamp[slot] = timestampNanos;
+        radialVelocity[slot] = 0;
+        angularVelocity[slot] = 0;
+        speed[slot] = 0;
+        motion[slot] = MOVING;
+    }
+
+    private void updateEstimate(int slot, float distance, float azimuth, long timestampNanos, long elapsed) {
+        float seconds = elapsed / 1e9f;
+        // Smooth the signed velocities, so that noise averages out instead of adding up as speed
+        float weight = (float) (1 - Math.exp(-(double) elapsed / SMOOTHING_NANOS));
+        radialVelocity[slot] += weight * ((distance - lastDistance[slot]) / seconds - radialVelocity[slot]);
+        if (!Float.isNaN(azimuth) && !Float.isNaN(lastAzimuth[slot])) {
+            float turn = (float) Math.toRadians(azimuth - lastAzimuth[slot]);
+            angularVelocity[slot] += weight * (turn / seconds - angularVelocity[slot]);
+        } else {
+            angularVelocity[slot] = 0;
+        }
+        float tangential = distance * angularVelocity[slot];
+        speed[slot] = (float) Math.sqrt(radialVelocity[slot] * radialVelocity[slot] + tangential * tangential);
+        lastDistance[slot] = distance;
+        lastAzimuth[slot] = azimuth;
+        lastTimestamp[slot] = timestampNanos;
+    }
+
+    private void updatePeerRate(int slot, int peer, long nowNanos) {
+        float speed = this.speed[slot];
+        if (speed >= FAST_ENTER_SPEED || (motion[slot] == FAST && speed > FAST_EXIT_SPEED)) {
+            motion[slot] = FAST;
+        } else if (speed <= STATIC_ENTER_SPEED || (motion[slot] == STILL && speed < STATIC_EXIT_SPEED)) {
+            motion[slot] = STILL;
+        } else {
+            motion[slot] = MOVING;
+        }
+
+        int current = peerRate[slot];
+        int wanted;
+        if (watchedPeers.containsKey(peer)) {
+            wanted = RangingSession.UPDATE_RATE_FREQUENT;
+        } else if (motion[slot] == FAST) {
+            wanted = foreground ? RangingSession.UPDATE_RATE_FREQUENT : RangingSession.UPDATE_RATE_AUTOMATIC;
+        } else if (motion[slot] == STILL || !foreground) {
+            wanted = RangingSession.UPDATE_RATE_INFREQUENT;
+        } else {
+            wanted = RangingSession.UPDATE_RATE_AUTOMATIC;
+        }
+
+        if (wanted >= current) {
+            // Raise at once, and restart the wait for any later drop
+            peerRate[slot] = wanted;
+            lowerSince[slot] = nowNanos;
+        } else if (nowNanos - lowerSince[slot] >= LOWER_DWELL_NANOS) {
+            peerRate[slot] = wanted;
+            lowerSince[slot] = nowNanos;
+        }
+    }
+
+    private void updateSessionRate(long nowNanos) {
+        int rate = RangingSession.UPDATE_RATE_INFREQUENT;
+        for (int slot = 0; slot < slots.capacity(); slot++) {
+            if (slots.isUsed(slot)) {
+                rate = Math.max(rate, peerRate[slot]);
+            }
+        }
+        if (rate != sessionRate && nowNanos - sessionSince >= SESSION_DWELL_NANOS) {
+            sessionRate = rate;
+            sessionSince = nowNanos;
+            changes++;
+        }
+    }
+}
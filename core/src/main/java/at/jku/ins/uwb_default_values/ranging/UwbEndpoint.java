@@ -0,0 +1,35 @@
+package at.jku.ins.uwb_default_values.ranging;
+
+/**
+ * Port for the local UWB stack once it is ready for one role: what this device offers and how to open
+ * sessions with peers. The Android implementation wraps a {@code UwbClientSessionScope}.
+ */
+public interface UwbEndpoint {
+
+    boolean isController();
+
+    /** Short UWB address of this device, widened to an {@code int}. */
+    int localAddress();
+
+    /** Channel of a controller; controlees learn it from their controller and return 0. */
+    int channel();
+
+    /** Preamble index of a controller; controlees return 0. */
+    int preambleIndex();
+
+    boolean supportsDistance();
+
+    boolean supportsAzimuth();
+
+    boolean supportsElevation();
+
+    /** Number of peers one session can range with at once. */
+    int maxPeers();
+
+    /**
+     * Opens a new, not yet started session on the given channel.
+     *
+     * @param updateRate one of the {@code RangingSession.UPDATE_RATE_*} values
+     */
+    RangingSession openSession(int channel, int preambleIndex, int sessionId, byte[] sessionKey, int updateRate);
+}
@@ -0,0 +1,64 @@
+package at.jku.ins.uwb_default_values.ranging.filter;
+
+/**
+ * Alpha-beta filter: a fixed gain tracker of value and rate, much cheaper than {@link KalmanFilter}.
+ */
+public final class AlphaBetaFilter implements SampleFilter {
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final double alpha;
+    private final double beta;
+    private final double[] position;
+    private final double[] velocity;
+    private final long[] lastTimestamps;
+    private final boolean[] initialized;
+
+    public AlphaBetaFilter(int streams, double alpha, double beta) {
+        this.alpha = alpha;
+        this.beta = beta;
+        position = new double[streams];
+        velocity = new double[streams];
+        lastTimestamps = new long[streams];
+        initialized = new boolean[streams];
+    }
+
+    @Override
+    public float update(int stream, float value, long timestampNanos) {
+        if (Float.isNaN(value)) {
+            return value;
+        }
+        if (!initialized[stream]) {
+            position[stream] = value;
+            velocity[stream] = 0;
+            lastTimestamps[stream] = timestampNanos;
+            initialized[stream] = true;
+            return value;
+        }
+
+        double dt = (timestampNanos - lastTimestamps[stream]) / NANOS_PER_SECOND;
+        double x = position[stream] + velocity[stream] * Math.max(0, dt);
+        double residual = value - x;
+        position[stream] = x + alpha * residual;
+        if (dt > 0) {
+            velocity[stream] += beta / dt * residual;
+        }
+        lastTimestamps[stream] = timestampNanos;
+        return (float) position[stream];
+    }
+
+    /** Estimated rate of change of the stream in units per second. */
+    public float velocity(int stream) {
+        return initialized[stream] ? (float) velocity[stream] : 0f;
+    }
+
+    @Override
+    public void reset(int stream) {
+        initialized[stream] = false;
+    }
+
+    @Override
+    public int streams() {
+        return position.length;
+    }
+}
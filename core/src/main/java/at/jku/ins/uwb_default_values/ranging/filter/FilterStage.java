@@ -0,0 +1,81 @@
+package at.jku.ins.uwb_default_values.ranging.filter;
+
+import at.jku.ins.uwb_default_values.ranging.PeerSlots;
+import at.jku.ins.uwb_default_values.ranging.RangingSampleListener;
+
+/**
+ * Pipeline stage that filters distance, azimuth and elevation per peer before passing samples on.
+ * Samples of peers beyond the filters' capacity are passed on unfiltered.
+ */
+public class FilterStage implements RangingSampleListener {
+
+    private final SampleFilter distanceFilter;
+    private final SampleFilter azimuthFilter;
+    private final SampleFilter elevationFilter;
+    private final RangingSampleListener downstream;
+    private final PeerSlots slots;
+
+    public FilterStage(SampleFilter distanceFilter, SampleFilter azimuthFilter, SampleFilter elevationFilter,
+                       RangingSampleListener downstream) {
+        this.distanceFilter = distanceFilter;
+        this.azimuthFilter = azimuthFilter;
+        this.elevationFilter = elevationFilter;
+        this.downstream = downstream;
+        slots = new PeerSlots(Math.min(distanceFilter.streams(), Math.min(azimuthFilter.streams(), elevationFilter.streams())));
+    }
+
+    /** Default tuning: a gated Kalman filter for the distance and alpha-beta filters for the angles. */
+    public static FilterStage createDefault(int maxPeers, RangingSampleListener downstream) {
+        return new FilterStage(
+                new KalmanFilter(maxPeers, 0.5, 0.01, 4),
+                new AlphaBetaFilter(maxPeers, 0.4, 0.05),
+                new AlphaBetaFilter(maxPeers, 0.4, 0.05),
+                downstream);
+    }
+
+    @Override
+    public void onSample(int peer, float distance, float azimuth, float elevation, long timestampNanos) {
+        synchronized (this) {
+            int slot = slots.acquire(peer);
+            if (slot != PeerSlots.NO_SLOT) {
+                distance = distanceFilter.update(slot, distance, timestampNanos);
+                azimuth = azimuthFilter.update(slot, azimuth, timestampNanos);
+                elevation = elevationFilter.update(slot, elevation, timestampNanos);
+            }
+        }
+        downstream.onSample(peer, distance, azimuth, elevation, timestampNanos);
+    }
+
+    /** Forgets the peer's filter state, for instance after it was lost or removed from the session. */
+    public synchronized void resetPeer(int peer) {
+        int slot = slots.release(peer);
+        if (slot != PeerSlots.NO_SLOT) {
+            reset(slot);
+        }
+    }
+
+    /** Forgets the filter state of all peers, for instance after ranging stopped. */
+    public synchronized void clear() {
+        for (int slot = 0; slot < slots.capacity(); slot++) {
+            if (slots.isUsed(slot)) {
+                reset(slot);
+            }
+        }
+        slots.clear();
+    }
+
+    /** Number of peers with filter state. */
+    public synchronized int peerCount() {
+        return slots.size();
+    }
+
+    public SampleFilter distanceFilter() {
+        return distanceFilter;
+    }
+
+    private void reset(int slot) {
+        distanceFilter.reset(slot);
+        azimuthFilter.reset(slot);
+        elevationFilter.reset(slot);
+    }
+}
@@ -0,0 +1,112 @@
+package at.jku.ins.uwb_default_values.ranging.filter;
+
+/**
+ * Constant velocity Kalman filter with an innovation gate. A measurement further than {@code gate}
+ * standard deviations from the prediction is rejected; after {@link #MAX_REJECTED} rejections in a row
+ * the stream restarts from the measurement, so a real jump is followed eventually.
+ */
+public final class KalmanFilter implements SampleFilter {
+
+    static final int MAX_REJECTED = 5;
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final double processNoise;
+    private final double measurementNoise;
+    private final double gate;
+    private final double[] position;
+    private final double[] velocity;
+    private final double[] p00;
+    private final double[] p01;
+    private final double[] p11;
+    private final long[] lastTimestamps;
+    private final int[] rejected;
+    private final boolean[] initialized;
+
+    /**
+     * @param processNoise     acceleration noise density, in units^2/s^3
+     * @param measurementNoise measurement variance, in units^2
+     * @param gate             innovation gate in standard deviations, {@code Double.POSITIVE_INFINITY} disables it
+     */
+    public KalmanFilter(int streams, double processNoise, double measurementNoise, double gate) {
+        this.processNoise = processNoise;
+        this.measurementNoise = measurementNoise;
+        this.gate = gate;
+        position = new double[streams];
+        velocity = new double[streams];
+        p00 = new double[streams];
+        p01 = new double[streams];
+        p11 = new double[streams];
+        lastTimestamps = new long[streams];
+        rejected = new int[streams];
+        initialized = new boolean[streams];
+    }
+
+    @Override
+    public float update(int stream, float value, long timestampNanos) {
+        if (Float.isNaN(value)) {
+            return value;
+        }
+        if (!initialized[stream]) {
+            restart(stream, value, timestampNanos);
+            return value;
+        }
+
+        double dt = Math.max(0, timestampNanos - lastTimestamps[stream]) / NANOS_PER_SECOND;
+        double x = position[stream] + velocity[stream] * dt;
+        double v = velocity[stream];
+        double dt2 = dt * dt;
+        double q00 = processNoise * dt2 * dt / 3;
+        double q01 = processNoise * dt2 / 2;
+        double q11 = processNoise * dt;
+        double a00 = p00[stream] + 2 * dt * p01[stream] + dt2 * p11[stream] + q00;
+        double a01 = p01[stream] + dt * p11[stream] + q01;
+        double a11 = p11[stream] + q11;
+
+        double innovation = value - x;
+        double s = a00 + measurementNoise;
+        if (innovation * innovation > gate * gate * s) {
+            if (++rejected[stream] > MAX_REJECTED) {
+                restart(stream, value, timestampNanos);
+                return value;
+            }
+            return (float) x;
+        }
+        rejected[stream] = 0;
+
+        double k0 = a00 / s;
+        double k1 = a01 / s;
+        position[stream] = x + k0 * innovation;
+        velocity[stream] = v + k1 * innovation;
+        p00[stream] = (1 - k0) * a00;
+        p01[stream] = (1 - k0) * a01;
+        p11[stream] = a11 - k1 * a01;
+        lastTimestamps[stream] = timestampNanos;
+        return (float) position[stream];
+    }
+
+    /** Estimated rate of change of the stream in units per second. */
+    public float velocity(int stream) {
+        return initialized[stream] ? (float) velocity[stream] : 0f;
+    }
+
+    @Override
+    public void reset(int stream) {
+        initialized[stream] = false;
+    }
+
+    @Override
+    public int streams() {
+        return position.length;
+    }
+
+    private void restart(int stream, float value, long timestampNanos) {
+        position[stream] = value;
+        velocity[stream] = 0;
+        p00[stream] = measurementNoise;
+        p01[stream] = 0;
+        p11[stream] = measurementNoise;
+        lastTimestamps[stream] = timestampNanos;
+        rejected[stream] = 0;
+        initialized[stream] = true;
+    }
+}
@@ -0,0 +1,60 @@
+package at.jku.ins.uwb_default_values.ranging.filter;
+
+/**
+ * Median of the last {@code window} measurements, which drops isolated outliers entirely.
+ * Not thread safe, the filter sorts in a shared scratch array.
+ */
+public final class MedianFilter implements SampleFilter {
+
+    private final int window;
+    private final float[] history;
+    private final int[] counts;
+    private final int[] heads;
+    private final float[] scratch;
+
+    public MedianFilter(int streams, int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be positive: " + window);
+        }
+        this.window = window;
+        history = new float[streams * window];
+        counts = new int[streams];
+        heads = new int[streams];
+        scratch = new float[window];
+    }
+
+    @Override
+    public float update(int stream, float value, long timestampNanos) {
+        if (Float.isNaN(value)) {
+            return value;
+        }
+        int base = stream * window;
+        history[base + heads[stream]] = value;
+        heads[stream] = (heads[stream] + 1) % window;
+        int count = counts[stream] = Math.min(counts[stream] + 1, window);
+
+        // Insertion sort, the window is small
+        for (int i = 0; i < count; i++) {
+            float v = history[base + i];
+            int j = i - 1;
+            while (j >= 0 && scratch[j] > v) {
+                scratch[j + 1] = scratch[j];
+                j--;
+            }
+            scratch[j + 1] = v;
+        }
+        int middle = count >> 1;
+        return (count & 1) == 1 ? scratch[middle] : (scratch[middle - 1] + scratch[middle]) / 2;
+    }
+
+    @Override
+    public void reset(int stream) {
+        counts[stream] = 0;
+        heads[stream] = 0;
+    }
+
+    @Override
+    public int streams() {
+        return counts.length;
+    }
+}
@@ -0,0 +1,23 @@
+package at.jku.ins.uwb_default_values.ranging.filter;
+
+/**
+ * Smooths independent scalar streams. Each stream's state lives in preallocated primitive arrays
+ * indexed by stream number, so updating does not allocate.
+ * <p>
+ * {@link FilterStage} runs one filter per measurement kind and uses the peer's slot as stream number.
+ */
+public interface SampleFilter {
+
+    /**
+     * Feeds one measurement. {@link Float#NaN} leaves the stream untouched and is returned as is.
+     *
+     * @return the filtered value
+     */
+    float update(int stream, float value, long timestampNanos);
+
+    /** Forgets the stream's history so the next measurement starts it afresh. */
+    void reset(int stream);
+
+    /** Number of streams the filter holds state for. */
+    int streams();
+}
@@ -0,0 +1,217 @@
+package at.jku.ins.uwb_default_values.ranging.orientation;
+
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.ranging.PeerSlots;
+import at.jku.ins.uwb_default_values.ranging.RangingSampleListener;
+
+/**
+ * Turns the device relative angles of arrival into world frame directions using the rotation vector
+ * sensor, so bearings stay put while the phone turns.
+ * <p>
+ * Angles of arrival are taken as Android reports them for a phone held upright: azimuth to the right
+ * and elevation upwards of the direction out of the back of the phone, the device's -z axis. A missing
+ * elevation counts as 0. Each sample is rotated by the orientation interpolated to the sample's time,
+ * and its world direction is kept per peer. Each orientation update then reports, per peer, the angles
+ * that direction has in the new orientation, so a display can follow the phone's turns between
+ * ranging results.
+ * <p>
+ * Samples are passed on to the downstream listener with the world bearing and elevation in place of the
+ * device angles, so e.g. a solver with a device yaw of 0 uses full 3D orientation, or unchanged while
+ * there is no orientation within {@link #MAX_ORIENTATION_AGE_NANOS} of the sample. The bearings passed on
+ * are unwrapped per peer, so filters see them change continuously; they may leave [-180, 180].
+ * <p>
+ * Nothing allocates after construction. The listener is called with this stage's lock held, on the
+ * thread of the sample or sensor update.
+ */
+public final class AoaFusion implements RangingSampleListener {
+
+    public static final int ORIENTATION_HISTORY = 32;
+    public static final long MAX_ORIENTATION_AGE_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    /** Called for each peer when its sample or the orientation changed. */
+    public interface Listener {
+        void onPeerVector(PeerVector vector);
+    }
+
+    private final RangingSampleListener downstream;
+    private Listener listener;
+
+    // Orientation ring, newest at (orientationHead - 1)
+    private final double[] orientations = new double[ORIENTATION_HISTORY * Quaternions.SIZE];
+    private final long[] orientationTimes = new long[ORIENTATION_HISTORY];
+    private int orientationHead;
+    private int orientationCount;
+
+    // Per peer world direction of the last sample, as a unit vector
+    private final PeerSlots slots;
+    private final float[] distances;
+    private final double[] east;
+    private final double[] north;
+    private final double[] up;
+    private final double[] unwrappedBearings;
+    private final long[] sampleTimes;
+
+    private final double[] sampleOrientation = new double[Quaternions.SIZE];
+    private final double[] rotated = new double[3];
+    private final PeerVector vector = new PeerVector();
+
+    /** @param downstream receives the samples with world angles, or null */
+    public AoaFusion(int maxPeers, RangingSampleListener downstream) {
+        this.downstream = downstream;
+        slots = new PeerSlots(maxPeers);
+        distances = new float[maxPeers];
+        east = new double[maxPeers];
+        north = new double[maxPeers];
+        up = new double[maxPeers];
+        unwrappedBearings = new double[maxPeers];
+        sampleTimes = new long[maxPeers];
+    }
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Adds a rotation vector sensor reading, the first four values of the event. Readings must arrive
+     * in time order.
+     *
+     * @param w the scalar component, or NaN if the sensor does not report it
+     */
+    public synchronized void onRotationVector(float x, float y, float z, float w, long timestampNanos) {
+        int index = orientationHead;
+        Quaternions.fromRotationVector(x, y, z, w, orientations, index * Quaternions.SIZE);
+        orientationTimes[index] = timestampNanos;
+        orientationHead = (index + 1) % ORIENTATION_HISTORY;
+        orientationCount = Math.min(orientationCount + 1, ORIENTATION_HISTORY);
+
+        if (listener == null) {
+            return;
+        }
+        for (int slot = 0; slot < slots.capacity(); slot++) {
+            if (slots.isUsed(slot)) {
+                report(slot, orientations, index * Quaternions.SIZE, timestampNanos);
+            }
+        }
+    }
+
+    /** Whether a recent enough orientation is available for a sample at the given time. */
+    public synchronized boolean isOriented(long timestampNanos) {
+        return orientationAt(timestampNanos);
+    }
+
+    @Override
+    public void onSample(int peer, float distance, float azimuth, float elevation, long timestampNanos) {
+        float bearing = azimuth;
+        float worldElevation = elevation;
+        synchronized (this) {
+            if (!Float.isNaN(azimuth) && orientationAt(timestampNanos)) {
+                boolean known = slots.slotOf(peer) != PeerSlots.NO_SLOT;
+                int slot = slots.acquire(peer);
+                if (slot != PeerSlots.NO_SLOT) {
+                    double a = Math.toRadians(azimuth);
+                    double e = Float.isNaN(elevation) ? 0 : Math.toRadians(elevation);
+                    double horizontal = Math.cos(e);
+                    Quaternions.rotate(sampleOrientation, 0, false, horizontal * Math.sin(a), Math.sin(e),
+                            -horizontal * Math.cos(a), rotated);
+                    distances[slot] = distance;
+                    east[slot] = rotated[0];
+                    north[slot] = rotated[1];
+                    up[slot] = rotated[2];
+                    sampleTimes[slot] = timestampNanos;
+                    double wrapped = Math.toDegrees(Math.atan2(rotated[0], rotated[1]));
+                    double previous = unwrappedBearings[slot];
+                    unwrappedBearings[slot] = known ? previous + Math.IEEEremainder(wrapped - previous, 360) : wrapped;
+                    bearing = (float) unwrappedBearings[slot];
+                    worldElevation = (float) Math.toDegrees(Math.asin(clamp(rotated[2])));
+                    if (listener != null) {
+                        report(slot, sampleOrientation, 0, timestampNanos);
+                    }
+                }
+            } else {
+                // Without a direction in the world frame, the last one of the peer is outdated
+                slots.release(peer);
+            }
+        }
+        if (downstream != null) {
+            downstream.onSample(peer, distance, bearing, worldElevation, timestampNanos);
+        }
+    }
+
+    /** Copies the last world direction of a peer, with device angles for the latest orientation. */
+    public synchronized boolean readPeer(int peer, PeerVector out) {
+        int slot = slots.slotOf(peer);
+        if (slot == PeerSlots.NO_SLOT || orientationCount == 0) {
+            return false;
+        }
+        int newest = (orientationHead + ORIENTATION_HISTORY - 1) % ORIENTATION_HISTORY;
+        fill(slot, orientations, newest * Quaternions.SIZE, orientationTimes[newest], out);
+        return true;
+    }
+
+    public synchronized void resetPeer(int peer) {
+        slots.release(peer);
+    }
+
+    public synchronized void clear() {
+        slots.clear();
+        orientationCount = 0;
+    }
+
+    private void report(int slot, double[] q, int offset, long timestampNanos) {
+        fill(slot, q, offset, timestampNanos, vector);
+        listener.onPeerVector(vector);
+    }
+
+    private void fill(int slot, double[] q, int offset, long timestampNanos, PeerVector out) {
+        Quaternions.rotate(q, offset, true, east[slot], north[slot], up[slot], rotated);
+        out.peer = slots.peerAt(slot);
+        out.distance = distances[slot];
+        out.east = distances[slot] * east[slot];
+        out.north = distances[slot] * north[slot];
+        out.up = distances[slot] * up[slot];
+        out.bearing = Math.toDegrees(Math.atan2(east[slot], north[slot]));
+        out.elevation = Math.toDegrees(Math.asin(clamp(up[slot])));
+        out.deviceAzimuth = Math.toDegrees(Math.atan2(rotated[0], -rotated[2]));
+        out.deviceElevation = Math.toDegrees(Math.asin(clamp(rotated[1])));
+        out.timestampNanos = timestampNanos;
+        out.sampleTimestampNanos = sampleTimes[slot];
+    }
+
+    /** Interpolates the orientation at the given time into {@link #sampleOrientation}. */
+    private boolean orientationAt(long timestampNanos) {
+        if (orientationCount == 0) {
+            return false;
+        }
+        int newer = (orientationHead + ORIENTATION_HISTORY - 1) % ORIENTATION_HISTORY;
+        if (timestampNanos >= orientationTimes[newer]) {
+            return copyIfRecent(newer, timestampNanos - orientationTimes[newer]);
+        }
+        for (int i = 1; i < orientationCount; i++) {
+            int older = (newer + ORIENTATION_HISTORY - 1) % ORIENTATION_HISTORY;
+            long olderTime = orientationTimes[older];
+            if (timestampNanos >= olderTime) {
+                long span = orientationTimes[newer] - olderTime;
+                double t = span > 0 ? (double) (timestampNanos - olderTime) / span : 1;
+                Quaternions.slerp(orientations, older * Quaternions.SIZE, orientations, newer * Quaternions.SIZE, t,
+                        sampleOrientation, 0);
+                return true;
+            }
+            newer = older;
+        }
+        // Older than the history: the oldest orientation will do if it is close enough
+        return copyIfRecent(newer, orientationTimes[newer] - timestampNanos);
+    }
+
+    private boolean copyIfRecent(int index, long ageNanos) {
+        if (ageNanos > MAX_ORIENTATION_AGE_NANOS) {
+            return false;
+        }
+        System.arraycopy(orientations, index * Quaternions.SIZE, sampleOrientation, 0, Quaternions.SIZE);
+        return true;
+    }
+
+    private static double clamp(double sine) {
+        return Math.max(-1, Math.min(1, sine));
+    }
+}
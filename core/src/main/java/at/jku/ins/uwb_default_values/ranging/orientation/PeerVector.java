@@ -0,0 +1,26 @@
+package at.jku.ins.uwb_default_values.ranging.orientation;
+
+/**
+ * Mutable holder for where a peer is relative to this device, in a world frame with x pointing east,
+ * y north and z up. Angles are in degrees; they are NaN while the direction is unknown.
+ */
+public final class PeerVector {
+
+    public int peer;
+    public float distance;
+    /** Relative position in meters. */
+    public double east;
+    public double north;
+    public double up;
+    /** Clockwise from north. */
+    public double bearing;
+    /** Above the horizon. */
+    public double elevation;
+    /** Azimuth and elevation the peer would be measured at in the current orientation. */
+    public double deviceAzimuth;
+    public double deviceElevation;
+    /** Time of the orientation the device angles are for. */
+    public long timestampNanos;
+    /** Time of the ranging sample the world direction is from. */
+    public long sampleTimestampNanos;
+}
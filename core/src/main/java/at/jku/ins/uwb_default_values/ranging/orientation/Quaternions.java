@@ -0,0 +1,116 @@
+package at.jku.ins.uwb_default_values.ranging.orientation;
+
+/**
+ * Unit quaternion math on {@code double[]} buffers, so callers can keep quaternions in preallocated
+ * arrays. A quaternion is stored as {@code w, x, y, z} starting at an offset. Nothing allocates.
+ */
+public final class Quaternions {
+
+    public static final int SIZE = 4;
+
+    private Quaternions() {
+    }
+
+    /**
+     * Sets a quaternion from the components of an Android rotation vector. When the sensor does not
+     * report {@code w}, pass NaN and it is derived from the other components.
+     */
+    public static void fromRotationVector(double x, double y, double z, double w, double[] out, int offset) {
+        if (Double.isNaN(w)) {
+            double squares = 1 - x * x - y * y - z * z;
+            w = squares > 0 ? Math.sqrt(squares) : 0;
+        }
+        out[offset] = w;
+        out[offset + 1] = x;
+        out[offset + 2] = y;
+        out[offset + 3] = z;
+        normalize(out, offset);
+    }
+
+    public static void normalize(double[] q, int offset) {
+        double norm = Math.sqrt(q[offset] * q[offset] + q[offset + 1] * q[offset + 1] + q[offset + 2] * q[offset + 2]
+                + q[offset + 3] * q[offset + 3]);
+        if (norm == 0) {
+            q[offset] = 1;
+            return;
+        }
+        for (int i = 0; i < SIZE; i++) {
+            q[offset + i] /= norm;
+        }
+    }
+
+    /** Sets {@code out} to {@code a * b}, the rotation {@code b} followed by {@code a}. {@code out} may alias an input. */
+    public static void multiply(double[] a, int aOffset, double[] b, int bOffset, double[] out, int outOffset) {
+        double aw = a[aOffset];
+        double ax = a[aOffset + 1];
+        double ay = a[aOffset + 2];
+        double az = a[aOffset + 3];
+        double bw = b[bOffset];
+        double bx = b[bOffset + 1];
+        double by = b[bOffset + 2];
+        double bz = b[bOffset + 3];
+        out[outOffset] = aw * bw - ax * bx - ay * by - az * bz;
+        out[outOffset + 1] = aw * bx + ax * bw + ay * bz - az * by;
+        out[outOffset + 2] = aw * by - ax * bz + ay * bw + az * bx;
+        out[outOffset + 3] = aw * bz + ax * by - ay * bx + az * bw;
+    }
+
+    /** Sets a quaternion to a rotation by {@code angle} radians, counterclockwise about the unit axis. */
+    public static void fromAxisAngle(double axisX, double axisY, double axisZ, double angle, double[] out, int offset) {
+        double sin = Math.sin(angle / 2);
+        out[offset] = Math.cos(angle / 2);
+        out[offset + 1] = axisX * sin;
+        out[offset + 2] = axisY * sin;
+        out[offset + 3] = axisZ * sin;
+    }
+
+    /**
+     * Rotates the vector {@code (vx, vy, vz)} by {@code q}, or by its inverse, into {@code out[0..2]}.
+     * For the Android rotation vector, the rotation maps device to world coordinates.
+     */
+    public static void rotate(double[] q, int offset, boolean inverse, double vx, double vy, double vz, double[] out) {
+        double w = q[offset];
+        double x = inverse ? -q[offset + 1] : q[offset + 1];
+        double y = inverse ? -q[offset + 2] : q[offset + 2];
+        double z = inverse ? -q[offset + 3] : q[offset + 3];
+        // v' = v + 2w (u x v) + 2 u x (u x v), with u the vector part
+        double tx = 2 * (y * vz - z * vy);
+        double ty = 2 * (z * vx - x * vz);
+        double tz = 2 * (x * vy - y * vx);
+        out[0] = vx + w * tx + (y * tz - z * ty);
+        out[1] = vy + w * ty + (z * tx - x * tz);
+        out[2] = vz + w * tz + (x * ty - y * tx);
+    }
+
+    /**
+     * Spherical linear interpolation from {@code a} ({@code t = 0}) to {@code b} ({@code t = 1}) along
+     * the shorter arc. {@code out} may alias neither input.
+     */
+    public static void slerp(double[] a, int aOffset, double[] b, int bOffset, double t, double[] out, int outOffset) {
+        double dot = 0;
+        for (int i = 0; i < SIZE; i++) {
+            dot += a[aOffset + i] * b[bOffset + i];
+        }
+        double sign = 1;
+        if (dot < 0) {
+            dot = -dot;
+            sign = -1;
+        }
+        double wa;
+        double wb;
+        if (dot > 0.9995) {
+            // Nearly parallel: interpolate linearly and renormalize
+            wa = 1 - t;
+            wb = t;
+        } else {
+            double angle = Math.acos(dot);
+            double sin = Math.sin(angle);
+            wa = Math.sin((1 - t) * angle) / sin;
+            wb = Math.sin(t * angle) / sin;
+        }
+        for (int i = 0; i < SIZE; i++) {
+            out[outOffset + i] = wa * a[aOffset + i] + sign * wb * b[bOffset + i];
+        }
+        normalize(out, outOffset);
+    }
+}
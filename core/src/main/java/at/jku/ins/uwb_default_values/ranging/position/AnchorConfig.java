@@ -0,0 +1,44 @@
+package at.jku.ins.uwb_default_values.ranging.position;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads anchor positions into a {@link MultilaterationSolver}. Each line holds the anchor's short UWB
+ * address and its x, y and z coordinate in meters, separated by whitespace. Blank lines and lines
+ * starting with {@code #} are skipped.
+ */
+public final class AnchorConfig {
+
+    private AnchorConfig() {
+    }
+
+    /** @return the number of anchors added */
+    public static int load(Reader reader, MultilaterationSolver solver) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        int count = 0;
+        int lineNumber = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (fields.length != 4) {
+                throw new IOException("Line " + lineNumber + ": expected <address> <x> <y> <z>");
+            }
+            try {
+                if (solver.setAnchor(Integer.parseInt(fields[0]),
+                        Double.parseDouble(fields[1]), Double.parseDouble(fields[2]), Double.parseDouble(fields[3]))) {
+                    count++;
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,289 @@
+package at.jku.ins.uwb_default_values.ranging.position;
+
+import at.jku.ins.uwb_default_values.ranging.PeerSlots;
+import at.jku.ins.uwb_default_values.ranging.RangingSampleListener;
+
+/**
+ * Estimates the own position from the distances to anchors at known positions using Gauss-Newton
+ * least squares. Each sample from an anchor triggers a new fix, warm started from the previous one, so
+ * a couple of iterations suffice. Everything is preallocated and a fix does not allocate.
+ * <p>
+ * Where the hardware reports angles ({@link #setAngleSupport}), each anchor also yields a direct
+ * position estimate {@code anchor - distance * direction}, which is fused as a pseudo measurement
+ * weighted by its distance dependent uncertainty. Angles are taken relative to the device heading set
+ * with {@link #setDeviceYaw}; bearings are clockwise from the y axis (north), with x pointing east and z up.
+ * <p>
+ * In 2D mode the own height is fixed, see {@link #setPlaneHeight}.
+ */
+public class MultilaterationSolver implements RangingSampleListener {
+
+    private static final int MAX_ITERATIONS = 8;
+    private static final double CONVERGENCE = 1e-4;
+    private static final double MIN_DETERMINANT = 1e-12;
+
+    private final boolean solve3d;
+    private final PeerSlots slots;
+    private final double[] anchorX;
+    private final double[] anchorY;
+    private final double[] anchorZ;
+    private final double[] distances;
+    private final double[] azimuths;
+    private final double[] elevations;
+    private final double[] weights;
+    private final long[] timestamps;
+    private final PositionFix fix = new PositionFix();
+
+    private double distanceSigma = 0.1;
+    private double angleSigma = Math.toRadians(10);
+    private long maxAgeNanos = 1_000_000_000L;
+    private boolean azimuthSupported;
+    private boolean elevationSupported;
+    private double deviceYaw;
+    private double planeHeight;
+
+    private boolean hasEstimate;
+    private double x;
+    private double y;
+    private double z;
+
+    public MultilaterationSolver(int maxAnchors, boolean solve3d) {
+        this.solve3d = solve3d;
+        slots = new PeerSlots(maxAnchors);
+        anchorX = new double[maxAnchors];
+        anchorY = new double[maxAnchors];
+        anchorZ = new double[maxAnchors];
+        distances = new double[maxAnchors];
+        azimuths = new double[maxAnchors];
+        elevations = new double[maxAnchors];
+        weights = new double[maxAnchors];
+        timestamps = new long[maxAnchors];
+    }
+
+    /** @return false if there is no room for another anchor */
+    public synchronized boolean setAnchor(int peer, double x, double y, double z) {
+        int slot = slots.acquire(peer);
+        if (slot == PeerSlots.NO_SLOT) {
+            return false;
+        }
+        anchorX[slot] = x;
+        anchorY[slot] = y;
+        anchorZ[slot] = z;
+        distances[slot] = Double.NaN;
+        timestamps[slot] = 0;
+        weights[slot] = 1;
+        return true;
+    }
+
+    public synchronized void removeAnchor(int peer) {
+        slots.release(peer);
+    }
+
+    public synchronized boolean isAnchor(int peer) {
+        return slots.slotOf(peer) != PeerSlots.NO_SLOT;
+    }
+
+    public synchronized void setAngleSupport(boolean azimuth, boolean elevation) {
+        azimuthSupported = azimuth;
+        elevationSupported = elevation;
+    }
+
+    /** Heading of the device's pointing direction, in degrees clockwise from north. */
+    public synchronized void setDeviceYaw(double yawDegrees) {
+        deviceYaw = Math.toRadians(yawDegrees);
+    }
+
+    /** Own height used in 2D mode. */
+    public synchronized void setPlaneHeight(double z) {
+        planeHeight = z;
+    }
+
+    /**
+     * @param distanceSigma standard deviation of the distances, in meters
+     * @param angleSigma    standard deviation of the angles, in degrees
+     */
+    public synchronized void setNoise(double distanceSigma, double angleSigma) {
+        this.distanceSigma = distanceSigma;
+        this.angleSigma = Math.toRadians(angleSigma);
+    }
+
+    /** Measurements older than this, relative to the newest one, are left out of a fix. */
+    public synchronized void setMaxAge(long maxAgeNanos) {
+        this.maxAgeNanos = maxAgeNanos;
+    }
+
+    @Override
+    public void onSample(int peer, float distance, float azimuth, float elevation, long timestampNanos) {
+        update(peer, distance, azimuth, elevation, 1, timestampNanos);
+    }
+
+    /**
+     * Records a measurement of the given anchor and computes a new fix.
+     *
+     * @param weight relative confidence in the measurement, 1 for a normal one and 0 to ignore it
+     * @return whether a new fix was computed
+     */
+    public synchronized boolean update(int peer, float distance, float azimuth, float elevation, double weight, long timestampNanos) {
+        int slot = slots.slotOf(peer);
+        if (slot == PeerSlots.NO_SLOT || Float.isNaN(distance)) {
+            return false;
+        }
+        distances[slot] = distance;
+        azimuths[slot] = Math.toRadians(azimuth);
+        elevations[slot] = Math.toRadians(elevation);
+        weights[slot] = weight;
+        timestamps[slot] = timestampNanos;
+        return solve(timestampNanos);
+    }
+
+    /** Copies the latest fix into {@code out}; returns false if there is none yet. */
+    public synchronized boolean readFix(PositionFix out) {
+        if (fix.sequence == 0) {
+            return false;
+        }
+        out.sequence = fix.sequence;
+        out.x = fix.x;
+        out.y = fix.y;
+        out.z = fix.z;
+        out.residual = fix.residual;
+        out.anchors = fix.anchors;
+        out.timestampNanos = fix.timestampNanos;
+        return true;
+    }
+
+    /** Computes a fix from the measurements no older than the maximum age. */
+    public synchronized boolean solve(long nowNanos) {
+        int used = 0;
+        int withAngles = 0;
+        double sumX = 0;
+        double sumY = 0;
+        double sumZ = 0;
+        for (int slot = 0; slot < slots.capacity(); slot++) {
+            if (isUsable(slot, nowNanos)) {
+                used++;
+                sumX += anchorX[slot];
+                sumY += anchorY[slot];
+                sumZ += anchorZ[slot];
+                if (!Double.isNaN(azimuths[slot])) {
+                    withAngles++;
+                }
+            }
+        }
+        boolean useAngles = azimuthSupported && withAngles > 0;
+        if (used < (solve3d ? 4 : 3) && !useAngles) {
+            return false;
+        }
+        if (!hasEstimate) {
+            // Start off the anchors' centroid, where the Jacobian is well defined
+            x = sumX / used + 0.1;
+            y = sumY / used + 0.1;
+            z = solve3d ? sumZ / used - 0.1 : planeHeight;
+        }
+
+        double distanceVariance = distanceSigma * distanceSigma;
+        double angleVariance = angleSigma * angleSigma;
+        double sumSquares = 0;
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            double h00 = 0, h01 = 0, h02 = 0, h11 = 0, h12 = 0, h22 = 0;
+            double g0 = 0, g1 = 0, g2 = 0;
+            sumSquares = 0;
+            for (int slot = 0; slot < slots.capacity(); slot++) {
+                if (!isUsable(slot, nowNanos)) {
+                    continue;
+                }
+                double dx = x - anchorX[slot];
+                double dy = y - anchorY[slot];
+                double dz = (solve3d ? z : planeHeight) - anchorZ[slot];
+                double range = Math.max(1e-6, Math.sqrt(dx * dx + dy * dy + dz * dz));
+                double residual = range - distances[slot];
+                double w = weights[slot] / distanceVariance;
+                double jx = dx / range;
+                double jy = dy / range;
+                double jz = solve3d ? dz / range : 0;
+                h00 += w * jx * jx;
+                h01 += w * jx * jy;
+                h02 += w * jx * jz;
+                h11 += w * jy * jy;
+                h12 += w * jy * jz;
+                h22 += w * jz * jz;
+                g0 += w * jx * residual;
+                g1 += w * jy * residual;
+                g2 += w * jz * residual;
+                sumSquares += residual * residual;
+
+                if (useAngles && !Double.isNaN(azimuths[slot])) {
+                    double elevation = elevationSupported && !Double.isNaN(elevations[slot]) ? elevations[slot] : 0;
+                    double bearing = deviceYaw + azimuths[slot];
+                    double horizontal = Math.cos(elevation);
+                    double d = distances[slot];
+                    double wa = weights[slot] / (d * d * angleVariance + distanceVariance);
+                    h00 += wa;
+                    h11 += wa;
+                    g0 += wa * (x - (anchorX[slot] - d * Math.sin(bearing) * horizontal));
+                    g1 += wa * (y - (anchorY[slot] - d * Math.cos(bearing) * horizontal));
+                    if (solve3d && elevationSupported) {
+                        h22 += wa;
+                        g2 += wa * (z - (anchorZ[slot] - d * Math.sin(elevation)));
+                    }
+                }
+            }
+
+            double sx;
+            double sy;
+            double sz = 0;
+            if (solve3d) {
+                double c00 = h11 * h22 - h12 * h12;
+                double c01 = h02 * h12 - h01 * h22;
+                double c02 = h01 * h12 - h02 * h11;
+                double det = h00 * c00 + h01 * c01 + h02 * c02;
+                if (Math.abs(det) < MIN_DETERMINANT) {
+                    return false;
+                }
+                double c11 = h00 * h22 - h02 * h02;
+                double c12 = h01 * h02 - h00 * h12;
+                double c22 = h00 * h11 - h01 * h01;
+                sx = -(c00 * g0 + c01 * g1 + c02 * g2) / det;
+                sy = -(c01 * g0 + c11 * g1 + c12 * g2) / det;
+                sz = -(c02 * g0 + c12 * g1 + c22 * g2) / det;
+            } else {
+                double det = h00 * h11 - h01 * h01;
+                if (Math.abs(det) < MIN_DETERMINANT) {
+                    return false;
+                }
+                sx = -(h11 * g0 - h01 * g1) / det;
+                sy = -(h00 * g1 - h01 * g0) / det;
+            }
+            x += sx;
+            y += sy;
+            z += sz;
+            if (sx * sx + sy * sy + sz * sz < CONVERGENCE * CONVERGENCE) {
+                break;
+            }
+        }
+
+        if (Double.isNaN(x) || Double.isNaN(y) || Double.isNaN(z) || Double.isInfinite(x + y + z)) {
+            hasEstimate = false;
+            return false;
+        }
+        hasEstimate = true;
+        fix.sequence++;
+        fix.x = x;
+        fix.y = y;
+        fix.z = z;
+        fix.residual = Math.sqrt(sumSquares / used);
+        fix.anchors = used;
+        fix.timestampNanos = nowNanos;
+        return true;
+    }
+
+    /** Drops the warm start, e.g. after the device moved while ranging was off. */
+    public synchronized void reset() {
+        hasEstimate = false;
+    }
+
+    private boolean isUsable(int slot, long nowNanos) {
+        return slots.isUsed(slot)
+                && !Double.isNaN(distances[slot])
+                && weights[slot] > 0
+                && nowNanos - timestamps[slot] <= maxAgeNanos;
+    }
+}
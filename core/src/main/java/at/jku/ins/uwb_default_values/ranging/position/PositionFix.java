@@ -0,0 +1,16 @@
+package at.jku.ins.uwb_default_values.ranging.position;
+
+/**
+ * Mutable holder for a position fix in the anchors' coordinate frame, in meters.
+ */
+public final class PositionFix {
+
+    public long sequence;
+    public double x;
+    public double y;
+    public double z;
+    /** Root mean square of the distance residuals, in meters. */
+    public double residual;
+    public int anchors;
+    public long timestampNanos;
+}
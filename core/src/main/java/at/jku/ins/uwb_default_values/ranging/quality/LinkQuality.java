@@ -0,0 +1,24 @@
+package at.jku.ins.uwb_default_values.ranging.quality;
+
+/**
+ * Mutable holder for the link quality of one peer, see {@link LinkQualityEstimator#readPeer}.
+ */
+public final class LinkQuality {
+
+    public int peer;
+    /** Share of the expected samples that did not arrive, smoothed. */
+    public double dropRatio;
+    /** Standard deviation of the distance around its short term trend, in meters. */
+    public double distanceSigma;
+    /** Share of samples that jumped away from the trend, smoothed. */
+    public double jumpRate;
+    /** Measured minus expected RSSI for the distance, in dB; negative when the signal is weaker than LOS. */
+    public double rssiResidual;
+    /** In [0, 1], how strongly the indicators point to a blocked direct path. */
+    public double nlosScore;
+    public boolean nlos;
+    /** Passed on to positioning with each sample, in (0, 1]. */
+    public double weight;
+    public long accepted;
+    public long rejected;
+}
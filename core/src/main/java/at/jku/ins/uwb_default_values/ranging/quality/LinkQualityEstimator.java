@@ -0,0 +1,274 @@
+package at.jku.ins.uwb_default_values.ranging.quality;
+
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.ranging.PeerSlots;
+import at.jku.ins.uwb_default_values.ranging.RangingSampleListener;
+
+/**
+ * Pipeline stage that tracks the link quality of each peer and holds back samples that jump away from
+ * the peer's recent distance trend.
+ * <p>
+ * Per peer it keeps exponentially weighted statistics, updated in constant time per sample:
+ * <ul>
+ *     <li>the drop ratio, from the gaps between samples relative to the usual interval</li>
+ *     <li>the variance of the distance around a constant velocity trend</li>
+ *     <li>the rate of jumps, residuals beyond {@link #JUMP_SIGMAS} standard deviations plus the
+ *     distance a peer can walk in the gap</li>
+ *     <li>how much weaker the BLE RSSI is than the log-distance path loss predicts for the UWB
+ *     distance, against a reference learned while the link is line of sight</li>
+ * </ul>
+ * Noise, jumps and a weak RSSI add up to a non-line-of-sight score, classified with hysteresis. Jumps
+ * are rejected, unless {@link #MAX_CONSECUTIVE_JUMPS} of them agree with each other, which is taken
+ * as a real change and restarts the trend. Accepted samples are passed on unchanged; their
+ * {@link #weight} is meant for positioning, lower for noisy, lossy and NLOS links.
+ */
+public final class LinkQualityEstimator implements RangingSampleListener {
+
+    public static final double ALPHA = 0.1;
+    public static final double JUMP_SIGMAS = 4;
+    public static final int MAX_CONSECUTIVE_JUMPS = 3;
+    /** Fastest plausible change of distance, in m/s. */
+    public static final double MAX_SPEED = 3;
+    /** Distance noise of a clear line of sight link, in meters; links this quiet get weight 1. */
+    public static final double LOS_SIGMA = 0.1;
+    public static final double NLOS_SIGMA = 0.3;
+    public static final double NLOS_JUMP_RATE = 0.2;
+    public static final double NLOS_RSSI_DB = 10;
+    public static final double NLOS_WEIGHT = 0.3;
+    public static final double PATH_LOSS_EXPONENT = 2;
+    public static final long MAX_RSSI_AGE_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private static final double NLOS_ENTER = 0.5;
+    private static final double NLOS_EXIT = 0.3;
+    private static final double TREND_GAIN = 0.5;
+    private static final double VELOCITY_GAIN = 0.1;
+    private static final double MIN_STEP_SECONDS = 0.01;
+    private static final double MIN_WEIGHT = 0.01;
+    private static final double RSSI_REFERENCE_ALPHA = 0.02;
+
+    private final RangingSampleListener downstream;
+    private final PeerSlots slots;
+    private final boolean[] started;
+    private final long[] lastArrival;
+    private final long[] lastAccepted;
+    private final double[] interval;
+    private final double[] trend;
+    private final double[] velocity;
+    private final double[] variance;
+    /** Samples missed per sample received, smoothed. */
+    private final double[] missed;
+    private final double[] jumpRate;
+    private final int[] consecutiveJumps;
+    private final double[] pendingDistance;
+    private final int[] rssi;
+    private final long[] rssiTime;
+    private final boolean[] hasRssiReference;
+    private final double[] rssiReference;
+    private final double[] rssiResidual;
+    private final double[] nlosScore;
+    private final boolean[] nlos;
+    private final double[] weight;
+    private final long[] accepted;
+    private final long[] rejected;
+
+    /** @param downstream receives the accepted samples */
+    public LinkQualityEstimator(int maxPeers, RangingSampleListener downstream) {
+        this.downstream = downstream;
+        slots = new PeerSlots(maxPeers);
+        started = new boolean[maxPeers];
+        lastArrival = new long[maxPeers];
+        lastAccepted = new long[maxPeers];
+        interval = new double[maxPeers];
+        trend = new double[maxPeers];
+        velocity = new double[maxPeers];
+        variance = new double[maxPeers];
+        missed = new double[maxPeers];
+        jumpRate = new double[maxPeers];
+        consecutiveJumps = new int[maxPeers];
+        pendingDistance = new double[maxPeers];
+        rssi = new int[maxPeers];
+        rssiTime = new long[maxPeers];
+        hasRssiReference = new boolean[maxPeers];
+        rssiReference = new double[maxPeers];
+        rssiResidual = new double[maxPeers];
+        nlosScore = new double[maxPeers];
+        nlos = new boolean[maxPeers];
+        weight = new double[maxPeers];
+        accepted = new long[maxPeers];
+        rejected = new long[maxPeers];
+    }
+
+    @Override
+    public void onSample(int peer, float distance, float azimuth, float elevation, long timestampNanos) {
+        synchronized (this) {
+            if (!Float.isNaN(distance) && !accept(peer, distance, timestampNanos)) {
+                return;
+            }
+        }
+        downstream.onSample(peer, distance, azimuth, elevation, timestampNanos);
+    }
+
+    /** Records the RSSI of a peer's BLE advert, for peers that are being ranged. */
+    public synchronized void onRssi(int peer, int rssi, long timestampNanos) {
+        int slot = slots.slotOf(peer);
+        if (slot != PeerSlots.NO_SLOT) {
+            this.rssi[slot] = rssi;
+            rssiTime[slot] = timestampNanos;
+        }
+    }
+
+    /** @return the weight of the peer's samples for positioning, 1 for unknown peers */
+    public synchronized double weight(int peer) {
+        int slot = slots.slotOf(peer);
+        return slot != PeerSlots.NO_SLOT ? weight[slot] : 1;
+    }
+
+    public synchronized boolean isNlos(int peer) {
+        int slot = slots.slotOf(peer);
+        return slot != PeerSlots.NO_SLOT && nlos[slot];
+    }
+
+    /** @return false if the peer has no samples */
+    public synchronized boolean readPeer(int peer, LinkQuality out) {
+        int slot = slots.slotOf(peer);
+        if (slot == PeerSlots.NO_SLOT) {
+            return false;
+        }
+        out.peer = peer;
+        out.dropRatio = dropRatio(slot);
+        out.distanceSigma = Math.sqrt(variance[slot]);
+        out.jumpRate = jumpRate[slot];
+        out.rssiResidual = rssiResidual[slot];
+        out.nlosScore = nlosScore[slot];
+        out.nlos = nlos[slot];
+        out.weight = weight[slot];
+        out.accepted = accepted[slot];
+        out.rejected = rejected[slot];
+        return true;
+    }
+
+    public synchronized void resetPeer(int peer) {
+        slots.release(peer);
+    }
+
+    public synchronized void clear() {
+        slots.clear();
+    }
+
+    /** @return whether the sample is passed on */
+    private boolean accept(int peer, double distance, long timestampNanos) {
+        boolean known = slots.slotOf(peer) != PeerSlots.NO_SLOT;
+        int slot = slots.acquire(peer);
+        if (slot == PeerSlots.NO_SLOT) {
+            return true;
+        }
+        if (!known) {
+            start(slot);
+        }
+        if (!started[slot]) {
+            started[slot] = true;
+            lastArrival[slot] = timestampNanos;
+            lastAccepted[slot] = timestampNanos;
+            trend[slot] = distance;
+            accepted[slot]++;
+            return true;
+        }
+
+        long gap = timestampNanos - lastArrival[slot];
+        lastArrival[slot] = timestampNanos;
+        if (gap > 0) {
+            if (interval[slot] == 0) {
+                interval[slot] = gap;
+            } else {
+                long lost = Math.max(0, Math.round(gap / interval[slot]) - 1);
+                missed[slot] += ALPHA * (lost - missed[slot]);
+                // Gaps with losses only move the interval slowly, enough to follow a slower update rate
+                double gain = gap < 1.5 * interval[slot] ? ALPHA : ALPHA / 10;
+                interval[slot] += gain * (gap - interval[slot]);
+            }
+        }
+
+        double dt = Math.max(MIN_STEP_SECONDS, (timestampNanos - lastAccepted[slot]) / 1e9);
+        double predicted = trend[slot] + velocity[slot] * dt;
+        double residual = distance - predicted;
+        double sigma = Math.max(LOS_SIGMA / 2, Math.sqrt(variance[slot]));
+        double threshold = JUMP_SIGMAS * sigma + MAX_SPEED * dt;
+        boolean jump = Math.abs(residual) > threshold;
+        jumpRate[slot] += ALPHA * ((jump ? 1 : 0) - jumpRate[slot]);
+        if (jump) {
+            boolean agrees = consecutiveJumps[slot] > 0 && Math.abs(distance - pendingDistance[slot]) <= threshold;
+            consecutiveJumps[slot] = agrees ? consecutiveJumps[slot] + 1 : 1;
+            pendingDistance[slot] = distance;
+            if (consecutiveJumps[slot] < MAX_CONSECUTIVE_JUMPS) {
+                rejected[slot]++;
+                classify(slot);
+                return false;
+            }
+            // The jumps agree: the distance did change, restart the trend with the uncertainty of the step
+            trend[slot] = distance;
+            velocity[slot] = 0;
+            variance[slot] = Math.max(variance[slot], residual * residual / (JUMP_SIGMAS * JUMP_SIGMAS));
+        } else {
+            variance[slot] = (1 - ALPHA) * (variance[slot] + ALPHA * residual * residual);
+            trend[slot] = predicted + TREND_GAIN * residual;
+            velocity[slot] += VELOCITY_GAIN * residual / dt;
+            velocity[slot] = Math.max(-MAX_SPEED, Math.min(MAX_SPEED, velocity[slot]));
+        }
+        consecutiveJumps[slot] = 0;
+        lastAccepted[slot] = timestampNanos;
+        accepted[slot]++;
+
+        if (rssiTime[slot] != 0 && timestampNanos - rssiTime[slot] <= MAX_RSSI_AGE_NANOS) {
+            // RSSI at 1 m implied by this distance; lower than usual means extra attenuation
+            double reference = rssi[slot] + 10 * PATH_LOSS_EXPONENT * Math.log10(Math.max(0.1, distance));
+            if (!hasRssiReference[slot]) {
+                hasRssiReference[slot] = true;
+                rssiReference[slot] = reference;
+            }
+            rssiResidual[slot] += ALPHA * (reference - rssiReference[slot] - rssiResidual[slot]);
+            if (!nlos[slot]) {
+                rssiReference[slot] += RSSI_REFERENCE_ALPHA * (reference - rssiReference[slot]);
+            }
+        }
+        classify(slot);
+        return true;
+    }
+
+    private void classify(int slot) {
+        double sigma = Math.sqrt(variance[slot]);
+        double score = 0.35 * unit((sigma - LOS_SIGMA) / (NLOS_SIGMA - LOS_SIGMA))
+                + 0.35 * unit(jumpRate[slot] / NLOS_JUMP_RATE)
+                + 0.3 * unit(-rssiResidual[slot] / NLOS_RSSI_DB);
+        nlosScore[slot] = score;
+        nlos[slot] = nlos[slot] ? score > NLOS_EXIT : score >= NLOS_ENTER;
+        double noise = sigma > LOS_SIGMA ? LOS_SIGMA * LOS_SIGMA / (sigma * sigma) : 1;
+        weight[slot] = Math.max(MIN_WEIGHT, noise * (1 - dropRatio(slot)) * (nlos[slot] ? NLOS_WEIGHT : 1));
+    }
+
+    private void start(int slot) {
+        started[slot] = false;
+        interval[slot] = 0;
+        velocity[slot] = 0;
+        variance[slot] = LOS_SIGMA * LOS_SIGMA;
+        missed[slot] = 0;
+        jumpRate[slot] = 0;
+        consecutiveJumps[slot] = 0;
+        rssiTime[slot] = 0;
+        hasRssiReference[slot] = false;
+        rssiResidual[slot] = 0;
+        nlosScore[slot] = 0;
+        nlos[slot] = false;
+        weight[slot] = 1;
+        accepted[slot] = 0;
+        rejected[slot] = 0;
+    }
+
+    private double dropRatio(int slot) {
+        return missed[slot] / (missed[slot] + 1);
+    }
+
+    private static double unit(double value) {
+        return Math.max(0, Math.min(1, value));
+    }
+}
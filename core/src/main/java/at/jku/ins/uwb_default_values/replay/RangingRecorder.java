@@ -0,0 +1,127 @@
+package at.jku.ins.uwb_default_values.replay;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import at.jku.ins.uwb_default_values.ranging.RangingSampleListener;
+
+/**
+ * Appends ranging samples, scanned adverts, peer losses and rotation vector readings to a binary log in {@link RecordFormat},
+ * so that a session can be fed through the pipeline again with {@link RangingReplay}.
+ * <p>
+ * Records are collected in a direct buffer and written to the file channel whenever it fills up, so
+ * recording a sample is a buffer copy. Write errors stop the recording instead of reaching the caller.
+ */
+public class RangingRecorder implements RangingSampleListener, Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private IOException failure;
+
+    public RangingRecorder(File file) throws IOException {
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.truncate(0);
+        buffer.putInt(RecordFormat.MAGIC);
+        buffer.put((byte) RecordFormat.VERSION);
+    }
+
+    @Override
+    public synchronized void onSample(int peer, float distance, float azimuth, float elevation, long timestampNanos) {
+        if (begin(RecordFormat.TYPE_SAMPLE, 2 + 3 * 4 + 8)) {
+            buffer.putShort((short) peer);
+            buffer.putFloat(distance);
+            buffer.putFloat(azimuth);
+            buffer.putFloat(elevation);
+            buffer.putLong(timestampNanos);
+        }
+    }
+
+    /**
+     * @param serviceData the UWB service data as scanned, or null if the advert carried none; kept
+     *                    verbatim, so payloads the codec rejects or misreads replay as they arrived
+     */
+    public synchronized void recordAdvert(long mac, int rssi, long timestampNanos, byte[] serviceData) {
+        int payloadLength = serviceData != null ? Math.min(serviceData.length, RecordFormat.MAX_SERVICE_DATA_LENGTH) : 0;
+        if (begin(RecordFormat.TYPE_ADVERT, 8 + 1 + 8 + 1 + payloadLength)) {
+            buffer.putLong(mac);
+            buffer.put((byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, rssi)));
+            buffer.putLong(timestampNanos);
+            buffer.put((byte) (serviceData != null ? 1 : 0));
+            if (serviceData != null) {
+                buffer.put(serviceData, 0, payloadLength);
+            }
+        }
+    }
+
+    public synchronized void recordPeerLost(int peer, long timestampNanos) {
+        if (begin(RecordFormat.TYPE_PEER_LOST, 2 + 8)) {
+            buffer.putShort((short) peer);
+            buffer.putLong(timestampNanos);
+        }
+    }
+
+    /** @param w the scalar component, or NaN if the sensor does not report it */
+    public synchronized void recordRotationVector(float x, float y, float z, float w, long timestampNanos) {
+        if (begin(RecordFormat.TYPE_ROTATION, 4 * 4 + 8)) {
+            buffer.putFloat(x);
+            buffer.putFloat(y);
+            buffer.putFloat(z);
+            buffer.putFloat(w);
+            buffer.putLong(timestampNanos);
+        }
+    }
+
+    /** Writes everything recorded so far to the file. */
+    public synchronized void flush() throws IOException {
+        drain();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    // Writes the record header, returns false if the recording failed before
+    private boolean begin(byte type, int payloadLength) {
+        if (failure != null) {
+            return false;
+        }
+        if (buffer.remaining() < 3 + payloadLength) {
+            drain();
+            if (failure != null) {
+                return false;
+            }
+        }
+        buffer.putShort((short) (1 + payloadLength));
+        buffer.put(type);
+        return true;
+    }
+
+    private void drain() {
+        if (failure != null) {
+            return;
+        }
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+        buffer.clear();
+    }
+}
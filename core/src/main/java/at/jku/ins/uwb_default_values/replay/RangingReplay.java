@@ -0,0 +1,123 @@
+package at.jku.ins.uwb_default_values.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds a recording made by {@link RangingRecorder} back into a {@link ReplayListener}, either as fast
+ * as possible or paced by the recorded timestamps. The file is memory mapped and decoding does not
+ * allocate once a service data array of each length exists, so replay speed is bounded by the listener.
+ */
+public class RangingReplay {
+
+    private final ByteBuffer records;
+    // Indexed by length, as the codec takes the payload length from the array
+    private final byte[][] serviceData = new byte[RecordFormat.MAX_SERVICE_DATA_LENGTH + 1][];
+
+    public RangingReplay(File file) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            FileChannel channel = input.getChannel();
+            records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (records.remaining() < RecordFormat.HEADER_LENGTH || records.getInt(0) != RecordFormat.MAGIC) {
+            throw new IOException("Not a ranging recording: " + file);
+        }
+        if (records.get(4) > RecordFormat.VERSION) {
+            throw new IOException("Unsupported recording version " + records.get(4) + ": " + file);
+        }
+    }
+
+    /**
+     * Replays all records.
+     *
+     * @param speed 1 replays in real time, 2 twice as fast and so on; 0 or less as fast as possible
+     * @return the number of records replayed
+     */
+    public long replay(ReplayListener listener, double speed) {
+        ByteBuffer in = records.duplicate();
+        in.position(RecordFormat.HEADER_LENGTH);
+        long count = 0;
+        long firstTimestamp = Long.MIN_VALUE;
+        long start = System.nanoTime();
+        while (in.remaining() >= 3) {
+            int length = in.getShort() & 0xFFFF;
+            if (length == 0 || in.remaining() < length) {
+                break; // Truncated tail, e.g. the app was killed while recording
+            }
+            int next = in.position() + length;
+            byte type = in.get();
+            long timestamp;
+            switch (type) {
+                case RecordFormat.TYPE_SAMPLE:
+                    int peer = in.getShort();
+                    float distance = in.getFloat();
+                    float azimuth = in.getFloat();
+                    float elevation = in.getFloat();
+                    timestamp = in.getLong();
+                    firstTimestamp = pace(firstTimestamp, timestamp, start, speed);
+                    listener.onSample(peer, distance, azimuth, elevation, timestamp);
+                    break;
+                case RecordFormat.TYPE_ADVERT:
+                    long mac = in.getLong();
+                    int rssi = in.get();
+                    timestamp = in.getLong();
+                    byte[] data = null;
+                    if (in.get() != 0) {
+                        data = serviceData(Math.min(next - in.position(), RecordFormat.MAX_SERVICE_DATA_LENGTH));
+                        in.get(data);
+                    }
+                    firstTimestamp = pace(firstTimestamp, timestamp, start, speed);
+                    listener.onAdvert(mac, rssi, timestamp, data);
+                    break;
+                case RecordFormat.TYPE_PEER_LOST:
+                    int lostPeer = in.getShort();
+                    timestamp = in.getLong();
+                    firstTimestamp = pace(firstTimestamp, timestamp, start, speed);
+                    listener.onPeerLost(lostPeer, timestamp);
+                    break;
+                case RecordFormat.TYPE_ROTATION:
+                    float x = in.getFloat();
+                    float y = in.getFloat();
+                    float z = in.getFloat();
+                    float w = in.getFloat();
+                    timestamp = in.getLong();
+                    firstTimestamp = pace(firstTimestamp, timestamp, start, speed);
+                    listener.onRotationVector(x, y, z, w, timestamp);
+                    break;
+                default:
+                    break;
+            }
+            in.position(next);
+            count++;
+        }
+        return count;
+    }
+
+    private byte[] serviceData(int length) {
+        byte[] data = serviceData[length];
+        if (data == null) {
+            data = new byte[length];
+            serviceData[length] = data;
+        }
+        return data;
+    }
+
+    // Waits until the record is due, returns the timestamp replay time is measured from
+    private static long pace(long firstTimestamp, long timestamp, long start, double speed) {
+        if (firstTimestamp == Long.MIN_VALUE) {
+            return timestamp;
+        }
+        if (speed > 0) {
+            long due = start + (long) ((timestamp - firstTimestamp) / speed);
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+        return firstTimestamp;
+    }
+}
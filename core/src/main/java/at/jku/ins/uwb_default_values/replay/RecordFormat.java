@@ -0,0 +1,33 @@
+package at.jku.ins.uwb_default_values.replay;
+
+/**
+ * Layout of the recording files written by {@link RangingRecorder}. All values are big endian.
+ * <pre>
+ * file:   magic "UWBR" (int), version (byte), records...
+ * record: length (unsigned short, counts type and payload), type (byte), payload
+ *
+ * SAMPLE    peer (short), distance, azimuth, elevation (float), timestamp (long)
+ * ADVERT    mac (long), rssi (byte), timestamp (long), has service data (byte), the UWB service data
+ *           as scanned if present; version 1 only kept payloads that decoded, re-encoded with the
+ *           codec of the time
+ * PEER_LOST peer (short), timestamp (long)
+ * ROTATION  x, y, z, w (float) of the rotation vector sensor, w NaN if not reported, timestamp (long)
+ * </pre>
+ * Readers skip records of unknown type, so types can be added without a version bump.
+ */
+final class RecordFormat {
+
+    static final int MAGIC = 0x55574252; // "UWBR"
+    static final int VERSION = 2;
+    static final int HEADER_LENGTH = 5;
+    /** Longer service data is cut off; no advert in use comes close. */
+    static final int MAX_SERVICE_DATA_LENGTH = 255;
+
+    static final byte TYPE_SAMPLE = 1;
+    static final byte TYPE_ADVERT = 2;
+    static final byte TYPE_PEER_LOST = 3;
+    static final byte TYPE_ROTATION = 4;
+
+    private RecordFormat() {
+    }
+}
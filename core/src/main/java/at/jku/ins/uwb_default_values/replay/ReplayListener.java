@@ -0,0 +1,20 @@
+package at.jku.ins.uwb_default_values.replay;
+
+import at.jku.ins.uwb_default_values.ranging.RangingSampleListener;
+
+/**
+ * Receives the records of a replayed recording in their original order.
+ */
+public interface ReplayListener extends RangingSampleListener {
+
+    /**
+     * @param serviceData the UWB service data as scanned, or null if the advert carried none; decode it
+     *                    with {@code UwbAdvertisementCodec}. Reused between calls, copy it to keep it
+     */
+    void onAdvert(long mac, int rssi, long timestampNanos, byte[] serviceData);
+
+    void onPeerLost(int peer, long timestampNanos);
+
+    /** A rotation vector sensor reading, as taken by {@code AoaFusion#onRotationVector}. */
+    void onRotationVector(float x, float y, float z, float w, long timestampNanos);
+}
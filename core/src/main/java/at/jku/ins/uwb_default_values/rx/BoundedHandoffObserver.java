@@ -0,0 +1,49 @@
+package at.jku.ins.uwb_default_values.rx;
+
+import io.reactivex.rxjava3.core.Observer;
+import io.reactivex.rxjava3.core.Scheduler;
+
+/** Passes every item through an {@link MpscRing}; items arriving while it is full are dropped. */
+final class BoundedHandoffObserver<T> extends HandoffObserver<T, T> {
+
+    private static final long serialVersionUID = 3387460812915026644L;
+
+    private final MpscRing<T> ring;
+
+    BoundedHandoffObserver(Observer<? super T> downstream, Scheduler.Worker worker, HandoffStats stats, int capacity) {
+        super(downstream, worker, stats);
+        ring = new MpscRing<>(capacity);
+    }
+
+    @Override
+    void offer(T item) {
+        if (ring.offer(item)) {
+            stats.pending(ring.size());
+        } else {
+            stats.dropped.incrementAndGet();
+        }
+    }
+
+    @Override
+    void drain(Observer<? super T> downstream) {
+        while (!isDisposed()) {
+            T item = ring.poll();
+            if (item == null) {
+                return;
+            }
+            stats.delivered.incrementAndGet();
+            downstream.onNext(item);
+        }
+    }
+
+    @Override
+    boolean isEmpty() {
+        return ring.size() == 0;
+    }
+
+    @Override
+    void clear() {
+        while (ring.poll() != null) {
+        }
+    }
+}
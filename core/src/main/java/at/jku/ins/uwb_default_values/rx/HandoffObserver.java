@@ -0,0 +1,139 @@
+package at.jku.ins.uwb_default_values.rx;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.rxjava3.core.Observer;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.plugins.RxJavaPlugins;
+
+/**
+ * Base of the operators that buffer upstream items and emit them on a scheduler worker. Each item is
+ * buffered with {@link #offer} and signals the worker, which runs {@link #drain} until no more work was
+ * signalled, then delivers the terminal event once the buffer is empty. The inherited counter counts
+ * the signals.
+ *
+ * @param <T> upstream item type
+ * @param <R> downstream item type
+ */
+abstract class HandoffObserver<T, R> extends AtomicInteger implements Observer<T>, Disposable, Runnable {
+
+    private static final long serialVersionUID = -5234917608240471359L;
+
+    final Observer<? super R> downstream;
+    final Scheduler.Worker worker;
+    final HandoffStats stats;
+    private Disposable upstream;
+    private volatile boolean done;
+    private Throwable error;
+    private volatile boolean disposed;
+
+    HandoffObserver(Observer<? super R> downstream, Scheduler.Worker worker, HandoffStats stats) {
+        this.downstream = downstream;
+        this.worker = worker;
+        this.stats = stats != null ? stats : new HandoffStats();
+    }
+
+    /** Buffers an item; called on the upstream thread. */
+    abstract void offer(T item);
+
+    /** Emits what is buffered; called on the worker. */
+    abstract void drain(Observer<? super R> downstream);
+
+    /** Called on the worker after {@link #drain}, when the upstream is done. */
+    abstract boolean isEmpty();
+
+    /** Drops what is buffered after disposal. */
+    abstract void clear();
+
+    @Override
+    public void onSubscribe(Disposable d) {
+        upstream = d;
+        downstream.onSubscribe(this);
+    }
+
+    @Override
+    public void onNext(T item) {
+        if (done) {
+            return;
+        }
+        stats.offered.incrementAndGet();
+        offer(item);
+        schedule();
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        if (done) {
+            RxJavaPlugins.onError(error);
+            return;
+        }
+        this.error = error;
+        done = true;
+        schedule();
+    }
+
+    @Override
+    public void onComplete() {
+        if (done) {
+            return;
+        }
+        done = true;
+        schedule();
+    }
+
+    @Override
+    public void dispose() {
+        if (!disposed) {
+            disposed = true;
+            upstream.dispose();
+            worker.dispose();
+            if (getAndIncrement() == 0) {
+                clear();
+            }
+        }
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return disposed;
+    }
+
+    private void schedule() {
+        if (getAndIncrement() == 0) {
+            worker.schedule(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        int missed = 1;
+        while (true) {
+            if (disposed) {
+                clear();
+                return;
+            }
+            // Read before draining: everything offered before completion is drained below
+            boolean terminated = done;
+            drain(downstream);
+            if (disposed) {
+                clear();
+                return;
+            }
+            if (terminated && isEmpty()) {
+                disposed = true;
+                if (error != null) {
+                    downstream.onError(error);
+                } else {
+                    downstream.onComplete();
+                }
+                worker.dispose();
+                return;
+            }
+            missed = addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package at.jku.ins.uwb_default_values.rx;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a handoff operator, updated by the producer and the worker and readable from any thread.
+ * One instance may be shared by several subscriptions.
+ */
+public final class HandoffStats {
+
+    final AtomicLong offered = new AtomicLong();
+    final AtomicLong delivered = new AtomicLong();
+    final AtomicLong coalesced = new AtomicLong();
+    final AtomicLong dropped = new AtomicLong();
+    final AtomicLong maxPending = new AtomicLong();
+
+    /** Items received from upstream. */
+    public long offered() {
+        return offered.get();
+    }
+
+    /** Items emitted downstream. */
+    public long delivered() {
+        return delivered.get();
+    }
+
+    /** Items replaced by a newer item of the same peer before they were emitted. */
+    public long coalesced() {
+        return coalesced.get();
+    }
+
+    /** Items dropped because the buffer was full. */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /** Most items waiting at once. */
+    public long maxPending() {
+        return maxPending.get();
+    }
+
+    void pending(long pending) {
+        long max = maxPending.get();
+        while (pending > max && !maxPending.compareAndSet(max, pending)) {
+            max = maxPending.get();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "offered " + offered() + ", delivered " + delivered() + ", coalesced " + coalesced() + ", dropped " + dropped()
+                + ", max pending " + maxPending();
+    }
+}
@@ -0,0 +1,88 @@
+package at.jku.ins.uwb_default_values.rx;
+
+import at.jku.ins.uwb_default_values.ranging.PeerSlots;
+import io.reactivex.rxjava3.core.Observer;
+import io.reactivex.rxjava3.core.Scheduler;
+
+/**
+ * Keeps only the newest pending item per peer. Peers wait in the order their oldest pending item
+ * arrived, so a busy peer cannot starve the others. Items of peers beyond the capacity are dropped.
+ */
+final class LatestPerPeerObserver<T> extends HandoffObserver<T, T> {
+
+    private static final long serialVersionUID = -1902867347813264027L;
+
+    private final RangingOperators.PeerKey<? super T> key;
+    private final PeerSlots slots;
+    private final Object[] latest;
+    private final int[] order;
+    private int orderHead;
+    private int pending;
+
+    LatestPerPeerObserver(Observer<? super T> downstream, Scheduler.Worker worker, HandoffStats stats,
+                          RangingOperators.PeerKey<? super T> key, int maxPeers) {
+        super(downstream, worker, stats);
+        this.key = key;
+        slots = new PeerSlots(maxPeers);
+        latest = new Object[maxPeers];
+        order = new int[maxPeers];
+    }
+
+    @Override
+    void offer(T item) {
+        int peer = key.peerOf(item);
+        synchronized (this) {
+            int slot = slots.acquire(peer);
+            if (slot == PeerSlots.NO_SLOT) {
+                stats.dropped.incrementAndGet();
+                return;
+            }
+            if (latest[slot] != null) {
+                stats.coalesced.incrementAndGet();
+            } else {
+                order[(orderHead + pending) % order.length] = slot;
+                pending++;
+                stats.pending(pending);
+            }
+            latest[slot] = item;
+        }
+    }
+
+    @Override
+    void drain(Observer<? super T> downstream) {
+        while (!isDisposed()) {
+            T item = poll();
+            if (item == null) {
+                return;
+            }
+            stats.delivered.incrementAndGet();
+            downstream.onNext(item);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized T poll() {
+        if (pending == 0) {
+            return null;
+        }
+        int slot = order[orderHead];
+        orderHead = (orderHead + 1) % order.length;
+        pending--;
+        T item = (T) latest[slot];
+        latest[slot] = null;
+        slots.release(slots.peerAt(slot));
+        return item;
+    }
+
+    @Override
+    synchronized boolean isEmpty() {
+        return pending == 0;
+    }
+
+    @Override
+    synchronized void clear() {
+        while (pending > 0) {
+            poll();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package at.jku.ins.uwb_default_values.rx;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue for many producers and one consumer, after Dmitry Vyukov's bounded MPMC
+ * queue: each slot carries a sequence number telling whether it is free for the producer of a given
+ * position or filled for the consumer. Producers claim positions with a CAS on the tail; the consumer
+ * owns the head.
+ */
+final class MpscRing<T> {
+
+    private final Object[] items;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    /** @param capacity rounded up to a power of two */
+    MpscRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        items = new Object[size];
+        sequences = new AtomicLongArray(size);
+        mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    int capacity() {
+        return items.length;
+    }
+
+    /** @return false if the queue is full */
+    boolean offer(T item) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    items[index] = item;
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                // The slot still holds the item from one lap ago
+                return false;
+            }
+            // Another producer took the position; retry with the new tail
+        }
+    }
+
+    /** Consumer only. @return the oldest item, or null if none is ready */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long position = head;
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        T item = (T) items[index];
+        items[index] = null;
+        // Move the head before freeing the slot, so size() never counts a refilled slot twice
+        head = position + 1;
+        sequences.lazySet(index, position + items.length);
+        return item;
+    }
+
+    /** Items claimed by producers and not yet polled; may include items still being written. */
+    long size() {
+        return Math.max(0, tail.get() - head);
+    }
+}
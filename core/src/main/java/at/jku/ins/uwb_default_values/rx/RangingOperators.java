@@ -0,0 +1,68 @@
+package at.jku.ins.uwb_default_values.rx;
+
+import java.util.concurrent.Executors;
+
+import io.reactivex.rxjava3.core.ObservableTransformer;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+/**
+ * Operators that move ranging results off the thread that produces them, with bounded memory however
+ * slow the consumer is. Unlike {@code observeOn}, whose queue grows without limit, each of them bounds
+ * what it holds and counts what it drops in a {@link HandoffStats}:
+ * <ul>
+ *     <li>{@link #boundedHandoff} keeps every result up to a capacity, for consumers that need all of
+ *     them, like the engine with its recorder, telemetry and filters.</li>
+ *     <li>{@link #latestPerPeer} keeps the newest pending result per peer, for consumers that only
+ *     need the current state, like displays. It must not sit in front of a consumer that needs every
+ *     sample.</li>
+ * </ul>
+ * The producer side does not block and, apart from the coalescing lock, does not wait for the
+ * consumer. Downstream items are emitted on one worker of the given scheduler.
+ */
+public final class RangingOperators {
+
+    /** Peer of a result, as the short UWB address. */
+    public interface PeerKey<T> {
+        int peerOf(T item);
+    }
+
+    private RangingOperators() {
+    }
+
+    /**
+     * A scheduler on one daemon thread of its own, so consumers cannot delay the threads of the
+     * computation scheduler or the UWB callbacks.
+     */
+    public static Scheduler newComputeScheduler(String name) {
+        return Schedulers.from(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * Emits the newest pending result of each peer on {@code scheduler}; older pending results of the
+     * peer are replaced, including e.g. a disconnect followed by a new position. Holds at most
+     * {@code maxPeers} results; results of further peers are dropped while all are pending.
+     *
+     * @param stats counters to update, or null
+     */
+    public static <T> ObservableTransformer<T, T> latestPerPeer(PeerKey<? super T> key, int maxPeers, Scheduler scheduler,
+                                                                HandoffStats stats) {
+        return upstream -> downstream -> upstream.subscribe(
+                new LatestPerPeerObserver<T>(downstream, scheduler.createWorker(), stats, key, maxPeers));
+    }
+
+    /**
+     * Emits every result on {@code scheduler} in order, through a lock-free ring of {@code capacity}
+     * results; results arriving while it is full are dropped.
+     *
+     * @param stats counters to update, or null
+     */
+    public static <T> ObservableTransformer<T, T> boundedHandoff(int capacity, Scheduler scheduler, HandoffStats stats) {
+        return upstream -> downstream -> upstream.subscribe(
+                new BoundedHandoffObserver<T>(downstream, scheduler.createWorker(), stats, capacity));
+    }
+}
@@ -0,0 +1,135 @@
+package at.jku.ins.uwb_default_values.session;
+
+import at.jku.ins.uwb_default_values.util.LongIntHashMap;
+
+/**
+ * Picks the session ID and static STS key a controller ranges with, so that many controllers in one
+ * space do not share a session.
+ * <p>
+ * IDs come from a SplitMix64 sequence seeded per device and skip every ID seen in other controllers'
+ * adverts. The 8 byte key is derived from the session ID, the controller address and a 16 bit key hint
+ * that is advertised along with the ID, so a controlee derives the same key with {@link #deriveKey}
+ * from the advert alone. The key only separates sessions; it is not a secret.
+ * <p>
+ * When two controllers do end up with the same ID, the one with the higher address gives its ID up.
+ * A session that is delivering results keeps its ID until it is next started; one that is not takes
+ * the new ID right away.
+ */
+public class SessionIdAllocator {
+
+    public static final int KEY_LENGTH = 8;
+
+    /** The advertised session does not collide with ours. */
+    public static final int NO_CONFLICT = 0;
+    /** Same ID, the other controller gives its ID up. */
+    public static final int KEEP = 1;
+    /** Same ID and ours was replaced; the session has to be restarted with the new ID. */
+    public static final int REASSIGNED = 2;
+    /** Same ID; ours is replaced at the next {@link #onSessionStart()}. */
+    public static final int DEFERRED = 3;
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final int NO_CONTROLLER = Integer.MIN_VALUE;
+
+    private final int localAddress;
+    private final int capacity;
+    private final LongIntHashMap seenSessions;
+    private long state;
+    private int sessionId;
+    private int keyHint;
+    private boolean reassignPending;
+
+    /**
+     * @param localAddress short UWB address of this controller
+     * @param seed         differs between devices and runs, e.g. a clock reading
+     * @param capacity     number of foreign session IDs remembered; all are forgotten when it is reached
+     */
+    public SessionIdAllocator(int localAddress, long seed, int capacity) {
+        this.localAddress = localAddress;
+        this.capacity = capacity;
+        seenSessions = new LongIntHashMap(capacity, NO_CONTROLLER);
+        state = seed ^ ((long) localAddress << 32);
+        assign();
+    }
+
+    public synchronized int sessionId() {
+        return sessionId;
+    }
+
+    public synchronized int keyHint() {
+        return keyHint;
+    }
+
+    /** Writes the {@link #KEY_LENGTH} byte STS key of the current session ID to {@code out}. */
+    public synchronized void sessionKey(byte[] out) {
+        deriveKey(sessionId, localAddress, keyHint, out);
+    }
+
+    /** Derives the {@link #KEY_LENGTH} byte STS key a controller uses for an advertised session. */
+    public static void deriveKey(int sessionId, int controllerAddress, int keyHint, byte[] out) {
+        long key = mix(((long) sessionId << 32) | ((controllerAddress & 0xFFFFL) << 16) | (keyHint & 0xFFFFL));
+        for (int i = 0; i < KEY_LENGTH; i++) {
+            out[i] = (byte) (key >>> (56 - 8 * i));
+        }
+    }
+
+    /**
+     * Notes the session ID another controller advertises and resolves a collision with ours.
+     *
+     * @param healthy whether our session is currently delivering results
+     * @return one of {@link #NO_CONFLICT}, {@link #KEEP}, {@link #REASSIGNED} or {@link #DEFERRED}
+     */
+    public synchronized int onAdvertisedSession(int controllerAddress, int sessionId, boolean healthy) {
+        if (controllerAddress == localAddress) {
+            return NO_CONFLICT;
+        }
+        if (seenSessions.size() >= capacity && !seenSessions.containsKey(sessionId)) {
+            seenSessions.clear();
+        }
+        seenSessions.put(sessionId, controllerAddress);
+        if (sessionId != this.sessionId) {
+            return NO_CONFLICT;
+        }
+        if ((localAddress & 0xFFFF) < (controllerAddress & 0xFFFF)) {
+            return KEEP;
+        }
+        if (healthy) {
+            reassignPending = true;
+            return DEFERRED;
+        }
+        assign();
+        return REASSIGNED;
+    }
+
+    /**
+     * Applies a deferred reassignment; call before a session is started with {@link #sessionId()}.
+     *
+     * @return whether the session ID changed
+     */
+    public synchronized boolean onSessionStart() {
+        if (!reassignPending) {
+            return false;
+        }
+        assign();
+        return true;
+    }
+
+    private void assign() {
+        reassignPending = false;
+        int candidate;
+        do {
+            state += GOLDEN_GAMMA;
+            long bits = mix(state);
+            candidate = (int) bits & Integer.MAX_VALUE;
+            keyHint = (int) (bits >>> 48);
+        } while (candidate == 0 || candidate == sessionId || seenSessions.containsKey(candidate));
+        sessionId = candidate;
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,88 @@
+package at.jku.ins.uwb_default_values.session;
+
+import java.util.ArrayDeque;
+
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.core.Single;
+
+/**
+ * Keeps UWB session scopes of both roles set up ahead of time, so that switching roles or restarting
+ * ranging takes a ready scope instead of waiting for the UWB stack.
+ * <p>
+ * A scope is handed out once; taking one immediately starts setting up its replacement on the
+ * scheduler. Nothing here blocks.
+ *
+ * @param <S> the session scope type
+ */
+public class SessionScopePool<S> {
+
+    /** Creates session scopes, e.g. through {@code UwbManagerRx}. */
+    public interface ScopeSource<S> {
+        Single<S> create(boolean controller);
+    }
+
+    private final ScopeSource<S> source;
+    private final Scheduler scheduler;
+    private final int size;
+    private final ArrayDeque<Single<S>> controllerScopes = new ArrayDeque<>();
+    private final ArrayDeque<Single<S>> controleeScopes = new ArrayDeque<>();
+
+    /**
+     * @param size number of scopes kept ready per role
+     */
+    public SessionScopePool(ScopeSource<S> source, Scheduler scheduler, int size) {
+        this.source = source;
+        this.scheduler = scheduler;
+        this.size = size;
+    }
+
+    /** Starts setting up scopes for both roles. */
+    public synchronized void prewarm() {
+        fill(true);
+        fill(false);
+    }
+
+    /**
+     * Takes a scope of the given role: a warm one if available, otherwise a fresh one. Emits on the
+     * pool's scheduler, or on the caller's thread if the scope was already set up.
+     */
+    public Single<S> acquire(boolean controller) {
+        Single<S> warm;
+        synchronized (this) {
+            warm = scopes(controller).poll();
+            fill(controller);
+        }
+        Single<S> fresh = create(controller);
+        // A warm scope whose setup failed is replaced by a fresh attempt
+        return warm != null ? warm.onErrorResumeNext(error -> fresh) : fresh;
+    }
+
+    /** Number of scopes of the role that are set up or being set up. */
+    public synchronized int available(boolean controller) {
+        return scopes(controller).size();
+    }
+
+    /** Forgets all prepared scopes. */
+    public synchronized void clear() {
+        controllerScopes.clear();
+        controleeScopes.clear();
+    }
+
+    private void fill(boolean controller) {
+        ArrayDeque<Single<S>> scopes = scopes(controller);
+        while (scopes.size() < size) {
+            Single<S> scope = create(controller).cache();
+            // Subscribing starts the setup; failures surface again in acquire()
+            scope.subscribe(ignored -> {}, ignored -> {});
+            scopes.add(scope);
+        }
+    }
+
+    private Single<S> create(boolean controller) {
+        return Single.defer(() -> source.create(controller)).subscribeOn(scheduler);
+    }
+
+    private ArrayDeque<Single<S>> scopes(boolean controller) {
+        return controller ? controllerScopes : controleeScopes;
+    }
+}
@@ -0,0 +1,176 @@
+package at.jku.ins.uwb_default_values.telemetry;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of non-negative long values, typically nanoseconds, in log-linear buckets:
+ * every power of two is split into {@link #SUB_BUCKETS} equal buckets, so a recorded value is off by
+ * at most 1/{@value #SUB_BUCKETS} of itself. Recording is one atomic increment and never allocates.
+ */
+public final class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void record(long value) {
+        counts.incrementAndGet(indexOf(Math.max(0, value)));
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int group = exponent - SUB_BUCKET_BITS + 1;
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return group * SUB_BUCKETS + sub;
+    }
+
+    /** Smallest value that falls into the bucket. */
+    static long lowerBound(int index) {
+        int group = index / SUB_BUCKETS;
+        int sub = index % SUB_BUCKETS;
+        if (group == 0) {
+            return sub;
+        }
+        return (long) (SUB_BUCKETS + sub) << (group - 1);
+    }
+
+    /** Number of distinct values that fall into the bucket. */
+    static long width(int index) {
+        int group = index / SUB_BUCKETS;
+        return group == 0 ? 1 : 1L << (group - 1);
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Value below which the given fraction of the recorded values lie, as the middle of its bucket.
+     *
+     * @param quantile between 0 and 1
+     * @return the value, or 0 if nothing was recorded
+     */
+    public long valueAt(double quantile) {
+        return valueAt(quantile, count());
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    /** Summary of the recorded values; concurrent recording may be partially included. */
+    public Summary summarize() {
+        long count = count();
+        long max = 0;
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) != 0) {
+                max = lowerBound(i) + width(i) - 1;
+                break;
+            }
+        }
+        return new Summary(count, valueAt(0.5, count), valueAt(0.9, count), valueAt(0.99, count), max);
+    }
+
+    /** Writes the non-empty buckets as varint (index delta, count) pairs, ending with a zero count. */
+    public void writeTo(DataOutput out) throws IOException {
+        int previous = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts.get(i);
+            if (count != 0) {
+                writeVarLong(out, i - previous);
+                writeVarLong(out, count);
+                previous = i;
+            }
+        }
+        writeVarLong(out, 0);
+        writeVarLong(out, 0);
+    }
+
+    /** Adds the counts written by {@link #writeTo} to this histogram. */
+    public void readFrom(DataInput in) throws IOException {
+        int index = 0;
+        while (true) {
+            index += (int) readVarLong(in);
+            long count = readVarLong(in);
+            if (count == 0) {
+                return;
+            }
+            counts.addAndGet(index, count);
+        }
+    }
+
+    private long valueAt(double quantile, long count) {
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return lowerBound(i) + width(i) / 2;
+            }
+        }
+        return lowerBound(BUCKETS - 1);
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    public static final class Summary {
+
+        public final long count;
+        public final long p50;
+        public final long p90;
+        public final long p99;
+        public final long max;
+
+        Summary(long count, long p50, long p90, long p99, long max) {
+            this.count = count;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        @Override
+        public String toString() {
+            return "n=" + count + " p50=" + millis(p50) + " p90=" + millis(p90) + " p99=" + millis(p99) + " max=" + millis(max);
+        }
+
+        private static String millis(long nanos) {
+            return (nanos / 100_000) / 10.0 + "ms";
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package at.jku.ins.uwb_default_values.telemetry;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+import at.jku.ins.uwb_default_values.ranging.PeerSlots;
+import at.jku.ins.uwb_default_values.ranging.RangingSampleListener;
+import at.jku.ins.uwb_default_values.util.Clock;
+
+/**
+ * Always-on ranging metrics: per peer sample counts, losses and inter-arrival histograms, plus
+ * histograms of delivery latency, BLE discovery to first ranging result and session setup time.
+ * <p>
+ * Recording takes a short uncontended lock for the peer lookup and otherwise only atomic increments;
+ * it does not allocate. {@link #snapshot()} and {@link #dump} can be called from any thread.
+ * <p>
+ * Per peer counters live as long as the peer ranges; peers only discovered over BLE give up their
+ * slot, oldest discovery first, when a new peer needs one.
+ */
+public class RangingTelemetry implements RangingSampleListener {
+
+    private static final int DUMP_MAGIC = 0x55574254; // "UWBT"
+    private static final int DUMP_VERSION = 2;
+
+    private final Clock clock;
+    private final PeerSlots slots;
+    private final long[] sampleCounts;
+    private final long[] lossCounts;
+    private final long[] firstArrivals;
+    private final long[] lastArrivals;
+    private final long[] discoveredAt;
+    private final LatencyHistogram[] interArrival;
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+    private final LatencyHistogram discoveryToFirstResult = new LatencyHistogram();
+    private final LatencyHistogram sessionSetup = new LatencyHistogram();
+    private long totalLosses;
+    private long otherResults;
+    private long droppedPeers;
+
+    public RangingTelemetry(int maxPeers, Clock clock) {
+        this.clock = clock;
+        slots = new PeerSlots(maxPeers);
+        sampleCounts = new long[maxPeers];
+        lossCounts = new long[maxPeers];
+        firstArrivals = new long[maxPeers];
+        lastArrivals = new long[maxPeers];
+        discoveredAt = new long[maxPeers];
+        interArrival = new LatencyHistogram[maxPeers];
+        for (int slot = 0; slot < maxPeers; slot++) {
+            interArrival[slot] = new LatencyHistogram();
+        }
+    }
+
+    @Override
+    public void onSample(int peer, float distance, float azimuth, float elevation, long timestampNanos) {
+        long now = clock.nanoTime();
+        LatencyHistogram histogram = null;
+        long gap = 0;
+        long sinceDiscovery = -1;
+        synchronized (this) {
+            int slot = acquire(peer);
+            if (slot == PeerSlots.NO_SLOT) {
+                return;
+            }
+            if (sampleCounts[slot]++ == 0) {
+                firstArrivals[slot] = now;
+                if (discoveredAt[slot] != 0) {
+                    sinceDiscovery = now - discoveredAt[slot];
+                }
+            } else {
+                histogram = interArrival[slot];
+                gap = now - lastArrivals[slot];
+            }
+            lastArrivals[slot] = now;
+        }
+        if (histogram != null) {
+            histogram.record(gap);
+        }
+        if (sinceDiscovery >= 0) {
+            discoveryToFirstResult.record(sinceDiscovery);
+        }
+        deliveryLatency.record(now - timestampNanos);
+    }
+
+    /** The peer was seen over BLE; its first ranging result will be timed from here. */
+    public synchronized void onPeerDiscovered(int peer, long timestampNanos) {
+        int slot = acquire(peer);
+        if (slot != PeerSlots.NO_SLOT && discoveredAt[slot] == 0 && sampleCounts[slot] == 0) {
+            discoveredAt[slot] = timestampNanos;
+        }
+    }
+
+    /** The peer disconnected from the session. */
+    public synchronized void onPeerLost(int peer) {
+        totalLosses++;
+        int slot = acquire(peer);
+        if (slot != PeerSlots.NO_SLOT) {
+            lossCounts[slot]++;
+        }
+    }
+
+    /** A ranging result that is neither a position nor a disconnect, which the pipeline ignores. */
+    public synchronized void onOtherResult(int peer) {
+        otherResults++;
+    }
+
+    /** The peer left the session; its counters are dropped and the slot is free for the next peer. */
+    public synchronized void releasePeer(int peer) {
+        slots.release(peer);
+    }
+
+    /** Every peer left with the session. The totals and global histograms are kept. */
+    public synchronized void releasePeers() {
+        slots.clear();
+    }
+
+    public void onSessionSetup(long durationNanos) {
+        sessionSetup.record(durationNanos);
+    }
+
+    public synchronized void reset() {
+        slots.clear();
+        totalLosses = 0;
+        otherResults = 0;
+        droppedPeers = 0;
+        deliveryLatency.reset();
+        discoveryToFirstResult.reset();
+        sessionSetup.reset();
+    }
+
+    public synchronized TelemetrySnapshot snapshot() {
+        long now = clock.nanoTime();
+        int count = slots.size();
+        int[] peers = new int[count];
+        long[] samples = new long[count];
+        long[] losses = new long[count];
+        double[] rates = new double[count];
+        LatencyHistogram.Summary[] gaps = new LatencyHistogram.Summary[count];
+        int index = 0;
+        for (int slot = 0; slot < slots.capacity() && index < count; slot++) {
+            if (!slots.isUsed(slot)) {
+                continue;
+            }
+            peers[index] = slots.peerAt(slot);
+            samples[index] = sampleCounts[slot];
+            losses[index] = lossCounts[slot];
+            long span = (sampleCounts[slot] > 1 ? lastArrivals[slot] : now) - firstArrivals[slot];
+            rates[index] = sampleCounts[slot] > 1 && span > 0 ? (sampleCounts[slot] - 1) * 1e9 / span : 0;
+            gaps[index] = interArrival[slot].summarize();
+            index++;
+        }
+        return new TelemetrySnapshot(peers, samples, losses, rates, gaps, totalLosses, otherResults, droppedPeers,
+                deliveryLatency.summarize(), discoveryToFirstResult.summarize(), sessionSetup.summarize());
+    }
+
+    /**
+     * Writes all counters and histograms in a compact binary form: a header, the global histograms and
+     * then per peer its address, sample and loss count and inter-arrival histogram.
+     */
+    public synchronized void dump(DataOutput out) throws IOException {
+        out.writeInt(DUMP_MAGIC);
+        out.writeByte(DUMP_VERSION);
+        out.writeLong(clock.nanoTime());
+        LatencyHistogram.writeVarLong(out, totalLosses);
+        LatencyHistogram.writeVarLong(out, otherResults);
+        LatencyHistogram.writeVarLong(out, droppedPeers);
+        deliveryLatency.writeTo(out);
+        discoveryToFirstResult.writeTo(out);
+        sessionSetup.writeTo(out);
+        LatencyHistogram.writeVarLong(out, slots.size());
+        for (int slot = 0; slot < slots.capacity(); slot++) {
+            if (slots.isUsed(slot)) {
+                out.writeShort(slots.peerAt(slot));
+                LatencyHistogram.writeVarLong(out, sampleCounts[slot]);
+                LatencyHistogram.writeVarLong(out, lossCounts[slot]);
+                interArrival[slot].writeTo(out);
+            }
+        }
+    }
+
+    private int acquire(int peer) {
+        int slot = slots.slotOf(peer);
+        if (slot != PeerSlots.NO_SLOT) {
+            return slot;
+        }
+        slot = slots.acquire(peer);
+        if (slot == PeerSlots.NO_SLOT && evictOldestDiscovery()) {
+            slot = slots.acquire(peer);
+        }
+        if (slot == PeerSlots.NO_SLOT) {
+            droppedPeers++;
+            return slot;
+        }
+        sampleCounts[slot] = 0;
+        lossCounts[slot] = 0;
+        firstArrivals[slot] = 0;
+        lastArrivals[slot] = 0;
+        discoveredAt[slot] = 0;
+        interArrival[slot].reset();
+        return slot;
+    }
+
+    // Frees the slot of the peer discovered longest ago that never ranged, if there is one
+    private boolean evictOldestDiscovery() {
+        int oldest = PeerSlots.NO_SLOT;
+        for (int slot = 0; slot < slots.capacity(); slot++) {
+            if (slots.isUsed(slot) && sampleCounts[slot] == 0 && lossCounts[slot] == 0
+                    && (oldest == PeerSlots.NO_SLOT || discoveredAt[slot] < discoveredAt[oldest])) {
+                oldest = slot;
+            }
+        }
+        if (oldest == PeerSlots.NO_SLOT) {
+            return false;
+        }
+        slots.release(slots.peerAt(oldest));
+        return true;
+    }
+}
@@ -0,0 +1,58 @@
+package at.jku.ins.uwb_default_values.telemetry;
+
+/**
+ * Point in time copy of {@link RangingTelemetry}. Per peer values are parallel arrays.
+ */
+public final class TelemetrySnapshot {
+
+    public final int[] peers;
+    public final long[] sampleCounts;
+    public final long[] lossCounts;
+    /** Mean sample rate in Hz since the peer's first sample. */
+    public final double[] sampleRates;
+    /** Inter-arrival times of each peer's samples. */
+    public final LatencyHistogram.Summary[] interArrival;
+    public final long totalLosses;
+    /** Ranging results that were neither a position nor a disconnect. */
+    public final long otherResults;
+    /** Samples of peers that found no free slot and were not tracked. */
+    public final long droppedPeers;
+    /** Time from the sample's timestamp until it reached the pipeline. */
+    public final LatencyHistogram.Summary deliveryLatency;
+    public final LatencyHistogram.Summary discoveryToFirstResult;
+    public final LatencyHistogram.Summary sessionSetup;
+
+    TelemetrySnapshot(int[] peers, long[] sampleCounts, long[] lossCounts, double[] sampleRates,
+                      LatencyHistogram.Summary[] interArrival, long totalLosses, long otherResults, long droppedPeers,
+                      LatencyHistogram.Summary deliveryLatency, LatencyHistogram.Summary discoveryToFirstResult,
+                      LatencyHistogram.Summary sessionSetup) {
+        this.peers = peers;
+        this.sampleCounts = sampleCounts;
+        this.lossCounts = lossCounts;
+        this.sampleRates = sampleRates;
+        this.interArrival = interArrival;
+        this.totalLosses = totalLosses;
+        this.otherResults = otherResults;
+        this.droppedPeers = droppedPeers;
+        this.deliveryLatency = deliveryLatency;
+        this.discoveryToFirstResult = discoveryToFirstResult;
+        this.sessionSetup = sessionSetup;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder()
+                .append("Session setup: ").append(sessionSetup)
+                .append("\nDiscovery to first result: ").append(discoveryToFirstResult)
+                .append("\nDelivery latency: ").append(deliveryLatency)
+                .append("\nLost: ").append(totalLosses)
+                .append("\nOther results: ").append(otherResults);
+        for (int i = 0; i < peers.length; i++) {
+            builder.append("\nPeer ").append(peers[i])
+                    .append(": ").append(sampleCounts[i]).append(" samples, ")
+                    .append(Math.round(sampleRates[i] * 10) / 10.0).append(" Hz, ")
+                    .append(lossCounts[i]).append(" lost, gaps ").append(interArrival[i]);
+        }
+        return builder.toString();
+    }
+}
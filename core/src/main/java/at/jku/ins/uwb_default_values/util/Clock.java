@@ -0,0 +1,10 @@
+package at.jku.ins.uwb_default_values.util;
+
+/**
+ * Monotonic time source, so time dependent policies can run on a simulated clock.
+ * On Android this is {@code SystemClock::elapsedRealtimeNanos}.
+ */
+public interface Clock {
+
+    long nanoTime();
+}
@@ -0,0 +1,177 @@
+package at.jku.ins.uwb_default_values.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from {@code long} to {@code int} with linear probing.
+ * <p>
+ * Lookups, inserts and removals do not allocate; only growing the table does.
+ * Not thread safe.
+ */
+public final class LongIntHashMap {
+
+    /** Visits every mapping, see {@link #forEach}. */
+    public interface Visitor {
+        void visit(long key, int value);
+    }
+
+    private static final long FREE_KEY = 0L;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private final int missingValue;
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+    private boolean hasFreeKey;
+    private int freeKeyValue;
+
+    /**
+     * @param expectedSize number of mappings the table holds without growing
+     * @param missingValue value returned by {@link #get} and {@link #remove} for absent keys
+     */
+    public LongIntHashMap(int expectedSize, int missingValue) {
+        this.missingValue = missingValue;
+        int capacity = Integer.highestOneBit(Math.max(2, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == FREE_KEY) {
+            return hasFreeKey;
+        }
+        return keys[indexOf(key)] != FREE_KEY;
+    }
+
+    public int get(long key) {
+        if (key == FREE_KEY) {
+            return hasFreeKey ? freeKeyValue : missingValue;
+        }
+        int index = indexOf(key);
+        return keys[index] != FREE_KEY ? values[index] : missingValue;
+    }
+
+    /** @return the previous value or the missing value */
+    public int put(long key, int value) {
+        if (key == FREE_KEY) {
+            int previous = hasFreeKey ? freeKeyValue : missingValue;
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                size++;
+            }
+            freeKeyValue = value;
+            return previous;
+        }
+        int index = indexOf(key);
+        if (keys[index] != FREE_KEY) {
+            int previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+        keys[index] = key;
+        values[index] = value;
+        if (++size > resizeAt) {
+            rehash(keys.length << 1);
+        }
+        return missingValue;
+    }
+
+    /** @return the removed value or the missing value */
+    public int remove(long key) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey) {
+                return missingValue;
+            }
+            hasFreeKey = false;
+            size--;
+            return freeKeyValue;
+        }
+        int index = indexOf(key);
+        if (keys[index] == FREE_KEY) {
+            return missingValue;
+        }
+        int previous = values[index];
+        shiftBack(index);
+        size--;
+        return previous;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE_KEY);
+        hasFreeKey = false;
+        size = 0;
+    }
+
+    public void forEach(Visitor visitor) {
+        if (hasFreeKey) {
+            visitor.visit(FREE_KEY, freeKeyValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE_KEY) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // Index holding key, or the free index where it would be inserted
+    private int indexOf(long key) {
+        int index = hash(key) & mask;
+        while (keys[index] != FREE_KEY && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    // Backward shift deletion keeps probe sequences intact without tombstones
+    private void shiftBack(int gap) {
+        int index = gap;
+        while (true) {
+            index = (index + 1) & mask;
+            long key = keys[index];
+            if (key == FREE_KEY) {
+                break;
+            }
+            int home = hash(key) & mask;
+            if (((index - home) & mask) >= ((index - gap) & mask)) {
+                keys[gap] = key;
+                values[gap] = values[index];
+                gap = index;
+            }
+        }
+        keys[gap] = FREE_KEY;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE_KEY) {
+                int index = indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+}
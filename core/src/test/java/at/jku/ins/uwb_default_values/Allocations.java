@@ -0,0 +1,42 @@
+package at.jku.ins.uwb_default_values;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Counts the bytes the current thread allocates, for tests of the allocation-free paths.
+ */
+public final class Allocations {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private Allocations() {
+    }
+
+    /** Skips the calling test on JVMs that cannot count allocations per thread. */
+    public static void assumeSupported() {
+        assumeTrue("Thread allocation counting is not supported",
+                THREADS instanceof com.sun.management.ThreadMXBean
+                        && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported());
+        ((com.sun.management.ThreadMXBean) THREADS).setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /** @return the bytes allocated by the current thread so far */
+    public static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Runs {@code task} once to warm it up and then measures a second run.
+     *
+     * @return the bytes allocated by the second run
+     */
+    public static long measure(Runnable task) {
+        task.run();
+        long before = allocatedBytes();
+        task.run();
+        return allocatedBytes() - before;
+    }
+}
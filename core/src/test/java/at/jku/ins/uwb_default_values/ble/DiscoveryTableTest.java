@@ -0,0 +1,179 @@
+package at.jku.ins.uwb_default_values.ble;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.Allocations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DiscoveryTableTest {
+
+    private static final long TTL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long PUBLISH_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    /**
+     * 1,000 advertisers seen at 10,000 callbacks per simulated second for a minute, with a fifth of
+     * them leaving and as many new ones arriving halfway. A mirror kept only from the published diffs
+     * must match the table.
+     */
+    @Test
+    public void thousandAdvertisersAtTenThousandCallbacksPerSecond() {
+        int advertisers = 1000;
+        int callbacksPerSecond = 10_000;
+        int seconds = 60;
+        DiscoveryTable table = new DiscoveryTable(2048, TTL_NANOS, PUBLISH_NANOS);
+        Mirror mirror = new Mirror();
+        UwbAdvertisement advertisement = new UwbAdvertisement();
+        Random random = new Random(5);
+        long interval = TimeUnit.SECONDS.toNanos(1) / callbacksPerSecond;
+
+        int publishes = 0;
+        long callbacks = (long) callbacksPerSecond * seconds;
+        long start = System.nanoTime();
+        for (long i = 0; i < callbacks; i++) {
+            long now = i * interval;
+            int device = random.nextInt(advertisers);
+            // From halfway on, devices 0..199 are gone and 1000..1199 took their place
+            if (now >= TimeUnit.SECONDS.toNanos(seconds / 2) && device < advertisers / 5) {
+                device += advertisers;
+            }
+            boolean uwb = device % 2 == 0;
+            if (uwb) {
+                advertisement.uwbAddress = device;
+                advertisement.sessionId = device * 31;
+            }
+            table.onAdvert(0xAA0000000000L | device, -50 - random.nextInt(30), now, uwb ? advertisement : null);
+            if (i % (callbacksPerSecond / 4) == 0) {
+                table.expire(now);
+                if (table.publishChanges(now, mirror)) {
+                    publishes++;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long end = (callbacks - 1) * interval + PUBLISH_NANOS;
+        table.expire(end);
+        table.publishChanges(end, mirror);
+        System.out.printf("%.0f callbacks/s handled%n", callbacks * 1e9 / elapsed);
+
+        assertTrue(callbacks * 1e9 / elapsed > 10 * callbacksPerSecond);
+        assertTrue(publishes <= seconds * 4 + 1);
+        assertEquals(advertisers, table.size());
+        assertEquals(table.size(), mirror.rssis.size());
+        for (Map.Entry<Long, Integer> entry : mirror.rssis.entrySet()) {
+            int slot = table.slotOf(entry.getKey());
+            assertTrue(slot != DiscoveryTable.NO_SLOT);
+            assertEquals((int) entry.getValue(), table.rssi(slot));
+        }
+        assertFalse(mirror.rssis.containsKey(0xAA0000000000L));
+        assertTrue(mirror.rssis.containsKey(0xAA0000000000L | advertisers));
+        assertEquals(advertisers / 2, table.countUwb(a -> true));
+    }
+
+    @Test
+    public void knownDevicesDoNotAllocate() {
+        Allocations.assumeSupported();
+        DiscoveryTable table = new DiscoveryTable(1024, TTL_NANOS, PUBLISH_NANOS);
+        UwbAdvertisement advertisement = new UwbAdvertisement();
+        long allocated = Allocations.measure(() -> {
+            for (int i = 0; i < 100_000; i++) {
+                advertisement.uwbAddress = i & 1023;
+                table.onAdvert(i & 1023, -60 - (i & 7), i, advertisement);
+            }
+        });
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    @Test
+    public void reportsAddedChangedAndRemovedDevices() {
+        DiscoveryTable table = new DiscoveryTable(4, TTL_NANOS, PUBLISH_NANOS);
+        UwbAdvertisement advertisement = new UwbAdvertisement();
+        advertisement.uwbAddress = 7;
+        assertEquals(DiscoveryTable.ADDED, table.onAdvert(1, -60, 0, null));
+        assertEquals(DiscoveryTable.SEEN, table.onAdvert(1, -61, 1, null));
+        assertEquals(DiscoveryTable.UWB_CHANGED, table.onAdvert(1, -61, 2, advertisement));
+        assertEquals(DiscoveryTable.SEEN, table.onAdvert(1, -61, 3, advertisement));
+        advertisement.sessionId = 5;
+        assertEquals(DiscoveryTable.UWB_CHANGED, table.onAdvert(1, -61, 4, advertisement));
+
+        Mirror mirror = new Mirror();
+        assertTrue(table.publishChanges(10, mirror));
+        assertEquals(1, mirror.added);
+        assertEquals(0, mirror.changed);
+
+        table.onAdvert(1, -70, 20, null);
+        // Within the publish interval nothing is published
+        assertFalse(table.publishChanges(20, mirror));
+        assertTrue(table.publishChanges(10 + PUBLISH_NANOS, mirror));
+        assertEquals(1, mirror.changed);
+        assertEquals(DiscoveryTable.CHANGE_RSSI, mirror.lastChanges);
+
+        table.expire(20 + TTL_NANOS + 1);
+        assertEquals(0, table.size());
+        assertTrue(table.publishChanges(10 + 2 * PUBLISH_NANOS + TTL_NANOS, mirror));
+        assertEquals(1, mirror.removed);
+        assertTrue(mirror.rssis.isEmpty());
+    }
+
+    @Test
+    public void devicesGoneBeforePublishingAreNotReported() {
+        DiscoveryTable table = new DiscoveryTable(4, TTL_NANOS, PUBLISH_NANOS);
+        table.onAdvert(1, -60, 0, null);
+        table.clear();
+        Mirror mirror = new Mirror();
+        table.publishChanges(0, mirror);
+        assertEquals(0, mirror.added);
+        assertEquals(0, mirror.removed);
+    }
+
+    @Test
+    public void dropsDevicesWhenFull() {
+        DiscoveryTable table = new DiscoveryTable(2, TTL_NANOS, PUBLISH_NANOS);
+        table.onAdvert(1, -60, 0, null);
+        table.onAdvert(2, -60, 0, null);
+        assertEquals(DiscoveryTable.DROPPED, table.onAdvert(3, -60, 0, null));
+        table.expire(TTL_NANOS + 1);
+        assertEquals(DiscoveryTable.ADDED, table.onAdvert(3, -60, TTL_NANOS + 1, null));
+    }
+
+    @Test
+    public void parsesAndFormatsMacs() {
+        long mac = DiscoveryTable.parseMac("a1:B2:c3:D4:e5:F6");
+        assertEquals(0xA1B2C3D4E5F6L, mac);
+        assertEquals("A1:B2:C3:D4:E5:F6", DiscoveryTable.formatMac(mac));
+    }
+
+    private static final class Mirror implements DiscoveryTable.ChangeListener {
+        final Map<Long, Integer> rssis = new HashMap<>();
+        int added;
+        int changed;
+        int removed;
+        int lastChanges;
+
+        @Override
+        public void onAdded(DiscoveryTable table, int slot) {
+            added++;
+            rssis.put(table.mac(slot), table.rssi(slot));
+        }
+
+        @Override
+        public void onChanged(DiscoveryTable table, int slot, int changes) {
+            changed++;
+            lastChanges = changes;
+            rssis.put(table.mac(slot), table.rssi(slot));
+        }
+
+        @Override
+        public void onRemoved(long mac) {
+            removed++;
+            rssis.remove(mac);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package at.jku.ins.uwb_default_values.ble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanSchedulerTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final FakeScanner scanner = new FakeScanner();
+    private long now;
+    private int unranged;
+    private final ScanScheduler scheduler = new ScanScheduler(scanner, () -> now, () -> unranged);
+    private long nextTick;
+
+    @Test
+    public void idleIntervalDoublesUpToTheMaximum() {
+        start();
+        runUntil(200 * SECOND);
+        // Every window is a 2 s low power scan; the intervals grow 20, 40, 60, 60 s
+        assertEquals(starts(0, 20, 60, 120, 180), scanner.startTimes);
+        for (int i = 0; i < scanner.modes.size(); i++) {
+            assertFalse(scanner.modes.get(i));
+            assertEquals(ScanScheduler.IDLE_REPORT_DELAY_MILLIS, (long) scanner.reportDelays.get(i));
+            assertEquals(ScanScheduler.IDLE_WINDOW, scanner.stopTimes.get(i) - scanner.startTimes.get(i));
+        }
+    }
+
+    @Test
+    public void discoveriesRestartTheIdleBackOff() {
+        start();
+        runUntil(61 * SECOND);
+        // Found something in the window starting at 60 s, so the next interval is the shortest again
+        scheduler.onPeerDiscovered();
+        runUntil(100 * SECOND);
+        assertEquals(starts(0, 20, 60, 70, 90), scanner.startTimes);
+    }
+
+    @Test
+    public void unrangedPeersScanInLowLatencyWindowsThatGrowWithTheirNumber() {
+        unranged = 1;
+        start();
+        runUntil(16 * SECOND);
+        assertEquals(starts(0, 5, 10, 15), scanner.startTimes);
+        assertTrue(scanner.modes.get(0));
+        assertEquals(ScanScheduler.ACTIVE_REPORT_DELAY_MILLIS, (long) scanner.reportDelays.get(0));
+        assertEquals(ScanScheduler.activeWindow(1), scanner.stopTimes.get(0) - scanner.startTimes.get(0));
+
+        assertTrue(ScanScheduler.activeWindow(3) > ScanScheduler.activeWindow(1));
+        assertEquals(ScanScheduler.ACTIVE_INTERVAL, ScanScheduler.activeWindow(5));
+        assertEquals(ScanScheduler.ACTIVE_INTERVAL, ScanScheduler.activeWindow(50));
+    }
+
+    @Test
+    public void manyUnrangedPeersKeepTheScanRunning() {
+        unranged = 10;
+        start();
+        runUntil(60 * SECOND);
+        assertEquals(1, scanner.startTimes.size());
+        assertTrue(scanner.stopTimes.isEmpty());
+        assertTrue(scheduler.isScanning());
+        // The scan never stops, but every active interval still counts as a window
+        assertEquals(60 * SECOND / ScanScheduler.ACTIVE_INTERVAL + 1, scheduler.windowCount());
+
+        // Once everything is ranged, the scan drops to the idle cycle
+        unranged = 0;
+        runUntil(70 * SECOND);
+        assertEquals(1, scanner.stopTimes.size());
+        assertFalse(scheduler.isScanning());
+    }
+
+    @Test
+    public void newDemandEndsASleepEarly() {
+        start();
+        runUntil(5 * SECOND);
+        assertFalse(scheduler.isScanning());
+
+        unranged = 2;
+        nextTick = now + scheduler.onDemandChanged();
+        assertTrue(scheduler.isScanning());
+        assertEquals(starts(0, 5), scanner.startTimes);
+        assertTrue(scanner.modes.get(1));
+    }
+
+    @Test
+    public void stopEndsTheScan() {
+        unranged = 1;
+        start();
+        scheduler.stop();
+        assertFalse(scheduler.isRunning());
+        assertEquals(1, scanner.stopTimes.size());
+        assertEquals(-1, scheduler.tick());
+        assertEquals(-1, scheduler.onDemandChanged());
+    }
+
+    private void start() {
+        nextTick = now + scheduler.start();
+    }
+
+    // Ticks when the scheduler asked to, like the platform's handler would
+    private void runUntil(long end) {
+        while (nextTick <= end) {
+            now = nextTick;
+            long delay = scheduler.tick();
+            if (delay < 0) {
+                return;
+            }
+            nextTick = now + delay;
+        }
+        now = end;
+    }
+
+    private static List<Long> starts(long... seconds) {
+        List<Long> times = new ArrayList<>();
+        for (long second : seconds) {
+            times.add(second * SECOND);
+        }
+        return times;
+    }
+
+    private final class FakeScanner implements BleScanner {
+        final List<Long> startTimes = new ArrayList<>();
+        final List<Long> stopTimes = new ArrayList<>();
+        final List<Boolean> modes = new ArrayList<>();
+        final List<Long> reportDelays = new ArrayList<>();
+
+        @Override
+        public void start(boolean lowLatency, long reportDelayMillis) {
+            startTimes.add(now);
+            modes.add(lowLatency);
+            reportDelays.add(reportDelayMillis);
+        }
+
+        @Override
+        public void stop() {
+            stopTimes.add(now);
+        }
+    }
+}
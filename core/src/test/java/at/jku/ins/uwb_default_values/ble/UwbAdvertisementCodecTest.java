@@ -0,0 +1,168 @@
+package at.jku.ins.uwb_default_values.ble;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import at.jku.ins.uwb_default_values.Allocations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UwbAdvertisementCodecTest {
+
+    private final UwbAdvertisement decoded = new UwbAdvertisement();
+
+    @Test
+    public void roundTripsVersion2() {
+        UwbAdvertisement advertisement = new UwbAdvertisement();
+        advertisement.flags = UwbAdvertisement.FLAG_CONTROLLER | UwbAdvertisement.FLAG_AZIMUTH
+                | UwbAdvertisement.FLAG_MULTI_PEER | UwbAdvertisement.FLAG_AUTO_ROLE;
+        advertisement.uwbAddress = -2;
+        advertisement.channel = 9;
+        advertisement.preambleIndex = 11;
+        advertisement.sessionId = 0x89ABCDEF;
+        advertisement.subSessionKeyHint = 0xFEDC;
+        advertisement.electionKey = 0xBEEF;
+        for (int updateRate = -1; updateRate <= 1; updateRate++) {
+            advertisement.updateRate = updateRate;
+            byte[] data = UwbAdvertisementCodec.encode(advertisement);
+            assertEquals(UwbAdvertisementCodec.LENGTH, data.length);
+            assertEquals(0, data[12]);
+            assertTrue(UwbAdvertisementCodec.decode(data, decoded));
+            assertEquals(UwbAdvertisementCodec.VERSION, decoded.version);
+            assertEquals(advertisement.flags, decoded.flags);
+            assertEquals(updateRate, decoded.updateRate);
+            assertEquals(-2, decoded.uwbAddress);
+            assertEquals(9, decoded.channel);
+            assertEquals(11, decoded.preambleIndex);
+            assertEquals(0x89ABCDEF, decoded.sessionId);
+            assertEquals(0xFEDC, decoded.subSessionKeyHint);
+            assertEquals(0xBEEF, decoded.electionKey);
+            assertTrue(decoded.isController());
+        }
+    }
+
+    @Test
+    public void decodesVersion1WithoutElectionKey() {
+        byte[] data = ByteBuffer.allocate(UwbAdvertisementCodec.V1_LENGTH)
+                .put((byte) 1)
+                .put((byte) (UwbAdvertisement.FLAG_CONTROLLER | (1 << 5)))
+                .putShort((short) 0x1234)
+                .put((byte) 5)
+                .put((byte) 10)
+                .putInt(777)
+                .putShort((short) 0x4321)
+                // Reserved, ignored
+                .put((byte) 3)
+                .array();
+        decoded.electionKey = 99;
+        assertTrue(UwbAdvertisementCodec.decode(data, decoded));
+        assertEquals(1, decoded.version);
+        assertEquals(UwbAdvertisement.FLAG_CONTROLLER, decoded.flags);
+        assertEquals(1, decoded.updateRate);
+        assertEquals(0x1234, decoded.uwbAddress);
+        assertEquals(5, decoded.channel);
+        assertEquals(10, decoded.preambleIndex);
+        assertEquals(777, decoded.sessionId);
+        assertEquals(0x4321, decoded.subSessionKeyHint);
+        assertEquals(0, decoded.electionKey);
+    }
+
+    @Test
+    public void decodesLegacyPayload() {
+        // The layout the app advertised before the codec existed
+        byte[] data = ByteBuffer.allocate(7)
+                .putShort((short) 0x0A0B)
+                .put((byte) 9)
+                .put((byte) 10)
+                .putShort((short) 12345)
+                .put((byte) 1)
+                .array();
+        assertTrue(UwbAdvertisementCodec.decode(data, decoded));
+        assertEquals(0, decoded.version);
+        assertEquals(0x0A0B, decoded.uwbAddress);
+        assertEquals(9, decoded.channel);
+        assertEquals(10, decoded.preambleIndex);
+        assertEquals(12345, decoded.sessionId);
+        assertTrue(decoded.isController());
+
+        data[6] = 0;
+        assertTrue(UwbAdvertisementCodec.decode(data, decoded));
+        assertFalse(decoded.isController());
+    }
+
+    @Test
+    public void acceptsLongerPayloadsOfNewerVersions() {
+        UwbAdvertisement advertisement = new UwbAdvertisement();
+        advertisement.uwbAddress = 42;
+        advertisement.electionKey = 7;
+        byte[] data = Arrays.copyOf(UwbAdvertisementCodec.encode(advertisement), UwbAdvertisementCodec.LENGTH + 4);
+        data[0] = 3;
+        assertTrue(UwbAdvertisementCodec.decode(data, decoded));
+        assertEquals(3, decoded.version);
+        assertEquals(42, decoded.uwbAddress);
+        assertEquals(7, decoded.electionKey);
+    }
+
+    @Test
+    public void rejectsTruncatedPayloads() {
+        byte[] data = UwbAdvertisementCodec.encode(new UwbAdvertisement());
+        for (int length = 0; length < UwbAdvertisementCodec.LENGTH; length++) {
+            boolean legacy = length == 7;
+            assertEquals("length " + length, legacy, UwbAdvertisementCodec.decode(Arrays.copyOf(data, length), decoded));
+        }
+        data[0] = 1;
+        for (int length = 0; length < UwbAdvertisementCodec.V1_LENGTH; length++) {
+            boolean legacy = length == 7;
+            assertEquals("length " + length, legacy, UwbAdvertisementCodec.decode(Arrays.copyOf(data, length), decoded));
+        }
+        assertFalse(UwbAdvertisementCodec.decode(null, decoded));
+    }
+
+    @Test
+    public void fuzzedPayloadsNeverThrow() {
+        Random random = new Random(1234);
+        byte[] valid = UwbAdvertisementCodec.encode(new UwbAdvertisement());
+        int accepted = 0;
+        for (int i = 0; i < 200_000; i++) {
+            byte[] data;
+            if ((i & 1) == 0) {
+                data = new byte[random.nextInt(40)];
+                random.nextBytes(data);
+                // Make plausible versions common, so the field decoding gets fuzzed too
+                if (data.length > 0 && random.nextBoolean()) {
+                    data[0] = (byte) random.nextInt(4);
+                }
+            } else {
+                data = Arrays.copyOf(valid, random.nextInt(valid.length + 1));
+                if (data.length > 0) {
+                    data[random.nextInt(data.length)] ^= (byte) (1 << random.nextInt(8));
+                }
+            }
+            if (UwbAdvertisementCodec.decode(data, decoded)) {
+                accepted++;
+                assertTrue(decoded.updateRate >= -2 && decoded.updateRate <= 1);
+                assertTrue(decoded.uwbAddress >= Short.MIN_VALUE && decoded.uwbAddress <= Short.MAX_VALUE);
+                assertTrue(decoded.subSessionKeyHint >= 0 && decoded.subSessionKeyHint <= 0xFFFF);
+                assertTrue(decoded.electionKey >= 0 && decoded.electionKey <= 0xFFFF);
+            }
+        }
+        assertTrue(accepted > 0);
+    }
+
+    @Test
+    public void decodingDoesNotAllocate() {
+        Allocations.assumeSupported();
+        byte[] data = UwbAdvertisementCodec.encode(new UwbAdvertisement());
+        long allocated = Allocations.measure(() -> {
+            for (int i = 0; i < 100_000; i++) {
+                UwbAdvertisementCodec.decode(data, decoded);
+            }
+        });
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+}
@@ -0,0 +1,195 @@
+package at.jku.ins.uwb_default_values.dashboard;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.ble.DiscoveryTable;
+import at.jku.ins.uwb_default_values.ble.UwbAdvertisement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PeerDashboardTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long STALE_NANOS = PeerDashboard.DEFAULT_STALE_NANOS;
+    private static final long MAC_A = 0xAA0000000001L;
+    private static final long MAC_B = 0xAA0000000002L;
+    private static final int PEER = 0x22;
+
+    private final DiscoveryTable table = new DiscoveryTable(8, 5 * SECOND, 0);
+    private final PeerDashboard dashboard = new PeerDashboard(8, STALE_NANOS);
+    private final UwbAdvertisement advertisement = new UwbAdvertisement();
+    private long now = SECOND;
+
+    @Test
+    public void unchangedFrameReturnsTheSameSnapshot() {
+        advert(MAC_A, -60, -1);
+        advert(MAC_B, -70, PEER);
+        dashboard.onSample(PEER, 2.001f, 10, 0, now);
+        DashboardSnapshot first = dashboard.snapshot(now);
+        assertEquals(2, first.size());
+        assertSame(first, dashboard.snapshot(now));
+
+        // The same values at display resolution, seen again within the stale time
+        advert(MAC_A, -60, -1);
+        dashboard.onSample(PEER, 2.004f, 10.001f, 0, now + SECOND);
+        assertSame(first, dashboard.snapshot(now + SECOND));
+    }
+
+    @Test
+    public void onlyChangedRowsAreReplaced() {
+        advert(MAC_A, -60, -1);
+        advert(MAC_B, -70, PEER);
+        dashboard.onSample(PEER, 2, 10, 0, now);
+        DashboardSnapshot first = dashboard.snapshot(now);
+
+        dashboard.onSample(PEER, 3, 10, 0, now);
+        DashboardSnapshot second = dashboard.snapshot(now);
+        assertNotSame(first, second);
+        assertSame(row(first, MAC_A), row(second, MAC_A));
+        assertNotSame(row(first, MAC_B), row(second, MAC_B));
+        assertEquals(3, row(second, MAC_B).distance, 0);
+
+        List<String> updates = new ArrayList<>();
+        DashboardSnapshot.diff(first, second, recorder(updates));
+        assertEquals(Arrays.asList("changed 0 1 " + PeerRow.CHANGE_LIVE), updates);
+    }
+
+    @Test
+    public void rangedPeerIsMergedIntoTheDeviceDiscoveredLater() {
+        dashboard.onSample(PEER, 1.5f, -20, 5, now);
+        DashboardSnapshot first = dashboard.snapshot(now);
+        assertEquals(1, first.size());
+        PeerRow uwbOnly = first.get(0);
+        assertEquals(PeerDashboard.UWB_ONLY_ID | PEER, uwbOnly.id);
+        assertEquals("UWB " + PEER, uwbOnly.title);
+        assertEquals(PeerRow.NO_RSSI, uwbOnly.rssi);
+        assertTrue(uwbOnly.ranging);
+
+        advert(MAC_B, -70, PEER);
+        table.setName(MAC_B, "Tag");
+        advert(MAC_B, -71, PEER);
+        DashboardSnapshot second = dashboard.snapshot(now);
+        assertEquals(1, second.size());
+        assertEquals(1, dashboard.size());
+        PeerRow merged = second.get(0);
+        assertEquals(MAC_B, merged.id);
+        assertEquals("Tag", merged.title);
+        assertEquals(-71, merged.rssi);
+        assertTrue(merged.uwbInfo.startsWith("UWB " + PEER));
+        // The samples were taken over
+        assertTrue(merged.ranging);
+        assertEquals(1.5f, merged.distance, 0);
+        assertEquals(-20, merged.azimuth, 0);
+
+        dashboard.onSample(PEER, 1.2f, -20, 5, now);
+        assertEquals(1.2f, dashboard.snapshot(now).get(0).distance, 0);
+        assertEquals(1, dashboard.size());
+    }
+
+    @Test
+    public void removedDeviceStaysWhileItsPeerIsRanged() {
+        advert(MAC_A, -60, -1);
+        advert(MAC_B, -70, PEER);
+        dashboard.onSample(PEER, 2, 10, 0, now);
+        assertEquals(2, dashboard.snapshot(now).size());
+
+        // Both adverts expire, but the peer is still ranged
+        now += 6 * SECOND;
+        dashboard.onSample(PEER, 2.5f, 10, 0, now);
+        table.expire(now);
+        table.publishChanges(now, dashboard);
+        DashboardSnapshot snapshot = dashboard.snapshot(now);
+        assertEquals(1, snapshot.size());
+        PeerRow row = snapshot.get(0);
+        assertEquals(PeerDashboard.UWB_ONLY_ID | PEER, row.id);
+        assertEquals("UWB " + PEER, row.title);
+        assertEquals(PeerRow.NO_RSSI, row.rssi);
+        assertNull(row.uwbInfo);
+        assertEquals(2.5f, row.distance, 0);
+        assertTrue(row.ranging);
+    }
+
+    @Test
+    public void staleRangedOnlyRowsAreDropped() {
+        advert(MAC_B, -70, PEER);
+        dashboard.onSample(PEER, 2, 10, 0, now);
+        dashboard.onSample(PEER + 1, 4, 10, 0, now);
+        DashboardSnapshot first = dashboard.snapshot(now);
+        assertEquals(2, first.size());
+
+        assertSame(first, dashboard.snapshot(now + STALE_NANOS));
+        DashboardSnapshot stale = dashboard.snapshot(now + STALE_NANOS + 1);
+        // The discovered device stays with its last values, the peer only known from ranging goes
+        assertEquals(1, stale.size());
+        assertEquals(1, dashboard.size());
+        assertEquals(MAC_B, stale.get(0).id);
+        assertFalse(stale.get(0).ranging);
+        assertEquals(2, stale.get(0).distance, 0);
+
+        // Ranged again, it comes back as a new row
+        dashboard.onSample(PEER + 1, 4, 10, 0, now + 3 * SECOND);
+        DashboardSnapshot back = dashboard.snapshot(now + 3 * SECOND);
+        assertEquals(2, back.size());
+        assertEquals(PeerDashboard.UWB_ONLY_ID | (PEER + 1), back.get(0).id);
+        assertNotSame(row(first, PeerDashboard.UWB_ONLY_ID | (PEER + 1)), back.get(0));
+    }
+
+    @Test
+    public void fullDashboardCountsDroppedPeers() {
+        PeerDashboard small = new PeerDashboard(2, STALE_NANOS);
+        for (int peer = 1; peer <= 3; peer++) {
+            small.onSample(peer, 1, 0, 0, now);
+        }
+        assertEquals(2, small.snapshot(now).size());
+        assertEquals(1, small.dropped());
+    }
+
+    // An advert, with the UWB payload of peer unless that is -1, published at once
+    private void advert(long mac, int rssi, int peer) {
+        if (peer != -1) {
+            advertisement.uwbAddress = peer;
+            advertisement.channel = 9;
+            advertisement.preambleIndex = 10;
+        }
+        table.onAdvert(mac, rssi, now, peer != -1 ? advertisement : null);
+        table.publishChanges(now, dashboard);
+    }
+
+    private static PeerRow row(DashboardSnapshot snapshot, long id) {
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.get(i).id == id) {
+                return snapshot.get(i);
+            }
+        }
+        return null;
+    }
+
+    private static DashboardSnapshot.Updates recorder(List<String> updates) {
+        return new DashboardSnapshot.Updates() {
+            @Override
+            public void onInserted(int position, int count) {
+                updates.add("inserted " + position + " " + count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                updates.add("removed " + position + " " + count);
+            }
+
+            @Override
+            public void onChanged(int position, int count, int changes) {
+                updates.add("changed " + position + " " + count + " " + changes);
+            }
+        };
+    }
+}
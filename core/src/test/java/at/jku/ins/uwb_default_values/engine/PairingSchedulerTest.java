@@ -0,0 +1,132 @@
+package at.jku.ins.uwb_default_values.engine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.ble.UwbAdvertisement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PairingSchedulerTest {
+
+    private static final int CAPACITY = 2;
+
+    private final FakeConnector connector = new FakeConnector();
+    private final PairingScheduler scheduler = new PairingScheduler(connector, 16, 1);
+    private final UwbAdvertisement controlee = new UwbAdvertisement();
+    private final Set<Integer> advertising = new HashSet<>();
+    private long now = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void rotatesTheLongestServedControleeOut() {
+        start(0x201, 0x202);
+        advertise(0x203);
+        runFor(PairingScheduler.ROTATION_QUANTUM_NANOS);
+        assertEquals(1, scheduler.rotations());
+        assertTrue(connector.ranging.contains(0x203));
+        assertFalse(connector.ranging.contains(0x201));
+        assertEquals(CAPACITY, connector.ranging.size());
+    }
+
+    @Test
+    public void failedAdmissionKeepsTheRotatedPeer() {
+        start(0x201, 0x202);
+        connector.refused.add(0x203);
+        advertise(0x203);
+        runFor(PairingScheduler.ROTATION_QUANTUM_NANOS);
+        // 0x201 had to leave to make room, but came back when 0x203 could not join
+        assertEquals(0, scheduler.rotations());
+        assertTrue(connector.ranging.contains(0x201));
+        assertTrue(connector.ranging.contains(0x202));
+        assertEquals(CAPACITY, scheduler.activeCount());
+    }
+
+    @Test
+    public void rotatedPeersWaitForTheNextTick() {
+        start(0x201, 0x202);
+        advertise(0x203);
+        runFor(PairingScheduler.ROTATION_QUANTUM_NANOS);
+        // 0x202 is due too, but 0x201 was only just rotated out and must not replace it in the same tick
+        assertEquals(1, connector.disconnects.size());
+
+        runFor(PairingScheduler.ROTATION_QUANTUM_NANOS + PairingScheduler.TICK_INTERVAL_NANOS);
+        // Each rotation serves one waiting peer; nobody is pushed out for a peer that just left
+        assertEquals(connector.disconnects.size(), scheduler.rotations());
+        assertEquals(CAPACITY, connector.ranging.size());
+        assertTrue(connector.maxRanging <= CAPACITY);
+    }
+
+    // Connects the peers and lets them deliver results
+    private void start(int... peers) {
+        scheduler.setController(true, now);
+        scheduler.setMaxActive(CAPACITY);
+        for (int peer : peers) {
+            advertise(peer);
+        }
+        scheduler.tick(now);
+        assertEquals(peers.length, connector.ranging.size());
+    }
+
+    private void advertise(int peer) {
+        advertising.add(peer);
+        controlee.uwbAddress = peer;
+        scheduler.onAdvert(peer, controlee, now);
+    }
+
+    // Ticks on schedule with every peer advertising and delivering results
+    private void runFor(long duration) {
+        long end = now + duration;
+        while (now < end) {
+            now += PairingScheduler.TICK_INTERVAL_NANOS;
+            for (int peer : advertising) {
+                controlee.uwbAddress = peer;
+                scheduler.onAdvert(peer, controlee, now);
+            }
+            scheduler.tick(now);
+        }
+    }
+
+    private final class FakeConnector implements PairingScheduler.Connector {
+        final Set<Integer> ranging = new HashSet<>();
+        final Set<Integer> refused = new HashSet<>();
+        final List<Integer> disconnects = new ArrayList<>();
+        int maxRanging;
+
+        @Override
+        public boolean connect(int peer, UwbAdvertisement advertisement) {
+            if (refused.contains(peer) || ranging.size() >= CAPACITY) {
+                return false;
+            }
+            ranging.add(peer);
+            maxRanging = Math.max(maxRanging, ranging.size());
+            return true;
+        }
+
+        @Override
+        public void disconnect(int peer) {
+            disconnects.add(peer);
+            ranging.remove(peer);
+        }
+
+        @Override
+        public boolean isRanging(int peer) {
+            return ranging.contains(peer);
+        }
+
+        @Override
+        public long lastResultNanos(int peer) {
+            return ranging.contains(peer) ? now : 0;
+        }
+
+        @Override
+        public void switchRole(boolean controller) {
+        }
+    }
+}
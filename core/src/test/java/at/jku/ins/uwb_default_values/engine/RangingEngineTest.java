@@ -0,0 +1,197 @@
+package at.jku.ins.uwb_default_values.engine;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.ble.BleScanner;
+import at.jku.ins.uwb_default_values.ble.UwbAdvertisement;
+import at.jku.ins.uwb_default_values.ble.UwbAdvertisementCodec;
+import at.jku.ins.uwb_default_values.ranging.FakeEndpoint;
+import at.jku.ins.uwb_default_values.ranging.FakeRangingSession;
+import at.jku.ins.uwb_default_values.ranging.orientation.PeerVector;
+import at.jku.ins.uwb_default_values.ranging.quality.LinkQuality;
+import at.jku.ins.uwb_default_values.replay.RangingRecorder;
+import at.jku.ins.uwb_default_values.replay.RangingReplay;
+import at.jku.ins.uwb_default_values.telemetry.TelemetrySnapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RangingEngineTest {
+
+    private static final int CONTROLLER = 0x100;
+    private static final long STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    // Rotation vector component of a phone held upright facing north
+    private static final float UPRIGHT = (float) Math.sqrt(0.5);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private long now = TimeUnit.SECONDS.toNanos(1);
+    private final RangingEngine engine = new RangingEngine(new NoOpScanner(), () -> now, null, new NoOpListener());
+
+    @Before
+    public void setUp() {
+        engine.setController(true);
+    }
+
+    @Test
+    public void rotatedPeersReleaseTheirPipelineState() {
+        FakeEndpoint endpoint = new FakeEndpoint(true, CONTROLLER, 2);
+        engine.setEndpoint(endpoint);
+        int[] controlees = {0x201, 0x202, 0x203};
+        long nextTick = now;
+        while (engine.pairing().rotations() == 0) {
+            if (now % TimeUnit.SECONDS.toNanos(1) == 0) {
+                for (int i = 0; i < controlees.length; i++) {
+                    engine.onScanResult(i + 1, null, -60, now, advert(controlees[i], false));
+                }
+            }
+            engine.onRotationVector(UPRIGHT, 0, 0, UPRIGHT, now);
+            FakeRangingSession session = endpoint.session();
+            if (session != null) {
+                for (int peer : session.peers) {
+                    session.callback.onPosition(peer, 2, 10, 0, now);
+                }
+            }
+            if (now >= nextTick) {
+                nextTick = now + engine.tickPairing();
+            }
+            now += STEP_NANOS;
+            assertTrue("no rotation", now < TimeUnit.SECONDS.toNanos(20));
+        }
+
+        // The third controlee took the place of an earlier one, which must not keep its filter slot
+        FakeRangingSession session = endpoint.session();
+        assertEquals(1, endpoint.sessions.size());
+        assertEquals(2, session.peers.length);
+        for (int peer : session.peers) {
+            session.callback.onPosition(peer, 2, 10, 0, now);
+        }
+        assertEquals(2, engine.filter().peerCount());
+        assertEquals(2, engine.telemetry().snapshot().peers.length);
+        PeerVector vector = new PeerVector();
+        LinkQuality quality = new LinkQuality();
+        int oriented = 0;
+        int rated = 0;
+        for (int peer : controlees) {
+            if (engine.orientation().readPeer(peer, vector)) {
+                oriented++;
+            }
+            if (engine.quality().readPeer(peer, quality)) {
+                rated++;
+            }
+        }
+        assertEquals(2, oriented);
+        assertEquals(2, rated);
+    }
+
+    @Test
+    public void stoppingReleasesPipelineState() {
+        FakeEndpoint endpoint = new FakeEndpoint(true, CONTROLLER, 8);
+        engine.setEndpoint(endpoint);
+        engine.startRanging(0x201, 9, 10);
+        engine.onRotationVector(UPRIGHT, 0, 0, UPRIGHT, now);
+        endpoint.session().callback.onPosition(0x201, 2, 10, 0, now);
+        assertEquals(1, engine.filter().peerCount());
+        PeerVector vector = new PeerVector();
+        assertTrue(engine.orientation().readPeer(0x201, vector));
+        LinkQuality quality = new LinkQuality();
+        assertTrue(engine.quality().readPeer(0x201, quality));
+
+        engine.stopRanging();
+        assertFalse(engine.manager().isRanging());
+        assertEquals(0, engine.filter().peerCount());
+        assertEquals(0, engine.telemetry().snapshot().peers.length);
+        assertFalse(engine.orientation().readPeer(0x201, vector));
+        assertFalse(engine.quality().readPeer(0x201, quality));
+    }
+
+    @Test
+    public void replayedRecordingRunsThroughThePipeline() throws IOException {
+        File file = folder.newFile();
+        try (RangingRecorder recorder = new RangingRecorder(file)) {
+            recorder.recordAdvert(1, -60, now, advert(0x201, false));
+            recorder.recordAdvert(2, -65, now, advert(0x202, false));
+            recorder.recordAdvert(3, -70, now, new byte[]{1, 2, 3});
+            // World bearings equal the device azimuths
+            for (int i = 0; i < 100; i++) {
+                now += STEP_NANOS;
+                recorder.recordRotationVector(UPRIGHT, 0, 0, UPRIGHT, now - STEP_NANOS / 2);
+                recorder.onSample(0x201, 2 + i * 0.001f, 10, 0, now);
+                recorder.onSample(0x202, 3 - i * 0.001f, -20, 0, now);
+            }
+            recorder.recordPeerLost(0x202, now);
+        }
+
+        long records = new RangingReplay(file).replay(engine.replayInput(), 0);
+        assertEquals(304, records);
+        assertEquals(3, engine.discoveryTable().size());
+        assertEquals(2, engine.countUnrangedPeers());
+        assertEquals(200, engine.samples().sequence());
+        TelemetrySnapshot telemetry = engine.telemetry().snapshot();
+        assertEquals(1, telemetry.totalLosses);
+        assertEquals(200, telemetry.deliveryLatency.count);
+        // The lost peer gave up its filter, orientation and quality slots
+        assertEquals(1, engine.filter().peerCount());
+        PeerVector vector = new PeerVector();
+        assertTrue(engine.orientation().readPeer(0x201, vector));
+        assertEquals(10, vector.bearing, 0.01);
+        assertFalse(engine.orientation().readPeer(0x202, vector));
+        assertFalse(engine.quality().readPeer(0x202, new LinkQuality()));
+    }
+
+    static byte[] advert(int address, boolean controller) {
+        UwbAdvertisement advertisement = new UwbAdvertisement();
+        advertisement.uwbAddress = address;
+        advertisement.flags = UwbAdvertisement.FLAG_AZIMUTH | (controller ? UwbAdvertisement.FLAG_CONTROLLER : 0);
+        return UwbAdvertisementCodec.encode(advertisement);
+    }
+
+    static final class NoOpScanner implements BleScanner {
+        @Override
+        public void start(boolean lowLatency, long reportDelayMillis) {
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+
+    static class NoOpListener implements RangingEngine.Listener {
+        @Override
+        public void onPeerConnecting(int peer) {
+        }
+
+        @Override
+        public void onSessionReassigned(int sessionId) {
+        }
+
+        @Override
+        public void onRoleElected(boolean controller) {
+        }
+
+        @Override
+        public void onUpdateRateChanged(int updateRate) {
+        }
+
+        @Override
+        public void onRangingStarted() {
+        }
+
+        @Override
+        public void onPeerLost(int peer) {
+        }
+
+        @Override
+        public void onRangingStopped(Throwable error) {
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package at.jku.ins.uwb_default_values.geofence;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GeofenceConfigTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    // Without debounce, every update is reported at once
+    private final GeofenceEngine engine = new GeofenceEngine(8, 8, 2, 0);
+
+    @Test
+    public void rulesAreAddedInLineOrder() throws IOException {
+        String config = "# Desk and door\n"
+                + "\n"
+                + "near 513 1.5\n"
+                + "  circle 0 0 2 30\n"
+                + "rect\t4 4  1 1 2.5\n";
+        assertEquals(3, GeofenceConfig.load(new StringReader(config), engine));
+        assertEquals(3, engine.ruleCount());
+        assertEquals(2, engine.zoneCount());
+
+        List<String> events = new ArrayList<>();
+        engine.setListener((rule, subject, event, timestampNanos) -> events.add(rule + " " + subject + " " + event
+                + " " + timestampNanos / (SECOND / 10)));
+        engine.onSample(513, 1, 0, 0, SECOND);
+        // Inside the rectangle, whose corners were given the wrong way round, but not the circle
+        engine.onPosition(GeofenceEngine.SELF, 3, 3, 2 * SECOND);
+        engine.onPosition(GeofenceEngine.SELF, 3, 3, 2 * SECOND + SECOND * 5 / 2);
+        assertEquals(Arrays.asList("0 513 " + GeofenceEngine.ENTER + " 10",
+                "2 " + GeofenceEngine.SELF + " " + GeofenceEngine.ENTER + " 20",
+                "2 " + GeofenceEngine.SELF + " " + GeofenceEngine.DWELL + " 45"), events);
+    }
+
+    @Test
+    public void malformedLinesNameTheLine() {
+        expectError("near 513 1.5\nnear 513\n", "Line 2: expected near");
+        expectError("square 1 1 2\n", "Line 1: unknown rule square");
+        expectError("# rules\ncircle 0 0 2 30 40\n", "Line 2: expected circle");
+        expectError("rect 0 0 two 2\n", "Line 1: ");
+    }
+
+    @Test
+    public void rulesBeyondTheCapacityAreNotCounted() throws IOException {
+        StringBuilder config = new StringBuilder();
+        for (int peer = 1; peer <= 10; peer++) {
+            config.append("near ").append(peer).append(" 1\n");
+        }
+        assertEquals(8, GeofenceConfig.load(new StringReader(config.toString()), engine));
+    }
+
+    private void expectError(String config, String message) {
+        try {
+            GeofenceConfig.load(new StringReader(config), new GeofenceEngine(8, 8, 2, 0));
+            fail("Loaded " + config);
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package at.jku.ins.uwb_default_values.geofence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GeofenceEngineTest {
+
+    private static final int PEER = 0x201;
+    private static final long STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final GeofenceEngine engine = new GeofenceEngine(8, 8, 2, SECOND);
+    // Events as "<rule> <event> <milliseconds>"
+    private final List<String> events = new ArrayList<>();
+    private long now;
+
+    public GeofenceEngineTest() {
+        engine.setListener((rule, subject, event, timestampNanos) -> events.add(rule + " "
+                + (event == GeofenceEngine.ENTER ? "ENTER" : event == GeofenceEngine.EXIT ? "EXIT" : "DWELL") + " "
+                + TimeUnit.NANOSECONDS.toMillis(timestampNanos)));
+    }
+
+    @Test
+    public void proximityRuleEntersDwellsOncePerStayAndExits() {
+        int rule = engine.addProximityRule(PEER, 1.5f, 5 * SECOND);
+        range(3, 10);
+        assertTrue(events.isEmpty());
+        // Inside from 1.1 s, confirmed a debounce time later, dwelling 5 s after that
+        range(1, 70);
+        assertTrue(engine.isInside(rule));
+        range(3, 20);
+        assertFalse(engine.isInside(rule));
+        range(1, 80);
+        assertEquals(Arrays.asList("0 ENTER 2100", "0 DWELL 7100", "0 EXIT 9100", "0 ENTER 11100", "0 DWELL 16100"), events);
+    }
+
+    @Test
+    public void changesShorterThanTheDebounceAreNotReported() {
+        engine.addProximityRule(PEER, 1.5f, 0);
+        range(3, 10);
+        range(1, 5);
+        range(3, 10);
+        assertTrue(events.isEmpty());
+        range(1, 20);
+        // Out for 0.8 s
+        range(3, 9);
+        range(1, 20);
+        assertEquals(Arrays.asList("0 ENTER 3600"), events);
+    }
+
+    @Test
+    public void proximityRuleLeavesOnlyBeyondTheHysteresisBand() {
+        engine.addProximityRule(PEER, 1.5f, 0);
+        range(1, 20);
+        // Beyond the radius, but within the band
+        range(1.65, 30);
+        assertEquals(Arrays.asList("0 ENTER 1100"), events);
+        range(1.75, 20);
+        // Within the band, but not the radius: no way back in
+        range(1.6, 30);
+        range(1.4, 20);
+        assertEquals(Arrays.asList("0 ENTER 1100", "0 EXIT 6100", "0 ENTER 11100"), events);
+    }
+
+    @Test
+    public void zonesAreLeftAfterJumpingOutOfTheirCells() {
+        engine.addZoneRule(GeofenceEngine.SELF, engine.addRectangleZone(0, 0, 2, 2), 0);
+        engine.addZoneRule(GeofenceEngine.SELF, engine.addCircleZone(1, 1, 1), 0);
+        engine.addZoneRule(7, 0, 0);
+        position(1, 1, 20);
+        // Far away from every cell the zones are registered in
+        position(100, 100, 20);
+        position(1, 1, 20);
+        position(100, 100, 20);
+        assertEquals(Arrays.asList("0 ENTER 1100", "0 EXIT 3100", "0 ENTER 5100", "0 EXIT 7100"), eventsOf(0));
+        assertEquals(Arrays.asList("1 ENTER 1100", "1 EXIT 3100", "1 ENTER 5100", "1 EXIT 7100"), eventsOf(1));
+
+        // A pending enter is dropped from afar as well: coming back needs the full debounce again
+        position(1, 1, 5);
+        position(100, 100, 20);
+        position(1, 1, 9);
+        assertEquals(8, events.size());
+        assertTrue(eventsOf(2).isEmpty());
+    }
+
+    @Test
+    public void zoneRuleDwellsWithinTheHysteresisBand() {
+        int rule = engine.addZoneRule(GeofenceEngine.SELF, engine.addCircleZone(0, 0, 2), 3 * SECOND);
+        position(1, 0, 20);
+        position(2.1, 0, 40);
+        assertTrue(engine.isInside(rule));
+        position(2.3, 0, 20);
+        position(2.1, 0, 20);
+        assertEquals(Arrays.asList("0 ENTER 1100", "0 DWELL 4100", "0 EXIT 7100"), events);
+    }
+
+    @Test
+    public void lostPeerExitsAtOnce() {
+        engine.addProximityRule(PEER, 1.5f, 0);
+        range(1, 20);
+        now += 5 * STEP_NANOS;
+        engine.onPeerLost(PEER, now);
+        assertEquals(Arrays.asList("0 ENTER 1100", "0 EXIT 2500"), events);
+
+        // A pending enter is dropped without an event
+        range(1, 5);
+        engine.onPeerLost(PEER, now);
+        range(1, 11);
+        assertEquals(Arrays.asList("0 ENTER 1100", "0 EXIT 2500", "0 ENTER 4100"), events);
+    }
+
+    @Test
+    public void onlyTheUpdatedSubjectIsChecked() {
+        engine.addProximityRule(PEER, 1.5f, 0);
+        engine.addProximityRule(PEER + 1, 1.5f, 0);
+        range(1, 20);
+        assertEquals(Arrays.asList("0 ENTER 1100"), events);
+        assertFalse(engine.isInside(1));
+    }
+
+    // Samples of PEER at the given distance, 100 ms apart
+    private void range(double distance, int count) {
+        for (int i = 0; i < count; i++) {
+            now += STEP_NANOS;
+            engine.onSample(PEER, (float) distance, 0, 0, now);
+        }
+    }
+
+    // Own position fixes, 100 ms apart
+    private void position(double x, double y, int count) {
+        for (int i = 0; i < count; i++) {
+            now += STEP_NANOS;
+            engine.onPosition(GeofenceEngine.SELF, x, y, now);
+        }
+    }
+
+    private List<String> eventsOf(int rule) {
+        List<String> of = new ArrayList<>();
+        for (String event : events) {
+            if (event.startsWith(rule + " ")) {
+                of.add(event);
+            }
+        }
+        return of;
+    }
+}
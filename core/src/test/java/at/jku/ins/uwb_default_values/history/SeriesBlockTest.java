@@ -0,0 +1,151 @@
+package at.jku.ins.uwb_default_values.history;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SeriesBlockTest {
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void roundTripsIrregularSamples() {
+        SeriesBlock block = new SeriesBlock(TimeSeriesStore.BLOCK_BYTES / 8);
+        block.clear();
+        List<float[]> values = new ArrayList<>();
+        List<Long> timestamps = new ArrayList<>();
+        long time = 1_000_000_123L;
+        while (block.hasRoom()) {
+            time += nextInterval();
+            float[] sample = {nextValue(), nextValue(), nextValue()};
+            block.append(time, sample[0], sample[1], sample[2]);
+            values.add(sample);
+            timestamps.add(time);
+        }
+        assertEquals(values.size(), block.count);
+        assertTrue(block.count > 20);
+
+        SeriesBlock.Cursor cursor = new SeriesBlock.Cursor();
+        cursor.reset(block);
+        for (int i = 0; i < values.size(); i++) {
+            assertTrue(cursor.next());
+            long expected = timestamps.get(i);
+            // The first and last timestamp are kept exactly, the others at microsecond resolution
+            if (i > 0 && i < values.size() - 1) {
+                expected = expected / 1000 * 1000;
+            }
+            assertEquals("timestamp " + i, expected, cursor.timestampNanos);
+            for (int column = 0; column < SeriesBlock.COLUMNS; column++) {
+                assertEquals("sample " + i + " column " + column,
+                        Float.floatToIntBits(Float.intBitsToFloat(SeriesBlock.quantize(values.get(i)[column]))),
+                        Float.floatToIntBits(cursor.values[column]));
+            }
+        }
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void headerSummarizesTheStoredValues() {
+        SeriesBlock block = new SeriesBlock(TimeSeriesStore.BLOCK_BYTES / 8);
+        block.clear();
+        int[] count = new int[SeriesBlock.COLUMNS];
+        float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+        float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        double[] sum = new double[SeriesBlock.COLUMNS];
+        long time = 0;
+        for (int i = 0; i < 50; i++) {
+            time += 100_000_000L;
+            float[] sample = {nextValue(), nextValue(), nextValue()};
+            block.append(time, sample[0], sample[1], sample[2]);
+            for (int column = 0; column < SeriesBlock.COLUMNS; column++) {
+                float stored = Float.intBitsToFloat(SeriesBlock.quantize(sample[column]));
+                if (!Float.isNaN(stored)) {
+                    count[column]++;
+                    min[column] = Math.min(min[column], stored);
+                    max[column] = Math.max(max[column], stored);
+                    sum[column] += stored;
+                }
+            }
+        }
+        for (int column = 0; column < SeriesBlock.COLUMNS; column++) {
+            assertEquals(count[column], block.columnCount[column]);
+            assertEquals(min[column], block.min[column], 0);
+            assertEquals(max[column], block.max[column], 0);
+            assertEquals(sum[column], block.sum[column], 0);
+        }
+        assertEquals(100_000_000L, block.firstTimestampNanos);
+        assertEquals(time, block.lastTimestampNanos);
+    }
+
+    @Test
+    public void recycledBlockEncodesLikeANewOne() {
+        SeriesBlock block = new SeriesBlock(TimeSeriesStore.BLOCK_BYTES / 8);
+        block.clear();
+        for (long time = 1; block.hasRoom(); time += 1_000_000) {
+            block.append(time, nextValue(), nextValue(), nextValue());
+        }
+        block.recycle();
+        assertEquals(0, block.count);
+
+        block.append(5_000, 1.5f, -20, Float.NaN);
+        block.append(9_000, 1.5f, 20, 3);
+        SeriesBlock.Cursor cursor = new SeriesBlock.Cursor();
+        cursor.reset(block);
+        assertTrue(cursor.next());
+        assertEquals(5_000, cursor.timestampNanos);
+        assertEquals(-20, cursor.values[1], 0);
+        assertTrue(Float.isNaN(cursor.values[2]));
+        assertTrue(cursor.next());
+        assertEquals(9_000, cursor.timestampNanos);
+        assertEquals(20, cursor.values[1], 0);
+        assertEquals(3, cursor.values[2], 0);
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void quantizationKeepsAboutFourDigits() {
+        for (int i = 0; i < 10_000; i++) {
+            float value = (random.nextFloat() - 0.5f) * 200;
+            float stored = Float.intBitsToFloat(SeriesBlock.quantize(value));
+            assertEquals(value, stored, Math.abs(value) * 1e-4);
+        }
+        assertEquals(Float.POSITIVE_INFINITY, Float.intBitsToFloat(SeriesBlock.quantize(Float.POSITIVE_INFINITY)), 0);
+        assertTrue(Float.isNaN(Float.intBitsToFloat(SeriesBlock.quantize(Float.NaN))));
+    }
+
+    // Regular ranging with jitter, repeats, pauses and rare jumps beyond every short delta encoding
+    private long nextInterval() {
+        switch (random.nextInt(10)) {
+            case 0:
+                return 0;
+            case 1:
+                return random.nextInt(5_000_000) * 1000L + random.nextInt(1000);
+            case 2:
+                return 3_600_000_000_000L + random.nextInt(1000);
+            default:
+                return 100_000_000L + random.nextInt(2_000_000) - 1_000_000;
+        }
+    }
+
+    // Noisy distances and angles around 0 that change sign, repeated values, NaN and infinities
+    private float nextValue() {
+        switch (random.nextInt(12)) {
+            case 0:
+                return Float.NaN;
+            case 1:
+                return 0;
+            case 2:
+                return random.nextBoolean() ? Float.POSITIVE_INFINITY : -0f;
+            case 3:
+                return 2.5f;
+            default:
+                return (float) (random.nextGaussian() * 30);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package at.jku.ins.uwb_default_values.history;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimeSeriesStoreTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long BUDGET = 4 * TimeSeriesStore.rollupBytesPerPeer() + 64 * 1024;
+
+    private final Random random = new Random(42);
+    private final TimeSeriesStore store = new TimeSeriesStore(4, BUDGET);
+    // What was appended to peer 1, with the values as stored
+    private final List<Long> timestamps = new ArrayList<>();
+    private final List<float[]> values = new ArrayList<>();
+
+    @Test
+    public void rangeQueriesAcrossBlocksMatchTheAppendedSamples() {
+        // Microsecond timestamps decode exactly, so the reference needs no rounding
+        appendIrregular(1, 5000);
+        assertEquals(5000, store.size());
+
+        long first = timestamps.get(0);
+        long last = timestamps.get(timestamps.size() - 1);
+        for (int i = 0; i < 50; i++) {
+            long from = first + (long) (random.nextDouble() * (last - first));
+            long to = from + (long) (random.nextDouble() * (last - from));
+            List<float[]> expected = new ArrayList<>();
+            for (int s = 0; s < timestamps.size(); s++) {
+                long timestamp = timestamps.get(s);
+                if (timestamp >= from && timestamp <= to) {
+                    expected.add(new float[]{timestamp, values.get(s)[0], values.get(s)[1], values.get(s)[2]});
+                }
+            }
+            List<float[]> actual = new ArrayList<>();
+            List<Long> actualTimes = new ArrayList<>();
+            int count = store.query(1, from, to, (peer, distance, azimuth, elevation, timestampNanos) -> {
+                actual.add(new float[]{0, distance, azimuth, elevation});
+                actualTimes.add(timestampNanos);
+            });
+            assertEquals(expected.size(), count);
+            int offset = indexAtOrAfter(from);
+            for (int s = 0; s < count; s++) {
+                assertEquals((long) timestamps.get(offset + s), (long) actualTimes.get(s));
+                for (int column = 1; column <= 3; column++) {
+                    assertEquals(Float.floatToIntBits(expected.get(s)[column]), Float.floatToIntBits(actual.get(s)[column]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void aggregatesMatchABruteForceReference() {
+        appendIrregular(1, 5000);
+        long first = timestamps.get(0);
+        long last = timestamps.get(timestamps.size() - 1);
+        TimeSeriesStore.Aggregate aggregate = new TimeSeriesStore.Aggregate();
+        for (int i = 0; i < 50; i++) {
+            long from = first + (long) (random.nextDouble() * (last - first));
+            long to = i == 0 ? last : from + (long) (random.nextDouble() * (last - from));
+            for (int column = 0; column < 3; column++) {
+                int count = 0;
+                float min = Float.POSITIVE_INFINITY;
+                float max = Float.NEGATIVE_INFINITY;
+                double sum = 0;
+                for (int s = 0; s < timestamps.size(); s++) {
+                    long timestamp = timestamps.get(s);
+                    float value = values.get(s)[column];
+                    if (timestamp >= from && timestamp <= to && !Float.isNaN(value)) {
+                        count++;
+                        min = Math.min(min, value);
+                        max = Math.max(max, value);
+                        sum += value;
+                    }
+                }
+                assertEquals(count > 0, store.aggregate(1, column, from, to, aggregate));
+                assertEquals(count, aggregate.count);
+                if (count > 0) {
+                    assertEquals(min, aggregate.min, 0);
+                    assertEquals(max, aggregate.max, 0);
+                    assertEquals(sum / count, aggregate.mean, 1e-6);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void oldestBlocksAreReusedWithinTheBudget() {
+        for (int peer = 1; peer <= 2; peer++) {
+            long time = SECOND;
+            for (int i = 0; i < 50_000; i++) {
+                time += 100_000_000L;
+                store.onSample(peer, 3 + (float) random.nextGaussian(), (float) random.nextGaussian() * 30, Float.NaN, time);
+            }
+        }
+        assertEquals(100_000, store.appended());
+        assertTrue("used " + store.memoryUsed() + " of " + BUDGET, store.memoryUsed() <= BUDGET);
+        assertTrue(store.size() < 100_000);
+
+        // Both peers lost their oldest samples and kept their newest
+        long newest = SECOND + 50_000 * 100_000_000L;
+        for (int peer = 1; peer <= 2; peer++) {
+            assertTrue(store.oldestTimestamp(peer) > SECOND + 100_000_000L);
+            assertEquals(newest, store.newestTimestamp(peer));
+            long oldest = store.oldestTimestamp(peer);
+            int count = store.query(peer, oldest, newest, (p, distance, azimuth, elevation, timestampNanos) -> { });
+            assertEquals((newest - oldest) / 100_000_000L + 1, count);
+        }
+
+        // Further appends reuse blocks instead of growing
+        long used = store.memoryUsed();
+        for (int i = 1; i <= 10_000; i++) {
+            store.onSample(1, 3, 0, 0, newest + i * 100_000_000L);
+        }
+        assertEquals(used, store.memoryUsed());
+    }
+
+    @Test
+    public void rollupsMatchABruteForceReference() {
+        // 1 kHz for three minutes: a float sum would lose whole centimeters of the mean within a minute
+        long start = TimeUnit.HOURS.toNanos(1);
+        long end = start + TimeUnit.MINUTES.toNanos(3);
+        int[] rollups = {TimeSeriesStore.ROLLUP_10_SECONDS, TimeSeriesStore.ROLLUP_MINUTE};
+        for (int rollup : rollups) {
+            long resolution = TimeSeriesStore.rollupResolutionNanos(rollup);
+            int buckets = (int) ((end - start) / resolution);
+            int[] counts = new int[buckets];
+            float[] min = new float[buckets];
+            float[] max = new float[buckets];
+            double[] sum = new double[buckets];
+            Arrays.fill(min, Float.POSITIVE_INFINITY);
+            Arrays.fill(max, Float.NEGATIVE_INFINITY);
+
+            TimeSeriesStore store = new TimeSeriesStore(1, BUDGET);
+            Random random = new Random(7);
+            for (long time = start; time < end; time += 1_000_000L) {
+                float distance = 50 + (float) random.nextGaussian() * 0.1f;
+                store.onSample(1, distance, Float.NaN, 0, time);
+                int bucket = (int) ((time - start) / resolution);
+                counts[bucket]++;
+                min[bucket] = Math.min(min[bucket], distance);
+                max[bucket] = Math.max(max[bucket], distance);
+                sum[bucket] += distance;
+            }
+
+            List<double[]> visited = new ArrayList<>();
+            int count = store.rollups(1, rollup, TimeSeriesStore.DISTANCE, start, end,
+                    (startNanos, n, lowest, highest, mean) -> visited.add(new double[]{startNanos, n, lowest, highest, mean}));
+            assertEquals(buckets, count);
+            for (int bucket = 0; bucket < buckets; bucket++) {
+                double[] row = visited.get(bucket);
+                assertEquals(start + bucket * resolution, (long) row[0]);
+                assertEquals(counts[bucket], (int) row[1]);
+                assertEquals(min[bucket], (float) row[2], 0);
+                assertEquals(max[bucket], (float) row[3], 0);
+                assertEquals("mean of bucket " + bucket, sum[bucket] / counts[bucket], row[4], 1e-4);
+            }
+            // Missing values count nowhere
+            assertEquals(0, store.rollups(1, rollup, TimeSeriesStore.AZIMUTH, start, end, (s, n, lo, hi, mean) -> { }));
+        }
+    }
+
+    @Test
+    public void outOfOrderSamplesAreDropped() {
+        store.onSample(1, 1, 0, 0, 2 * SECOND);
+        store.onSample(1, 2, 0, 0, SECOND);
+        assertEquals(1, store.size());
+        assertEquals(1, store.dropped());
+    }
+
+    // Appends samples at 1 to 200 ms intervals, whole microseconds, with occasional NaN angles
+    private void appendIrregular(int peer, int count) {
+        long time = SECOND;
+        for (int i = 0; i < count; i++) {
+            time += (1 + random.nextInt(200_000)) * 1000L;
+            float distance = 3 + (float) random.nextGaussian();
+            float azimuth = random.nextInt(10) == 0 ? Float.NaN : (float) random.nextGaussian() * 40;
+            float elevation = random.nextInt(10) == 0 ? Float.NaN : (float) random.nextGaussian() * 20;
+            store.onSample(peer, distance, azimuth, elevation, time);
+            timestamps.add(time);
+            values.add(new float[]{stored(distance), stored(azimuth), stored(elevation)});
+        }
+    }
+
+    private int indexAtOrAfter(long timestamp) {
+        for (int s = 0; s < timestamps.size(); s++) {
+            if (timestamps.get(s) >= timestamp) {
+                return s;
+            }
+        }
+        return timestamps.size();
+    }
+
+    private static float stored(float value) {
+        return Float.intBitsToFloat(SeriesBlock.quantize(value));
+    }
+}
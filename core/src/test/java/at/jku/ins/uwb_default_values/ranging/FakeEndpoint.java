@@ -0,0 +1,73 @@
+package at.jku.ins.uwb_default_values.ranging;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-memory {@link UwbEndpoint} whose sessions are {@link FakeRangingSession}s, kept in opening order.
+ */
+public final class FakeEndpoint implements UwbEndpoint {
+
+    public final List<FakeRangingSession> sessions = new ArrayList<>();
+    private final boolean controller;
+    private final int address;
+    private final int maxPeers;
+
+    public FakeEndpoint(boolean controller, int address, int maxPeers) {
+        this.controller = controller;
+        this.address = address;
+        this.maxPeers = maxPeers;
+    }
+
+    /** @return the session opened last, or null */
+    public FakeRangingSession session() {
+        return sessions.isEmpty() ? null : sessions.get(sessions.size() - 1);
+    }
+
+    @Override
+    public boolean isController() {
+        return controller;
+    }
+
+    @Override
+    public int localAddress() {
+        return address;
+    }
+
+    @Override
+    public int channel() {
+        return controller ? 9 : 0;
+    }
+
+    @Override
+    public int preambleIndex() {
+        return controller ? 10 : 0;
+    }
+
+    @Override
+    public boolean supportsDistance() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsAzimuth() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsElevation() {
+        return true;
+    }
+
+    @Override
+    public int maxPeers() {
+        return maxPeers;
+    }
+
+    @Override
+    public RangingSession openSession(int channel, int preambleIndex, int sessionId, byte[] sessionKey, int updateRate) {
+        FakeRangingSession session = new FakeRangingSession(controller, channel, preambleIndex, sessionId, sessionKey, updateRate);
+        sessions.add(session);
+        return session;
+    }
+}
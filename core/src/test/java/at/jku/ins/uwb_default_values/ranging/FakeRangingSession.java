@@ -0,0 +1,76 @@
+package at.jku.ins.uwb_default_values.ranging;
+
+import java.util.Arrays;
+
+/**
+ * In-memory stand-in for the session of a {@code UwbClientSessionScope}: it keeps the peer list and
+ * hands its callback out, so tests push ranging results in directly.
+ */
+public final class FakeRangingSession implements RangingSession {
+
+    public final int channel;
+    public final int preambleIndex;
+    public final int sessionId;
+    public final byte[] sessionKey;
+    public final int updateRate;
+    private final boolean peerUpdates;
+    public Callback callback;
+    public int[] peers = new int[0];
+    public boolean closed;
+
+    public FakeRangingSession(boolean peerUpdates) {
+        this(peerUpdates, 0, 0, 0, null, UPDATE_RATE_AUTOMATIC);
+    }
+
+    public FakeRangingSession(boolean peerUpdates, int channel, int preambleIndex, int sessionId, byte[] sessionKey,
+                              int updateRate) {
+        this.peerUpdates = peerUpdates;
+        this.channel = channel;
+        this.preambleIndex = preambleIndex;
+        this.sessionId = sessionId;
+        this.sessionKey = sessionKey != null ? sessionKey.clone() : null;
+        this.updateRate = updateRate;
+    }
+
+    public boolean contains(int peer) {
+        for (int p : peers) {
+            if (p == peer) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void start(int[] peers, int count, Callback callback) {
+        this.peers = Arrays.copyOf(peers, count);
+        this.callback = callback;
+    }
+
+    @Override
+    public boolean supportsPeerUpdates() {
+        return peerUpdates;
+    }
+
+    @Override
+    public void addPeer(int peer) {
+        peers = Arrays.copyOf(peers, peers.length + 1);
+        peers[peers.length - 1] = peer;
+    }
+
+    @Override
+    public void removePeer(int peer) {
+        int n = 0;
+        for (int p : peers) {
+            if (p != peer) {
+                peers[n++] = p;
+            }
+        }
+        peers = Arrays.copyOf(peers, n);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
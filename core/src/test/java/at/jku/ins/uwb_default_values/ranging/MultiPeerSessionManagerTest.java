@@ -0,0 +1,238 @@
+package at.jku.ins.uwb_default_values.ranging;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MultiPeerSessionManagerTest {
+
+    private static final int PEERS = 128;
+    private static final int ROUNDS = 10_000;
+    // Loose bounds, so that the timing assertions only catch gross regressions on a busy CI machine
+    private static final long MAX_UPDATE_NANOS = 1_000_000;
+    private static final double MIN_SAMPLES_PER_SECOND = 200_000;
+
+    private final List<FakeRangingSession> opened = new ArrayList<>();
+    private final RecordingListener listener = new RecordingListener();
+    private boolean peerUpdates = true;
+    private boolean failOpen;
+    private long samples;
+
+    private final MultiPeerSessionManager manager = new MultiPeerSessionManager(() -> {
+        if (failOpen) {
+            throw new IllegalStateException("UWB stack not ready");
+        }
+        FakeRangingSession session = new FakeRangingSession(peerUpdates);
+        opened.add(session);
+        return session;
+    }, PEERS, (peer, distance, azimuth, elevation, timestampNanos) -> samples++, listener);
+
+    @Test
+    public void addsAndRemovesPeersWithoutRestarting() {
+        long start = System.nanoTime();
+        for (int peer = 1; peer <= PEERS; peer++) {
+            assertTrue(manager.addPeer(peer));
+        }
+        long added = System.nanoTime();
+        for (int peer = 2; peer <= PEERS; peer += 2) {
+            assertTrue(manager.removePeer(peer));
+        }
+        long removed = System.nanoTime();
+        System.out.printf("add %.0f ns/peer, remove %.0f ns/peer with %d peers%n",
+                (double) (added - start) / PEERS, (double) (removed - added) / (PEERS / 2), PEERS);
+        assertTrue((added - start) / PEERS < MAX_UPDATE_NANOS);
+        assertTrue((removed - added) / (PEERS / 2) < MAX_UPDATE_NANOS);
+
+        assertEquals(1, opened.size());
+        FakeRangingSession session = opened.get(0);
+        assertEquals(PEERS / 2, session.peers.length);
+        assertTrue(session.contains(1));
+        assertFalse(session.contains(2));
+        assertEquals(PEERS / 2, manager.peerCount());
+        assertEquals(1, listener.started);
+        assertFalse(manager.addPeer(1));
+    }
+
+    @Test
+    public void refusesPeersBeyondCapacity() {
+        for (int peer = 1; peer <= PEERS; peer++) {
+            assertTrue(manager.addPeer(peer));
+        }
+        assertFalse(manager.addPeer(PEERS + 1));
+        assertEquals(PEERS, opened.get(0).peers.length);
+    }
+
+    @Test
+    public void demultiplexesSamplesPerPeer() {
+        for (int peer = 1; peer <= PEERS; peer++) {
+            manager.addPeer(peer);
+        }
+        RangingSession.Callback callback = opened.get(0).callback;
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int peer = 1; peer <= PEERS; peer++) {
+                callback.onPosition(peer, 1.5f, 10, 0, round + 1);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        double rate = ROUNDS * PEERS * 1e9 / elapsed;
+        System.out.printf("%.0f samples/s with %d peers%n", rate, PEERS);
+        assertTrue(rate > MIN_SAMPLES_PER_SECOND);
+
+        assertEquals((long) ROUNDS * PEERS, samples);
+        for (int peer = 1; peer <= PEERS; peer++) {
+            assertEquals(ROUNDS, manager.sampleCount(peer));
+            assertEquals(ROUNDS, manager.lastTimestampNanos(peer));
+            assertTrue(manager.isConnected(peer));
+        }
+        // Unknown peers are dropped
+        callback.onPosition(PEERS + 1, 1, 0, 0, 1);
+        assertEquals((long) ROUNDS * PEERS, samples);
+    }
+
+    @Test
+    public void restartsSessionsWithoutPeerUpdates() {
+        peerUpdates = false;
+        manager.addPeer(1);
+        manager.addPeer(2);
+        assertEquals(2, opened.size());
+        assertTrue(opened.get(0).closed);
+        assertArrayEquals(new int[]{1, 2}, opened.get(1).peers);
+
+        manager.removePeer(1);
+        assertEquals(3, opened.size());
+        assertArrayEquals(new int[]{2}, opened.get(2).peers);
+        assertEquals(1, listener.started);
+    }
+
+    @Test
+    public void dropsCallbacksOfReplacedSessions() {
+        peerUpdates = false;
+        manager.addPeer(1);
+        RangingSession.Callback stale = opened.get(0).callback;
+        manager.addPeer(2);
+        stale.onPosition(1, 1, 0, 0, 1);
+        stale.onClosed();
+        assertEquals(0, samples);
+        assertTrue(manager.isRanging());
+        assertEquals(0, listener.stopped);
+    }
+
+    @Test
+    public void removingAPeerAfterAFailedOpenRetries() {
+        manager.addPeer(1);
+        opened.get(0).callback.onError(new IllegalStateException("session lost"));
+        assertFalse(manager.isRanging());
+        assertEquals(1, listener.stopped);
+
+        failOpen = true;
+        for (int peer = 2; peer <= 3; peer++) {
+            try {
+                manager.addPeer(peer);
+            } catch (IllegalStateException expected) {
+                // The peer keeps its slot without a session
+            }
+        }
+        assertFalse(manager.isRanging());
+        assertEquals(2, manager.peerCount());
+
+        failOpen = false;
+        assertTrue(manager.removePeer(3));
+        assertTrue(manager.isRanging());
+        FakeRangingSession session = opened.get(opened.size() - 1);
+        assertArrayEquals(new int[]{2}, session.peers);
+        assertEquals(2, listener.started);
+    }
+
+    @Test
+    public void removalWaitsForTheSampleInFlight() throws InterruptedException {
+        CountDownLatch inSample = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        MultiPeerSessionManager blocking = new MultiPeerSessionManager(() -> {
+            FakeRangingSession session = new FakeRangingSession(true);
+            opened.add(session);
+            return session;
+        }, PEERS, (peer, distance, azimuth, elevation, timestampNanos) -> {
+            inSample.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            events.add("sample " + peer);
+        }, listener);
+        blocking.addPeer(1);
+        blocking.addPeer(2);
+        RangingSession.Callback callback = opened.get(0).callback;
+
+        Thread ranging = new Thread(() -> callback.onPosition(1, 2, 0, 0, 100));
+        ranging.start();
+        inSample.await();
+        Thread remover = new Thread(() -> {
+            blocking.removePeer(1);
+            events.add("removed 1");
+        });
+        remover.start();
+        remover.join(200);
+        assertTrue("removed during the sample", remover.isAlive());
+        release.countDown();
+        remover.join();
+        ranging.join();
+        assertEquals(Arrays.asList("sample 1", "removed 1"), events);
+
+        // A late sample of the removed peer does not reach the listener
+        callback.onPosition(1, 2, 0, 0, 200);
+        callback.onPosition(2, 3, 0, 0, 200);
+        assertEquals(Arrays.asList("sample 1", "removed 1", "sample 2"), events);
+    }
+
+    @Test
+    public void peerLossKeepsTheSessionRunning() {
+        manager.addPeer(1);
+        manager.addPeer(2);
+        FakeRangingSession session = opened.get(0);
+        session.callback.onPosition(1, 1, 0, 0, 1);
+        session.callback.onPeerDisconnected(1);
+        assertEquals(1, listener.lost);
+        assertFalse(manager.isConnected(1));
+        assertTrue(manager.containsPeer(1));
+        assertSame(session, opened.get(opened.size() - 1));
+
+        manager.stop();
+        assertTrue(session.closed);
+        assertEquals(0, manager.peerCount());
+        assertEquals(1, listener.stopped);
+    }
+
+    private static final class RecordingListener implements RangingSessionManager.Listener {
+        int started;
+        int lost;
+        int stopped;
+
+        @Override
+        public void onRangingStarted() {
+            started++;
+        }
+
+        @Override
+        public void onPeerLost(int peer) {
+            lost++;
+        }
+
+        @Override
+        public void onRangingStopped(Throwable error) {
+            stopped++;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package at.jku.ins.uwb_default_values.ranging;
+
+import org.junit.Test;
+
+import at.jku.ins.uwb_default_values.Allocations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RangingSampleBufferTest {
+
+    private static final int SAMPLES = 1_000_000;
+
+    @Test
+    public void ingestDoesNotAllocate() {
+        Allocations.assumeSupported();
+        RangingSampleBuffer buffer = new RangingSampleBuffer(1024);
+        long allocated = Allocations.measure(() -> {
+            for (int i = 0; i < SAMPLES; i++) {
+                buffer.onSample(i & 63, i * 0.001f, 10, -5, i);
+            }
+        });
+        // Anything left is the bookkeeping of the counter itself, not a byte per sample
+        assertTrue("allocated " + allocated + " bytes for " + SAMPLES + " samples", allocated < 1024);
+    }
+
+    @Test
+    public void readLatestReturnsNewestSample() {
+        RangingSampleBuffer buffer = new RangingSampleBuffer(4);
+        RangingSnapshot snapshot = new RangingSnapshot();
+        assertFalse(buffer.readLatest(snapshot));
+
+        for (int i = 0; i < 10; i++) {
+            buffer.onSample(i, i, 2 * i, -i, 100 + i);
+        }
+        assertTrue(buffer.readLatest(snapshot));
+        assertEquals(10, snapshot.sequence);
+        assertEquals(9, snapshot.peer);
+        assertEquals(9f, snapshot.distance, 0);
+        assertEquals(18f, snapshot.azimuth, 0);
+        assertEquals(-9f, snapshot.elevation, 0);
+        assertEquals(109, snapshot.timestampNanos);
+    }
+
+    @Test
+    public void readLatestNeverReturnsATornSample() throws InterruptedException {
+        RangingSampleBuffer buffer = new RangingSampleBuffer(2);
+        Thread writer = new Thread(() -> {
+            for (int i = 1; i <= SAMPLES; i++) {
+                buffer.onSample(i, i, -i, 2 * i, i);
+            }
+        });
+        writer.start();
+        RangingSnapshot snapshot = new RangingSnapshot();
+        long reads = 0;
+        while (writer.isAlive() || reads == 0) {
+            if (buffer.readLatest(snapshot)) {
+                reads++;
+                // Every field of a sample derives from the same counter
+                assertEquals(snapshot.sequence, snapshot.peer);
+                assertEquals(snapshot.peer, snapshot.distance, 0);
+                assertEquals(-snapshot.peer, snapshot.azimuth, 0);
+                assertEquals(2 * snapshot.peer, snapshot.elevation, 0);
+                assertEquals(snapshot.peer, snapshot.timestampNanos);
+            }
+        }
+        writer.join();
+        assertTrue(reads > 0);
+    }
+
+    @Test
+    public void drainSkipsOverwrittenSamples() {
+        RangingSampleBuffer buffer = new RangingSampleBuffer(4);
+        for (int i = 0; i < 10; i++) {
+            buffer.onSample(i, i, 0, 0, i);
+        }
+        StringBuilder peers = new StringBuilder();
+        long next = buffer.drain(0, (peer, distance, azimuth, elevation, timestampNanos) -> peers.append(peer));
+        assertEquals("6789", peers.toString());
+        assertEquals(10, next);
+
+        buffer.onSample(10, 10, 0, 0, 10);
+        peers.setLength(0);
+        buffer.drain(next, (peer, distance, azimuth, elevation, timestampNanos) -> peers.append(peer));
+        assertEquals("10", peers.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCapacityThatIsNotAPowerOfTwo() {
+        new RangingSampleBuffer(100);
+    }
+}
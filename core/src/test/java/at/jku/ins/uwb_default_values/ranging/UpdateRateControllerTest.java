@@ -0,0 +1,178 @@
+package at.jku.ins.uwb_default_values.ranging;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import at.jku.ins.uwb_default_values.ranging.filter.FilterStage;
+import at.jku.ins.uwb_default_values.replay.RangingRecorder;
+import at.jku.ins.uwb_default_values.replay.RangingReplay;
+import at.jku.ins.uwb_default_values.replay.ReplayListener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UpdateRateControllerTest {
+
+    private static final long STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long LOWER_DWELL_SECONDS = UpdateRateController.LOWER_DWELL_NANOS / SECOND;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final UpdateRateController controller = new UpdateRateController(8);
+    private long now = SECOND;
+    private final float[] distances = {2, 2, 2};
+
+    @Test
+    public void staticPeersDropToInfrequentAfterTheDwell() {
+        move(1, 0, LOWER_DWELL_SECONDS - 1);
+        assertEquals(RangingSession.UPDATE_RATE_AUTOMATIC, controller.sessionRate());
+        move(1, 0, 2);
+        assertEquals(RangingSession.UPDATE_RATE_INFREQUENT, controller.sessionRate());
+        assertEquals(RangingSession.UPDATE_RATE_INFREQUENT, controller.peerRate(1));
+    }
+
+    @Test
+    public void fastPeersRangeFrequently() {
+        move(1, 1.2f, 3);
+        assertEquals(RangingSession.UPDATE_RATE_FREQUENT, controller.sessionRate());
+        move(1, 1.2f, 5);
+        assertEquals(1.2f, controller.speed(1), 0.05f);
+    }
+
+    @Test
+    public void speedBetweenThresholdsKeepsTheRate() {
+        move(1, 1.0f, 5);
+        assertEquals(RangingSession.UPDATE_RATE_FREQUENT, controller.sessionRate());
+        // Slower than the enter speed, but not below the exit speed
+        move(1, 0.65f, 60);
+        assertEquals(RangingSession.UPDATE_RATE_FREQUENT, controller.sessionRate());
+        assertEquals(1, controller.changes());
+
+        move(1, 0.3f, LOWER_DWELL_SECONDS + 5);
+        assertEquals(RangingSession.UPDATE_RATE_AUTOMATIC, controller.sessionRate());
+    }
+
+    @Test
+    public void backgroundLowersEveryRate() {
+        controller.setForeground(false);
+        move(1, 1.2f, 3);
+        assertEquals(RangingSession.UPDATE_RATE_AUTOMATIC, controller.peerRate(1));
+        move(2, 0.3f, LOWER_DWELL_SECONDS + 1);
+        assertEquals(RangingSession.UPDATE_RATE_INFREQUENT, controller.peerRate(2));
+    }
+
+    @Test
+    public void watchedPeersRangeFrequently() {
+        controller.setWatched(1, true);
+        move(1, 0, LOWER_DWELL_SECONDS + 1);
+        assertEquals(RangingSession.UPDATE_RATE_FREQUENT, controller.sessionRate());
+        controller.setWatched(1, false);
+        move(1, 0, LOWER_DWELL_SECONDS + 1);
+        assertEquals(RangingSession.UPDATE_RATE_INFREQUENT, controller.sessionRate());
+    }
+
+    @Test
+    public void sessionHoldsTheHighestPeerRate() {
+        move(1, 0, LOWER_DWELL_SECONDS + 1);
+        // The session steps through the automatic rate, each change a session dwell after the last
+        move(2, 1.2f, 7);
+        assertEquals(3, controller.changes());
+        assertEquals(RangingSession.UPDATE_RATE_INFREQUENT, controller.peerRate(1));
+        assertEquals(RangingSession.UPDATE_RATE_FREQUENT, controller.sessionRate());
+
+        controller.resetPeer(2);
+        move(1, 0, UpdateRateController.SESSION_DWELL_NANOS / SECOND + 1);
+        assertEquals(RangingSession.UPDATE_RATE_INFREQUENT, controller.sessionRate());
+    }
+
+    /**
+     * A noisy trace of a peer without angles that stands, walks, runs and stops again is recorded,
+     * then replayed through the filters twice. Both runs must make the same decisions, and the session
+     * rate must neither change faster than its dwell nor flap.
+     */
+    @Test
+    public void replayedTraceGivesStableReproducibleDecisions() throws IOException {
+        File file = folder.newFile();
+        Random random = new Random(3);
+        float distance = 2;
+        try (RangingRecorder recorder = new RangingRecorder(file)) {
+            float[] speeds = {0, 0.4f, 1.5f, 0};
+            for (float speed : speeds) {
+                for (int i = 0; i < 300; i++) {
+                    now += STEP_NANOS;
+                    distance += speed * STEP_NANOS / 1e9f;
+                    recorder.onSample(1, distance + (float) random.nextGaussian() * 0.03f, Float.NaN, Float.NaN, now);
+                }
+            }
+        }
+
+        List<long[]> first = replay(file);
+        List<long[]> second = replay(file);
+        assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(first.get(i)[0], second.get(i)[0]);
+            assertEquals(first.get(i)[1], second.get(i)[1]);
+        }
+        for (int i = 1; i < first.size(); i++) {
+            assertTrue(first.get(i)[0] - first.get(i - 1)[0] >= UpdateRateController.SESSION_DWELL_NANOS);
+        }
+        // Infrequent while still, automatic for the walk, frequent for the run and infrequent again
+        int[] rates = {RangingSession.UPDATE_RATE_INFREQUENT, RangingSession.UPDATE_RATE_AUTOMATIC,
+                RangingSession.UPDATE_RATE_FREQUENT, RangingSession.UPDATE_RATE_INFREQUENT};
+        assertEquals(rates.length, first.size());
+        for (int i = 0; i < rates.length; i++) {
+            assertEquals(rates[i], first.get(i)[1]);
+        }
+    }
+
+    // Moves the peer away at the given speed in m/s for a while, sampling at 10 Hz
+    private void move(int peer, float speed, long seconds) {
+        for (long i = 0; i < seconds * SECOND / STEP_NANOS; i++) {
+            now += STEP_NANOS;
+            distances[peer] += speed * STEP_NANOS / 1e9f;
+            controller.onSample(peer, distances[peer], 0, Float.NaN, now);
+        }
+    }
+
+    // Returns the time and new rate of every session rate change
+    private static List<long[]> replay(File file) throws IOException {
+        UpdateRateController controller = new UpdateRateController(8);
+        FilterStage filter = FilterStage.createDefault(8, controller);
+        List<long[]> changes = new ArrayList<>();
+        new RangingReplay(file).replay(new ReplayListener() {
+            @Override
+            public void onSample(int peer, float distance, float azimuth, float elevation, long timestampNanos) {
+                long before = controller.changes();
+                filter.onSample(peer, distance, azimuth, elevation, timestampNanos);
+                if (controller.changes() != before) {
+                    changes.add(new long[]{timestampNanos, controller.sessionRate()});
+                }
+            }
+
+            @Override
+            public void onAdvert(long mac, int rssi, long timestampNanos, byte[] serviceData) {
+            }
+
+            @Override
+            public void onPeerLost(int peer, long timestampNanos) {
+                filter.resetPeer(peer);
+                controller.resetPeer(peer);
+            }
+
+            @Override
+            public void onRotationVector(float x, float y, float z, float w, long timestampNanos) {
+            }
+        }, 0);
+        return changes;
+    }
+}
@@ -0,0 +1,53 @@
+package at.jku.ins.uwb_default_values.ranging.filter;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FilterStageTest {
+
+    private float lastDistance;
+
+    private final FilterStage stage = FilterStage.createDefault(2,
+            (peer, distance, azimuth, elevation, timestampNanos) -> lastDistance = distance);
+
+    @Test
+    public void smoothsNoisyDistances() {
+        Random random = new Random(1);
+        double rawError = 0;
+        double filteredError = 0;
+        for (int i = 0; i < 1000; i++) {
+            float raw = (float) (5 + random.nextGaussian() * 0.2);
+            stage.onSample(1, raw, 0, 0, i * 100_000_000L);
+            if (i >= 100) {
+                rawError += (raw - 5) * (raw - 5);
+                filteredError += (lastDistance - 5) * (lastDistance - 5);
+            }
+        }
+        assertTrue("filtered " + filteredError + ", raw " + rawError, filteredError < rawError / 2);
+    }
+
+    @Test
+    public void releasedSlotsAreReused() {
+        stage.onSample(1, 1, 0, 0, 0);
+        stage.onSample(2, 2, 0, 0, 0);
+        assertEquals(2, stage.peerCount());
+
+        // No slot left, peer 3 passes unfiltered
+        stage.onSample(3, 3, 0, 0, 0);
+        assertEquals(2, stage.peerCount());
+
+        stage.resetPeer(1);
+        stage.onSample(3, 3, 0, 0, 0);
+        assertEquals(2, stage.peerCount());
+
+        stage.clear();
+        assertEquals(0, stage.peerCount());
+        stage.onSample(4, 4, 0, 0, 0);
+        assertEquals(1, stage.peerCount());
+        assertEquals(4f, lastDistance, 0);
+    }
+}
@@ -0,0 +1,293 @@
+package at.jku.ins.uwb_default_values.ranging.orientation;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AoaFusionTest {
+
+    private static final long SENSOR_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long RANGING_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final float UPRIGHT = (float) Math.sqrt(0.5);
+
+    private float lastBearing = Float.NaN;
+    private float lastElevation = Float.NaN;
+    private final AoaFusion fusion = new AoaFusion(4, (peer, distance, bearing, elevation, timestampNanos) -> {
+        lastBearing = bearing;
+        lastElevation = elevation;
+    });
+
+    @Test
+    public void uprightPhoneFacingNorthKeepsTheAngles() {
+        fusion.onRotationVector(UPRIGHT, 0, 0, UPRIGHT, 0);
+        fusion.onSample(1, 2, 30, 10, 0);
+        assertEquals(30, lastBearing, 0.01);
+        assertEquals(10, lastElevation, 0.01);
+    }
+
+    @Test
+    public void headingIsAddedToTheAzimuth() {
+        double[] q = new double[Quaternions.SIZE];
+        uprightWithHeading(90, q);
+        fusion.onRotationVector((float) q[1], (float) q[2], (float) q[3], (float) q[0], 0);
+        fusion.onSample(1, 2, 30, Float.NaN, 0);
+        assertEquals(120, lastBearing, 0.01);
+        assertEquals(0, lastElevation, 0.01);
+
+        // Turning back to north moves the peer 90 degrees to the right of the phone, without a new sample
+        PeerVector vector = new PeerVector();
+        uprightWithHeading(0, q);
+        fusion.onRotationVector((float) q[1], (float) q[2], (float) q[3], (float) q[0], 1);
+        assertTrue(fusion.readPeer(1, vector));
+        assertEquals(120, vector.bearing, 0.01);
+        assertEquals(120, vector.deviceAzimuth, 0.01);
+        assertEquals(0, vector.sampleTimestampNanos);
+        assertEquals(1, vector.timestampNanos);
+    }
+
+    @Test
+    public void staleOrientationPassesDeviceAnglesOn() {
+        double[] q = new double[Quaternions.SIZE];
+        uprightWithHeading(90, q);
+        fusion.onRotationVector((float) q[1], (float) q[2], (float) q[3], (float) q[0], 0);
+        long stale = AoaFusion.MAX_ORIENTATION_AGE_NANOS + 1;
+        assertFalse(fusion.isOriented(stale));
+        fusion.onSample(1, 2, 30, 5, stale);
+        assertEquals(30, lastBearing, 0);
+        assertEquals(5, lastElevation, 0);
+        assertFalse(fusion.readPeer(1, new PeerVector()));
+    }
+
+    @Test
+    public void bearingsAreUnwrappedAcrossSouth() {
+        double[] q = new double[Quaternions.SIZE];
+        uprightWithHeading(180, q);
+        fusion.onRotationVector((float) q[1], (float) q[2], (float) q[3], (float) q[0], 0);
+        fusion.onSample(1, 2, -10, 0, 0);
+        assertEquals(170, lastBearing, 0.01);
+        fusion.onSample(1, 2, 10, 0, 0);
+        assertEquals(190, lastBearing, 0.01);
+
+        // A peer starts over after a reset
+        fusion.resetPeer(1);
+        fusion.onSample(1, 2, 10, 0, 0);
+        assertEquals(-170, lastBearing, 0.01);
+    }
+
+    @Test
+    public void missingAzimuthOrClearReleasesThePeer() {
+        fusion.onRotationVector(UPRIGHT, 0, 0, UPRIGHT, 0);
+        PeerVector vector = new PeerVector();
+        for (int peer = 1; peer <= 4; peer++) {
+            fusion.onSample(peer, 2, 0, 0, 0);
+            assertTrue(fusion.readPeer(peer, vector));
+        }
+        fusion.onSample(1, 2, Float.NaN, Float.NaN, 0);
+        assertFalse(fusion.readPeer(1, vector));
+        // The freed slot takes a new peer
+        fusion.onSample(5, 2, 0, 0, 0);
+        assertTrue(fusion.readPeer(5, vector));
+
+        fusion.clear();
+        assertFalse(fusion.readPeer(5, vector));
+        assertFalse(fusion.isOriented(0));
+    }
+
+    @Test
+    public void exactTraceGivesTrueBearings() {
+        Trace trace = new Trace(8, 0, 0, 0);
+        trace.run(TimeUnit.SECONDS.toNanos(20));
+        trace.print("exact");
+        assertTrue(trace.bearings.count > 500);
+        assertTrue(trace.bearings.max() < 0.5);
+        assertTrue(trace.predictions.max() < 0.5);
+    }
+
+    @Test
+    public void noisyTraceStaysWithinTheAngleOfArrivalNoise() {
+        Trace trace = new Trace(8, 3, 0.5, 0.05);
+        trace.run(TimeUnit.SECONDS.toNanos(20));
+        trace.print("noisy");
+        // The angles of arrival have 3 degrees of noise on azimuth and elevation each
+        assertTrue(trace.bearings.rms() < 6);
+        assertTrue(trace.predictions.rms() < 6);
+        // Taking device azimuths as bearings is off by about the heading sweep
+        assertTrue(trace.raw.rms() > 60);
+    }
+
+    /** Upright phone turned clockwise from north by the given heading. */
+    private static void uprightWithHeading(double degrees, double[] out) {
+        double[] upright = new double[Quaternions.SIZE];
+        Quaternions.fromAxisAngle(1, 0, 0, Math.PI / 2, upright, 0);
+        Quaternions.fromAxisAngle(0, 0, 1, -Math.toRadians(degrees), out, 0);
+        Quaternions.multiply(out, 0, upright, 0, out, 0);
+    }
+
+    /**
+     * A phone held upright that sweeps its heading back and forth by up to 150 degrees and wobbles in
+     * pitch and roll, among static peers around it. The rotation vector arrives at 100 Hz, ranging at
+     * 10 Hz per peer within a 75 degree field of view, at times in between sensor readings.
+     */
+    private static final class Trace {
+        private static final double FIELD_OF_VIEW = 75;
+
+        private final Random random = new Random(42);
+        private final int peers;
+        private final double aoaSigma;
+        private final double sensorSigma;
+        private final double distanceSigma;
+        private final double[] peerEast;
+        private final double[] peerNorth;
+        private final double[] peerUp;
+        private final AoaFusion fusion;
+
+        private final double[] orientation = new double[Quaternions.SIZE];
+        private final double[] upright = new double[Quaternions.SIZE];
+        private final double[] part = new double[Quaternions.SIZE];
+        private final double[] scratch = new double[Quaternions.SIZE];
+        private final double[] vector = new double[3];
+
+        // World bearings passed on, device azimuths taken as bearings, device azimuths predicted at the sensor rate
+        final Errors bearings = new Errors();
+        final Errors raw = new Errors();
+        final Errors predictions = new Errors();
+
+        Trace(int peers, double aoaSigma, double sensorSigma, double distanceSigma) {
+            this.peers = peers;
+            this.aoaSigma = aoaSigma;
+            this.sensorSigma = sensorSigma;
+            this.distanceSigma = distanceSigma;
+            peerEast = new double[peers];
+            peerNorth = new double[peers];
+            peerUp = new double[peers];
+            for (int peer = 0; peer < peers; peer++) {
+                double bearing = random.nextDouble() * 2 * Math.PI;
+                double distance = 1 + random.nextDouble() * 9;
+                peerEast[peer] = distance * Math.sin(bearing);
+                peerNorth[peer] = distance * Math.cos(bearing);
+                peerUp[peer] = random.nextGaussian() * 0.5;
+            }
+            // Upright phone facing north: device x east, y up, -z north
+            Quaternions.fromAxisAngle(1, 0, 0, Math.PI / 2, upright, 0);
+            fusion = new AoaFusion(peers, this::checkBearing);
+            fusion.setListener(this::checkPrediction);
+        }
+
+        void run(long duration) {
+            long ranged = 0;
+            for (long time = 0; time < duration; time += SENSOR_INTERVAL_NANOS) {
+                sense(time);
+                // Ranging results fall in between sensor readings, one peer after another, and arrive late
+                // enough that the sensor reading after them is in
+                long next;
+                while ((next = SENSOR_INTERVAL_NANOS / 3 + ranged * (RANGING_INTERVAL_NANOS / peers)) <= time) {
+                    range((int) (ranged++ % peers), next);
+                }
+            }
+        }
+
+        private void sense(long time) {
+            trueOrientation(time);
+            // A small rotation about a random axis as sensor noise
+            double x = random.nextGaussian();
+            double y = random.nextGaussian();
+            double z = random.nextGaussian();
+            double norm = Math.sqrt(x * x + y * y + z * z);
+            Quaternions.fromAxisAngle(x / norm, y / norm, z / norm, Math.toRadians(random.nextGaussian() * sensorSigma),
+                    part, 0);
+            Quaternions.multiply(orientation, 0, part, 0, scratch, 0);
+            fusion.onRotationVector((float) scratch[1], (float) scratch[2], (float) scratch[3], (float) scratch[0], time);
+        }
+
+        void print(String name) {
+            System.out.printf("%s: world bearing rms %.2f max %.2f, device azimuth as bearing rms %.2f, "
+                            + "predicted device azimuth rms %.2f max %.2f deg%n", name, bearings.rms(), bearings.max(),
+                    raw.rms(), predictions.rms(), predictions.max());
+        }
+
+        private void range(int peer, long time) {
+            trueOrientation(time);
+            Quaternions.rotate(orientation, 0, true, peerEast[peer], peerNorth[peer], peerUp[peer], vector);
+            double distance = Math.sqrt(vector[0] * vector[0] + vector[1] * vector[1] + vector[2] * vector[2]);
+            double azimuth = Math.toDegrees(Math.atan2(vector[0], -vector[2]));
+            double elevation = Math.toDegrees(Math.asin(vector[1] / distance));
+            boolean visible = Math.abs(azimuth) <= FIELD_OF_VIEW;
+            if (visible) {
+                // What a display without fusion would show: device angles taken as bearings from the heading at start
+                raw.add(angleError(azimuth, trueBearing(peer)));
+            }
+            fusion.onSample(peer, (float) (distance + random.nextGaussian() * distanceSigma),
+                    visible ? (float) (azimuth + random.nextGaussian() * aoaSigma) : Float.NaN,
+                    visible ? (float) (elevation + random.nextGaussian() * aoaSigma) : Float.NaN, time);
+        }
+
+        // Downstream of the fusion: samples with world bearings
+        private void checkBearing(int peer, float distance, float bearing, float elevation, long timestampNanos) {
+            if (!Float.isNaN(bearing) && fusion.isOriented(timestampNanos)) {
+                bearings.add(angleError(bearing, trueBearing(peer)));
+            }
+        }
+
+        // Listener of the fusion: device angles predicted for the latest orientation
+        private void checkPrediction(PeerVector vector) {
+            if (vector.timestampNanos == vector.sampleTimestampNanos) {
+                return;
+            }
+            int peer = vector.peer;
+            trueOrientation(vector.timestampNanos);
+            Quaternions.rotate(orientation, 0, true, peerEast[peer], peerNorth[peer], peerUp[peer], this.vector);
+            double azimuth = Math.toDegrees(Math.atan2(this.vector[0], -this.vector[2]));
+            if (Math.abs(azimuth) <= FIELD_OF_VIEW) {
+                predictions.add(angleError(vector.deviceAzimuth, azimuth));
+            }
+        }
+
+        // Heading sweeps by up to 150 degrees either way, pitch and roll wobble by 15 and 10 degrees
+        private void trueOrientation(long time) {
+            double seconds = time / 1e9;
+            double yaw = Math.toRadians(150 * Math.sin(2 * Math.PI * seconds / 12));
+            double pitch = Math.toRadians(15 * Math.sin(2 * Math.PI * seconds / 5));
+            double roll = Math.toRadians(10 * Math.sin(2 * Math.PI * seconds / 7));
+            // Heading is clockwise from north, i.e. about -z of the world
+            Quaternions.fromAxisAngle(0, 0, 1, -yaw, orientation, 0);
+            Quaternions.multiply(orientation, 0, upright, 0, orientation, 0);
+            Quaternions.fromAxisAngle(1, 0, 0, pitch, part, 0);
+            Quaternions.multiply(orientation, 0, part, 0, orientation, 0);
+            Quaternions.fromAxisAngle(0, 0, 1, roll, part, 0);
+            Quaternions.multiply(orientation, 0, part, 0, orientation, 0);
+        }
+
+        private double trueBearing(int peer) {
+            return Math.toDegrees(Math.atan2(peerEast[peer], peerNorth[peer]));
+        }
+
+        private static double angleError(double measured, double truth) {
+            return Math.abs(Math.IEEEremainder(measured - truth, 360));
+        }
+    }
+
+    private static final class Errors {
+        int count;
+        private double squares;
+        private double max;
+
+        void add(double error) {
+            count++;
+            squares += error * error;
+            max = Math.max(max, error);
+        }
+
+        double rms() {
+            return count > 0 ? Math.sqrt(squares / count) : Double.NaN;
+        }
+
+        double max() {
+            return max;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package at.jku.ins.uwb_default_values.ranging.position;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import at.jku.ins.uwb_default_values.Allocations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MultilaterationSolverTest {
+
+    private static final long STEP_NANOS = 10_000_000L;
+    private static final double[][] ANCHORS = {
+            {0, 0, 0}, {10, 0, 2.5}, {10, 8, 0}, {0, 8, 2.5}, {5, -2, 1}, {5, 10, 2}
+    };
+
+    private final PositionFix fix = new PositionFix();
+    private long now;
+
+    @Test
+    public void exactDistancesGiveExactFix2d() {
+        MultilaterationSolver solver = solver(4, false);
+        feed(solver, 4, 3, 5, 0, 0, null);
+        assertTrue(solver.readFix(fix));
+        assertEquals(3, fix.x, 1e-3);
+        assertEquals(5, fix.y, 1e-3);
+        assertEquals(4, fix.anchors);
+        assertEquals(0, fix.residual, 1e-3);
+    }
+
+    @Test
+    public void exactDistancesGiveExactFix3d() {
+        MultilaterationSolver solver = solver(6, true);
+        feed(solver, 6, 6, 3, 1.2, 0, null);
+        assertTrue(solver.readFix(fix));
+        assertEquals(6, fix.x, 1e-3);
+        assertEquals(3, fix.y, 1e-3);
+        assertEquals(1.2, fix.z, 1e-3);
+    }
+
+    @Test
+    public void noisyDistancesStayAccurate() {
+        Random random = new Random(7);
+        MultilaterationSolver solver = solver(4, false);
+        double sumSquares = 0;
+        int fixes = 0;
+        for (int i = 0; i < 2000; i++) {
+            // Walks through the anchor rectangle
+            double x = 5 + 3 * Math.sin(i * 0.002);
+            double y = 4 + 2 * Math.cos(i * 0.003);
+            feed(solver, 4, x, y, 0, 0.1, random);
+            assertTrue(solver.readFix(fix));
+            sumSquares += (fix.x - x) * (fix.x - x) + (fix.y - y) * (fix.y - y);
+            fixes++;
+        }
+        double rms = Math.sqrt(sumSquares / fixes);
+        assertTrue("RMS error " + rms, rms < 0.2);
+    }
+
+    @Test
+    public void anglesFixPositionFromOneAnchor() {
+        MultilaterationSolver solver = new MultilaterationSolver(4, false);
+        solver.setAnchor(1, 0, 0, 0);
+        solver.setAngleSupport(true, false);
+        solver.setNoise(0.1, 5);
+        // The anchor lies 3 m west and 4 m south of the device
+        float azimuth = (float) Math.toDegrees(Math.atan2(-3, -4));
+        for (int i = 0; i < 10; i++) {
+            now += STEP_NANOS;
+            solver.update(1, 5, azimuth, Float.NaN, 1, now);
+        }
+        assertTrue(solver.readFix(fix));
+        assertEquals(3, fix.x, 0.05);
+        assertEquals(4, fix.y, 0.05);
+    }
+
+    @Test
+    public void deviceYawRotatesAngles() {
+        MultilaterationSolver solver = new MultilaterationSolver(4, false);
+        solver.setAnchor(1, 0, 0, 0);
+        solver.setAngleSupport(true, false);
+        // Facing east, the anchor 5 m to the north is 90 degrees to the left
+        solver.setDeviceYaw(90);
+        for (int i = 0; i < 10; i++) {
+            now += STEP_NANOS;
+            solver.update(1, 5, -90, Float.NaN, 1, now);
+        }
+        assertTrue(solver.readFix(fix));
+        assertEquals(0, fix.x, 0.05);
+        assertEquals(-5, fix.y, 0.05);
+    }
+
+    @Test
+    public void needsEnoughAnchorsWithoutAngles() {
+        MultilaterationSolver solver = solver(4, false);
+        now += STEP_NANOS;
+        assertFalse(solver.update(0, 5, Float.NaN, Float.NaN, 1, now));
+        assertFalse(solver.update(1, 5, Float.NaN, Float.NaN, 1, now));
+        assertTrue(solver.update(2, 5, Float.NaN, Float.NaN, 1, now));
+        // Unknown peers are ignored
+        assertFalse(solver.update(99, 5, Float.NaN, Float.NaN, 1, now));
+    }
+
+    @Test
+    public void staleAndZeroWeightMeasurementsAreLeftOut() {
+        MultilaterationSolver solver = solver(4, false);
+        feed(solver, 3, 3, 5, 0, 0, null);
+        assertTrue(solver.readFix(fix));
+        solver.setMaxAge(STEP_NANOS / 2);
+        now += STEP_NANOS;
+        // Only this measurement is recent enough
+        assertFalse(solver.update(3, 5, Float.NaN, Float.NaN, 1, now));
+        solver.setMaxAge(Long.MAX_VALUE);
+        assertFalse(solver.update(3, 5, Float.NaN, Float.NaN, 0, now) && fix.anchors == 4);
+        assertTrue(solver.readFix(fix));
+        assertEquals(3, fix.anchors);
+    }
+
+    @Test
+    public void fixesDoNotAllocate() {
+        Allocations.assumeSupported();
+        MultilaterationSolver solver = solver(6, true);
+        solver.setAngleSupport(true, true);
+        long allocated = Allocations.measure(() -> {
+            for (int i = 0; i < 10_000; i++) {
+                feed(solver, 6, 6, 3, 1.2, 0, null);
+            }
+        });
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private MultilaterationSolver solver(int anchors, boolean solve3d) {
+        MultilaterationSolver solver = new MultilaterationSolver(8, solve3d);
+        for (int i = 0; i < anchors; i++) {
+            solver.setAnchor(i, ANCHORS[i][0], ANCHORS[i][1], ANCHORS[i][2]);
+        }
+        return solver;
+    }
+
+    // One distance per anchor, as they arrive in a ranging round
+    private void feed(MultilaterationSolver solver, int anchors, double x, double y, double z, double sigma, Random random) {
+        for (int i = 0; i < anchors; i++) {
+            double dx = ANCHORS[i][0] - x;
+            double dy = ANCHORS[i][1] - y;
+            double dz = ANCHORS[i][2] - z;
+            double distance = Math.sqrt(dx * dx + dy * dy + dz * dz) + (random != null ? random.nextGaussian() * sigma : 0);
+            now += STEP_NANOS;
+            solver.update(i, (float) distance, Float.NaN, Float.NaN, 1, now);
+        }
+    }
+}
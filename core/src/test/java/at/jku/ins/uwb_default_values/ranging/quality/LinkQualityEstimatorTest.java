@@ -0,0 +1,146 @@
+package at.jku.ins.uwb_default_values.ranging.quality;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LinkQualityEstimatorTest {
+
+    private static final int PEER = 0x201;
+    private static final long STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Random random = new Random(42);
+    private final List<Float> passed = new ArrayList<>();
+    private final LinkQualityEstimator estimator = new LinkQualityEstimator(2,
+            (peer, distance, azimuth, elevation, timestampNanos) -> passed.add(distance));
+    private final LinkQuality quality = new LinkQuality();
+    private long now = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void quietLinkPassesEverySampleAtFullWeight() {
+        run(100, 0.02, 0);
+        assertEquals(100, passed.size());
+        assertTrue(estimator.readPeer(PEER, quality));
+        assertEquals(100, quality.accepted);
+        assertEquals(0, quality.rejected);
+        assertEquals(0, quality.dropRatio, 1e-9);
+        assertFalse(quality.nlos);
+        assertEquals(1, estimator.weight(PEER), 1e-9);
+    }
+
+    @Test
+    public void singleJumpsAreHeldBack() {
+        run(50, 0.02, 0);
+        passed.clear();
+        sample(8);
+        assertTrue(passed.isEmpty());
+        // The next sample is back on the trend and passes
+        sample(3);
+        assertEquals(1, passed.size());
+        estimator.readPeer(PEER, quality);
+        assertEquals(1, quality.rejected);
+    }
+
+    @Test
+    public void agreeingJumpsAreTakenAsARealChange() {
+        run(50, 0.02, 0);
+        passed.clear();
+        for (int i = 0; i < LinkQualityEstimator.MAX_CONSECUTIVE_JUMPS; i++) {
+            sample(6);
+        }
+        assertEquals(1, passed.size());
+        // The trend restarted at the new distance
+        sample(6);
+        assertEquals(2, passed.size());
+    }
+
+    @Test
+    public void lossesLowerTheWeight() {
+        run(20, 0.02, 0);
+        // Every fourth sample goes missing
+        for (int i = 0; i < 120; i++) {
+            if (i % 3 == 0) {
+                now += STEP_NANOS;
+            }
+            sample(3 + random.nextGaussian() * 0.02);
+        }
+        estimator.readPeer(PEER, quality);
+        assertEquals(0.25, quality.dropRatio, 0.1);
+        assertEquals(1 - quality.dropRatio, quality.weight, 0.05);
+        assertFalse(quality.nlos);
+    }
+
+    @Test
+    public void aLastingSlowerRateIsNotALoss() {
+        run(20, 0.02, 0);
+        for (int i = 0; i < 300; i++) {
+            now += STEP_NANOS;
+            sample(3 + random.nextGaussian() * 0.02);
+        }
+        estimator.readPeer(PEER, quality);
+        assertTrue(quality.dropRatio < 0.05);
+        assertTrue(quality.weight > 0.9);
+    }
+
+    @Test
+    public void noisyWeakLinkIsNlosUntilItClearsUp() {
+        run(100, 0.02, -60);
+        estimator.readPeer(PEER, quality);
+        assertFalse(quality.nlos);
+
+        // Noise and an RSSI 15 dB below the line of sight reference
+        run(100, 0.5, -75);
+        estimator.readPeer(PEER, quality);
+        assertTrue(quality.nlos);
+        assertTrue(quality.rssiResidual < -LinkQualityEstimator.NLOS_RSSI_DB);
+        assertTrue(quality.weight <= LinkQualityEstimator.NLOS_WEIGHT);
+        assertTrue(estimator.isNlos(PEER));
+
+        run(200, 0.02, -60);
+        estimator.readPeer(PEER, quality);
+        assertFalse(quality.nlos);
+        assertTrue(quality.weight > 0.9);
+    }
+
+    @Test
+    public void resetAndClearFreeTheSlots() {
+        run(10, 0.02, 0);
+        estimator.onSample(0x202, 3, 0, 0, now);
+        // Both slots are taken: a third peer is passed through without being tracked
+        estimator.onSample(0x203, 3, 0, 0, now);
+        assertFalse(estimator.readPeer(0x203, quality));
+
+        estimator.resetPeer(PEER);
+        assertFalse(estimator.readPeer(PEER, quality));
+        assertEquals(1, estimator.weight(PEER), 0);
+        estimator.onSample(0x203, 3, 0, 0, now);
+        assertTrue(estimator.readPeer(0x203, quality));
+        assertEquals(1, quality.accepted);
+
+        estimator.clear();
+        assertFalse(estimator.readPeer(0x202, quality));
+        assertFalse(estimator.readPeer(0x203, quality));
+    }
+
+    // Samples at a steady 3 m, with the given distance noise and, if not 0, BLE RSSI
+    private void run(int count, double sigma, int rssi) {
+        for (int i = 0; i < count; i++) {
+            if (rssi != 0) {
+                estimator.onRssi(PEER, rssi, now);
+            }
+            sample(3 + random.nextGaussian() * sigma);
+        }
+    }
+
+    private void sample(double distance) {
+        now += STEP_NANOS;
+        estimator.onSample(PEER, (float) distance, 0, 0, now);
+    }
+}
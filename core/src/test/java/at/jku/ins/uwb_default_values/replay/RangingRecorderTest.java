@@ -0,0 +1,113 @@
+package at.jku.ins.uwb_default_values.replay;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import at.jku.ins.uwb_default_values.ble.UwbAdvertisement;
+import at.jku.ins.uwb_default_values.ble.UwbAdvertisementCodec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RangingRecorderTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysRecordsInOrder() throws IOException {
+        File file = folder.newFile();
+        try (RangingRecorder recorder = new RangingRecorder(file)) {
+            recorder.onSample(0x201, 1.5f, 10, -5, 100);
+            recorder.recordAdvert(0xAABBCCDDEEFFL, -300, 200, null);
+            recorder.recordPeerLost(0x201, 300);
+            recorder.recordRotationVector(0.5f, -0.5f, 0.25f, Float.NaN, 400);
+        }
+        Trace trace = replay(file);
+        assertEquals(Arrays.asList("sample 513 1.5 10.0 -5.0 100", "advert aabbccddeeff -128 200 null", "lost 513 300",
+                "rotation 0.5 -0.5 0.25 NaN 400"), trace.records);
+    }
+
+    @Test
+    public void keepsServiceDataVerbatim() throws IOException {
+        UwbAdvertisement advertisement = new UwbAdvertisement();
+        advertisement.uwbAddress = 0x201;
+        byte[] current = UwbAdvertisementCodec.encode(advertisement);
+        byte[] legacy = {0x02, 0x01, 9, 10, 0, 42, 1};
+        // Decodes as a newer version, with trailing bytes the codec ignores
+        byte[] newer = Arrays.copyOf(current, current.length + 3);
+        newer[0] = 3;
+        newer[newer.length - 1] = 0x7F;
+        byte[] garbage = {(byte) 0xFF, 1, 2};
+
+        File file = folder.newFile();
+        try (RangingRecorder recorder = new RangingRecorder(file)) {
+            for (byte[] data : new byte[][]{current, legacy, newer, garbage, new byte[0]}) {
+                recorder.recordAdvert(1, -60, 0, data);
+            }
+        }
+        Trace trace = replay(file);
+        assertEquals(5, trace.serviceData.size());
+        assertArrayEquals(current, trace.serviceData.get(0));
+        assertArrayEquals(legacy, trace.serviceData.get(1));
+        assertArrayEquals(newer, trace.serviceData.get(2));
+        assertArrayEquals(garbage, trace.serviceData.get(3));
+        assertArrayEquals(new byte[0], trace.serviceData.get(4));
+    }
+
+    @Test
+    public void truncatedTailIsSkipped() throws IOException {
+        File file = folder.newFile();
+        try (RangingRecorder recorder = new RangingRecorder(file)) {
+            recorder.onSample(1, 1, 0, 0, 1);
+            recorder.onSample(2, 1, 0, 0, 2);
+        }
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(out.length() - 4);
+        }
+        assertEquals(1, replay(file).records.size());
+    }
+
+    private static Trace replay(File file) throws IOException {
+        Trace trace = new Trace();
+        new RangingReplay(file).replay(trace, 0);
+        return trace;
+    }
+
+    private static final class Trace implements ReplayListener {
+        final List<String> records = new ArrayList<>();
+        final List<byte[]> serviceData = new ArrayList<>();
+
+        @Override
+        public void onSample(int peer, float distance, float azimuth, float elevation, long timestampNanos) {
+            records.add("sample " + peer + " " + distance + " " + azimuth + " " + elevation + " " + timestampNanos);
+        }
+
+        @Override
+        public void onAdvert(long mac, int rssi, long timestampNanos, byte[] serviceData) {
+            records.add("advert " + Long.toHexString(mac) + " " + rssi + " " + timestampNanos + " "
+                    + (serviceData != null ? serviceData.length : "null"));
+            if (serviceData != null) {
+                this.serviceData.add(serviceData.clone());
+            }
+        }
+
+        @Override
+        public void onPeerLost(int peer, long timestampNanos) {
+            records.add("lost " + peer + " " + timestampNanos);
+        }
+
+        @Override
+        public void onRotationVector(float x, float y, float z, float w, long timestampNanos) {
+            records.add("rotation " + x + " " + y + " " + z + " " + w + " " + timestampNanos);
+        }
+    }
+}
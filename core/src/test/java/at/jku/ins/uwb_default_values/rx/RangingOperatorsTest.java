@@ -0,0 +1,123 @@
+package at.jku.ins.uwb_default_values.rx;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.schedulers.TestScheduler;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Runs the operators on a {@link TestScheduler}, so the consumer only runs when the test triggers it.
+ * Results are strings of the peer digit and a value, e.g. "1a".
+ */
+public class RangingOperatorsTest {
+
+    private final TestScheduler scheduler = new TestScheduler();
+    private final HandoffStats stats = new HandoffStats();
+    private final PublishSubject<String> results = PublishSubject.create();
+
+    @Test
+    public void boundedHandoffEmitsEveryResultInOrderOnTheScheduler() {
+        TestObserver<String> observer = results.compose(RangingOperators.<String>boundedHandoff(8, scheduler, stats)).test();
+        emit("1a", "2a", "1b", "1c");
+        observer.assertEmpty();
+
+        scheduler.triggerActions();
+        observer.assertValues("1a", "2a", "1b", "1c");
+        emit("2b");
+        results.onComplete();
+        observer.assertNotComplete();
+        scheduler.triggerActions();
+        observer.assertValues("1a", "2a", "1b", "1c", "2b").assertComplete();
+        assertStats(5, 5, 0, 0);
+    }
+
+    @Test
+    public void boundedHandoffDropsWhatArrivesWhileFull() {
+        TestObserver<String> observer = results.compose(RangingOperators.<String>boundedHandoff(4, scheduler, stats)).test();
+        emit("1a", "1b", "1c", "1d", "1e", "1f");
+        scheduler.triggerActions();
+        observer.assertValues("1a", "1b", "1c", "1d");
+        assertEquals(4, stats.maxPending());
+
+        // Drained, the ring takes results again
+        emit("1g");
+        scheduler.triggerActions();
+        observer.assertValues("1a", "1b", "1c", "1d", "1g");
+        assertStats(7, 5, 0, 2);
+    }
+
+    @Test
+    public void errorsFollowTheBufferedResults() {
+        TestObserver<String> observer = results.compose(RangingOperators.<String>boundedHandoff(4, scheduler, stats)).test();
+        emit("1a", "2a");
+        results.onError(new IOException("closed"));
+        observer.assertNoErrors();
+        scheduler.triggerActions();
+        observer.assertValues("1a", "2a").assertError(IOException.class);
+    }
+
+    @Test
+    public void disposingDropsPendingResults() {
+        TestObserver<String> observer = results.compose(RangingOperators.<String>boundedHandoff(4, scheduler, stats)).test();
+        emit("1a", "2a");
+        observer.dispose();
+        scheduler.triggerActions();
+        observer.assertEmpty();
+        assertFalse(results.hasObservers());
+    }
+
+    @Test
+    public void latestPerPeerKeepsTheNewestResultOfEachPeer() {
+        TestObserver<String> observer = latestPerPeer(4).test();
+        emit("1a", "2a", "1b", "3a", "1c", "2b");
+        observer.assertEmpty();
+        scheduler.triggerActions();
+        // In the order each peer's oldest pending result arrived
+        observer.assertValues("1c", "2b", "3a");
+        assertStats(6, 3, 3, 0);
+        assertEquals(3, stats.maxPending());
+
+        emit("2c", "1d");
+        results.onComplete();
+        scheduler.triggerActions();
+        observer.assertValues("1c", "2b", "3a", "2c", "1d").assertComplete();
+    }
+
+    @Test
+    public void latestPerPeerDropsFurtherPeersWhileAllArePending() {
+        TestObserver<String> observer = latestPerPeer(2).test();
+        emit("1a", "2a", "3a", "2b");
+        scheduler.triggerActions();
+        observer.assertValues("1a", "2b");
+        assertStats(4, 2, 1, 1);
+
+        // Delivered peers free their slots
+        emit("3b");
+        scheduler.triggerActions();
+        observer.assertValues("1a", "2b", "3b");
+    }
+
+    private Observable<String> latestPerPeer(int maxPeers) {
+        return results.compose(RangingOperators.latestPerPeer(result -> result.charAt(0) - '0', maxPeers, scheduler, stats));
+    }
+
+    private void emit(String... items) {
+        for (String item : items) {
+            results.onNext(item);
+        }
+    }
+
+    private void assertStats(long offered, long delivered, long coalesced, long dropped) {
+        assertEquals(offered, stats.offered());
+        assertEquals(delivered, stats.delivered());
+        assertEquals(coalesced, stats.coalesced());
+        assertEquals(dropped, stats.dropped());
+    }
+}
@@ -0,0 +1,133 @@
+package at.jku.ins.uwb_default_values.session;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SessionIdAllocatorTest {
+
+    private static final int DEVICES = 500;
+
+    /**
+     * 500 controllers started within the same millisecond, each hearing a random part of the others
+     * every round. A tenth of them also meet an ID clash from a controller with a lower address. All
+     * sessions must end up with distinct IDs and keys, and healthy sessions are only moved on restart.
+     */
+    @Test
+    public void simulatedPopulationEndsWithDistinctSessions() {
+        Random random = new Random(12);
+        SessionIdAllocator[] allocators = new SessionIdAllocator[DEVICES];
+        boolean[] healthy = new boolean[DEVICES];
+        for (int device = 0; device < DEVICES; device++) {
+            allocators[device] = new SessionIdAllocator(0x1000 + device, 1_700_000_000_000L, 2 * DEVICES);
+            healthy[device] = random.nextBoolean();
+        }
+
+        int reassigned = 0;
+        int deferred = 0;
+        for (int round = 0; round < 20; round++) {
+            for (int device = 0; device < DEVICES; device++) {
+                SessionIdAllocator allocator = allocators[device];
+                for (int i = 0; i < 50; i++) {
+                    int other = random.nextInt(DEVICES);
+                    assertEquals(SessionIdAllocator.NO_CONFLICT,
+                            allocator.onAdvertisedSession(0x1000 + other, allocators[other].sessionId(), healthy[device]));
+                }
+                if (device % 10 == 0 && device / 10 % 20 == round) {
+                    int before = allocator.sessionId();
+                    int result = allocator.onAdvertisedSession(0x0001, before, healthy[device]);
+                    if (healthy[device]) {
+                        assertEquals(SessionIdAllocator.DEFERRED, result);
+                        assertEquals(before, allocator.sessionId());
+                        deferred++;
+                    } else {
+                        assertEquals(SessionIdAllocator.REASSIGNED, result);
+                        assertNotEquals(before, allocator.sessionId());
+                        reassigned++;
+                    }
+                }
+            }
+            // Sessions restart now and then, which is when deferred IDs are taken
+            for (int device = 0; device < DEVICES; device++) {
+                if (random.nextInt(4) == 0) {
+                    allocators[device].onSessionStart();
+                }
+            }
+        }
+        for (SessionIdAllocator allocator : allocators) {
+            allocator.onSessionStart();
+        }
+
+        assertEquals(DEVICES / 10, reassigned + deferred);
+        Set<Integer> ids = new HashSet<>();
+        Set<String> keys = new HashSet<>();
+        byte[] key = new byte[SessionIdAllocator.KEY_LENGTH];
+        for (SessionIdAllocator allocator : allocators) {
+            assertTrue(allocator.sessionId() > 0);
+            ids.add(allocator.sessionId());
+            allocator.sessionKey(key);
+            keys.add(Arrays.toString(key));
+        }
+        assertEquals(DEVICES, ids.size());
+        assertEquals(DEVICES, keys.size());
+    }
+
+    @Test
+    public void higherAddressGivesItsIdUp() {
+        SessionIdAllocator low = new SessionIdAllocator(0x10, 1, 16);
+        int id = low.sessionId();
+        assertEquals(SessionIdAllocator.KEEP, low.onAdvertisedSession(0x20, id, false));
+        assertEquals(id, low.sessionId());
+
+        SessionIdAllocator high = new SessionIdAllocator(0x30, 1, 16);
+        int clash = high.sessionId();
+        assertEquals(SessionIdAllocator.REASSIGNED, high.onAdvertisedSession(0x20, clash, false));
+        assertNotEquals(clash, high.sessionId());
+        // The new ID no longer clashes with the other controller
+        assertEquals(SessionIdAllocator.NO_CONFLICT, high.onAdvertisedSession(0x20, clash, false));
+    }
+
+    @Test
+    public void healthySessionsMoveOnlyOnRestart() {
+        SessionIdAllocator allocator = new SessionIdAllocator(0x30, 1, 16);
+        int id = allocator.sessionId();
+        assertEquals(SessionIdAllocator.DEFERRED, allocator.onAdvertisedSession(0x20, id, true));
+        assertEquals(id, allocator.sessionId());
+        assertTrue(allocator.onSessionStart());
+        assertNotEquals(id, allocator.sessionId());
+        assertFalse(allocator.onSessionStart());
+    }
+
+    @Test
+    public void ownAdvertsAreIgnored() {
+        SessionIdAllocator allocator = new SessionIdAllocator(0x30, 1, 16);
+        assertEquals(SessionIdAllocator.NO_CONFLICT, allocator.onAdvertisedSession(0x30, allocator.sessionId(), false));
+    }
+
+    @Test
+    public void controleeDerivesTheControllersKey() {
+        SessionIdAllocator allocator = new SessionIdAllocator(0xBEEF, 99, 16);
+        byte[] controllerKey = new byte[SessionIdAllocator.KEY_LENGTH];
+        allocator.sessionKey(controllerKey);
+        byte[] controleeKey = new byte[SessionIdAllocator.KEY_LENGTH];
+        SessionIdAllocator.deriveKey(allocator.sessionId(), 0xBEEF, allocator.keyHint(), controleeKey);
+        assertArrayEquals(controllerKey, controleeKey);
+
+        SessionIdAllocator.deriveKey(allocator.sessionId(), 0xBEEE, allocator.keyHint(), controleeKey);
+        assertFalse(Arrays.equals(controllerKey, controleeKey));
+    }
+
+    @Test
+    public void devicesWithTheSameSeedPickDifferentIds() {
+        assertNotEquals(new SessionIdAllocator(1, 42, 16).sessionId(), new SessionIdAllocator(2, 42, 16).sessionId());
+    }
+}
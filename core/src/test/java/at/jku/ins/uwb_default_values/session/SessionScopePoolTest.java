@@ -0,0 +1,117 @@
+package at.jku.ins.uwb_default_values.session;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SessionScopePoolTest {
+
+    private static final long SETUP_MILLIS = 200;
+    private static final long FIRST_RESULT_MILLIS = 20;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Scheduler scheduler = Schedulers.from(executor);
+    private final FakeUwbManager manager = new FakeUwbManager();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void warmScopesShortenTimeToFirstResult() throws InterruptedException {
+        SessionScopePool<FakeScope> pool = new SessionScopePool<>(manager, scheduler, 1);
+        long cold = timeToFirstResult(pool, true);
+
+        pool.prewarm();
+        Thread.sleep(2 * SETUP_MILLIS);
+        long warm = timeToFirstResult(pool, true);
+        System.out.printf("time to first result: cold %d ms, warm %d ms%n",
+                TimeUnit.NANOSECONDS.toMillis(cold), TimeUnit.NANOSECONDS.toMillis(warm));
+
+        assertTrue(cold >= TimeUnit.MILLISECONDS.toNanos(SETUP_MILLIS + FIRST_RESULT_MILLIS));
+        assertTrue(warm < TimeUnit.MILLISECONDS.toNanos(SETUP_MILLIS));
+    }
+
+    @Test
+    public void takingAScopePreparesItsReplacement() {
+        SessionScopePool<FakeScope> pool = new SessionScopePool<>(manager, scheduler, 2);
+        pool.prewarm();
+        assertEquals(2, pool.available(true));
+        assertEquals(2, pool.available(false));
+
+        FakeScope scope = pool.acquire(false).blockingGet();
+        assertTrue(!scope.controller);
+        assertEquals(2, pool.available(false));
+        assertEquals(2, pool.available(true));
+    }
+
+    @Test
+    public void failedWarmScopeFallsBackToAFreshOne() throws InterruptedException {
+        SessionScopePool<FakeScope> pool = new SessionScopePool<>(manager, scheduler, 1);
+        // Both warm scopes fail, later setups succeed
+        manager.failures.set(2);
+        pool.prewarm();
+        Thread.sleep(2 * SETUP_MILLIS);
+        FakeScope scope = pool.acquire(true).blockingGet();
+        assertTrue(scope.controller);
+        assertEquals(4, manager.created.get());
+    }
+
+    @Test
+    public void clearForgetsPreparedScopes() {
+        SessionScopePool<FakeScope> pool = new SessionScopePool<>(manager, scheduler, 3);
+        pool.prewarm();
+        pool.clear();
+        assertEquals(0, pool.available(true));
+        assertEquals(0, pool.available(false));
+    }
+
+    // From asking the pool for a scope to the first ranging result of a session opened on it
+    private static long timeToFirstResult(SessionScopePool<FakeScope> pool, boolean controller) {
+        long start = System.nanoTime();
+        pool.acquire(controller).flatMap(FakeScope::firstResult).blockingGet();
+        return System.nanoTime() - start;
+    }
+
+    /** Stands in for {@code UwbManagerRx}: setting up a scope takes the time the UWB stack needs. */
+    private static final class FakeUwbManager implements SessionScopePool.ScopeSource<FakeScope> {
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+
+        @Override
+        public Single<FakeScope> create(boolean controller) {
+            created.incrementAndGet();
+            return Single.fromCallable(() -> {
+                Thread.sleep(SETUP_MILLIS);
+                if (failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("UWB stack not ready");
+                }
+                return new FakeScope(controller);
+            });
+        }
+    }
+
+    private static final class FakeScope {
+        final boolean controller;
+
+        FakeScope(boolean controller) {
+            this.controller = controller;
+        }
+
+        Single<Long> firstResult() {
+            return Single.timer(FIRST_RESULT_MILLIS, TimeUnit.MILLISECONDS).map(ignored -> System.nanoTime());
+        }
+    }
+}
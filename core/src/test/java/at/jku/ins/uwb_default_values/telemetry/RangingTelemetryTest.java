@@ -0,0 +1,102 @@
+package at.jku.ins.uwb_default_values.telemetry;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RangingTelemetryTest {
+
+    private long now = 1_000_000_000L;
+    private final RangingTelemetry telemetry = new RangingTelemetry(4, () -> now);
+
+    @Test
+    public void discoveriesOfManyPeersDoNotExhaustTheSlots() {
+        // Far more compatible adverts than slots, as in a crowded room
+        for (int peer = 0; peer < 1000; peer++) {
+            now += 1000;
+            telemetry.onPeerDiscovered(peer, now);
+        }
+        telemetry.onSample(5000, 1, 0, 0, now);
+        TelemetrySnapshot snapshot = telemetry.snapshot();
+        assertEquals(0, snapshot.droppedPeers);
+        assertEquals(4, snapshot.peers.length);
+        assertEquals(1, count(snapshot.peers, 5000));
+        // The oldest discoveries gave way
+        assertEquals(0, count(snapshot.peers, 996));
+        assertEquals(1, count(snapshot.peers, 999));
+    }
+
+    @Test
+    public void rangingPeersKeepTheirSlots() {
+        for (int peer = 1; peer <= 4; peer++) {
+            telemetry.onSample(peer, 1, 0, 0, now);
+        }
+        telemetry.onPeerDiscovered(10, now);
+        telemetry.onSample(11, 1, 0, 0, now);
+        TelemetrySnapshot snapshot = telemetry.snapshot();
+        assertEquals(2, snapshot.droppedPeers);
+        assertArrayEquals(new int[]{1, 2, 3, 4}, sorted(snapshot.peers));
+    }
+
+    @Test
+    public void discoveryIsTimedToTheFirstResult() {
+        telemetry.onPeerDiscovered(7, now);
+        now += 30_000_000L;
+        telemetry.onSample(7, 1, 0, 0, now);
+        telemetry.onSample(7, 1, 0, 0, now + 1);
+        assertEquals(1, telemetry.snapshot().discoveryToFirstResult.count);
+    }
+
+    @Test
+    public void releasedPeersFreeTheirSlots() {
+        for (int peer = 1; peer <= 4; peer++) {
+            telemetry.onSample(peer, 1, 0, 0, now);
+        }
+        telemetry.onPeerLost(2);
+        telemetry.releasePeer(2);
+        telemetry.onSample(5, 1, 0, 0, now);
+        TelemetrySnapshot snapshot = telemetry.snapshot();
+        assertArrayEquals(new int[]{1, 3, 4, 5}, sorted(snapshot.peers));
+        assertEquals(0, snapshot.droppedPeers);
+        assertEquals(1, snapshot.totalLosses);
+
+        telemetry.releasePeers();
+        snapshot = telemetry.snapshot();
+        assertEquals(0, snapshot.peers.length);
+        assertEquals(1, snapshot.totalLosses);
+        assertEquals(5, snapshot.deliveryLatency.count);
+    }
+
+    @Test
+    public void otherResultsAreCountedApartFromLosses() {
+        telemetry.onSample(1, 1, 0, 0, now);
+        telemetry.onOtherResult(1);
+        telemetry.onOtherResult(1);
+        TelemetrySnapshot snapshot = telemetry.snapshot();
+        assertEquals(2, snapshot.otherResults);
+        assertEquals(0, snapshot.totalLosses);
+        assertEquals(0, snapshot.lossCounts[0]);
+
+        telemetry.reset();
+        assertEquals(0, telemetry.snapshot().otherResults);
+    }
+
+    private static int count(int[] values, int value) {
+        int count = 0;
+        for (int v : values) {
+            if (v == value) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int[] sorted(int[] values) {
+        int[] copy = values.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+}